@@ -37,4 +37,112 @@ public @interface AutoProtobuf {
 
   /** Schema ({@code .proto}) files to make available for inclusion, relative to the classpath. */
   String[] include() default {};
+
+  /**
+   * Full names of the messages and enums that are used from the input files, such as {@code
+   * myorg.schema.Person}. If any are given, only the roots and the types that they reach through
+   * their fields, or that enclose a reached type, are generated, and the descriptors embedded in
+   * the generated classes are pruned to match. Services are left out of the pruned input files,
+   * and their outer class names stay the same as without pruning. Requires a protoc version that
+   * supports {@code --descriptor_set_in}.
+   *
+   * <p>By default, every type of the input files is generated.
+   */
+  String[] roots() default {};
+
+  /**
+   * Whether to generate a JSON codec for every message and enum in the input files. For a message
+   * {@code Person}, the codec is a class called {@code PersonJson} in this package that prints and
+   * parses the message according to the proto3 JSON mapping, straight to and from a {@code
+   * Writer}, {@code OutputStream}, {@code Reader} or {@code InputStream}. A class called {@code
+   * AnyJson} handles {@code google.protobuf.Any} values that pack messages from this package or
+   * well-known types.
+   *
+   * <p>Messages from other packages that are referenced by the input files must have JSON codecs
+   * generated as well. The generated code depends on {@code auto-protobuf-runtime}.
+   */
+  boolean json() default false;
+
+  /**
+   * Whether to generate a compiled field mask class for every message in the input files. For a
+   * message {@code Person}, the class is called {@code PersonMask} in this package; it is compiled
+   * once from the paths of a {@code google.protobuf.FieldMask}, and then projects and merges {@code
+   * Person} messages with the same semantics as {@code FieldMaskUtil}, but without any reflection.
+   *
+   * <p>Sub-paths into messages from other packages require those packages to have field masks
+   * generated as well. The generated code depends on {@code auto-protobuf-runtime}.
+   */
+  boolean fieldMask() default false;
+
+  /**
+   * Whether to generate a class called {@code AnyRegistry} in this package, which unpacks {@code
+   * google.protobuf.Any} values that hold messages from the input files and dispatches them to a
+   * handler with one method per message type. Type URLs are resolved with a perfect hash that is
+   * computed at compile time. The generated code depends on {@code auto-protobuf-runtime}.
+   */
+  boolean anyRegistry() default false;
+
+  /**
+   * Whether to generate a mutable {@code <Message>Holder} class for every message, which can be
+   * cleared and parsed into again without allocating new nested objects. Holders are pooled by an
+   * {@code Arena}, and convert to and from the regular message classes. The generated code depends
+   * on {@code auto-protobuf-runtime}.
+   */
+  boolean holders() default false;
+
+  /**
+   * Whether to generate a {@code <Message>Batch} class for every message, which stores many
+   * messages as one column per field and converts directly between the wire format and columns.
+   * Batches of length-delimited messages can be decoded in parallel on a fork/join pool. Message
+   * fields of types from other packages require those packages to have batches generated as well.
+   * The generated code depends on {@code auto-protobuf-runtime}.
+   */
+  boolean columnar() default false;
+
+  /**
+   * Whether to generate a {@code <Message>Records} class for every message, which writes and reads
+   * files of length-delimited messages. Files are split into blocks that are framed by sync markers
+   * and listed in an index, so that a reader can memory-map the blocks and decode them in parallel.
+   * If {@link #columnar()} is set as well, files can be read straight into batches. The generated
+   * code depends on {@code auto-protobuf-runtime}.
+   */
+  boolean recordFiles() default false;
+
+  /**
+   * Whether to generate a JMH {@code <Message>Benchmark} class for every message, which measures
+   * parsing, serialization, size computation and builder round-trips of a random message derived
+   * from a fixed seed. If {@link #holders()} or {@link #columnar()} are set as well, parsing into
+   * holders and batches is measured too.
+   *
+   * <p>Since the benchmarks are generated next to the annotated package, this is meant for packages
+   * in a test or benchmark source set that has {@code jmh-core} and its annotation processor on the
+   * class path. The generated code depends on {@code auto-protobuf-runtime}.
+   */
+  boolean benchmarks() default false;
+
+  /**
+   * Whether to generate a {@code <Message>Metrics} class for every message, which counts the
+   * messages and bytes parsed and serialized through it in striped counters, and registers them
+   * with the {@code MetricsExporter}s found on the class path. The generated {@code AnyRegistry} and
+   * record file readers parse through these counters as well. Counting can be turned off at run
+   * time, in which case the generated code falls back to the regular parsers. The generated code
+   * depends on {@code auto-protobuf-runtime}.
+   */
+  boolean metrics() default false;
+
+  /**
+   * Whether to write a report of the wire layout of every message in the input files, as a file
+   * called {@code wire-layout.json} next to the generated sources of this package. For every
+   * field, the report lists its encoding, the bytes of its tag, whether it is packed, and the
+   * smallest and largest number of bytes that a value takes, so that schema changes can be
+   * checked for their effect on the encoded size.
+   */
+  boolean layoutReport() default false;
+
+  /**
+   * Whether to report wire layout issues as compiler warnings: repeated fields of scalars that
+   * are not packed, and fields with numbers above 15, which need tags of two or more bytes, in
+   * messages that still have field numbers from 1 to 15 free.
+   */
+  boolean layoutWarnings() default false;
 }
@@ -1,8 +0,0 @@
-@AutoProtobuf(
-  input = "myorg/account.proto",
-  include = "google/protobuf/field_mask.proto",
-  protoVersion = "3.4.0"
-)
-package com.myorg.account;
-
-import io.dflemstr.auto.protobuf.AutoProtobuf;
@@ -0,0 +1,11 @@
+@AutoProtobuf(
+  input = "myorg/audit.proto",
+  include = "google/protobuf/timestamp.proto",
+  roots = "myorg.audit.AuditEvent",
+  json = true,
+  fieldMask = true,
+  protoVersion = "3.4.0"
+)
+package com.myorg.audit;
+
+import io.dflemstr.auto.protobuf.AutoProtobuf;
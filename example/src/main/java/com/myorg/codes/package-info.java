@@ -0,0 +1,4 @@
+@AutoProtobuf(input = "myorg/codes.proto", anyRegistry = true, protoVersion = "3.4.0")
+package com.myorg.codes;
+
+import io.dflemstr.auto.protobuf.AutoProtobuf;
@@ -0,0 +1,128 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Timestamp;
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import org.junit.Test;
+
+public class AnyRegistryTest {
+
+  private static final Message[] MESSAGES = {
+    Examples.person(), Examples.address("Lund"), Examples.ledger(), Examples.ledger().getEntry(0)
+  };
+
+  private static final String[] PREFIXES = {"type.googleapis.com", "example.com/types/", ""};
+
+  @Test
+  public void unpacksEveryMessageType() throws InvalidProtocolBufferException {
+    for (final Message message : MESSAGES) {
+      final Any bare =
+          Any.newBuilder()
+              .setTypeUrl(message.getDescriptorForType().getFullName())
+              .setValue(message.toByteString())
+              .build();
+      assertEquals(message, AnyRegistry.unpack(bare));
+      for (final String prefix : PREFIXES) {
+        final Any any = Any.pack(message, prefix);
+        assertTrue(any.getTypeUrl(), AnyRegistry.contains(any.getTypeUrl()));
+        assertEquals(message, AnyRegistry.unpack(any));
+        assertEquals(message, AnyRegistry.parser(any.getTypeUrl()).parseFrom(any.getValue()));
+        assertEquals(message, AnyRegistry.dispatch(any, unpacked -> unpacked));
+      }
+    }
+  }
+
+  @Test
+  public void rejectsTypesOfOtherPackages() {
+    final String[] typeUrls = {
+      "type.googleapis.com/google.protobuf.Timestamp",
+      "type.googleapis.com/myorg.schema.Persons",
+      "type.googleapis.com/myorg.schema.person",
+      "type.googleapis.com/schema.Person",
+      "type.googleapis.com/xmyorg.schema.Person",
+      "type.googleapis.com/myorg.schema.Person/",
+      "type.googleapis.com/myorg.schema.Role",
+      ""
+    };
+    for (final String typeUrl : typeUrls) {
+      final Any any =
+          Any.newBuilder()
+              .setTypeUrl(typeUrl)
+              .setValue(Timestamp.getDefaultInstance().toByteString())
+              .build();
+      assertFalse(typeUrl, AnyRegistry.contains(typeUrl));
+      assertNull(typeUrl, AnyRegistry.parser(typeUrl));
+      try {
+        AnyRegistry.unpack(any);
+        fail("Expected an exception for " + typeUrl);
+      } catch (InvalidProtocolBufferException e) {
+        assertEquals("Cannot find type for url: " + typeUrl, e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void dispatchesToTheMethodOfTheType() throws InvalidProtocolBufferException {
+    final AnyRegistry.Handler<String> handler =
+        new AnyRegistry.Handler<String>() {
+          @Override
+          public String onPerson(final Person message) {
+            return "person " + message.getName();
+          }
+
+          @Override
+          public String onLedger_Entry(final Ledger.Entry message) {
+            return "entry " + message.getAmount();
+          }
+
+          @Override
+          public String defaultCase(final Message message) {
+            return "other " + message.getDescriptorForType().getName();
+          }
+
+          @Override
+          public String unknownType(final Any any) {
+            return "unknown " + any.getTypeUrl();
+          }
+        };
+
+    assertEquals("person Report", AnyRegistry.dispatch(Any.pack(person("Report")), handler));
+    assertEquals(
+        "entry 50", AnyRegistry.dispatch(Any.pack(Examples.ledger().getEntry(1)), handler));
+    assertEquals("other Ledger", AnyRegistry.dispatch(Any.pack(Examples.ledger()), handler));
+    assertEquals(
+        "other Address", AnyRegistry.dispatch(Any.pack(Examples.address("Lund")), handler));
+    assertEquals(
+        "unknown type.googleapis.com/google.protobuf.Timestamp",
+        AnyRegistry.dispatch(Any.pack(Timestamp.getDefaultInstance()), handler));
+  }
+
+  @Test
+  public void reportsMalformedMessages() {
+    final Any any =
+        Any.newBuilder()
+            .setTypeUrl("type.googleapis.com/myorg.schema.Person")
+            .setValue(ByteString.copyFrom(new byte[] {10, 5, 'a'}))
+            .build();
+    try {
+      AnyRegistry.dispatch(any, message -> message);
+      fail("Expected an exception");
+    } catch (InvalidProtocolBufferException e) {
+      // Expected
+    }
+  }
+
+  private static Person person(final String name) {
+    return Person.newBuilder().setName(name).build();
+  }
+}
@@ -0,0 +1,77 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.Duration;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.JsonFormat;
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+public class BenchmarkTest {
+
+  @Test
+  public void createsTheSameMessageForTheSameSeed() {
+    final Person person = PersonBenchmark.random(new Random(7), 0);
+    assertEquals(person, PersonBenchmark.random(new Random(7), 0));
+    assertNotEquals(person, PersonBenchmark.random(new Random(8), 0));
+  }
+
+  @Test
+  public void createsValidMessages() throws IOException {
+    // Any values hold random well-known types
+    final JsonFormat.Printer printer =
+        JsonFormat.printer()
+            .usingTypeRegistry(
+                JsonFormat.TypeRegistry.newBuilder()
+                    .add(Timestamp.getDescriptor())
+                    .add(Duration.getDescriptor())
+                    .add(StringValue.getDescriptor())
+                    .build())
+            .omittingInsignificantWhitespace();
+    int filled = 0;
+    for (int seed = 0; seed < 50; seed++) {
+      final Person person = PersonBenchmark.random(new Random(seed), 0);
+      assertEquals(person, PersonJson.parse(printer.print(person)));
+      assertEquals(printer.print(person), PersonJson.print(person));
+      if (person.hasCreated() && person.hasAttributes() && person.hasExtension()) {
+        filled++;
+      }
+
+      final Ledger ledger = LedgerBenchmark.random(new Random(seed), 0);
+      assertTrue(ledger.isInitialized());
+      assertEquals(ledger, LedgerJson.parse(printer.print(ledger)));
+    }
+    assertTrue(filled > 0);
+  }
+
+  @Test
+  public void measuresTheRandomMessage() throws InvalidProtocolBufferException {
+    final PersonBenchmark benchmark = new PersonBenchmark();
+    benchmark.seed = 3;
+    benchmark.setUp();
+    final Person message = benchmark.parse();
+    assertEquals(PersonBenchmark.random(new Random(3), 0), message);
+    assertEquals(message, Person.parseFrom(benchmark.serialize()));
+    assertEquals(message, benchmark.builderRoundTrip());
+    assertEquals(message.getSerializedSize(), benchmark.serializedSize());
+    assertEquals(message, benchmark.parseHolder().toMessage());
+    assertEquals(message, Person.parseFrom(benchmark.serializeHolder()));
+    assertEquals(message, Person.parseFrom(benchmark.parseBatch().toByteArray(0)));
+  }
+
+  @Test
+  public void keepsTheReusedHolderAndBatchPerThread() {
+    assertEquals(Scope.Thread, PersonBenchmark.class.getAnnotation(State.class).value());
+    assertEquals(Scope.Thread, LedgerBenchmark.class.getAnnotation(State.class).value());
+  }
+}
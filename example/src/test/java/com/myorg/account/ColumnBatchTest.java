@@ -0,0 +1,225 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ColumnBatchTest {
+
+  @Test
+  public void encodesRowsLikeTheMessageClasses() throws InvalidProtocolBufferException {
+    final List<Person> people = people(50);
+    final PersonBatch batch = new PersonBatch();
+    for (final Person person : people) {
+      batch.appendRow(person.toByteArray());
+    }
+    assertEquals(people.size(), batch.rows());
+    for (int row = 0; row < people.size(); row++) {
+      final Person person = people.get(row);
+      assertEquals(person.getSerializedSize(), batch.getSerializedSize(row));
+      assertEquals(person, Person.parseFrom(batch.toByteArray(row)));
+    }
+
+    final Ledger ledger = Examples.ledger();
+    final LedgerBatch ledgers = new LedgerBatch();
+    ledgers.appendRow(ledger.toByteString());
+    ledgers.appendEmptyRow();
+    assertEquals(ledger, Ledger.parseFrom(ledgers.toByteArray(0)));
+    assertEquals(0, ledgers.toByteArray(1).length);
+  }
+
+  @Test
+  public void encodesDeeplyNestedRows() throws IOException {
+    Person person = Person.newBuilder().setName("Root").build();
+    for (int i = 0; i < 60; i++) {
+      person =
+          Person.newBuilder()
+              .setId(i)
+              .setManager(person)
+              .addReports(Person.newBuilder().setName("Report " + i))
+              .build();
+    }
+    final PersonBatch batch = new PersonBatch();
+    batch.appendRow(person.toByteArray());
+    batch.appendRow(Examples.person().toByteArray());
+    assertArrayEquals(person.toByteArray(), batch.toByteArray(0));
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    batch.writeRow(1, output);
+    batch.writeRow(0, output);
+    output.flush();
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Examples.person().writeTo(expected);
+    person.writeTo(expected);
+    assertArrayEquals(expected.toByteArray(), bytes.toByteArray());
+  }
+
+  @Test
+  public void limitsTheNestingDepthLikeTheMessageClasses() throws IOException {
+    final byte[] deepest = Examples.nestedManagers(100);
+    final PersonBatch batch = new PersonBatch();
+    batch.appendRow(deepest);
+    assertEquals(Person.parseFrom(deepest), Person.parseFrom(batch.toByteArray(0)));
+
+    for (final int depth : new int[] {101, 5000}) {
+      try {
+        batch.appendRow(Examples.nestedManagers(depth));
+        fail("Decoded a message nested " + depth + " levels deep");
+      } catch (InvalidProtocolBufferException e) {
+        // Expected
+      }
+      assertEquals(1, batch.rows());
+      assertArrayEquals(deepest, batch.toByteArray(0));
+    }
+  }
+
+  @Test
+  public void storesOneColumnPerField() throws InvalidProtocolBufferException {
+    final Person person = Examples.person();
+    final PersonBatch batch = new PersonBatch();
+    batch.appendRow(Person.getDefaultInstance().toByteArray());
+    batch.appendRow(person.toByteArray());
+
+    assertEquals("", batch.getNameColumn().getString(0));
+    assertEquals(person.getName(), batch.getNameColumn().getString(1));
+    assertEquals(person.getId(), batch.getIdColumn().get(1));
+    assertEquals(person.getRoleValue(), batch.getRoleColumn().get(1));
+    assertEquals(person.getAvatar(), batch.getAvatarColumn().getBytes(1));
+
+    assertEquals(0, batch.getScoresOffsets().length(0));
+    assertEquals(person.getScoresCount(), batch.getScoresOffsets().length(1));
+    final int firstScore = batch.getScoresOffsets().start(1);
+    assertEquals(person.getScores(1), batch.getScoresColumn().get(firstScore + 1));
+
+    assertEquals(Person.ContactCase.CONTACT_NOT_SET, batch.getContactCase(0));
+    assertEquals(Person.ContactCase.PHONE, batch.getContactCase(1));
+    assertFalse(batch.hasMailbox(1));
+
+    assertFalse(batch.hasManager(0));
+    assertTrue(batch.hasManager(1));
+    final int managerRow = batch.getManagerRows().get(1);
+    assertEquals(
+        person.getManager().getName(),
+        batch.getManagerBatch().getNameColumn().getString(managerRow));
+
+    assertEquals(person.getReportsCount(), batch.getReportsOffsets().length(1));
+    final int firstReport = batch.getReportsOffsets().start(1);
+    assertEquals(
+        person.getReports(0), Person.parseFrom(batch.getReportsBatch().toByteArray(firstReport)));
+  }
+
+  @Test
+  public void decodesInParallelLikeSequentially() throws IOException {
+    final List<Person> people = people(2000);
+    final List<byte[]> encoded = new ArrayList<>();
+    final ByteArrayOutputStream delimited = new ByteArrayOutputStream();
+    for (final Person person : people) {
+      encoded.add(person.toByteArray());
+      person.writeDelimitedTo(delimited);
+    }
+
+    final PersonBatch parallel = PersonBatch.decodeParallel(encoded);
+    final PersonBatch parallelDelimited =
+        PersonBatch.decodeDelimitedParallel(delimited.toByteArray());
+    final PersonBatch sequential = new PersonBatch();
+    final ByteArrayInputStream in = new ByteArrayInputStream(delimited.toByteArray());
+    assertEquals(people.size(), sequential.appendDelimited(in));
+
+    for (final PersonBatch batch : new PersonBatch[] {parallel, parallelDelimited, sequential}) {
+      assertEquals(people.size(), batch.rows());
+      for (int row = 0; row < people.size(); row++) {
+        assertEquals(people.get(row), Person.parseFrom(batch.toByteArray(row)));
+      }
+    }
+
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    sequential.writeDelimitedTo(written);
+    final PersonBatch reread = new PersonBatch();
+    reread.appendDelimited(new ByteArrayInputStream(written.toByteArray()));
+    for (int row = 0; row < people.size(); row++) {
+      assertArrayEquals(sequential.toByteArray(row), reread.toByteArray(row));
+    }
+  }
+
+  @Test
+  public void appendsAndTruncatesBatches() throws InvalidProtocolBufferException {
+    final List<Person> people = people(20);
+    final PersonBatch first = new PersonBatch();
+    final PersonBatch second = new PersonBatch();
+    for (int i = 0; i < people.size(); i++) {
+      (i < 10 ? first : second).appendRow(people.get(i).toByteArray());
+    }
+    first.appendAll(second);
+    assertEquals(people.size(), first.rows());
+    for (int row = 0; row < people.size(); row++) {
+      assertEquals(people.get(row), Person.parseFrom(first.toByteArray(row)));
+    }
+
+    first.truncate(5);
+    first.appendRow(people.get(19).toByteArray());
+    assertEquals(6, first.rows());
+    assertEquals(people.get(4), Person.parseFrom(first.toByteArray(4)));
+    assertEquals(people.get(19), Person.parseFrom(first.toByteArray(5)));
+
+    first.clear();
+    assertEquals(0, first.rows());
+  }
+
+  @Test
+  public void leavesTheBatchUnchangedIfDecodingFails() throws InvalidProtocolBufferException {
+    final Person person = Examples.person();
+    final byte[] encoded = person.toByteArray();
+    final byte[] truncated = new byte[encoded.length - 3];
+    System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+    final PersonBatch batch = new PersonBatch();
+    batch.appendRow(encoded);
+    try {
+      batch.appendRow(truncated);
+      fail("Expected an exception");
+    } catch (InvalidProtocolBufferException e) {
+      // Expected
+    }
+    assertEquals(1, batch.rows());
+    batch.appendRow(encoded);
+    assertEquals(2, batch.rows());
+    assertEquals(person, Person.parseFrom(batch.toByteArray(0)));
+    assertEquals(person, Person.parseFrom(batch.toByteArray(1)));
+  }
+
+  private static List<Person> people(final int count) {
+    final Person person = Examples.person();
+    final List<Person> people = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      switch (i % 4) {
+        case 0:
+          people.add(person);
+          break;
+        case 1:
+          people.add(person.getReports(0).toBuilder().setId(i).build());
+          break;
+        case 2:
+          people.add(Person.getDefaultInstance());
+          break;
+        default:
+          people.add(person.toBuilder().setName("Person " + i).clearAddress().addScores(i).build());
+          break;
+      }
+    }
+    return people;
+  }
+}
@@ -0,0 +1,38 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.myorg.account.Account.Person;
+import io.dflemstr.auto.protobuf.runtime.metrics.MessageMetrics;
+import io.dflemstr.auto.protobuf.runtime.metrics.MetricsRegistry;
+import java.io.IOException;
+import org.junit.Test;
+
+/** Runs in a separate JVM in which metrics are disabled with a system property. */
+public class DisabledMetricsTest {
+
+  @Test
+  public void neitherRegistersNorCounts() throws IOException {
+    assertFalse(MessageMetrics.ENABLED);
+    assertSame(Person.parser(), PersonMetrics.PARSER);
+    assertNotSame(PersonMetrics.METRICS, MessageMetrics.forType("myorg.schema.Person"));
+
+    final Person person = Examples.person();
+    final byte[] encoded = PersonMetrics.toByteArray(person);
+    PersonMetrics.PARSER.parseFrom(encoded);
+    new PersonHolder().mergeFrom(encoded);
+    new PersonBatch().appendRow(encoded);
+    PersonJson.parse(PersonJson.print(person));
+
+    final MessageMetrics metrics = PersonMetrics.METRICS;
+    assertEquals(0, metrics.parseCount());
+    assertEquals(0, metrics.serializeCount());
+    assertEquals(0, metrics.jsonParseCount());
+    assertEquals(0, metrics.jsonPrintCount());
+    assertTrue(MetricsRegistry.all().isEmpty());
+  }
+}
@@ -0,0 +1,124 @@
+package com.myorg.account;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Duration;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.UInt32Value;
+import com.google.protobuf.Value;
+import com.google.protobuf.WireFormat;
+import com.google.protobuf.util.JsonFormat;
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import java.io.IOException;
+
+/** Messages that use every feature of the example schemas. */
+final class Examples {
+
+  static final JsonFormat.TypeRegistry TYPE_REGISTRY =
+      JsonFormat.TypeRegistry.newBuilder()
+          .add(Account.getDescriptor().getMessageTypes())
+          .add(LedgerOuterClass.getDescriptor().getMessageTypes())
+          .build();
+
+  private Examples() {
+    // Prevent instantiation
+  }
+
+  static Person.Address address(final String city) {
+    return Person.Address.newBuilder()
+        .addLines("Main Street 1")
+        .addLines("c/o \"Someone\"")
+        .setCity(city)
+        .setCountryCode("SE")
+        .build();
+  }
+
+  static Person person() {
+    final Person report =
+        Person.newBuilder()
+            .setName("Report")
+            .setId(2)
+            .setRole(Person.Role.ROLE_MEMBER)
+            .setMailbox(address("Malmö"))
+            .build();
+    return Person.newBuilder()
+        .setName("Ada\né😀")
+        .setFieldMask(FieldMask.newBuilder().addPaths("name").addPaths("address.city"))
+        .setId(Long.MIN_VALUE)
+        .setRole(Person.Role.ROLE_OWNER)
+        .setAddress(address("Stockholm"))
+        .addEmails("ada@example.com")
+        .addEmails("")
+        .addScores(-1)
+        .addScores(Integer.MAX_VALUE)
+        .putLabels("team", "core")
+        .putLabels("", "empty key")
+        .putPreviousAddresses(-3, address("Uppsala"))
+        .putPreviousAddresses(7, Person.Address.getDefaultInstance())
+        .setPhone("+46 8 123")
+        .setBalance(-0.5)
+        .setAvatar(ByteString.copyFrom(new byte[] {0, -1, 2, -3, 4}))
+        .setActive(true)
+        .setCreated(Timestamp.newBuilder().setSeconds(1500000000L).setNanos(120000000))
+        .setSessionTimeout(Duration.newBuilder().setSeconds(-90).setNanos(-5000))
+        .setAge(UInt32Value.newBuilder().setValue(-1))
+        .setAttributes(
+            Struct.newBuilder()
+                .putFields("score", Value.newBuilder().setNumberValue(2.5).build())
+                .putFields("nothing", Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+                .putFields(
+                    "list",
+                    Value.newBuilder()
+                        .setListValue(
+                            ListValue.newBuilder()
+                                .addValues(Value.newBuilder().setBoolValue(false))
+                                .addValues(Value.newBuilder().setStringValue("s")))
+                        .build()))
+        .setExtension(Any.pack(ledger()))
+        .setManager(Person.newBuilder().setName("Manager").setDelegateRole(Person.Role.ROLE_OWNER))
+        .addReports(report)
+        .addReports(Person.getDefaultInstance())
+        .addRoles(Person.Role.ROLE_MEMBER)
+        .addRolesValue(42)
+        .putTeamRoles("core", Person.Role.ROLE_OWNER)
+        .build();
+  }
+
+  static Ledger ledger() {
+    return Ledger.newBuilder()
+        .setAccount("SE-1234")
+        .setBalance(-100)
+        .addEntry(Ledger.Entry.newBuilder().setAmount(-150).setMemo("rent"))
+        .addEntry(Ledger.Entry.newBuilder().setAmount(50))
+        .addTags(1)
+        .addTags(-2)
+        .addChecksums(-1L)
+        .addChecksums(0L)
+        .setParent(Ledger.newBuilder().setAccount("SE-0001").setBalance(0).setCurrency("SEK"))
+        .setNote("överföring")
+        .build();
+  }
+
+  /** Encodes a person with the given number of nested managers. */
+  static byte[] nestedManagers(final int depth) throws IOException {
+    final int tagSize = CodedOutputStream.computeTagSize(Person.MANAGER_FIELD_NUMBER);
+    final int[] sizes = new int[depth + 1];
+    for (int i = depth - 1; i >= 0; i--) {
+      sizes[i] = tagSize + CodedOutputStream.computeUInt32SizeNoTag(sizes[i + 1]) + sizes[i + 1];
+    }
+    final byte[] result = new byte[sizes[0]];
+    final CodedOutputStream output = CodedOutputStream.newInstance(result);
+    for (int i = 1; i <= depth; i++) {
+      output.writeTag(Person.MANAGER_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+      output.writeUInt32NoTag(sizes[i]);
+    }
+    output.checkNoSpaceLeft();
+    return result;
+  }
+}
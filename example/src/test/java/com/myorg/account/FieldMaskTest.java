@@ -0,0 +1,204 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Message;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.FieldMaskUtil;
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import io.dflemstr.auto.protobuf.runtime.mask.MergeOptions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class FieldMaskTest {
+
+  private static final String[][] PERSON_MASKS = {
+    {},
+    {"name"},
+    {"id", "role", "balance", "avatar", "active"},
+    {"address"},
+    {"address.city"},
+    {"address", "address.lines"},
+    {"emails", "scores", "roles", "reports"},
+    {"labels", "previous_addresses", "team_roles"},
+    {"phone"},
+    {"mailbox"},
+    {"delegate_role"},
+    {"mailbox.city", "phone"},
+    {"field_mask", "created", "session_timeout", "age", "attributes", "extension"},
+    {"manager"},
+    {"manager.name", "manager.reports"},
+    {"manager.manager", "manager.id"}
+  };
+
+  private static final String[][] LEDGER_MASKS = {
+    {"account", "balance"}, {"currency"}, {"entry", "tags", "checksums"}, {"parent"},
+    {"parent.currency"}, {"parent.parent"}
+  };
+
+  @Test
+  public void mergesLikeFieldMaskUtil() {
+    final Person source = Examples.person();
+    final Person destination = otherPerson();
+    for (final String[] paths : PERSON_MASKS) {
+      final FieldMask mask = FieldMask.newBuilder().addAllPaths(Arrays.asList(paths)).build();
+      final PersonMask compiled = PersonMask.compile(mask);
+      for (int options = 0; options < 8; options++) {
+        for (final Person[] pair :
+            new Person[][] {
+              {source, destination}, {destination, source}, {Person.getDefaultInstance(), source},
+              {source, Person.getDefaultInstance()}
+            }) {
+          final Person.Builder expected = pair[1].toBuilder();
+          expectedMerge(mask, pair[0], expected, options);
+          final Person.Builder actual = pair[1].toBuilder();
+          compiled.merge(pair[0], actual, mergeOptions(options));
+          assertEquals(mask + " with options " + options, expected.build(), actual.build());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void mergesProto2MessagesLikeFieldMaskUtil() {
+    final Ledger source = Examples.ledger();
+    final Ledger destination =
+        Ledger.newBuilder()
+            .setAccount("SE-9")
+            .setBalance(3)
+            .setCurrency("NOK")
+            .addTags(9)
+            .setParent(Ledger.newBuilder().setAccount("p").setBalance(1).setCurrency("DKK"))
+            .build();
+    for (final String[] paths : LEDGER_MASKS) {
+      final FieldMask mask = FieldMask.newBuilder().addAllPaths(Arrays.asList(paths)).build();
+      final LedgerMask compiled = LedgerMask.compile(mask);
+      for (int options = 0; options < 8; options++) {
+        for (final Ledger[] pair :
+            new Ledger[][] {
+              {source, destination}, {destination, source}, {Ledger.getDefaultInstance(), source}
+            }) {
+          final Ledger.Builder expected = pair[1].toBuilder();
+          expectedMerge(mask, pair[0], expected, options);
+          final Ledger.Builder actual = pair[1].toBuilder();
+          compiled.merge(pair[0], actual, mergeOptions(options));
+          assertEquals(
+              mask + " with options " + options, expected.buildPartial(), actual.buildPartial());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void projectsLikeFieldMaskUtil() {
+    final Person source = Examples.person();
+    for (final String[] paths : PERSON_MASKS) {
+      final FieldMask mask = FieldMask.newBuilder().addAllPaths(Arrays.asList(paths)).build();
+      final Person.Builder expected = Person.newBuilder();
+      expectedMerge(mask, source, expected, 0);
+      assertEquals(mask.toString(), expected.build(), PersonMask.compile(mask).project(source));
+    }
+  }
+
+  @Test
+  public void copiesOnlyTheActiveMemberOfAOneof() {
+    final Person source = Person.newBuilder().setDelegateRole(Person.Role.ROLE_MEMBER).build();
+    final PersonMask mask = PersonMask.compile(Arrays.asList("phone", "delegate_role"));
+
+    final Person.Builder kept = Person.newBuilder().setPhone("1");
+    mask.merge(source, kept);
+    assertEquals(Person.Role.ROLE_MEMBER, kept.getDelegateRole());
+
+    final Person.Builder cleared = Person.newBuilder().setPhone("1");
+    mask.merge(Person.getDefaultInstance(), cleared);
+    assertEquals("1", cleared.getPhone());
+    mask.merge(
+        Person.getDefaultInstance(),
+        cleared,
+        MergeOptions.defaults().withReplacePrimitiveFields(true));
+    assertEquals(Person.ContactCase.CONTACT_NOT_SET, cleared.getContactCase());
+  }
+
+  @Test
+  public void rejectsInvalidPaths() {
+    final String[] paths = {
+      "", "nope", "name.length", "address.nope", "emails.x", "created.seconds", "labels.team"
+    };
+    for (final String path : paths) {
+      try {
+        PersonMask.compile(Arrays.asList(path));
+        fail("Expected an exception for " + path);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  private static Person otherPerson() {
+    return Person.newBuilder()
+        .setName("Other")
+        .setId(5)
+        .setAddress(Person.Address.newBuilder().addLines("Side Street 2"))
+        .addEmails("other@example.com")
+        .addScores(8)
+        .putLabels("team", "edge")
+        .putLabels("x", "y")
+        .setMailbox(Examples.address("Lund"))
+        .setCreated(Timestamp.newBuilder().setNanos(4))
+        .setManager(
+            Person.newBuilder()
+                .setId(9)
+                .addReports(Person.newBuilder().setName("r"))
+                .setManager(Person.newBuilder().setName("Top")))
+        .addRoles(Person.Role.ROLE_OWNER)
+        .build();
+  }
+
+  /**
+   * Merges with {@link FieldMaskUtil}, adjusted for the documented differences of compiled masks:
+   * scalar oneof members that are not set in the source are never copied, but only cleared if
+   * primitive fields are replaced, and sub-paths into a message that neither side has are skipped.
+   */
+  private static void expectedMerge(
+      final FieldMask mask, final Message source, final Message.Builder destination, final int o) {
+    final FieldMask.Builder kept = FieldMask.newBuilder();
+    final List<FieldDescriptor> inactive = new ArrayList<>();
+    for (final String path : mask.getPathsList()) {
+      final FieldDescriptor field =
+          source.getDescriptorForType().findFieldByName(path.split("\\.", 2)[0]);
+      if (field.getContainingOneof() != null
+          && field.getJavaType() != FieldDescriptor.JavaType.MESSAGE
+          && !source.hasField(field)) {
+        inactive.add(field);
+      } else if (!path.contains(".") || source.hasField(field) || destination.hasField(field)) {
+        kept.addPaths(path);
+      }
+    }
+
+    final FieldMaskUtil.MergeOptions options = new FieldMaskUtil.MergeOptions();
+    options.setReplaceMessageFields((o & 1) != 0);
+    options.setReplaceRepeatedFields((o & 2) != 0);
+    options.setReplacePrimitiveFields((o & 4) != 0);
+    FieldMaskUtil.merge(kept.build(), source, destination, options);
+    if (options.replacePrimitiveFields()) {
+      for (final FieldDescriptor field : inactive) {
+        if (destination.hasField(field)) {
+          destination.clearField(field);
+        }
+      }
+    }
+  }
+
+  private static MergeOptions mergeOptions(final int o) {
+    return MergeOptions.defaults()
+        .withReplaceMessageFields((o & 1) != 0)
+        .withReplaceRepeatedFields((o & 2) != 0)
+        .withReplacePrimitiveFields((o & 4) != 0);
+  }
+}
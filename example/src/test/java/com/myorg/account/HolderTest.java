@@ -0,0 +1,157 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import io.dflemstr.auto.protobuf.runtime.arena.Arena;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class HolderTest {
+
+  @Test
+  public void readsAndWritesTheWireFormatOfTheMessageClasses() throws IOException {
+    final Person person = Examples.person();
+    final PersonHolder holder = new PersonHolder();
+    holder.mergeFrom(person.toByteArray());
+    assertEquals(person, holder.toMessage());
+    assertEquals(person.getSerializedSize(), holder.getSerializedSize());
+    assertEquals(person, Person.parseFrom(holder.toByteArray()));
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    holder.writeTo(out);
+    assertEquals(person, Person.parseFrom(out.toByteArray()));
+
+    final Ledger ledger = Examples.ledger();
+    final LedgerHolder ledgerHolder = new LedgerHolder();
+    ledgerHolder.mergeFrom(ledger.toByteString());
+    assertEquals(ledger, ledgerHolder.toMessage());
+    assertEquals(ledger, Ledger.parseFrom(ledgerHolder.toByteArray()));
+  }
+
+  @Test
+  public void convertsToAndFromTheMessageClasses() {
+    final Person person = Examples.person();
+    assertEquals(person, new PersonHolder().copyFrom(person).toMessage());
+    assertEquals(Person.getDefaultInstance(), new PersonHolder().toMessage());
+
+    final Ledger ledger = Examples.ledger();
+    final LedgerHolder holder = new LedgerHolder().copyFrom(ledger);
+    assertEquals(ledger, holder.toMessage());
+    assertEquals(ledger.getEntryCount(), holder.getEntryList().size());
+    assertEquals(ledger.getEntry(0).getAmount(), holder.getEntryList().get(0).getAmount());
+  }
+
+  @Test
+  public void mergesLikeTheMessageClasses() throws InvalidProtocolBufferException {
+    final Person first = Examples.person();
+    final Person second = Examples.person().getReports(0);
+    final PersonHolder holder = new PersonHolder();
+    holder.mergeFrom(first.toByteArray());
+    holder.mergeFrom(second.toByteArray());
+    assertEquals(first.toBuilder().mergeFrom(second).build(), holder.toMessage());
+  }
+
+  @Test
+  public void readsPackedAndUnpackedRepeatedFields() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    // Person.scores is not packed, but parsers have to accept both encodings
+    output.writeSInt32(7, 3);
+    output.writeTag(7, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+    output.writeUInt32NoTag(
+        CodedOutputStream.computeSInt32SizeNoTag(-4)
+            + CodedOutputStream.computeSInt32SizeNoTag(5));
+    output.writeSInt32NoTag(-4);
+    output.writeSInt32NoTag(5);
+    output.flush();
+
+    final PersonHolder holder = new PersonHolder();
+    holder.mergeFrom(bytes.toByteArray());
+    assertEquals(Person.parseFrom(bytes.toByteArray()), holder.toMessage());
+    assertEquals(3, holder.getScoresList().size());
+  }
+
+  @Test
+  public void limitsTheNestingDepthLikeTheMessageClasses() throws IOException {
+    final byte[] deepest = Examples.nestedManagers(100);
+    final PersonHolder holder = new PersonHolder();
+    holder.mergeFrom(deepest);
+    assertEquals(Person.parseFrom(deepest), holder.toMessage());
+
+    for (final int depth : new int[] {101, 100000}) {
+      final byte[] tooDeep = Examples.nestedManagers(depth);
+      try {
+        Person.parseFrom(tooDeep);
+        fail("Person parsed a message nested " + depth + " levels deep");
+      } catch (InvalidProtocolBufferException e) {
+        // Expected
+      }
+      try {
+        new PersonHolder().mergeFrom(tooDeep);
+        fail("PersonHolder parsed a message nested " + depth + " levels deep");
+      } catch (InvalidProtocolBufferException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void reusesNestedHoldersAfterRelease() throws InvalidProtocolBufferException {
+    final Person large = Examples.person();
+    final Person small =
+        Person.newBuilder()
+            .setName("Small")
+            .setManager(Person.newBuilder().setId(1))
+            .addReports(Person.newBuilder().setName("Only"))
+            .putPreviousAddresses(5, Examples.address("Lund"))
+            .build();
+
+    final Arena arena = Arena.create();
+    final PersonHolder holder = PersonHolder.allocate(arena);
+    holder.mergeFrom(large.toByteArray());
+    final PersonHolder manager = holder.getManager();
+    final PersonHolder firstReport = holder.getReportsList().get(0);
+    final List<Person_AddressHolder> previousAddresses =
+        new ArrayList<>(holder.getPreviousAddressesMap().values());
+    arena.release();
+
+    final PersonHolder recycled = PersonHolder.allocate(arena);
+    assertSame(holder, recycled);
+    assertEquals(Person.getDefaultInstance(), recycled.toMessage());
+    assertFalse(recycled.hasManager());
+
+    recycled.mergeFrom(small.toByteString());
+    assertEquals(small, recycled.toMessage());
+    assertSame(manager, recycled.getManager());
+    assertSame(firstReport, recycled.getReportsList().get(0));
+    final Person_AddressHolder previousAddress = recycled.getPreviousAddressesMap().get(5);
+    assertTrue(previousAddresses.stream().anyMatch(address -> address == previousAddress));
+  }
+
+  @Test
+  public void keepsTheActiveMemberOfAOneof() {
+    final PersonHolder holder = new PersonHolder();
+    holder.mutableMailbox().setCity("Lund");
+    holder.setPhone("1");
+    assertEquals(Person.ContactCase.PHONE, holder.getContactCase());
+    assertFalse(holder.hasMailbox());
+    assertEquals(Person.newBuilder().setPhone("1").build(), holder.toMessage());
+
+    holder.setAvatar(ByteString.copyFromUtf8("a")).clearContact();
+    assertEquals(
+        Person.newBuilder().setAvatar(ByteString.copyFromUtf8("a")).build(), holder.toMessage());
+  }
+}
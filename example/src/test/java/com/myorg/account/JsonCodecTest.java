@@ -0,0 +1,190 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import io.dflemstr.auto.protobuf.runtime.json.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+public class JsonCodecTest {
+
+  private static final JsonFormat.Printer PRINTER =
+      JsonFormat.printer().usingTypeRegistry(Examples.TYPE_REGISTRY);
+  private static final JsonFormat.Parser PARSER =
+      JsonFormat.parser().usingTypeRegistry(Examples.TYPE_REGISTRY);
+
+  @Test
+  public void printsLikeJsonFormat() throws IOException {
+    final Person person = Examples.person();
+    assertEquals(PRINTER.omittingInsignificantWhitespace().print(person), PersonJson.print(person));
+    assertEquals(
+        PRINTER.omittingInsignificantWhitespace().print(Person.getDefaultInstance()),
+        PersonJson.print(Person.getDefaultInstance()));
+
+    final Ledger ledger = Examples.ledger();
+    assertEquals(PRINTER.omittingInsignificantWhitespace().print(ledger), LedgerJson.print(ledger));
+
+    final Person negativeZero = Person.newBuilder().setBalance(-0.0).build();
+    assertEquals(
+        PRINTER.omittingInsignificantWhitespace().print(negativeZero),
+        PersonJson.print(negativeZero));
+  }
+
+  @Test
+  public void parsesWhatJsonFormatPrints() throws IOException {
+    final Person person = Examples.person();
+    assertEquals(person, PersonJson.parse(PRINTER.print(person)));
+    assertEquals(person, PersonJson.parse(PRINTER.preservingProtoFieldNames().print(person)));
+    // Printing default values sets the optional fields of proto2 messages packed into Any
+    final String defaults = PRINTER.includingDefaultValueFields().print(person);
+    final Person.Builder expected = Person.newBuilder();
+    PARSER.merge(defaults, expected);
+    assertEquals(expected.build(), PersonJson.parse(defaults));
+
+    final Ledger ledger = Examples.ledger();
+    assertEquals(ledger, LedgerJson.parse(PRINTER.print(ledger)));
+  }
+
+  @Test
+  public void jsonFormatParsesWhatIsPrinted() throws IOException {
+    final Person person = Examples.person();
+    final Person.Builder builder = Person.newBuilder();
+    PARSER.merge(PersonJson.print(person), builder);
+    assertEquals(person, builder.build());
+  }
+
+  @Test
+  public void roundTripsThroughStreams() throws IOException {
+    final Person person = Examples.person();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PersonJson.print(person, out);
+    assertEquals(person, PersonJson.parse(new ByteArrayInputStream(out.toByteArray())));
+  }
+
+  @Test
+  public void parsesUnusualInputsLikeJsonFormat() throws IOException {
+    final String[] inputs = {
+      "{\"id\": \"-12\", \"balance\": \"NaN\", \"active\": null, \"scores\": [1, \"2\"]}",
+      "{\"role\": 2, \"roles\": [\"ROLE_OWNER\", 7], \"teamRoles\": {\"a\": \"ROLE_MEMBER\"}}",
+      "{\"delegateRole\": \"ROLE_MEMBER\", \"previousAddresses\": {\"-1\": {\"city\": \"x\"}}}",
+      "{\"extension\": {\"balance\": \"5\", \"@type\": \"type.googleapis.com/myorg.schema.Ledger\","
+          + " \"account\": \"a\"}, \"age\": 3, \"attributes\": {\"a\": [null, {}]}}",
+      "{\"created\": \"1970-01-01T00:00:00.5+01:00\", \"sessionTimeout\": \"-1.000000001s\"}",
+      "{\"fieldMask\": \"a.fooBar,b\", \"avatar\": \"AP8C_Q==\", \"manager\": {\"phone\": \"\"}}",
+      "{\"phone\": null, \"mailbox\": {\"city\": \"x\"}}",
+      "{\"active\": \"true\"}",
+      "{\"active\": \"false\", \"attributes\": {\"a\": \"true\"}}"
+    };
+    for (final String input : inputs) {
+      final Person.Builder expected = Person.newBuilder();
+      PARSER.merge(input, expected);
+      assertEquals(input, expected.build(), PersonJson.parse(input));
+    }
+  }
+
+  @Test
+  public void rejectsUnknownFieldsUnlessIgnoring() throws IOException {
+    final String input = "{\"name\": \"a\", \"unknown\": {\"nested\": [1, 2]}}";
+    try {
+      PersonJson.parse(input);
+      fail("Expected an exception");
+    } catch (InvalidProtocolBufferException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("unknown"));
+    }
+
+    final Person.Builder expected = Person.newBuilder();
+    PARSER.ignoringUnknownFields().merge(input, expected);
+    assertEquals(expected.build(), PersonJson.parse(input, true));
+  }
+
+  @Test
+  public void rejectsTheSameInvalidValuesAsJsonFormat() throws IOException {
+    final String[] inputs = {
+      "{\"id\": 1.5}", "{\"scores\": [2147483648]}", "{\"role\": \"ROLE_NONE\"}",
+      "{\"age\": -1}", "{\"created\": \"yesterday\"}", "{\"name\": {}}",
+      "{\"extension\": {\"@type\": \"type.googleapis.com/unknown.Type\"}}",
+      "{\"fieldMask\": \"a\", \"field_mask\": \"b\"}", "{\"phone\": \"1\", \"mailbox\": {}}",
+      "{\"phone\": \"\", \"delegateRole\": \"ROLE_OWNER\"}",
+      "{\"manager\": {\"mailbox\": {}, \"delegate_role\": 1}}",
+      "{\"active\": \"yes\"}", "{\"active\": \"True\"}", "{\"active\": 1}"
+    };
+    for (final String input : inputs) {
+      assertParseFails(input, () -> PARSER.merge(input, Person.newBuilder()));
+      assertParseFails(input, () -> PersonJson.parse(input));
+    }
+  }
+
+  @Test
+  public void rejectsRepeatedFieldKeys() {
+    // JsonFormat reads objects into maps first, so that it only sees the last of repeated keys
+    final String[] inputs = {
+      "{\"name\": \"a\", \"name\": \"b\"}",
+      "{\"emails\": [], \"emails\": [\"a\"]}",
+      "{\"address\": {}, \"id\": 1, \"address\": {}}",
+      "{\"reports\": [{\"phone\": \"1\", \"phone\": \"1\"}]}"
+    };
+    for (final String input : inputs) {
+      assertParseFails(input, () -> PersonJson.parse(input));
+    }
+  }
+
+  @Test
+  public void limitsTheNestingDepthLikeJsonFormat() throws IOException {
+    final String allowed = nestedManagers(JsonReader.RECURSION_LIMIT);
+    final Person.Builder expected = Person.newBuilder();
+    PARSER.merge(allowed, expected);
+    assertEquals(expected.build(), PersonJson.parse(allowed));
+
+    final String tooDeep = nestedManagers(JsonReader.RECURSION_LIMIT + 1);
+    assertParseFails(tooDeep, () -> PARSER.merge(tooDeep, Person.newBuilder()));
+    assertParseFails(tooDeep, () -> PersonJson.parse(tooDeep));
+
+    // Much deeper documents fail at the limit too instead of overflowing the stack
+    final String managers = nestedManagers(20000);
+    assertParseFails("20000 managers", () -> PersonJson.parse(managers));
+    final String lists = "{\"attributes\": {\"a\": " + nested("[", "]", 20000, "") + "}}";
+    assertParseFails("20000 lists", () -> PersonJson.parse(lists));
+    final String unknown = "{\"unknown\": " + nested("[", "]", 20000, "") + "}";
+    assertParseFails("20000 unknown lists", () -> PersonJson.parse(unknown, true));
+  }
+
+  private static String nestedManagers(final int depth) {
+    return nested("{\"manager\": ", "}", depth, "{}");
+  }
+
+  private static String nested(
+      final String open, final String close, final int depth, final String innermost) {
+    final StringBuilder json = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      json.append(open);
+    }
+    json.append(innermost);
+    for (int i = 0; i < depth; i++) {
+      json.append(close);
+    }
+    return json.toString();
+  }
+
+  private static void assertParseFails(final String input, final ParseAction action) {
+    try {
+      action.parse();
+      fail("Expected an exception for " + input);
+    } catch (InvalidProtocolBufferException e) {
+      // Expected
+    } catch (IOException e) {
+      throw new AssertionError(input, e);
+    }
+  }
+
+  private interface ParseAction {
+    void parse() throws IOException;
+  }
+}
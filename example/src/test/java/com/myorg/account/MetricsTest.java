@@ -0,0 +1,115 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.protobuf.Any;
+import com.myorg.account.Account.Person;
+import io.dflemstr.auto.protobuf.runtime.metrics.MessageMetrics;
+import io.dflemstr.auto.protobuf.runtime.metrics.MetricsRegistry;
+import io.dflemstr.auto.protobuf.runtime.records.RecordReader;
+import io.dflemstr.auto.protobuf.runtime.records.RecordWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetricsTest {
+
+  private static final MessageMetrics METRICS = PersonMetrics.METRICS;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final Person person = Examples.person();
+  private final byte[] encoded = person.toByteArray();
+
+  private long parseCount;
+  private long parsedBytes;
+  private long serializeCount;
+  private long serializedBytes;
+
+  @Before
+  public void setUp() {
+    assumeTrue(MessageMetrics.ENABLED);
+    parseCount = METRICS.parseCount();
+    parsedBytes = METRICS.parsedBytes();
+    serializeCount = METRICS.serializeCount();
+    serializedBytes = METRICS.serializedBytes();
+  }
+
+  @Test
+  public void countsMessagesParsedAndSerializedThroughTheMetricsClass() throws IOException {
+    assertEquals(person, PersonMetrics.PARSER.parseFrom(encoded));
+    assertParsed(1);
+
+    PersonMetrics.toByteArray(person);
+    PersonMetrics.toByteString(person);
+    assertSerialized(2);
+  }
+
+  @Test
+  public void countsMessagesOfTheOtherGeneratedClasses() throws IOException {
+    final PersonHolder holder = new PersonHolder();
+    holder.mergeFrom(encoded);
+    holder.toByteArray();
+    assertParsed(1);
+    assertSerialized(1);
+
+    final PersonBatch batch = new PersonBatch();
+    batch.appendRow(encoded);
+    batch.toByteArray(0);
+    assertParsed(2);
+    assertSerialized(2);
+
+    AnyRegistry.unpack(Any.pack(person));
+    assertParsed(3);
+
+    final Path path = folder.newFile("people").toPath();
+    try (RecordWriter<Person> writer = PersonRecords.newWriter(path)) {
+      writer.write(person);
+    }
+    assertSerialized(3);
+    try (RecordReader<Person> reader = PersonRecords.openReader(path)) {
+      assertEquals(person, reader.readAllParallel().get(0));
+    }
+    assertParsed(4);
+  }
+
+  @Test
+  public void countsJsonSeparately() throws IOException {
+    final long jsonParseCount = METRICS.jsonParseCount();
+    final long jsonPrintCount = METRICS.jsonPrintCount();
+    PersonJson.parse(PersonJson.print(person));
+    assertEquals(jsonPrintCount + 1, METRICS.jsonPrintCount());
+    assertEquals(jsonParseCount + 1, METRICS.jsonParseCount());
+    assertParsed(0);
+    assertSerialized(0);
+  }
+
+  @Test
+  public void registersEveryMessageType() {
+    assertSame(METRICS, MessageMetrics.forType("myorg.schema.Person"));
+    assertTrue(MetricsRegistry.all().contains(METRICS));
+
+    final List<MessageMetrics> exported = new ArrayList<>();
+    MetricsRegistry.addExporter(exported::add);
+    assertTrue(exported.contains(METRICS));
+    assertTrue(exported.contains(LedgerMetrics.METRICS));
+  }
+
+  private void assertParsed(final int messages) {
+    assertEquals(parseCount + messages, METRICS.parseCount());
+    assertEquals(parsedBytes + (long) messages * encoded.length, METRICS.parsedBytes());
+  }
+
+  private void assertSerialized(final int messages) {
+    assertEquals(serializeCount + messages, METRICS.serializeCount());
+    assertEquals(serializedBytes + (long) messages * encoded.length, METRICS.serializedBytes());
+  }
+}
@@ -0,0 +1,102 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.myorg.account.Account.Person;
+import com.myorg.account.LedgerOuterClass.Ledger;
+import io.dflemstr.auto.protobuf.runtime.records.RecordBlock;
+import io.dflemstr.auto.protobuf.runtime.records.RecordReader;
+import io.dflemstr.auto.protobuf.runtime.records.RecordWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RecordFileTest {
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void readsTheRecordsThatWereWritten() throws IOException {
+    final Path path = folder.newFile("people").toPath();
+    final List<Person> people = people(500);
+    try (RecordWriter<Person> writer = PersonRecords.newWriter(path, 4096)) {
+      for (final Person person : people) {
+        writer.write(person);
+      }
+    }
+
+    try (RecordReader<Person> reader = PersonRecords.openReader(path)) {
+      assertTrue(reader.blocks().size() > 1);
+      assertEquals(people.size(), reader.recordCount());
+      assertEquals(people, reader.readAllParallel());
+      assertEquals(people, reader.stream().parallel().collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void readsRecordsIntoBatches() throws IOException {
+    final Path path = folder.newFile("people").toPath();
+    final List<Person> people = people(500);
+    try (RecordWriter<Person> writer = PersonRecords.newWriter(path, 4096)) {
+      for (final Person person : people) {
+        writer.write(person);
+      }
+    }
+
+    final PersonBatch batch = PersonRecords.readBatch(path);
+    assertEquals(people.size(), batch.rows());
+    for (int row = 0; row < people.size(); row++) {
+      assertEquals(people.get(row), Person.parseFrom(batch.toByteArray(row)));
+    }
+
+    try (RecordReader<Person> reader = PersonRecords.openReader(path)) {
+      final RecordBlock block = reader.blocks().get(1);
+      final PersonBatch blockBatch = reader.readBlock(block, PersonBatch::new);
+      assertEquals(block.recordCount(), blockBatch.rows());
+      assertEquals(
+          people.get((int) block.firstRecord()), Person.parseFrom(blockBatch.toByteArray(0)));
+    }
+  }
+
+  @Test
+  public void recoversTheCompleteBlocksOfATruncatedFile() throws IOException {
+    final Path path = folder.newFile("ledgers").toPath();
+    final List<Ledger> ledgers = new ArrayList<>();
+    try (RecordWriter<Ledger> writer = LedgerRecords.newWriter(path, 512)) {
+      for (int i = 0; i < 200; i++) {
+        final Ledger ledger = Examples.ledger().toBuilder().setBalance(i).build();
+        ledgers.add(ledger);
+        writer.write(ledger);
+      }
+    }
+
+    final RecordBlock last;
+    try (RecordReader<Ledger> reader = LedgerRecords.openReader(path)) {
+      last = reader.blocks().get(reader.blocks().size() - 1);
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(last.payloadOffset() + 1);
+    }
+
+    try (RecordReader<Ledger> reader = LedgerRecords.openReader(path)) {
+      assertEquals(ledgers.subList(0, (int) last.firstRecord()), reader.readAllParallel());
+    }
+  }
+
+  private static List<Person> people(final int count) {
+    final Person person = Examples.person();
+    final List<Person> people = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      people.add(i % 3 == 0 ? Person.getDefaultInstance() : person.toBuilder().setId(i).build());
+    }
+    return people;
+  }
+}
@@ -0,0 +1,145 @@
+package com.myorg.account;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import io.dflemstr.auto.protobuf.runtime.json.JsonReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/** Reads the wire layout report that the processor writes next to the generated sources. */
+public class WireLayoutReportTest {
+
+  private static final String REPORT =
+      "target/generated-test-sources/test-annotations/com/myorg/account/wire-layout.json";
+
+  private static final Map<String, Map<String, Object>> messages = new HashMap<>();
+  private static final Map<String, Map<String, Object>> fields = new HashMap<>();
+
+  @BeforeClass
+  public static void readReport() throws IOException {
+    try (InputStream in = Files.newInputStream(Paths.get(REPORT))) {
+      final JsonReader reader = JsonReader.create(in);
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (!reader.nextName().equals("messages")) {
+          reader.skipValue();
+          continue;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+          final Map<String, Object> message = readObject(reader);
+          final String name = (String) message.get("name");
+          messages.put(name, message);
+          for (final Object field : (List<?>) message.get("fields")) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> values = (Map<String, Object>) field;
+            fields.put(name + "." + values.get("name"), values);
+          }
+        }
+        reader.endArray();
+      }
+      reader.endObject();
+      reader.endDocument();
+    }
+  }
+
+  @Test
+  public void reportsEveryMessageOfThePackage() {
+    assertEquals(4, messages.size());
+    assertEquals("myorg/account.proto", messages.get("myorg.schema.Person").get("file"));
+    assertEquals("myorg/ledger.proto", messages.get("myorg.schema.Ledger.Entry").get("file"));
+    assertNull(messages.get("google.protobuf.Timestamp"));
+  }
+
+  @Test
+  public void reportsTheFreeOneByteNumbers() {
+    assertEquals(Arrays.asList(), messages.get("myorg.schema.Person").get("freeOneByteNumbers"));
+    assertEquals(
+        Arrays.asList(5L, 6L, 10L, 11L, 12L, 13L, 14L, 15L),
+        messages.get("myorg.schema.Ledger").get("freeOneByteNumbers"));
+  }
+
+  @Test
+  public void reportsTagSizes() {
+    assertField("myorg.schema.Person.id", "tagBytes", 1L, "exceedsOneByteTag", false);
+    assertField("myorg.schema.Person.created", "tagBytes", 2L, "exceedsOneByteTag", true);
+    assertField("myorg.schema.Ledger.note", "tagBytes", 2L, "exceedsOneByteTag", true);
+    assertField("myorg.schema.Person.team_roles", "label", "map", "tagBytes", 2L);
+  }
+
+  @Test
+  public void reportsUnpackedRepeatedFields() {
+    assertField("myorg.schema.Person.scores", "packable", true, "packed", false);
+    assertField("myorg.schema.Person.scores", "encoding", "zigzag varint", "maxValueBytes", 5L);
+    assertField("myorg.schema.Ledger.tags", "packable", true, "packed", false);
+    assertField("myorg.schema.Ledger.checksums", "packed", true, "fieldOverheadBytes", 2L);
+  }
+
+  @Test
+  public void reportsProto2Fields() {
+    assertField("myorg.schema.Ledger.entry", "type", "group", "encoding", "group");
+    assertField("myorg.schema.Ledger.entry", "valueOverheadBytes", 2L, "maxValueBytes", null);
+    assertField("myorg.schema.Ledger.account", "label", "required", "packable", false);
+    assertField("myorg.schema.Ledger.Entry.amount", "label", "required", "number", 1L);
+  }
+
+  private static void assertField(
+      final String name,
+      final String key1,
+      final Object value1,
+      final String key2,
+      final Object value2) {
+    final Map<String, Object> field = fields.get(name);
+    assertNotNull(name, field);
+    assertEquals(name + " " + key1, value1, field.get(key1));
+    assertEquals(name + " " + key2, value2, field.get(key2));
+  }
+
+  private static Map<String, Object> readObject(final JsonReader reader) throws IOException {
+    final Map<String, Object> object = new HashMap<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      final String name = reader.nextName();
+      object.put(name, readValue(reader));
+    }
+    reader.endObject();
+    return object;
+  }
+
+  private static Object readValue(final JsonReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return readObject(reader);
+      case BEGIN_ARRAY:
+        final List<Object> array = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          array.add(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+      case STRING:
+        return reader.nextString();
+      case NUMBER:
+        return reader.nextLong();
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return null;
+      default:
+        throw reader.syntaxError("Unexpected " + reader.peek());
+    }
+  }
+}
@@ -0,0 +1,25 @@
+@AutoProtobuf(
+  input = {"myorg/account.proto", "myorg/ledger.proto"},
+  include = {
+    "google/protobuf/any.proto",
+    "google/protobuf/duration.proto",
+    "google/protobuf/field_mask.proto",
+    "google/protobuf/struct.proto",
+    "google/protobuf/timestamp.proto",
+    "google/protobuf/wrappers.proto"
+  },
+  json = true,
+  fieldMask = true,
+  anyRegistry = true,
+  holders = true,
+  columnar = true,
+  recordFiles = true,
+  benchmarks = true,
+  metrics = true,
+  layoutReport = true,
+  layoutWarnings = true,
+  protoVersion = "3.4.0"
+)
+package com.myorg.account;
+
+import io.dflemstr.auto.protobuf.AutoProtobuf;
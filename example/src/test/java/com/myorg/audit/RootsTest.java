@@ -0,0 +1,75 @@
+package com.myorg.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.JsonFormat;
+import com.myorg.audit.Audit.AuditEvent;
+import com.myorg.audit.Audit.Change;
+import com.myorg.audit.Audit.Trail;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class RootsTest {
+
+  @Test
+  public void keepsTheTypesThatTheRootReaches() {
+    final FileDescriptor file = Audit.getDescriptor();
+    assertNotNull(file.findMessageTypeByName("AuditEvent"));
+    assertNotNull(file.findMessageTypeByName("Change"));
+    assertNotNull(file.findEnumTypeByName("Action"));
+
+    // Trail only encloses a reached type, but keeps its own fields
+    final Descriptor trail = file.findMessageTypeByName("Trail");
+    assertNotNull(trail.findNestedTypeByName("Link"));
+    assertNotNull(trail.findFieldByName("name"));
+  }
+
+  @Test
+  public void leavesOutEverythingElse() {
+    final FileDescriptor file = Audit.getDescriptor();
+    assertNull(file.findMessageTypeByName("EventPage"));
+    assertNull(file.findMessageTypeByName("ListEventsRequest"));
+    assertNull(file.findEnumTypeByName("Retention"));
+    assertNull(file.findMessageTypeByName("Trail").findNestedTypeByName("Cursor"));
+    assertEquals(0, file.getServices().size());
+    assertEquals(Arrays.asList(Timestamp.getDescriptor().getFile()), file.getDependencies());
+
+    for (final String name :
+        new String[] {"Audit$EventPage", "Audit$Trail$Cursor", "EventPageJson", "EventPageMask"}) {
+      try {
+        Class.forName("com.myorg.audit." + name);
+        fail("Expected " + name + " to be left out");
+      } catch (ClassNotFoundException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void generatesCodeForTheKeptTypes() throws IOException {
+    final AuditEvent event =
+        AuditEvent.newBuilder()
+            .setActor("ada")
+            .setAction(Audit.Action.ACTION_UPDATE)
+            .setTime(Timestamp.newBuilder().setSeconds(1500000000L))
+            .putChanges("name", Change.newBuilder().setBefore("a").setAfter("b").build())
+            .setPrevious(Trail.Link.newBuilder().setEventId("e1"))
+            .build();
+
+    assertEquals(
+        JsonFormat.printer().omittingInsignificantWhitespace().print(event),
+        AuditEventJson.print(event));
+    assertEquals(event, AuditEventJson.parse(AuditEventJson.print(event)));
+    assertEquals(
+        AuditEvent.newBuilder().setActor("ada").build(),
+        AuditEventMask.compile(Arrays.asList("actor", "previous.event_id"))
+            .project(AuditEvent.newBuilder().setActor("ada").build()));
+  }
+}
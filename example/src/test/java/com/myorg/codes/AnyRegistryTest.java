@@ -0,0 +1,47 @@
+package com.myorg.codes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.myorg.codes.Codes.Aa;
+import com.myorg.codes.Codes.BB;
+import org.junit.Test;
+
+public class AnyRegistryTest {
+
+  @Test
+  public void separatesTypeNamesWithEqualHashCodes() throws InvalidProtocolBufferException {
+    final Aa aa = Aa.newBuilder().setValue("a").build();
+    final BB bb = BB.newBuilder().setValue(2).build();
+    assertEquals(
+        aa.getDescriptorForType().getFullName().hashCode(),
+        bb.getDescriptorForType().getFullName().hashCode());
+
+    assertEquals(aa, AnyRegistry.unpack(Any.pack(aa)));
+    assertEquals(bb, AnyRegistry.unpack(Any.pack(bb)));
+
+    final AnyRegistry.Handler<String> handler =
+        new AnyRegistry.Handler<String>() {
+          @Override
+          public String onAa(final Aa message) {
+            return "aa " + message.getValue();
+          }
+
+          @Override
+          public String onBB(final BB message) {
+            return "bb " + message.getValue();
+          }
+
+          @Override
+          public String defaultCase(final Message message) {
+            return "other";
+          }
+        };
+    assertEquals("aa a", AnyRegistry.dispatch(Any.pack(aa), handler));
+    assertEquals("bb 2", AnyRegistry.dispatch(Any.pack(bb), handler));
+    assertFalse(AnyRegistry.contains("type.googleapis.com/myorg.codes.Ab"));
+  }
+}
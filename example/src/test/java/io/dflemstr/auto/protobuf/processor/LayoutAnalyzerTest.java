@@ -0,0 +1,66 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.myorg.account.Account;
+import com.myorg.account.LedgerOuterClass;
+import java.util.Arrays;
+import org.junit.Test;
+
+/**
+ * Checks the layout warnings of the example schema. The compiler plugin doesn't show the warnings
+ * of annotation processors in the build output, so they are checked here instead.
+ */
+public class LayoutAnalyzerTest {
+
+  @Test
+  public void warnsAboutTheExampleSchema() {
+    final Schema schema =
+        Schema.create(
+            "com.myorg.account",
+            ImmutableList.of(Account.getDescriptor(), LedgerOuterClass.getDescriptor()));
+    assertEquals(
+        Arrays.asList(
+            "myorg.schema.Person.scores = 7 is not packed, so every element repeats its 1-byte "
+                + "tag; consider [packed = true]",
+            "myorg.schema.Ledger.tags = 7 is not packed, so every element repeats its 1-byte tag; "
+                + "consider [packed = true]",
+            "myorg.schema.Ledger.note = 16 has a 2-byte tag, while field numbers 5, 6, 10, 11, "
+                + "12, 13, 14, 15 are free for one-byte tags"),
+        LayoutAnalyzer.warnings(LayoutAnalyzer.analyze(schema)));
+  }
+
+  @Test
+  public void warnsAboutASingleFreeNumber() throws DescriptorValidationException {
+    final DescriptorProto.Builder message = DescriptorProto.newBuilder().setName("Full");
+    for (final int number : new int[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 16}) {
+      message.addField(
+          FieldDescriptorProto.newBuilder()
+              .setName("field" + number)
+              .setNumber(number)
+              .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+              .setType(FieldDescriptorProto.Type.TYPE_INT32));
+    }
+    final FileDescriptor file =
+        FileDescriptor.buildFrom(
+            FileDescriptorProto.newBuilder()
+                .setName("full.proto")
+                .setPackage("test")
+                .setSyntax("proto3")
+                .addMessageType(message)
+                .build(),
+            new FileDescriptor[0]);
+    assertEquals(
+        Arrays.asList(
+            "test.Full.field16 = 16 has a 2-byte tag, while field number 15 is free for one-byte "
+                + "tags"),
+        LayoutAnalyzer.warnings(
+            LayoutAnalyzer.analyze(Schema.create("test", ImmutableList.of(file)))));
+  }
+}
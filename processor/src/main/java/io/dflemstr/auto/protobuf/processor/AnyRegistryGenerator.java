@@ -0,0 +1,383 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.DEFAULT;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates an {@code AnyRegistry} class per package, which unpacks and dispatches {@code
+ * google.protobuf.Any} values that hold messages of the package.
+ *
+ * <p>Type URLs are resolved with a perfect hash of their type names that is computed at compile
+ * time, so a lookup is one pass over the type name, one string comparison and a {@code switch} on
+ * the slot.
+ *
+ * <p>Handler methods are named after the flattened class name of their message, such as {@code
+ * onOuter_Inner}. Messages whose flattened names collide, like {@code Outer.Inner} and a top-level
+ * {@code Outer_Inner}, are named after their full names instead, with {@code __} between the
+ * parts, such as {@code onMyorg__Outer__Inner}.
+ */
+final class AnyRegistryGenerator implements SourceGenerator {
+
+  static final String REGISTRY = "AnyRegistry";
+
+  // The table may be at most this many times larger than the next power of two of the type count
+  private static final int MAX_EXTRA_BITS = 4;
+  private static final int SEED_ATTEMPTS = 1 << 16;
+
+  private static final ClassName TYPE_URLS =
+      ClassName.get("io.dflemstr.auto.protobuf.runtime.any", "TypeUrls");
+  private static final ClassName MESSAGE = ClassName.get("com.google.protobuf", "Message");
+  private static final ClassName PARSER = ClassName.get("com.google.protobuf", "Parser");
+  private static final ClassName INVALID_PROTOCOL_BUFFER_EXCEPTION =
+      ClassName.get("com.google.protobuf", "InvalidProtocolBufferException");
+  private static final TypeVariableName R = TypeVariableName.get("R");
+
+  private final boolean metrics;
+
+  /**
+   * @param metrics whether metrics are generated as well, in which case unpacked messages are
+   *     counted
+   */
+  AnyRegistryGenerator(final boolean metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) throws AutoProtobufException {
+    final ClassName registryClass = ClassName.get(schema.javaPackage(), REGISTRY);
+    final ImmutableList<Descriptor> messages = schema.messages();
+    final PerfectHash hash = PerfectHash.find(messages);
+    final Map<Descriptor, String> handlerMethods = handlerMethods(messages);
+
+    final Descriptor[] slots = new Descriptor[1 << hash.bits()];
+    for (final Descriptor message : messages) {
+      slots[hash.slot(message.getFullName())] = message;
+    }
+
+    final ClassName handlerClass = registryClass.nestedClass("Handler");
+    final ParameterSpec typeUrlParam =
+        ParameterSpec.builder(String.class, "typeUrl", FINAL).build();
+    final ParameterSpec anyParam =
+        ParameterSpec.builder(WellKnownTypes.ANY_CLASS, "any", FINAL).build();
+
+    final CodeBlock.Builder typeNames = CodeBlock.builder().add("{");
+    final CodeBlock.Builder parser = switchOnSlot(CodeBlock.of("typeUrl"));
+    final CodeBlock.Builder unpack = switchOnSlot(CodeBlock.of("any.getTypeUrl()"));
+    final CodeBlock.Builder dispatch = switchOnSlot(CodeBlock.of("any.getTypeUrl()"));
+    final TypeSpec.Builder handler =
+        TypeSpec.interfaceBuilder(handlerClass)
+            .addModifiers(PUBLIC)
+            .addTypeVariable(R)
+            .addJavadoc(
+                "Handles the messages unpacked by {@link $T#dispatch}. Override the methods "
+                    + "for\nthe types of interest; all other messages are passed to {@link "
+                    + "#defaultCase}.\n\n@param <R> the result of handling a message\n",
+                registryClass);
+
+    for (int slot = 0; slot < slots.length; slot++) {
+      final Descriptor message = slots[slot];
+      typeNames.add(slot == 0 ? "\n$>" : ",\n");
+      if (message == null) {
+        typeNames.add("null");
+        continue;
+      }
+      typeNames.add("$S", message.getFullName());
+
+      final ClassName messageClass = JavaNames.messageClass(message);
+      final CodeBlock messageParser = MetricsGenerator.parser(message, metrics);
+      final String handlerMethod = handlerMethods.get(message);
+      parser
+          .add("case $L:\n", slot)
+          .indent()
+          .addStatement("return $L", messageParser)
+          .unindent();
+      unpack
+          .add("case $L:\n", slot)
+          .indent()
+          .addStatement("return $L.parseFrom(any.getValue())", messageParser)
+          .unindent();
+      dispatch
+          .add("case $L:\n", slot)
+          .indent()
+          .addStatement(
+              "return handler.$N($L.parseFrom(any.getValue()))", handlerMethod, messageParser)
+          .unindent();
+      handler.addMethod(
+          MethodSpec.methodBuilder(handlerMethod)
+              .addJavadoc("Handles a {@code $L} message.\n", message.getFullName())
+              .addModifiers(PUBLIC, DEFAULT)
+              .returns(R)
+              .addParameter(ParameterSpec.builder(messageClass, "message", FINAL).build())
+              .addStatement("return defaultCase(message)")
+              .build());
+    }
+    typeNames.add("$<\n}");
+
+    final TypeName parserType =
+        ParameterizedTypeName.get(PARSER, WildcardTypeName.subtypeOf(MESSAGE));
+
+    handler
+        .addMethod(
+            MethodSpec.methodBuilder("defaultCase")
+                .addJavadoc("Handles a message of a type that has no more specific method.\n")
+                .addModifiers(PUBLIC, ABSTRACT)
+                .returns(R)
+                .addParameter(ParameterSpec.builder(MESSAGE, "message", FINAL).build())
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("unknownType")
+                .addJavadoc(
+                    "Handles a value of a type that is not in this package, by default by "
+                        + "throwing an exception.\n")
+                .addModifiers(PUBLIC, DEFAULT)
+                .returns(R)
+                .addParameter(anyParam)
+                .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+                .addStatement("throw unknownTypeException(any)")
+                .build());
+
+    final TypeSpec registry =
+        TypeSpec.classBuilder(registryClass)
+            .addModifiers(PUBLIC, FINAL)
+            .addJavadoc(
+                "Unpacks and dispatches {@code google.protobuf.Any} values that hold messages of "
+                    + "this package.\n\n<p>Type URLs are resolved with a perfect hash of their "
+                    + "type names, without any map lookups or\nreflection.\n")
+            .addField(
+                FieldSpec.builder(ArrayTypeName.of(String.class), "TYPE_NAMES", PRIVATE, STATIC)
+                    .addModifiers(FINAL)
+                    .initializer(typeNames.build())
+                    .build())
+            .addField(
+                FieldSpec.builder(TypeName.INT, "SEED", PRIVATE, STATIC, FINAL)
+                    .initializer("$L", String.format("0x%08X", hash.seed()))
+                    .build())
+            .addField(
+                FieldSpec.builder(TypeName.INT, "SHIFT", PRIVATE, STATIC, FINAL)
+                    .initializer("$L", Integer.SIZE - hash.bits())
+                    .build())
+            .addMethod(
+                MethodSpec.constructorBuilder()
+                    .addModifiers(PRIVATE)
+                    .addComment("Prevent instantiation")
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("contains")
+                    .addJavadoc(
+                        "Returns whether a type URL refers to a message type of this package.\n")
+                    .addModifiers(PUBLIC, STATIC)
+                    .returns(TypeName.BOOLEAN)
+                    .addParameter(typeUrlParam)
+                    .addStatement("return slot(typeUrl) >= 0")
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("parser")
+                    .addJavadoc(
+                        "Returns the parser for the message type of a type URL, or {@code null} "
+                            + "if the type is not in\nthis package.\n")
+                    .addModifiers(PUBLIC, STATIC)
+                    .returns(parserType)
+                    .addParameter(typeUrlParam)
+                    .addCode(parser.add("default:\n$>return null;\n$<").endControlFlow().build())
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("unpack")
+                    .addJavadoc("Unpacks the message of an {@code Any} value.\n\n")
+                    .addJavadoc(
+                        "@throws InvalidProtocolBufferException if the type is not in this "
+                            + "package, or the message is\n    malformed\n")
+                    .addModifiers(PUBLIC, STATIC)
+                    .returns(MESSAGE)
+                    .addParameter(anyParam)
+                    .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+                    .addCode(
+                        unpack
+                            .add("default:\n$>throw unknownTypeException(any);\n$<")
+                            .endControlFlow()
+                            .build())
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("dispatch")
+                    .addJavadoc(
+                        "Unpacks the message of an {@code Any} value and passes it to the "
+                            + "matching method of a handler.\n\n")
+                    .addJavadoc(
+                        "@throws InvalidProtocolBufferException if the message is malformed\n")
+                    .addModifiers(PUBLIC, STATIC)
+                    .addTypeVariable(R)
+                    .returns(R)
+                    .addParameter(anyParam)
+                    .addParameter(
+                        ParameterSpec.builder(
+                                ParameterizedTypeName.get(handlerClass, R), "handler", FINAL)
+                            .build())
+                    .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+                    .addCode(
+                        dispatch
+                            .add("default:\n$>return handler.unknownType(any);\n$<")
+                            .endControlFlow()
+                            .build())
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("slot")
+                    .addModifiers(PRIVATE, STATIC)
+                    .returns(TypeName.INT)
+                    .addParameter(typeUrlParam)
+                    .addStatement(
+                        "final int slot = $T.nameHash(typeUrl, SEED) >>> SHIFT",
+                        TYPE_URLS)
+                    .addStatement("final String typeName = TYPE_NAMES[slot]")
+                    .addStatement(
+                        "return typeName != null && $T.nameEquals(typeUrl, typeName) ? slot : -1",
+                        TYPE_URLS)
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("unknownTypeException")
+                    .addModifiers(PRIVATE, STATIC)
+                    .returns(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+                    .addParameter(anyParam)
+                    .addStatement(
+                        "return new $T($S + any.getTypeUrl())",
+                        INVALID_PROTOCOL_BUFFER_EXCEPTION,
+                        "Cannot find type for url: ")
+                    .build())
+            .addType(handler.build())
+            .build();
+
+    return ImmutableList.of(JavaFile.builder(registryClass.packageName(), registry).build());
+  }
+
+  private static Map<Descriptor, String> handlerMethods(final List<Descriptor> messages)
+      throws AutoProtobufException {
+    final Multiset<String> flatNames = HashMultiset.create();
+    for (final Descriptor message : messages) {
+      flatNames.add(flatHandlerMethod(message));
+    }
+
+    final Map<Descriptor, String> methods = new HashMap<>();
+    final Map<String, Descriptor> messagesByMethod = new HashMap<>();
+    for (final Descriptor message : messages) {
+      final String flatName = flatHandlerMethod(message);
+      final String method =
+          flatNames.count(flatName) == 1
+              ? flatName
+              : "on"
+                  + Character.toUpperCase(message.getFullName().charAt(0))
+                  + message.getFullName().substring(1).replace(".", "__");
+      final Descriptor existing = messagesByMethod.put(method, message);
+      if (existing != null) {
+        throw new AutoProtobufException(
+            "The Any handler methods of "
+                + existing.getFullName()
+                + " and "
+                + message.getFullName()
+                + " would both be named "
+                + method);
+      }
+      methods.put(message, method);
+    }
+    return methods;
+  }
+
+  private static String flatHandlerMethod(final Descriptor message) {
+    return "on" + JavaNames.generatedClass(message, "").simpleName();
+  }
+
+  private static CodeBlock.Builder switchOnSlot(final CodeBlock typeUrl) {
+    return CodeBlock.builder().beginControlFlow("switch (slot($L))", typeUrl);
+  }
+
+  /**
+   * A seeded hash that maps every type name to a distinct slot in a table of {@code 2^bits} slots.
+   *
+   * <p>The hash runs over the characters of the type name rather than over its {@link
+   * String#hashCode()}, since names with equal hash codes, such as {@code pkg.Aa} and {@code
+   * pkg.BB}, would otherwise share a slot for every seed.
+   */
+  @AutoValue
+  abstract static class PerfectHash {
+
+    PerfectHash() {
+      // Prevent outside instantiation
+    }
+
+    static PerfectHash find(final List<Descriptor> messages) throws AutoProtobufException {
+      final String[] names = messages.stream().map(Descriptor::getFullName).toArray(String[]::new);
+      final int minBits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(names.length));
+
+      for (int bits = minBits; bits <= minBits + MAX_EXTRA_BITS; bits++) {
+        // Seeds from a fixed sequence starting at the golden ratio, so that the output is
+        // deterministic
+        int seed = 0x9E3779B9;
+        for (int attempt = 0; attempt < SEED_ATTEMPTS; attempt++) {
+          if (isPerfect(names, seed, bits)) {
+            return new AutoValue_AnyRegistryGenerator_PerfectHash(seed, bits);
+          }
+          seed = seed * 0x2C1B3C6D + 0x297A2D39;
+        }
+      }
+
+      throw new AutoProtobufException(
+          "Could not find a perfect hash for the type names of " + messages.size() + " messages");
+    }
+
+    abstract int seed();
+
+    abstract int bits();
+
+    int slot(final String typeName) {
+      return slot(typeName, seed(), bits());
+    }
+
+    private static boolean isPerfect(final String[] names, final int seed, final int bits) {
+      final boolean[] taken = new boolean[1 << bits];
+      for (final String name : names) {
+        final int slot = slot(name, seed, bits);
+        if (taken[slot]) {
+          return false;
+        }
+        taken[slot] = true;
+      }
+      return true;
+    }
+
+    private static int slot(final String typeName, final int seed, final int bits) {
+      return hash(typeName, seed) >>> (Integer.SIZE - bits);
+    }
+
+    /** The same hash as {@code TypeUrls.nameHash} from {@code auto-protobuf-runtime}. */
+    private static int hash(final String typeName, final int seed) {
+      int hash = seed;
+      for (int i = 0, n = typeName.length(); i < n; i++) {
+        hash = (hash ^ typeName.charAt(i)) * 0x01000193;
+      }
+      hash ^= hash >>> 16;
+      return hash * 0x85EBCA6B;
+    }
+  }
+}
@@ -10,8 +10,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.squareup.javapoet.JavaFile;
 import io.dflemstr.auto.protobuf.AutoProtobuf;
 import java.io.BufferedReader;
 import java.io.File;
@@ -20,12 +26,14 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -118,17 +126,15 @@ public final class AutoProtobufProcessor extends AbstractProcessor {
     final String version = annotation.protoVersion();
     final ImmutableSet<String> includes = ImmutableSet.copyOf(annotation.include());
     final ImmutableSet<String> inputs = ImmutableSet.copyOf(annotation.input());
+    final ImmutableSet<String> roots = ImmutableSet.copyOf(annotation.roots());
     final String targetPackageName = element.getQualifiedName().toString();
 
     final String protocCommand = protocCommand(version, messager, element);
 
-    final List<String> command = Lists.newArrayList();
-    command.add(protocCommand);
-
     final Path stagingDir = createTempDir("protoc-staging-", messager, element);
     final Path outputDir = createTempDir("protoc-output-", messager, element);
-    command.add("--proto_path=" + stagingDir);
-    command.add("--java_out=" + outputDir);
+    final Path descriptorDir = createTempDir("protoc-descriptors-", messager, element);
+    final Path descriptorSetPath = descriptorDir.resolve("descriptors.pb");
 
     for (final String include : includes) {
       final Path path = Paths.get(include);
@@ -136,42 +142,50 @@ public final class AutoProtobufProcessor extends AbstractProcessor {
       copyFile(fileObject, stagingDir.resolve(include), messager, element);
     }
 
+    final List<String> stagedInputs = Lists.newArrayList();
     for (final String input : inputs) {
       final Path path = Paths.get(input);
       final FileObject fileObject = findFile(path, filer, messager, element);
       copyFile(fileObject, stagingDir.resolve(input), messager, element);
-      command.add(stagingDir.resolve(input).toString());
-    }
-
-    final Process process;
-    try {
-      process =
-          new ProcessBuilder(command)
-              .redirectErrorStream(true)
-              .redirectOutput(ProcessBuilder.Redirect.PIPE)
-              .start();
-    } catch (IOException e) {
-      throw fail("Could not start protoc", e, messager, element);
+      stagedInputs.add(stagingDir.resolve(input).toString());
     }
 
-    final Runnable tailer =
-        () -> warnLines("protoc: ", process.getInputStream(), messager, element);
-    new Thread(tailer, "protoc-output-reporter").start();
-
-    try {
-      if (process.waitFor(10, TimeUnit.SECONDS)) {
-        final int exitCode = process.exitValue();
-        if (exitCode != 0) {
-          final String message =
-              MessageFormat.format("Failed to run protoc, exit code {0}", exitCode);
-          throw fail(message, messager, element);
-        }
-      } else {
-        throw fail("Timed out while waiting for protoc", messager, element);
+    final List<String> command = Lists.newArrayList();
+    command.add(protocCommand);
+    if (roots.isEmpty()) {
+      command.add("--proto_path=" + stagingDir);
+      command.addAll(stagedInputs);
+    } else {
+      // Compile the descriptors of the full schema first, and generate code for the pruned ones
+      final Path fullSetPath = descriptorDir.resolve("full-descriptors.pb");
+      final Path prunedSetPath = descriptorDir.resolve("pruned-descriptors.pb");
+      final List<String> descriptorCommand = Lists.newArrayList();
+      descriptorCommand.add(protocCommand);
+      descriptorCommand.add("--proto_path=" + stagingDir);
+      descriptorCommand.add("--descriptor_set_out=" + fullSetPath);
+      descriptorCommand.add("--include_imports");
+      descriptorCommand.addAll(stagedInputs);
+      runProtoc(descriptorCommand, messager, element);
+
+      final FileDescriptorSet prunedSet;
+      try {
+        prunedSet =
+            SchemaPruner.prune(readDescriptorSet(fullSetPath, messager, element), inputs, roots);
+      } catch (AutoProtobufException e) {
+        throw fail("Could not prune the schema", e, messager, element);
       }
-    } catch (InterruptedException e) {
-      throw fail("Interrupted while running protoc", e, messager, element);
+      try (final OutputStream os = Files.newOutputStream(prunedSetPath)) {
+        prunedSet.writeTo(os);
+      } catch (IOException e) {
+        throw fail("Could not write descriptors to " + prunedSetPath, e, messager, element);
+      }
+      command.add("--descriptor_set_in=" + prunedSetPath);
+      command.addAll(inputs);
     }
+    command.add("--java_out=" + outputDir);
+    command.add("--descriptor_set_out=" + descriptorSetPath);
+    command.add("--include_imports");
+    runProtoc(command, messager, element);
 
     try (final Stream<Path> paths = Files.walk(outputDir)) {
       final List<Path> javaFiles =
@@ -210,6 +224,180 @@ public final class AutoProtobufProcessor extends AbstractProcessor {
     } catch (IOException e) {
       throw fail("Could not copy files from " + outputDir, e, messager, element);
     }
+
+    final ImmutableList<SourceGenerator> generators = sourceGenerators(annotation);
+    final boolean analyzeLayout = annotation.layoutReport() || annotation.layoutWarnings();
+    if (!generators.isEmpty() || analyzeLayout) {
+      final Schema schema =
+          readSchema(descriptorSetPath, targetPackageName, inputs, messager, element);
+
+      for (final SourceGenerator generator : generators) {
+        final ImmutableList<JavaFile> javaFiles;
+        try {
+          javaFiles = generator.generate(schema);
+        } catch (AutoProtobufException e) {
+          throw fail("Could not generate sources", e, messager, element);
+        }
+
+        for (final JavaFile javaFile : javaFiles) {
+          writeJavaFile(javaFile, filer, messager, element);
+        }
+      }
+
+      if (analyzeLayout) {
+        reportLayout(annotation, schema, filer, messager, element);
+      }
+    }
+  }
+
+  private static ImmutableList<SourceGenerator> sourceGenerators(final AutoProtobuf annotation) {
+    final ImmutableList.Builder<SourceGenerator> builder = ImmutableList.builder();
+    if (annotation.json()) {
+      builder.add(new JsonCodecGenerator(annotation.metrics()));
+    }
+    if (annotation.fieldMask()) {
+      builder.add(new FieldMaskGenerator());
+    }
+    if (annotation.anyRegistry()) {
+      builder.add(new AnyRegistryGenerator(annotation.metrics()));
+    }
+    if (annotation.holders()) {
+      builder.add(new HolderGenerator(annotation.metrics()));
+    }
+    if (annotation.columnar()) {
+      builder.add(new ColumnarGenerator(annotation.metrics()));
+    }
+    if (annotation.recordFiles()) {
+      builder.add(new RecordFileGenerator(annotation.columnar(), annotation.metrics()));
+    }
+    if (annotation.benchmarks()) {
+      builder.add(new BenchmarkGenerator(annotation.holders(), annotation.columnar()));
+    }
+    if (annotation.metrics()) {
+      builder.add(new MetricsGenerator());
+    }
+    return builder.build();
+  }
+
+  private static void runProtoc(
+      final List<String> command, final Messager messager, final PackageElement element)
+      throws SkipElementException {
+    final Process process;
+    try {
+      process =
+          new ProcessBuilder(command)
+              .redirectErrorStream(true)
+              .redirectOutput(ProcessBuilder.Redirect.PIPE)
+              .start();
+    } catch (IOException e) {
+      throw fail("Could not start protoc", e, messager, element);
+    }
+
+    final Runnable tailer =
+        () -> warnLines("protoc: ", process.getInputStream(), messager, element);
+    new Thread(tailer, "protoc-output-reporter").start();
+
+    try {
+      if (process.waitFor(10, TimeUnit.SECONDS)) {
+        final int exitCode = process.exitValue();
+        if (exitCode != 0) {
+          final String message =
+              MessageFormat.format("Failed to run protoc, exit code {0}", exitCode);
+          throw fail(message, messager, element);
+        }
+      } else {
+        throw fail("Timed out while waiting for protoc", messager, element);
+      }
+    } catch (InterruptedException e) {
+      throw fail("Interrupted while running protoc", e, messager, element);
+    }
+  }
+
+  private static FileDescriptorSet readDescriptorSet(
+      final Path descriptorSetPath, final Messager messager, final Element element)
+      throws SkipElementException {
+    try (final InputStream is = Files.newInputStream(descriptorSetPath)) {
+      return FileDescriptorSet.parseFrom(is);
+    } catch (IOException e) {
+      throw fail("Could not read descriptors from " + descriptorSetPath, e, messager, element);
+    }
+  }
+
+  private static Schema readSchema(
+      final Path descriptorSetPath,
+      final String targetPackageName,
+      final ImmutableSet<String> inputs,
+      final Messager messager,
+      final Element element)
+      throws SkipElementException {
+    final FileDescriptorSet descriptorSet = readDescriptorSet(descriptorSetPath, messager, element);
+
+    // protoc lists the files in dependency order, so each file's dependencies are already built
+    final Map<String, FileDescriptor> files = Maps.newHashMap();
+    for (final FileDescriptorProto proto : descriptorSet.getFileList()) {
+      final FileDescriptor[] dependencies =
+          proto.getDependencyList().stream().map(files::get).toArray(FileDescriptor[]::new);
+      try {
+        files.put(proto.getName(), FileDescriptor.buildFrom(proto, dependencies));
+      } catch (DescriptorValidationException e) {
+        throw fail("Invalid descriptor for " + proto.getName(), e, messager, element);
+      }
+    }
+
+    final ImmutableList.Builder<FileDescriptor> inputFiles = ImmutableList.builder();
+    for (final String input : inputs) {
+      final FileDescriptor file = files.get(input);
+      if (file == null) {
+        throw fail("protoc did not produce a descriptor for " + input, messager, element);
+      }
+      inputFiles.add(file);
+    }
+
+    return Schema.create(targetPackageName, inputFiles.build());
+  }
+
+  private static void reportLayout(
+      final AutoProtobuf annotation,
+      final Schema schema,
+      final Filer filer,
+      final Messager messager,
+      final Element element)
+      throws SkipElementException {
+    final ImmutableList<LayoutAnalyzer.MessageLayout> layouts = LayoutAnalyzer.analyze(schema);
+    if (annotation.layoutReport()) {
+      try {
+        final FileObject fileObject =
+            filer.createResource(
+                StandardLocation.SOURCE_OUTPUT,
+                schema.javaPackage(),
+                LayoutAnalyzer.REPORT_NAME,
+                element);
+        try (final Writer writer = fileObject.openWriter()) {
+          writer.write(LayoutAnalyzer.toJson(schema.javaPackage(), layouts));
+        }
+      } catch (IOException e) {
+        throw fail("Could not write the wire layout report", e, messager, element);
+      }
+    }
+    if (annotation.layoutWarnings()) {
+      for (final String warning : LayoutAnalyzer.warnings(layouts)) {
+        messager.printMessage(Diagnostic.Kind.WARNING, warning, element);
+      }
+    }
+  }
+
+  private static void writeJavaFile(
+      final JavaFile javaFile, final Filer filer, final Messager messager, final Element element)
+      throws SkipElementException {
+    final String className = javaFile.packageName + "." + javaFile.typeSpec.name;
+    try {
+      final JavaFileObject fileObject = filer.createSourceFile(className, element);
+      try (final Writer writer = fileObject.openWriter()) {
+        javaFile.writeTo(writer);
+      }
+    } catch (IOException e) {
+      throw fail("Could not write generated class " + className, e, messager, element);
+    }
   }
 
   @SuppressWarnings("SameParameterValue")
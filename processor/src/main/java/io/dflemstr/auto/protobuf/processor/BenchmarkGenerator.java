@@ -0,0 +1,312 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.Random;
+
+/**
+ * Generates a JMH benchmark class for every message of a schema, which measures parsing,
+ * serialization and builder round-trips of a random message that is derived from a fixed seed.
+ *
+ * <p>If holders or batches are generated as well, the benchmarks also cover parsing into a reused
+ * holder or batch, so that the variants can be compared on the same payload.
+ */
+final class BenchmarkGenerator implements SourceGenerator {
+
+  static final String SUFFIX = "Benchmark";
+
+  private static final String JMH_PACKAGE = "org.openjdk.jmh.annotations";
+  private static final ClassName BENCHMARK = ClassName.get(JMH_PACKAGE, "Benchmark");
+  private static final ClassName PARAM = ClassName.get(JMH_PACKAGE, "Param");
+  private static final ClassName SCOPE = ClassName.get(JMH_PACKAGE, "Scope");
+  private static final ClassName SETUP = ClassName.get(JMH_PACKAGE, "Setup");
+  private static final ClassName STATE = ClassName.get(JMH_PACKAGE, "State");
+  private static final ClassName RANDOM_VALUES =
+      ClassName.get("io.dflemstr.auto.protobuf.runtime.benchmark", "RandomValues");
+  private static final ClassName INVALID_PROTOCOL_BUFFER_EXCEPTION =
+      ClassName.get("com.google.protobuf", "InvalidProtocolBufferException");
+
+  private final boolean holders;
+  private final boolean columnar;
+
+  /**
+   * @param holders whether holders are generated as well
+   * @param columnar whether batches are generated as well
+   */
+  BenchmarkGenerator(final boolean holders, final boolean columnar) {
+    this.holders = holders;
+    this.columnar = columnar;
+  }
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) throws AutoProtobufException {
+    final ImmutableSet.Builder<String> names = ImmutableSet.builder();
+    for (final Descriptor message : schema.messages()) {
+      names.add(message.getFullName());
+    }
+    final ImmutableSet<String> messageNames = names.build();
+
+    final ImmutableList.Builder<JavaFile> files = ImmutableList.builder();
+    for (final Descriptor message : schema.messages()) {
+      final ClassName benchmarkClass = JavaNames.generatedClass(message, SUFFIX);
+      files.add(
+          JavaFile.builder(
+                  benchmarkClass.packageName(),
+                  benchmarkType(message, benchmarkClass, messageNames))
+              .build());
+    }
+    return files.build();
+  }
+
+  private TypeSpec benchmarkType(
+      final Descriptor message,
+      final ClassName benchmarkClass,
+      final ImmutableSet<String> messageNames)
+      throws AutoProtobufException {
+    final ClassName messageClass = JavaNames.messageClass(message);
+    final ClassName holderClass = JavaNames.generatedClass(message, HolderGenerator.SUFFIX);
+    final ClassName batchClass = JavaNames.generatedClass(message, ColumnarGenerator.SUFFIX);
+
+    final TypeSpec.Builder type =
+        TypeSpec.classBuilder(benchmarkClass)
+            .addModifiers(PUBLIC)
+            .addAnnotation(
+                AnnotationSpec.builder(STATE).addMember("value", "$T.Thread", SCOPE).build())
+            .addJavadoc(
+                "JMH benchmarks of the serialization of {@code $L} messages.\n\n"
+                    + "<p>Every benchmark works on the same random message, which only depends "
+                    + "on {@link #seed}.\nRun with {@code -prof gc} to measure allocation rates as "
+                    + "well. The state is per thread,\nsince the reused holder and batch are "
+                    + "mutable.\n",
+                message.getFullName())
+            .addField(
+                FieldSpec.builder(TypeName.LONG, "seed", PUBLIC)
+                    .addJavadoc("The seed of the random message.\n")
+                    .addAnnotation(
+                        AnnotationSpec.builder(PARAM).addMember("value", "$S", "1").build())
+                    .build())
+            .addField(messageClass, "message", PRIVATE)
+            .addField(byte[].class, "encoded", PRIVATE);
+
+    final MethodSpec.Builder setUp =
+        MethodSpec.methodBuilder("setUp")
+            .addAnnotation(SETUP)
+            .addModifiers(PUBLIC)
+            .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+            .addStatement("message = random(new $T(seed), 0)", Random.class)
+            .addStatement("encoded = message.toByteArray()");
+    if (holders) {
+      type.addField(
+          FieldSpec.builder(holderClass, "holder", PRIVATE, FINAL)
+              .initializer("new $T()", holderClass)
+              .build());
+      setUp.addStatement("holder.clear()").addStatement("holder.mergeFrom(encoded)");
+    }
+    if (columnar) {
+      type.addField(
+          FieldSpec.builder(batchClass, "batch", PRIVATE, FINAL)
+              .initializer("new $T()", batchClass)
+              .build());
+    }
+    type.addMethod(setUp.build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("random")
+            .addJavadoc(
+                "Creates a random message, which only depends on the state of {@code random}. "
+                    + "Optional\nmessage fields are left unset from a depth of {@link $T#MAX_DEPTH} "
+                    + "on.\n",
+                RANDOM_VALUES)
+            .addModifiers(PUBLIC, STATIC)
+            .returns(messageClass)
+            .addParameter(ParameterSpec.builder(Random.class, "random", FINAL).build())
+            .addParameter(ParameterSpec.builder(TypeName.INT, "depth", FINAL).build())
+            .addCode(randomBody(message, messageClass, messageNames))
+            .build());
+
+    type.addMethod(
+        benchmark("parse", messageClass)
+            .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+            .addStatement("return $T.parseFrom(encoded)", messageClass)
+            .build());
+    type.addMethod(
+        benchmark("serialize", TypeName.get(byte[].class))
+            .addStatement("return message.toByteArray()")
+            .build());
+    type.addMethod(
+        benchmark("builderRoundTrip", messageClass)
+            .addStatement("return message.toBuilder().build()")
+            .build());
+    type.addMethod(
+        benchmark("serializedSize", TypeName.INT)
+            .addJavadoc(
+                "Computes the size of a copy of the message, since messages cache their size. "
+                    + "The cost of the\ncopy is measured by {@link #builderRoundTrip}.\n")
+            .addStatement("return message.toBuilder().build().getSerializedSize()")
+            .build());
+    if (holders) {
+      type.addMethod(
+          benchmark("parseHolder", holderClass)
+              .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+              .addStatement("holder.clear()")
+              .addStatement("holder.mergeFrom(encoded)")
+              .addStatement("return holder")
+              .build());
+      type.addMethod(
+          benchmark("serializeHolder", TypeName.get(byte[].class))
+              .addStatement("return holder.toByteArray()")
+              .build());
+    }
+    if (columnar) {
+      type.addMethod(
+          benchmark("parseBatch", batchClass)
+              .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+              .addStatement("batch.clear()")
+              .addStatement("batch.appendRow(encoded)")
+              .addStatement("return batch")
+              .build());
+    }
+    return type.build();
+  }
+
+  private static MethodSpec.Builder benchmark(final String name, final TypeName returns) {
+    return MethodSpec.methodBuilder(name)
+        .addAnnotation(BENCHMARK)
+        .addModifiers(PUBLIC)
+        .returns(returns);
+  }
+
+  private static CodeBlock randomBody(
+      final Descriptor message,
+      final ClassName messageClass,
+      final ImmutableSet<String> messageNames)
+      throws AutoProtobufException {
+    final CodeBlock.Builder body =
+        CodeBlock.builder()
+            .addStatement(
+                "final $T builder = $T.newBuilder()",
+                messageClass.nestedClass("Builder"),
+                messageClass);
+    for (final FieldDescriptor field : message.getFields()) {
+      final String name = JavaNames.capitalizedName(field);
+      final boolean isMessage = field.getJavaType() == FieldDescriptor.JavaType.MESSAGE;
+      if (field.isMapField()) {
+        final Descriptor entry = field.getMessageType();
+        final FieldDescriptor value = entry.findFieldByNumber(2);
+        body.beginControlFlow("for (int i = $L; i > 0; i--)", count(value, messageNames))
+            .addStatement(
+                "builder.put$L($L, $L)",
+                name,
+                randomValue(entry.findFieldByNumber(1), messageNames),
+                randomValue(value, messageNames))
+            .endControlFlow();
+      } else if (field.isRepeated()) {
+        body.beginControlFlow("for (int i = $L; i > 0; i--)", count(field, messageNames))
+            .addStatement("builder.add$L($L)", name, randomValue(field, messageNames))
+            .endControlFlow();
+      } else if (field.isRequired()) {
+        body.addStatement("builder.set$L($L)", name, randomValue(field, messageNames));
+      } else {
+        if (isMessage && messageNames.contains(field.getMessageType().getFullName())) {
+          body.beginControlFlow("if ($T.descend(random, depth))", RANDOM_VALUES);
+        } else {
+          body.beginControlFlow("if (random.nextBoolean())");
+        }
+        body.addStatement("builder.set$L($L)", name, randomValue(field, messageNames))
+            .endControlFlow();
+      }
+    }
+    return body.addStatement("return builder.build()").build();
+  }
+
+  private static CodeBlock count(
+      final FieldDescriptor element, final ImmutableSet<String> messageNames) {
+    if (element.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        && messageNames.contains(element.getMessageType().getFullName())) {
+      return CodeBlock.of("$T.nextCount(random, depth)", RANDOM_VALUES);
+    }
+    return CodeBlock.of("$T.nextCount(random)", RANDOM_VALUES);
+  }
+
+  private static CodeBlock randomValue(
+      final FieldDescriptor field, final ImmutableSet<String> messageNames)
+      throws AutoProtobufException {
+    switch (field.getJavaType()) {
+      case INT:
+        return CodeBlock.of("$T.nextInt(random)", RANDOM_VALUES);
+      case LONG:
+        return CodeBlock.of("$T.nextLong(random)", RANDOM_VALUES);
+      case FLOAT:
+        return CodeBlock.of("$T.nextFloat(random)", RANDOM_VALUES);
+      case DOUBLE:
+        return CodeBlock.of("$T.nextDouble(random)", RANDOM_VALUES);
+      case BOOLEAN:
+        return CodeBlock.of("random.nextBoolean()");
+      case STRING:
+        return CodeBlock.of("$T.nextString(random)", RANDOM_VALUES);
+      case BYTE_STRING:
+        return CodeBlock.of("$T.nextBytes(random)", RANDOM_VALUES);
+      case ENUM:
+        final ClassName enumClass = JavaNames.enumClass(field.getEnumType());
+        final CodeBlock.Builder values = CodeBlock.builder().add("$T.pick(random", RANDOM_VALUES);
+        for (final EnumValueDescriptor value : field.getEnumType().getValues()) {
+          values.add(", $T.$L", enumClass, value.getName());
+        }
+        return values.add(")").build();
+      case MESSAGE:
+        final Descriptor type = field.getMessageType();
+        if (messageNames.contains(type.getFullName())) {
+          return CodeBlock.of(
+              "$T.random(random, depth + 1)", JavaNames.generatedClass(type, SUFFIX));
+        }
+        return randomWellKnownValue(type, messageNames);
+      default:
+        throw new AutoProtobufException("Unsupported field type " + field.getType());
+    }
+  }
+
+  // Messages from outside of the schema are left empty unless they are well-known
+  private static CodeBlock randomWellKnownValue(
+      final Descriptor type, final ImmutableSet<String> messageNames)
+      throws AutoProtobufException {
+    final ClassName messageClass = JavaNames.messageClass(type);
+    if (WellKnownTypes.isWrapper(type)) {
+      return CodeBlock.of(
+          "$T.newBuilder().setValue($L).build()",
+          messageClass,
+          randomValue(type.findFieldByName("value"), messageNames));
+    } else if (!WellKnownTypes.isWellKnown(type)) {
+      return CodeBlock.of("$T.getDefaultInstance()", messageClass);
+    }
+    switch (type.getName()) {
+      case "Any":
+      case "Duration":
+      case "FieldMask":
+      case "Timestamp":
+        return CodeBlock.of("$T.next$L(random)", RANDOM_VALUES, type.getName());
+      case "ListValue":
+      case "Struct":
+      case "Value":
+        return CodeBlock.of("$T.next$L(random, depth + 1)", RANDOM_VALUES, type.getName());
+      default:
+        return CodeBlock.of("$T.getDefaultInstance()", messageClass);
+    }
+  }
+}
@@ -0,0 +1,1192 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PROTECTED;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Generates a columnar batch class for every message of a schema.
+ *
+ * <p>A batch stores one column per field, where every message is a row: unboxed arrays for scalar
+ * fields, offset buffers for strings and bytes, nested batches for message fields and offsets into
+ * element columns for repeated and map fields. Rows are decoded from and encoded to the wire format
+ * directly, without creating message objects in between.
+ */
+final class ColumnarGenerator implements SourceGenerator {
+
+  static final String SUFFIX = "Batch";
+
+  private static final String RUNTIME_PACKAGE = "io.dflemstr.auto.protobuf.runtime.columnar";
+  private static final ClassName COLUMN_BATCH = ClassName.get(RUNTIME_PACKAGE, "ColumnBatch");
+  private static final ClassName OFFSETS = ClassName.get(RUNTIME_PACKAGE, "Offsets");
+  private static final ClassName INT_COLUMN = ClassName.get(RUNTIME_PACKAGE, "IntColumn");
+  private static final ClassName BYTES_COLUMN = ClassName.get(RUNTIME_PACKAGE, "BytesColumn");
+  private static final ClassName PARALLEL_DECODER =
+      ClassName.get(RUNTIME_PACKAGE, "ParallelDecoder");
+  private static final ClassName BYTE_STRING = ClassName.get("com.google.protobuf", "ByteString");
+  private static final ClassName CODED_INPUT_STREAM =
+      ClassName.get("com.google.protobuf", "CodedInputStream");
+  private static final ClassName CODED_OUTPUT_STREAM =
+      ClassName.get("com.google.protobuf", "CodedOutputStream");
+  private static final ClassName INVALID_PROTOCOL_BUFFER_EXCEPTION =
+      ClassName.get("com.google.protobuf", "InvalidProtocolBufferException");
+
+  /** How a single value of a field, or an element of a repeated field, is stored. */
+  private enum ValueKind {
+    /** In a column of unboxed values. */
+    PRIMITIVE,
+    /** In a bytes column, as the bytes of a string or bytes field. */
+    BYTES,
+    /** In a bytes column, as an encoded well-known message. */
+    ENCODED,
+    /** In a nested batch. */
+    BATCH
+  }
+
+  private final boolean metrics;
+
+  /**
+   * @param metrics whether metrics are generated as well, in which case batches count the messages
+   *     they parse and serialize
+   */
+  ColumnarGenerator(final boolean metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) throws AutoProtobufException {
+    final ImmutableList.Builder<JavaFile> files = ImmutableList.builder();
+    for (final Descriptor message : schema.messages()) {
+      final ClassName batchClass = JavaNames.generatedClass(message, SUFFIX);
+      files.add(
+          JavaFile.builder(batchClass.packageName(), batchType(message, batchClass)).build());
+    }
+    return files.build();
+  }
+
+  private TypeSpec batchType(final Descriptor message, final ClassName batchClass)
+      throws AutoProtobufException {
+    final ClassName messageClass = JavaNames.messageClass(message);
+    final List<FieldDescriptor> fields = fieldsByNumber(message);
+
+    final TypeSpec.Builder type =
+        TypeSpec.classBuilder(batchClass)
+            .addModifiers(PUBLIC, FINAL)
+            .superclass(ParameterizedTypeName.get(COLUMN_BATCH, batchClass))
+            .addJavadoc(
+                "A batch of {@code $L} messages, which stores every field in its own column.\n\n"
+                    + "<p>Columns hold default values in rows where their field is unset. Map "
+                    + "entries are kept in\nwire order, including entries with duplicate keys.\n",
+                message.getFullName());
+
+    for (final FieldDescriptor field : fields) {
+      if (!field.isRepeated() && field.hasDefaultValue()) {
+        type.addField(
+            FieldSpec.builder(
+                    valueType(field), defaultConstant(field), PRIVATE, STATIC, FINAL)
+                .initializer(
+                    "$T.getDefaultInstance().get$L$L()$L",
+                    messageClass,
+                    JavaNames.capitalizedName(field),
+                    field.getType() == FieldDescriptor.Type.STRING ? "Bytes" : "",
+                    field.getJavaType() == FieldDescriptor.JavaType.ENUM ? ".getNumber()" : "")
+                .build());
+      }
+    }
+
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      type.addField(
+          FieldSpec.builder(INT_COLUMN, oneofCaseField(oneof), PRIVATE, FINAL)
+              .initializer("new $T()", INT_COLUMN)
+              .build());
+    }
+    for (final FieldDescriptor field : fields) {
+      if (field.isMapField()) {
+        type.addField(offsetsField(field));
+        type.addField(column(mapKey(field), mapKeysField(field)));
+        type.addField(column(mapValue(field), mapValuesField(field)));
+      } else if (field.isRepeated()) {
+        type.addField(offsetsField(field));
+        type.addField(column(field, storage(field)));
+      } else {
+        type.addField(column(field, storage(field)));
+        if (valueKind(field) == ValueKind.BATCH) {
+          type.addField(
+              FieldSpec.builder(INT_COLUMN, rowIndexesField(field), PRIVATE, FINAL)
+                  .initializer("new $T()", INT_COLUMN)
+                  .build());
+        }
+        if (hasPresenceBits(field)) {
+          type.addField(
+              FieldSpec.builder(ClassName.get(BitSet.class), presenceField(field), PRIVATE, FINAL)
+                  .initializer("new $T()", BitSet.class)
+                  .build());
+        }
+      }
+    }
+
+    final MethodSpec.Builder constructor = MethodSpec.constructorBuilder().addModifiers(PUBLIC);
+    if (metrics) {
+      constructor.addStatement("super($L)", MetricsGenerator.metrics(message));
+    }
+    type.addMethod(constructor.build());
+    type.addMethod(
+        MethodSpec.methodBuilder("decodeParallel")
+            .addJavadoc(
+                "Decodes encoded messages into a new batch in parallel, on the common fork/join "
+                    + "pool.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(batchClass)
+            .addParameter(
+                ParameterSpec.builder(
+                        ParameterizedTypeName.get(
+                            ClassName.get(List.class), TypeName.get(byte[].class)),
+                        "messages",
+                        FINAL)
+                    .build())
+            .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+            .addStatement("return $T.decode(messages, $T::new)", PARALLEL_DECODER, batchClass)
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("decodeDelimitedParallel")
+            .addJavadoc(
+                "Decodes a buffer of length-delimited messages into a new batch in parallel, on "
+                    + "the common\nfork/join pool.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(batchClass)
+            .addParameter(ParameterSpec.builder(byte[].class, "data", FINAL).build())
+            .addException(INVALID_PROTOCOL_BUFFER_EXCEPTION)
+            .addStatement(
+                "return $T.decodeDelimited(data, $T::new)", PARALLEL_DECODER, batchClass)
+            .build());
+
+    for (final FieldDescriptor field : fields) {
+      addAccessors(type, field);
+    }
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      final String caseEnum = JavaNames.oneofCaseEnumName(oneof);
+      final ClassName caseClass = messageClass.nestedClass(caseEnum);
+      type.addMethod(
+          MethodSpec.methodBuilder("get" + caseEnum)
+              .addModifiers(PUBLIC)
+              .returns(caseClass)
+              .addParameter(ParameterSpec.builder(TypeName.INT, "row", FINAL).build())
+              .addStatement("return $T.forNumber($N.get(row))", caseClass, oneofCaseField(oneof))
+              .build());
+      type.addMethod(
+          MethodSpec.methodBuilder("get" + caseEnum + "Column")
+              .addJavadoc("Returns the field numbers of the set members, or 0 for none.\n")
+              .addModifiers(PUBLIC)
+              .returns(INT_COLUMN)
+              .addStatement("return $N", oneofCaseField(oneof))
+              .build());
+    }
+
+    type.addMethod(
+        MethodSpec.methodBuilder("startRow")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addCode(startRowBody(message, fields))
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("mergeRow")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addParameter(ParameterSpec.builder(CODED_INPUT_STREAM, "input", FINAL).build())
+            .addParameter(ParameterSpec.builder(TypeName.INT, "row", FINAL).build())
+            .addParameter(ParameterSpec.builder(TypeName.INT, "depth", FINAL).build())
+            .addException(IOException.class)
+            .addCode(mergeRowBody(fields))
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("finishRow")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addParameter(ParameterSpec.builder(TypeName.INT, "row", FINAL).build())
+            .addCode(finishRowBody(fields))
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("appendColumns")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addParameter(ParameterSpec.builder(batchClass, "other", FINAL).build())
+            .addCode(appendColumnsBody(message, fields))
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("truncateColumns")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addParameter(ParameterSpec.builder(TypeName.INT, "rows", FINAL).build())
+            .addCode(truncateColumnsBody(message, fields))
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("clearColumns")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addCode(clearColumnsBody(message, fields))
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("computeRowSize")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .returns(TypeName.INT)
+            .addParameter(ParameterSpec.builder(TypeName.INT, "row", FINAL).build())
+            .addCode(computeRowSizeBody(fields))
+            .build());
+    type.addMethod(
+        MethodSpec.methodBuilder("writeRowFields")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addParameter(ParameterSpec.builder(TypeName.INT, "row", FINAL).build())
+            .addParameter(ParameterSpec.builder(CODED_OUTPUT_STREAM, "output", FINAL).build())
+            .addException(IOException.class)
+            .addCode(writeRowFieldsBody(fields))
+            .build());
+
+    return type.build();
+  }
+
+  private static FieldSpec offsetsField(final FieldDescriptor field) {
+    return FieldSpec.builder(OFFSETS, offsetsName(field), PRIVATE, FINAL)
+        .initializer("new $T()", OFFSETS)
+        .build();
+  }
+
+  private static FieldSpec column(final FieldDescriptor valueField, final String name) {
+    final TypeName columnType = columnType(valueField);
+    if (valueKind(valueField) == ValueKind.BATCH) {
+      // Nested batches are created lazily, since message types can be recursive
+      return FieldSpec.builder(columnType, name, PRIVATE).build();
+    }
+    return FieldSpec.builder(columnType, name, PRIVATE, FINAL)
+        .initializer("new $T()", columnType)
+        .build();
+  }
+
+  private static void addAccessors(final TypeSpec.Builder type, final FieldDescriptor field) {
+    final String name = JavaNames.capitalizedName(field);
+    if (field.isMapField()) {
+      type.addMethod(getter("get" + name + "Offsets", OFFSETS, offsetsName(field), ""));
+      type.addMethod(
+          getter(
+              "get" + name + "Keys",
+              columnType(mapKey(field)),
+              mapKeysField(field),
+              "Returns the keys of all entries, in the order of the offsets.\n"));
+      type.addMethod(
+          getter(
+              "get" + name + "Values",
+              mapValue(field),
+              mapValuesField(field),
+              "Returns the values of all entries, in the order of the offsets.\n"));
+      return;
+    }
+
+    final String suffix = valueKind(field) == ValueKind.BATCH ? "Batch" : "Column";
+    if (field.isRepeated()) {
+      type.addMethod(getter("get" + name + "Offsets", OFFSETS, offsetsName(field), ""));
+      type.addMethod(
+          getter(
+              "get" + name + suffix,
+              field,
+              storage(field),
+              "Returns the elements of all rows, in the order of the offsets.\n"));
+    } else {
+      type.addMethod(getter("get" + name + suffix, field, storage(field), ""));
+      if (valueKind(field) == ValueKind.BATCH) {
+        type.addMethod(
+            getter(
+                "get" + name + "Rows",
+                INT_COLUMN,
+                rowIndexesField(field),
+                "Returns the row of the nested batch for every row, or -1 where the field is "
+                    + "unset.\n"));
+      }
+      if (hasPresence(field)) {
+        type.addMethod(
+            MethodSpec.methodBuilder("has" + name)
+                .addModifiers(PUBLIC)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(ParameterSpec.builder(TypeName.INT, "row", FINAL).build())
+                .addStatement("return $L", isSet(field))
+                .build());
+      }
+    }
+  }
+
+  private static MethodSpec getter(
+      final String methodName,
+      final FieldDescriptor valueField,
+      final String field,
+      final String javadoc) {
+    if (valueKind(valueField) == ValueKind.BATCH) {
+      final TypeName batchType = columnType(valueField);
+      final MethodSpec.Builder method =
+          MethodSpec.methodBuilder(methodName)
+              .addModifiers(PUBLIC)
+              .returns(batchType)
+              .beginControlFlow("if ($N == null)", field)
+              .addStatement("$N = new $T()", field, batchType)
+              .endControlFlow()
+              .addStatement("return $N", field);
+      if (!javadoc.isEmpty()) {
+        method.addJavadoc(javadoc);
+      }
+      return method.build();
+    }
+    return getter(methodName, columnType(valueField), field, javadoc);
+  }
+
+  private static MethodSpec getter(
+      final String methodName, final TypeName type, final String field, final String javadoc) {
+    final MethodSpec.Builder method =
+        MethodSpec.methodBuilder(methodName)
+            .addModifiers(PUBLIC)
+            .returns(type)
+            .addStatement("return $N", field);
+    if (!javadoc.isEmpty()) {
+      method.addJavadoc(javadoc);
+    }
+    return method.build();
+  }
+
+  private static CodeBlock startRowBody(
+      final Descriptor message, final List<FieldDescriptor> fields) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      code.addStatement("$N.append(0)", oneofCaseField(oneof));
+    }
+    for (final FieldDescriptor field : fields) {
+      if (field.isRepeated()) {
+        code.addStatement("$N.startRow()", offsetsName(field));
+      } else if (valueKind(field) == ValueKind.BATCH) {
+        // Nested batches only get rows for messages that are set
+        code.addStatement("$N.append(-1)", rowIndexesField(field));
+      } else {
+        code.addStatement("$N.append($L)", storage(field), defaultValue(field));
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock mergeRowBody(final List<FieldDescriptor> fields)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code =
+        CodeBlock.builder()
+            .beginControlFlow("while (true)")
+            .addStatement("final int tag = input.readTag()")
+            .beginControlFlow("switch (tag)")
+            .add("case 0:\n")
+            .indent()
+            .addStatement("return")
+            .unindent();
+
+    for (final FieldDescriptor field : fields) {
+      final String storage = storage(field);
+      code.add("case $L:\n", WireFormats.tag(field)).indent();
+      if (field.isMapField()) {
+        code.add(readMapEntry(field));
+      } else if (field.isRepeated()) {
+        code.add(
+            readValue(field, columnRef(field), null, CodeBlock.of(""), CodeBlock.of("false")));
+        if (valueKind(field) == ValueKind.PRIMITIVE) {
+          // Parsers must accept both packed and unpacked encodings of packable fields
+          code.addStatement("break")
+              .unindent()
+              .add("case $L:\n", WireFormats.packedTag(field))
+              .indent()
+              .add("{\n")
+              .indent()
+              .addStatement("final int limit = input.pushLimit(input.readRawVarint32())")
+              .beginControlFlow("while (input.getBytesUntilLimit() > 0)")
+              .add(readValue(field, storage, null, CodeBlock.of(""), CodeBlock.of("false")))
+              .endControlFlow()
+              .addStatement("input.popLimit(limit)")
+              .unindent()
+              .add("}\n");
+        }
+      } else {
+        final OneofDescriptor oneof = field.getContainingOneof();
+        final String column = columnRef(field);
+        final CodeBlock target =
+            valueKind(field) == ValueKind.BATCH
+                ? CodeBlock.of("nestedRow($N, row, $L)", rowIndexesField(field), column)
+                : CodeBlock.of("row");
+        if (oneof != null) {
+          final String caseField = oneofCaseField(oneof);
+          if (valueKind(field) == ValueKind.BATCH) {
+            // This member may have been read before another member replaced it
+            code.beginControlFlow("if ($N.get(row) != $L)", caseField, field.getNumber())
+                .addStatement("clearNestedRow($N, row, $L)", rowIndexesField(field), column)
+                .endControlFlow();
+          }
+          code.add(
+              readValue(
+                  field,
+                  column,
+                  target,
+                  CodeBlock.of("$N.set(row, $L);\n", caseField, field.getNumber()),
+                  isSet(field)));
+        } else if (hasPresenceBits(field)) {
+          code.add(
+              readValue(
+                  field,
+                  column,
+                  target,
+                  CodeBlock.of("$N.set(row);\n", presenceField(field)),
+                  isSet(field)));
+        } else {
+          code.add(readValue(field, column, target, CodeBlock.of(""), CodeBlock.of("false")));
+        }
+      }
+      code.addStatement("break").unindent();
+    }
+
+    return code.add("default:\n")
+        .indent()
+        .beginControlFlow("if (!input.skipField(tag))")
+        .addStatement("return")
+        .endControlFlow()
+        .addStatement("break")
+        .unindent()
+        .endControlFlow()
+        .endControlFlow()
+        .build();
+  }
+
+  /**
+   * Reads a value into a column, either into the given row (which is the last row of the column
+   * unless it is a nested batch) or as a new element if the row is {@code null}.
+   */
+  private static CodeBlock readValue(
+      final FieldDescriptor field,
+      final String column,
+      final CodeBlock row,
+      final CodeBlock onSet,
+      final CodeBlock wasSet)
+      throws AutoProtobufException {
+    switch (valueKind(field)) {
+      case BATCH:
+        {
+          final boolean group = field.getType() == FieldDescriptor.Type.GROUP;
+          final CodeBlock read;
+          if (row == null) {
+            read =
+                group
+                    ? CodeBlock.of(
+                        "appendGroup(input, $L, $L, depth);\n",
+                        WireFormats.endGroupTag(field),
+                        column)
+                    : CodeBlock.of("appendMessage(input, $L, depth);\n", column);
+          } else {
+            read =
+                group
+                    ? CodeBlock.of(
+                        "readGroup(input, $L, $L, $L, depth);\n",
+                        WireFormats.endGroupTag(field),
+                        column,
+                        row)
+                    : CodeBlock.of("readMessage(input, $L, $L, depth);\n", column, row);
+          }
+          return CodeBlock.builder().add(read).add(onSet).build();
+        }
+      case ENCODED:
+        if (row == null) {
+          return CodeBlock.builder()
+              .addStatement("$N.append(input.readBytes())", column)
+              .add(onSet)
+              .build();
+        }
+        // Encoded messages are merged by concatenating them
+        return CodeBlock.builder()
+            .add("{\n")
+            .indent()
+            .addStatement("final $T value = input.readBytes()", BYTE_STRING)
+            .addStatement(
+                "$N.setLast($L ? $N.getBytes($L).concat(value) : value)",
+                column,
+                wasSet,
+                column,
+                row)
+            .add(onSet)
+            .unindent()
+            .add("}\n")
+            .build();
+      case BYTES:
+        {
+          final CodeBlock value =
+              field.getType() == FieldDescriptor.Type.STRING
+                      && field.getFile().getSyntax() == FileDescriptor.Syntax.PROTO3
+                  ? CodeBlock.of("readUtf8(input)")
+                  : CodeBlock.of("input.readBytes()");
+          return CodeBlock.builder()
+              .addStatement("$N.$L($L)", column, row == null ? "append" : "setLast", value)
+              .add(onSet)
+              .build();
+        }
+      case PRIMITIVE:
+      default:
+        {
+          final CodeBlock store =
+              row == null
+                  ? CodeBlock.of("$N.append(value)", column)
+                  : CodeBlock.of("$N.set($L, value)", column, row);
+          final CodeBlock.Builder code =
+              CodeBlock.builder()
+                  .add("{\n")
+                  .indent()
+                  .addStatement(
+                      "final $T value = input.read$L()",
+                      valueType(field),
+                      WireFormats.wireName(field));
+          if (isClosedEnum(field)) {
+            // Like protobuf-java, ignore unknown values of closed enums
+            code.beginControlFlow(
+                    "if ($T.forNumber(value) != null)", JavaNames.enumClass(field.getEnumType()))
+                .addStatement("$L", store)
+                .add(onSet)
+                .endControlFlow();
+          } else {
+            code.addStatement("$L", store).add(onSet);
+          }
+          return code.unindent().add("}\n").build();
+        }
+    }
+  }
+
+  private static CodeBlock readMapEntry(final FieldDescriptor field)
+      throws AutoProtobufException {
+    final FieldDescriptor keyField = mapKey(field);
+    final FieldDescriptor valueField = mapValue(field);
+    final String keys = mapKeysField(field);
+    final String values = mapValuesRef(field);
+
+    final CodeBlock.Builder code =
+        CodeBlock.builder()
+            .add("{\n")
+            .indent()
+            .addStatement("final int limit = input.pushLimit(input.readRawVarint32())")
+            .addStatement("final int entry = $N.size()", keys)
+            .addStatement("$N.append($L)", keys, defaultValue(keyField));
+    if (valueKind(valueField) != ValueKind.BATCH) {
+      code.addStatement("$L.append($L)", values, defaultValue(valueField));
+    }
+    code.beginControlFlow(
+            "for (int entryTag = input.readTag(); entryTag != 0; entryTag = input.readTag())")
+        .beginControlFlow("switch (entryTag)")
+        .add("case $L:\n", WireFormats.tag(keyField))
+        .indent()
+        .add(
+            readValue(
+                keyField, keys, CodeBlock.of("entry"), CodeBlock.of(""), CodeBlock.of("false")))
+        .addStatement("break")
+        .unindent()
+        .add("case $L:\n", WireFormats.tag(valueField))
+        .indent()
+        .add(
+            readValue(
+                valueField, values, CodeBlock.of("entry"), CodeBlock.of(""), CodeBlock.of("true")))
+        .addStatement("break")
+        .unindent()
+        .add("default:\n")
+        .indent()
+        .addStatement("input.skipField(entryTag)")
+        .addStatement("break")
+        .unindent()
+        .endControlFlow()
+        .endControlFlow()
+        .addStatement("input.popLimit(limit)");
+    if (valueKind(valueField) == ValueKind.BATCH) {
+      code.addStatement("ensureRow($L, entry)", values);
+    }
+    if (isClosedEnum(valueField)) {
+      // Like protobuf-java, drop entries with unknown values of closed enums
+      code.beginControlFlow(
+              "if ($T.forNumber($L.get(entry)) == null)",
+              JavaNames.enumClass(valueField.getEnumType()),
+              values)
+          .addStatement("$N.truncate(entry)", keys)
+          .addStatement("$L.truncate(entry)", values)
+          .endControlFlow();
+    }
+    return code.unindent().add("}\n").build();
+  }
+
+  private static CodeBlock finishRowBody(final List<FieldDescriptor> fields) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (final FieldDescriptor field : fields) {
+      if (field.isMapField()) {
+        code.addStatement("$N.endLastRow($N.size())", offsetsName(field), mapKeysField(field));
+      } else if (field.isRepeated()) {
+        code.addStatement(
+            "$N.endLastRow($L.$L())",
+            offsetsName(field),
+            columnRef(field),
+            valueKind(field) == ValueKind.BATCH ? "rows" : "size");
+      } else if (field.getContainingOneof() != null) {
+        // Reset members that were replaced by another member, so that unset means default
+        code.beginControlFlow(
+            "if ($N.get(row) != $L)",
+            oneofCaseField(field.getContainingOneof()),
+            field.getNumber());
+        switch (valueKind(field)) {
+          case BATCH:
+            code.addStatement(
+                "clearNestedRow($N, row, $L)", rowIndexesField(field), columnRef(field));
+            break;
+          case PRIMITIVE:
+            code.addStatement("$N.set(row, $L)", storage(field), defaultValue(field));
+            break;
+          default:
+            code.addStatement("$N.setLast($L)", storage(field), defaultValue(field));
+            break;
+        }
+        code.endControlFlow();
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock appendColumnsBody(
+      final Descriptor message, final List<FieldDescriptor> fields) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      code.addStatement("$N.appendAll(other.$N)", oneofCaseField(oneof), oneofCaseField(oneof));
+    }
+    for (final FieldDescriptor field : fields) {
+      if (field.isMapField()) {
+        code.addStatement(
+                "$N.appendAll(other.$N, $N.elementCount())",
+                offsetsName(field),
+                offsetsName(field),
+                offsetsName(field))
+            .addStatement("$N.appendAll(other.$N)", mapKeysField(field), mapKeysField(field))
+            .add(appendColumn(mapValue(field), mapValuesField(field), mapValuesRef(field)));
+      } else if (field.isRepeated()) {
+        code.addStatement(
+                "$N.appendAll(other.$N, $N.elementCount())",
+                offsetsName(field),
+                offsetsName(field),
+                offsetsName(field))
+            .add(appendColumn(field, storage(field), columnRef(field)));
+      } else if (valueKind(field) == ValueKind.BATCH) {
+        code.addStatement(
+                "appendRowIndexes($N, other.$N, $N == null ? 0 : $N.rows())",
+                rowIndexesField(field),
+                rowIndexesField(field),
+                storage(field),
+                storage(field))
+            .add(appendColumn(field, storage(field), columnRef(field)));
+      } else {
+        if (hasPresenceBits(field)) {
+          code.addStatement(
+              "appendPresence($N, rows(), other.$N)", presenceField(field), presenceField(field));
+        }
+        code.addStatement("$N.appendAll(other.$N)", storage(field), storage(field));
+      }
+    }
+    return code.build();
+  }
+
+  // Nested batches that were never created have nothing to append, and must not be created here
+  private static CodeBlock appendColumn(
+      final FieldDescriptor valueField, final String field, final String column) {
+    if (valueKind(valueField) == ValueKind.BATCH) {
+      return CodeBlock.builder()
+          .beginControlFlow("if (other.$N != null)", field)
+          .addStatement("$L.appendAll(other.$N)", column, field)
+          .endControlFlow()
+          .build();
+    }
+    return CodeBlock.of("$N.appendAll(other.$N);\n", field, field);
+  }
+
+  private static CodeBlock truncateColumnsBody(
+      final Descriptor message, final List<FieldDescriptor> fields) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      code.addStatement("$N.truncate(rows)", oneofCaseField(oneof));
+    }
+    for (final FieldDescriptor field : fields) {
+      if (field.isMapField()) {
+        code.addStatement("$N.truncate(rows)", offsetsName(field))
+            .addStatement("$N.truncate($N.elementCount())", mapKeysField(field), offsetsName(field))
+            .add(truncateColumn(mapValue(field), mapValuesField(field), offsetsName(field)));
+      } else if (field.isRepeated()) {
+        code.addStatement("$N.truncate(rows)", offsetsName(field))
+            .add(truncateColumn(field, storage(field), offsetsName(field)));
+      } else if (valueKind(field) == ValueKind.BATCH) {
+        code.beginControlFlow("if ($N != null)", storage(field))
+            .addStatement("truncateNested($N, rows, $N)", rowIndexesField(field), storage(field))
+            .nextControlFlow("else")
+            .addStatement("$N.truncate(rows)", rowIndexesField(field))
+            .endControlFlow();
+      } else {
+        if (hasPresenceBits(field)) {
+          code.addStatement("$N.clear(rows, $T.MAX_VALUE)", presenceField(field), Integer.class);
+        }
+        code.addStatement("$N.truncate(rows)", storage(field));
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock truncateColumn(
+      final FieldDescriptor valueField, final String field, final String offsets) {
+    if (valueKind(valueField) == ValueKind.BATCH) {
+      return CodeBlock.builder()
+          .beginControlFlow("if ($N != null)", field)
+          .addStatement("$N.truncate($N.elementCount())", field, offsets)
+          .endControlFlow()
+          .build();
+    }
+    return CodeBlock.of("$N.truncate($N.elementCount());\n", field, offsets);
+  }
+
+  private static CodeBlock clearColumnsBody(
+      final Descriptor message, final List<FieldDescriptor> fields) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      code.addStatement("$N.clear()", oneofCaseField(oneof));
+    }
+    for (final FieldDescriptor field : fields) {
+      if (field.isMapField()) {
+        code.addStatement("$N.clear()", offsetsName(field))
+            .addStatement("$N.clear()", mapKeysField(field))
+            .add(clearColumn(mapValue(field), mapValuesField(field)));
+      } else {
+        if (field.isRepeated()) {
+          code.addStatement("$N.clear()", offsetsName(field));
+        } else if (valueKind(field) == ValueKind.BATCH) {
+          code.addStatement("$N.clear()", rowIndexesField(field));
+        } else if (hasPresenceBits(field)) {
+          code.addStatement("$N.clear()", presenceField(field));
+        }
+        code.add(clearColumn(field, storage(field)));
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock clearColumn(final FieldDescriptor valueField, final String field) {
+    if (valueKind(valueField) == ValueKind.BATCH) {
+      return CodeBlock.builder()
+          .beginControlFlow("if ($N != null)", field)
+          .addStatement("$N.clear()", field)
+          .endControlFlow()
+          .build();
+    }
+    return CodeBlock.of("$N.clear();\n", field);
+  }
+
+  private static CodeBlock computeRowSizeBody(final List<FieldDescriptor> fields)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code = CodeBlock.builder().addStatement("int size = 0");
+    for (final FieldDescriptor field : fields) {
+      final String column = columnRef(field);
+      final int tagSize = CodedOutputStream.computeTagSize(field.getNumber());
+      if (field.isMapField()) {
+        code.beginControlFlow(
+                "for (int i = $N.start(row), end = $N.end(row); i < end; i++)",
+                offsetsName(field),
+                offsetsName(field))
+            .addStatement("final int entrySize = $L", entrySize(field))
+            .addStatement(
+                "size += $L + $T.computeUInt32SizeNoTag(entrySize) + entrySize",
+                tagSize,
+                CODED_OUTPUT_STREAM)
+            .endControlFlow();
+      } else if (field.isRepeated() && field.isPacked()) {
+        code.beginControlFlow("if ($N.length(row) != 0)", offsetsName(field))
+            .add(packedDataSize(field))
+            .addStatement(
+                "size += $L + $T.computeUInt32SizeNoTag(dataSize) + dataSize",
+                tagSize,
+                CODED_OUTPUT_STREAM)
+            .endControlFlow();
+      } else if (field.isRepeated()) {
+        code.beginControlFlow(
+                "for (int i = $N.start(row), end = $N.end(row); i < end; i++)",
+                offsetsName(field),
+                offsetsName(field))
+            .addStatement("size += $L", taggedSize(field, column, CodeBlock.of("i")))
+            .endControlFlow();
+      } else {
+        code.beginControlFlow("if ($L)", isWritten(field))
+            .addStatement("size += $L", taggedSize(field, column, singularRow(field)))
+            .endControlFlow();
+      }
+    }
+    return code.addStatement("return size").build();
+  }
+
+  private static CodeBlock writeRowFieldsBody(final List<FieldDescriptor> fields)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (final FieldDescriptor field : fields) {
+      final String column = columnRef(field);
+      if (field.isMapField()) {
+        final FieldDescriptor keyField = mapKey(field);
+        final FieldDescriptor valueField = mapValue(field);
+        code.beginControlFlow(
+                "for (int i = $N.start(row), end = $N.end(row); i < end; i++)",
+                offsetsName(field),
+                offsetsName(field))
+            .addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(field))
+            .addStatement("output.writeUInt32NoTag($L)", entrySize(field))
+            .addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(keyField))
+            .addStatement(
+                "$L", writeValue(keyField, mapKeysField(field), CodeBlock.of("i")))
+            .addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(valueField))
+            .addStatement(
+                "$L", writeValue(valueField, mapValuesRef(field), CodeBlock.of("i")))
+            .endControlFlow();
+      } else if (field.isRepeated() && field.isPacked()) {
+        code.beginControlFlow("if ($N.length(row) != 0)", offsetsName(field))
+            .add(packedDataSize(field))
+            .addStatement("output.writeUInt32NoTag($L)", WireFormats.packedTag(field))
+            .addStatement("output.writeUInt32NoTag(dataSize)")
+            .beginControlFlow(
+                "for (int i = $N.start(row), end = $N.end(row); i < end; i++)",
+                offsetsName(field),
+                offsetsName(field))
+            .addStatement("$L", writeValue(field, column, CodeBlock.of("i")))
+            .endControlFlow()
+            .endControlFlow();
+      } else if (field.isRepeated()) {
+        code.beginControlFlow(
+                "for (int i = $N.start(row), end = $N.end(row); i < end; i++)",
+                offsetsName(field),
+                offsetsName(field))
+            .add(writeTagged(field, column, CodeBlock.of("i")))
+            .endControlFlow();
+      } else {
+        code.beginControlFlow("if ($L)", isWritten(field))
+            .add(writeTagged(field, column, singularRow(field)))
+            .endControlFlow();
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock packedDataSize(final FieldDescriptor field)
+      throws AutoProtobufException {
+    final int width = WireFormats.fixedWidth(field);
+    if (width > 0) {
+      return CodeBlock.of("final int dataSize = $L * $N.length(row);\n", width, offsetsName(field));
+    }
+    return CodeBlock.builder()
+        .addStatement("int dataSize = 0")
+        .beginControlFlow(
+            "for (int i = $N.start(row), end = $N.end(row); i < end; i++)",
+            offsetsName(field),
+            offsetsName(field))
+        .addStatement("dataSize += $L", valueSize(field, columnRef(field), CodeBlock.of("i")))
+        .endControlFlow()
+        .build();
+  }
+
+  private static CodeBlock entrySize(final FieldDescriptor field) throws AutoProtobufException {
+    return CodeBlock.of(
+        "$L + $L + $L + $L",
+        CodedOutputStream.computeTagSize(1),
+        valueSize(mapKey(field), mapKeysField(field), CodeBlock.of("i")),
+        CodedOutputStream.computeTagSize(2),
+        valueSize(mapValue(field), mapValuesRef(field), CodeBlock.of("i")));
+  }
+
+  private static CodeBlock taggedSize(
+      final FieldDescriptor field, final String column, final CodeBlock index)
+      throws AutoProtobufException {
+    final int tagSize = CodedOutputStream.computeTagSize(field.getNumber());
+    return CodeBlock.of(
+        "$L + $L",
+        field.getType() == FieldDescriptor.Type.GROUP ? tagSize * 2 : tagSize,
+        valueSize(field, column, index));
+  }
+
+  private static CodeBlock valueSize(
+      final FieldDescriptor field, final String column, final CodeBlock index)
+      throws AutoProtobufException {
+    switch (valueKind(field)) {
+      case BATCH:
+        return field.getType() == FieldDescriptor.Type.GROUP
+            ? CodeBlock.of("computeGroupSizeNoTag($L, $L)", column, index)
+            : CodeBlock.of("computeMessageSizeNoTag($L, $L)", column, index);
+      case BYTES:
+      case ENCODED:
+        return CodeBlock.of("$L.computeSizeNoTag($L)", column, index);
+      case PRIMITIVE:
+      default:
+        return CodeBlock.of(
+            "$T.compute$LSizeNoTag($L.get($L))",
+            CODED_OUTPUT_STREAM,
+            WireFormats.wireName(field),
+            column,
+            index);
+    }
+  }
+
+  private static CodeBlock writeTagged(
+      final FieldDescriptor field, final String column, final CodeBlock index)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code =
+        CodeBlock.builder().addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(field));
+    if (field.getType() == FieldDescriptor.Type.GROUP) {
+      code.addStatement("writeGroupNoTag(output, $L, $L)", column, index)
+          .addStatement("output.writeUInt32NoTag($L)", WireFormats.endGroupTag(field));
+    } else {
+      code.addStatement("$L", writeValue(field, column, index));
+    }
+    return code.build();
+  }
+
+  private static CodeBlock writeValue(
+      final FieldDescriptor field, final String column, final CodeBlock index)
+      throws AutoProtobufException {
+    switch (valueKind(field)) {
+      case BATCH:
+        return CodeBlock.of("writeMessageNoTag(output, $L, $L)", column, index);
+      case BYTES:
+      case ENCODED:
+        return CodeBlock.of("$L.writeNoTag($L, output)", column, index);
+      case PRIMITIVE:
+      default:
+        return CodeBlock.of(
+            "output.write$LNoTag($L.get($L))", WireFormats.wireName(field), column, index);
+    }
+  }
+
+  private static ValueKind valueKind(final FieldDescriptor field) {
+    switch (field.getJavaType()) {
+      case MESSAGE:
+        return WellKnownTypes.isWellKnown(field.getMessageType())
+            ? ValueKind.ENCODED
+            : ValueKind.BATCH;
+      case STRING:
+      case BYTE_STRING:
+        return ValueKind.BYTES;
+      default:
+        return ValueKind.PRIMITIVE;
+    }
+  }
+
+  private static TypeName columnType(final FieldDescriptor field) {
+    switch (valueKind(field)) {
+      case BATCH:
+        return JavaNames.generatedClass(field.getMessageType(), SUFFIX);
+      case BYTES:
+      case ENCODED:
+        return BYTES_COLUMN;
+      case PRIMITIVE:
+      default:
+        switch (field.getJavaType()) {
+          case LONG:
+            return ClassName.get(RUNTIME_PACKAGE, "LongColumn");
+          case FLOAT:
+            return ClassName.get(RUNTIME_PACKAGE, "FloatColumn");
+          case DOUBLE:
+            return ClassName.get(RUNTIME_PACKAGE, "DoubleColumn");
+          case BOOLEAN:
+            return ClassName.get(RUNTIME_PACKAGE, "BooleanColumn");
+          default:
+            return INT_COLUMN;
+        }
+    }
+  }
+
+  // The type of a single value in its column, where enums are stored as their numbers
+  private static TypeName valueType(final FieldDescriptor field) {
+    switch (field.getJavaType()) {
+      case LONG:
+        return TypeName.LONG;
+      case FLOAT:
+        return TypeName.FLOAT;
+      case DOUBLE:
+        return TypeName.DOUBLE;
+      case BOOLEAN:
+        return TypeName.BOOLEAN;
+      case STRING:
+      case BYTE_STRING:
+      case MESSAGE:
+        return BYTE_STRING;
+      default:
+        return TypeName.INT;
+    }
+  }
+
+  private static CodeBlock defaultValue(final FieldDescriptor field) {
+    if (!field.isRepeated() && field.hasDefaultValue()) {
+      return CodeBlock.of("$N", defaultConstant(field));
+    }
+    switch (field.getJavaType()) {
+      case ENUM:
+        // Enum fields without an explicit default default to their first value
+        return CodeBlock.of("$L", field.getEnumType().getValues().get(0).getNumber());
+      case BOOLEAN:
+        return CodeBlock.of("false");
+      case STRING:
+      case BYTE_STRING:
+      case MESSAGE:
+        return CodeBlock.of("$T.EMPTY", BYTE_STRING);
+      case LONG:
+        return CodeBlock.of("0L");
+      case FLOAT:
+        return CodeBlock.of("0F");
+      case DOUBLE:
+        return CodeBlock.of("0D");
+      default:
+        return CodeBlock.of("0");
+    }
+  }
+
+  private static boolean hasPresence(final FieldDescriptor field) {
+    return field.getContainingOneof() != null
+        || field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        || field.getFile().getSyntax() != FileDescriptor.Syntax.PROTO3;
+  }
+
+  // Oneof members are tracked by the case column, and nested batches by their row indexes
+  private static boolean hasPresenceBits(final FieldDescriptor field) {
+    return !field.isRepeated()
+        && field.getContainingOneof() == null
+        && valueKind(field) != ValueKind.BATCH
+        && hasPresence(field);
+  }
+
+  // Proto2 enums reject unknown values, which protobuf-java moves to the unknown fields instead
+  private static boolean isClosedEnum(final FieldDescriptor field) {
+    return field.getJavaType() == FieldDescriptor.JavaType.ENUM
+        && field.getFile().getSyntax() != FileDescriptor.Syntax.PROTO3;
+  }
+
+  private static CodeBlock isSet(final FieldDescriptor field) {
+    final OneofDescriptor oneof = field.getContainingOneof();
+    if (oneof != null) {
+      return CodeBlock.of("$N.get(row) == $L", oneofCaseField(oneof), field.getNumber());
+    }
+    if (valueKind(field) == ValueKind.BATCH) {
+      return CodeBlock.of("$N.get(row) >= 0", rowIndexesField(field));
+    }
+    return CodeBlock.of("$N.get(row)", presenceField(field));
+  }
+
+  // The row of a singular field in its column, which for nested batches is a separate row index
+  private static CodeBlock singularRow(final FieldDescriptor field) {
+    if (valueKind(field) == ValueKind.BATCH) {
+      return CodeBlock.of("$N.get(row)", rowIndexesField(field));
+    }
+    return CodeBlock.of("row");
+  }
+
+  // Whether a singular field is encoded, which without presence means it is not the default
+  private static CodeBlock isWritten(final FieldDescriptor field) {
+    if (hasPresence(field)) {
+      return isSet(field);
+    }
+    final String storage = storage(field);
+    switch (field.getJavaType()) {
+      case BOOLEAN:
+        return CodeBlock.of("$N.get(row)", storage);
+      case STRING:
+      case BYTE_STRING:
+        return CodeBlock.of("$N.length(row) != 0", storage);
+      case LONG:
+        return CodeBlock.of("$N.get(row) != 0L", storage);
+      case FLOAT:
+        return CodeBlock.of("$N.get(row) != 0F", storage);
+      case DOUBLE:
+        return CodeBlock.of("$N.get(row) != 0D", storage);
+      default:
+        return CodeBlock.of("$N.get(row) != 0", storage);
+    }
+  }
+
+  private static FieldDescriptor mapKey(final FieldDescriptor field) {
+    return field.getMessageType().findFieldByNumber(1);
+  }
+
+  private static FieldDescriptor mapValue(final FieldDescriptor field) {
+    return field.getMessageType().findFieldByNumber(2);
+  }
+
+  private static String storage(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "_";
+  }
+
+  // How generated code refers to a column, which for lazily created nested batches is their getter
+  private static String columnRef(final FieldDescriptor field) {
+    if (valueKind(field) == ValueKind.BATCH) {
+      return "get" + JavaNames.capitalizedName(field) + "Batch()";
+    }
+    return storage(field);
+  }
+
+  private static String mapValuesRef(final FieldDescriptor field) {
+    if (valueKind(mapValue(field)) == ValueKind.BATCH) {
+      return "get" + JavaNames.capitalizedName(field) + "Values()";
+    }
+    return mapValuesField(field);
+  }
+
+  private static String rowIndexesField(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "Rows_";
+  }
+
+  private static String presenceField(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "Present_";
+  }
+
+  private static String offsetsName(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "Offsets_";
+  }
+
+  private static String mapKeysField(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "Keys_";
+  }
+
+  private static String mapValuesField(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "Values_";
+  }
+
+  private static String defaultConstant(final FieldDescriptor field) {
+    return "DEFAULT_" + field.getName().toUpperCase(Locale.ROOT);
+  }
+
+  private static String oneofCaseField(final OneofDescriptor oneof) {
+    final String caseEnum = JavaNames.oneofCaseEnumName(oneof);
+    return Character.toLowerCase(caseEnum.charAt(0)) + caseEnum.substring(1) + "_";
+  }
+
+  private static List<FieldDescriptor> fieldsByNumber(final Descriptor message) {
+    return message
+        .getFields()
+        .stream()
+        .sorted(comparingInt(FieldDescriptor::getNumber))
+        .collect(toList());
+  }
+}
@@ -0,0 +1,391 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a compiled field mask class for every message of a schema.
+ *
+ * <p>A mask is compiled from its paths once, into one bit per field plus a nested mask for every
+ * singular message field that has sub-paths. Projecting and merging messages then only tests bits
+ * and calls the generated accessors, without splitting paths or looking up descriptors.
+ *
+ * <p>Members of a oneof are only copied when they are the active member of the source. {@code
+ * FieldMaskUtil} copies every member that the mask names, in path order, so that a default value
+ * of an inactive member can replace the active one.
+ */
+final class FieldMaskGenerator implements SourceGenerator {
+
+  static final String SUFFIX = "Mask";
+
+  private static final ClassName FIELD_MASK = ClassName.get("com.google.protobuf", "FieldMask");
+  private static final ClassName MERGE_OPTIONS =
+      ClassName.get("io.dflemstr.auto.protobuf.runtime.mask", "MergeOptions");
+  private static final TypeName PATHS =
+      ParameterizedTypeName.get(ClassName.get(Iterable.class), ClassName.get(String.class));
+  private static final TypeName PATH_LIST =
+      ParameterizedTypeName.get(ClassName.get(List.class), ClassName.get(String.class));
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) throws AutoProtobufException {
+    final ImmutableList.Builder<JavaFile> files = ImmutableList.builder();
+    for (final Descriptor message : schema.messages()) {
+      final ClassName maskClass = JavaNames.generatedClass(message, SUFFIX);
+      files.add(JavaFile.builder(maskClass.packageName(), maskType(message, maskClass)).build());
+    }
+    return files.build();
+  }
+
+  private static TypeSpec maskType(final Descriptor message, final ClassName maskClass) {
+    final ClassName messageClass = JavaNames.messageClass(message);
+    final ClassName builderClass = messageClass.nestedClass("Builder");
+    final List<FieldDescriptor> fields = fieldsByNumber(message);
+    final int words = Math.max(1, (fields.size() + Long.SIZE - 1) / Long.SIZE);
+
+    final TypeSpec.Builder type =
+        TypeSpec.classBuilder(maskClass)
+            .addModifiers(PUBLIC, FINAL)
+            .addJavadoc(
+                "A field mask for {@code $L} messages, compiled from the paths of a\n"
+                    + "{@code google.protobuf.FieldMask}.\n\n"
+                    + "<p>Projecting and merging follow the semantics of {@code FieldMaskUtil}, "
+                    + "except that\ninvalid paths are rejected when the mask is compiled, only the "
+                    + "member of a oneof that is\nset in the source is copied, and sub-paths do "
+                    + "not create an empty nested message when\nneither the source nor the "
+                    + "destination has one.\n",
+                message.getFullName());
+
+    final MethodSpec.Builder constructor = MethodSpec.constructorBuilder().addModifiers(PRIVATE);
+    for (int word = 0; word < words; word++) {
+      type.addField(TypeName.LONG, "fields" + word, PRIVATE, FINAL);
+      constructor
+          .addParameter(TypeName.LONG, "fields" + word, FINAL)
+          .addStatement("this.fields$L = fields$L", word, word);
+    }
+    for (final FieldDescriptor field : fields) {
+      if (hasNestedMask(field)) {
+        final ClassName nestedMaskClass = nestedMaskClass(field);
+        final String name = nestedMaskName(field);
+        type.addField(nestedMaskClass, name, PRIVATE, FINAL);
+        constructor
+            .addParameter(nestedMaskClass, name, FINAL)
+            .addStatement("this.$N = $N", name, name);
+      }
+    }
+    type.addMethod(constructor.build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("compile")
+            .addJavadoc("Compiles the paths of a field mask.\n\n")
+            .addJavadoc("@throws IllegalArgumentException if a path does not name a field\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(maskClass)
+            .addParameter(ParameterSpec.builder(FIELD_MASK, "mask", FINAL).build())
+            .addStatement("return compile(mask.getPathsList())")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("compile")
+            .addJavadoc("Compiles field mask paths, such as {@code \"a.b\"}.\n\n")
+            .addJavadoc("@throws IllegalArgumentException if a path does not name a field\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(maskClass)
+            .addParameter(ParameterSpec.builder(PATHS, "paths", FINAL).build())
+            .addCode(compileBody(maskClass, fields, words))
+            .build());
+
+    final ParameterSpec sourceParam = ParameterSpec.builder(messageClass, "source", FINAL).build();
+    final ParameterSpec destinationParam =
+        ParameterSpec.builder(builderClass, "destination", FINAL).build();
+
+    type.addMethod(
+        MethodSpec.methodBuilder("project")
+            .addJavadoc("Returns a copy of a message with only the fields in this mask set.\n")
+            .addModifiers(PUBLIC)
+            .returns(messageClass)
+            .addParameter(ParameterSpec.builder(messageClass, "message", FINAL).build())
+            .addStatement("final $T builder = $T.newBuilder()", builderClass, messageClass)
+            .addStatement("merge(message, builder, $T.defaults())", MERGE_OPTIONS)
+            .addStatement("return builder.buildPartial()")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("merge")
+            .addJavadoc("Merges the fields in this mask from a message into a builder.\n")
+            .addModifiers(PUBLIC)
+            .addParameter(sourceParam)
+            .addParameter(destinationParam)
+            .addStatement("merge(source, destination, $T.defaults())", MERGE_OPTIONS)
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("merge")
+            .addJavadoc("Merges the fields in this mask from a message into a builder.\n")
+            .addModifiers(PUBLIC)
+            .addParameter(sourceParam)
+            .addParameter(destinationParam)
+            .addParameter(ParameterSpec.builder(MERGE_OPTIONS, "options", FINAL).build())
+            .addCode(mergeBody(fields))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("invalidPath")
+            .addModifiers(PRIVATE, STATIC)
+            .returns(IllegalArgumentException.class)
+            .addParameter(ParameterSpec.builder(String.class, "path", FINAL).build())
+            .addParameter(ParameterSpec.builder(String.class, "reason", FINAL).build())
+            .addStatement(
+                "return new $T($S + path + $S + reason)",
+                IllegalArgumentException.class,
+                "Invalid field mask path \"",
+                "\" for " + message.getFullName() + ": ")
+            .build());
+
+    return type.build();
+  }
+
+  private static CodeBlock compileBody(
+      final ClassName maskClass, final List<FieldDescriptor> fields, final int words) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (int word = 0; word < words; word++) {
+      code.addStatement("long fields$L = 0L", word);
+    }
+    for (final FieldDescriptor field : fields) {
+      if (hasNestedMask(field)) {
+        code.addStatement("$T $NPaths = null", PATH_LIST, nestedMaskName(field));
+      }
+    }
+
+    code.beginControlFlow("for (final String path : paths)")
+        .addStatement("final int dot = path.indexOf('.')")
+        .addStatement("final String name = dot < 0 ? path : path.substring(0, dot)")
+        .beginControlFlow("switch (name)");
+    for (int index = 0; index < fields.size(); index++) {
+      final FieldDescriptor field = fields.get(index);
+      final String set = String.format("fields%d |= %s", index / Long.SIZE, bit(index));
+      code.add("case $S:\n", field.getName()).indent();
+      if (hasNestedMask(field)) {
+        final String paths = nestedMaskName(field) + "Paths";
+        code.beginControlFlow("if (dot < 0)")
+            .addStatement(set)
+            .nextControlFlow("else")
+            .beginControlFlow("if ($N == null)", paths)
+            .addStatement("$N = new $T<>()", paths, ArrayList.class)
+            .endControlFlow()
+            .addStatement("$N.add(path.substring(dot + 1))", paths)
+            .endControlFlow();
+      } else {
+        code.beginControlFlow("if (dot >= 0)")
+            .addStatement("throw invalidPath(path, $S)", subPathRejection(field))
+            .endControlFlow()
+            .addStatement(set);
+      }
+      code.addStatement("break").unindent();
+    }
+    code.add("default:\n")
+        .indent()
+        .addStatement("throw invalidPath(path, $S)", "no such field")
+        .unindent()
+        .endControlFlow()
+        .endControlFlow();
+
+    // A path to a whole field wins over any sub-paths into the same field, as in FieldMaskUtil
+    final List<String> arguments = new ArrayList<>();
+    for (int word = 0; word < words; word++) {
+      arguments.add("fields" + word);
+    }
+    for (int index = 0; index < fields.size(); index++) {
+      final FieldDescriptor field = fields.get(index);
+      if (hasNestedMask(field)) {
+        final String name = nestedMaskName(field);
+        code.addStatement(
+            "final $T $N =\n$L && $NPaths != null ? $T.compile($NPaths) : null",
+            nestedMaskClass(field),
+            name,
+            bitClear(index),
+            name,
+            nestedMaskClass(field),
+            name);
+        arguments.add(name);
+      }
+    }
+
+    return code.addStatement("return new $T($L)", maskClass, String.join(", ", arguments))
+        .build();
+  }
+
+  private static CodeBlock mergeBody(final List<FieldDescriptor> fields) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (int index = 0; index < fields.size(); index++) {
+      final FieldDescriptor field = fields.get(index);
+      code.beginControlFlow("if ($L)", bitSet(index))
+          .add(mergeField(field))
+          .endControlFlow();
+      if (hasNestedMask(field)) {
+        // Don't create empty messages when neither side has one, like newer FieldMaskUtil versions
+        final String name = JavaNames.capitalizedName(field);
+        code.beginControlFlow(
+                "if ($N != null && (source.has$L() || destination.has$L()))",
+                nestedMaskName(field),
+                name,
+                name)
+            .addStatement(
+                "$N.merge(source.get$L(), destination.get$LBuilder(), options)",
+                nestedMaskName(field),
+                name,
+                name)
+            .endControlFlow();
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock mergeField(final FieldDescriptor field) {
+    final String name = JavaNames.capitalizedName(field);
+    final CodeBlock.Builder code = CodeBlock.builder();
+
+    if (field.isMapField()) {
+      final FieldDescriptor valueField = field.getMessageType().findFieldByName("value");
+      final String suffix = enumValueSuffix(field, valueField);
+      return code.beginControlFlow("if (options.replaceRepeatedFields())")
+          .addStatement("destination.clear$L()", name)
+          .endControlFlow()
+          .addStatement("destination.putAll$L$L(source.get$L$LMap())", name, suffix, name, suffix)
+          .build();
+    } else if (field.isRepeated()) {
+      final String suffix = enumValueSuffix(field, field);
+      return code.beginControlFlow("if (options.replaceRepeatedFields())")
+          .addStatement("destination.clear$L()", name)
+          .endControlFlow()
+          .addStatement("destination.addAll$L$L(source.get$L$LList())", name, suffix, name, suffix)
+          .build();
+    } else if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+      final CodeBlock has = presence(field);
+      return code.beginControlFlow("if (options.replaceMessageFields())")
+          .beginControlFlow("if ($L)", has)
+          .addStatement("destination.set$L(source.get$L())", name, name)
+          .nextControlFlow("else")
+          .addStatement("destination.clear$L()", name)
+          .endControlFlow()
+          .nextControlFlow("else if ($L)", has)
+          .addStatement("destination.merge$L(source.get$L())", name, name)
+          .endControlFlow()
+          .build();
+    }
+
+    final String suffix = enumValueSuffix(field, field);
+    final CodeBlock set =
+        CodeBlock.of("destination.set$L$L(source.get$L$L())", name, suffix, name, suffix);
+    if (!hasPresence(field)) {
+      // Without presence, clearing a field is the same as setting it to the default value
+      return code.addStatement("$L", set).build();
+    } else if (field.getContainingOneof() != null) {
+      // Setting an inactive member would change the case, which then depends on the path order
+      return code.beginControlFlow("if ($L)", presence(field))
+          .addStatement("$L", set)
+          .nextControlFlow("else if (options.replacePrimitiveFields())")
+          .addStatement("destination.clear$L()", name)
+          .endControlFlow()
+          .build();
+    }
+    return code.beginControlFlow("if ($L || !options.replacePrimitiveFields())", presence(field))
+        .addStatement("$L", set)
+        .nextControlFlow("else")
+        .addStatement("destination.clear$L()", name)
+        .endControlFlow()
+        .build();
+  }
+
+  private static boolean hasPresence(final FieldDescriptor field) {
+    return field.getContainingOneof() != null
+        || field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        || field.getFile().getSyntax() != FileDescriptor.Syntax.PROTO3;
+  }
+
+  // Proto3 oneof members other than messages have no has-accessor, so check the case instead
+  private static CodeBlock presence(final FieldDescriptor field) {
+    final OneofDescriptor oneof = field.getContainingOneof();
+    if (oneof != null && field.getJavaType() != FieldDescriptor.JavaType.MESSAGE) {
+      final String caseEnum = JavaNames.oneofCaseEnumName(oneof);
+      return CodeBlock.of(
+          "source.get$L() == $T.$L",
+          caseEnum,
+          JavaNames.messageClass(field.getContainingType()).nestedClass(caseEnum),
+          JavaNames.oneofCaseConstant(field));
+    } else {
+      return CodeBlock.of("source.has$L()", JavaNames.capitalizedName(field));
+    }
+  }
+
+  private static String subPathRejection(final FieldDescriptor field) {
+    if (field.isRepeated() || field.getJavaType() != FieldDescriptor.JavaType.MESSAGE) {
+      return "not a singular message field";
+    } else {
+      return "sub-paths into " + field.getMessageType().getFullName() + " are not supported";
+    }
+  }
+
+  // Messages other than well-known types are assumed to have field masks generated as well
+  private static boolean hasNestedMask(final FieldDescriptor field) {
+    return !field.isRepeated()
+        && field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        && !WellKnownTypes.isWellKnown(field.getMessageType());
+  }
+
+  private static ClassName nestedMaskClass(final FieldDescriptor field) {
+    return JavaNames.generatedClass(field.getMessageType(), SUFFIX);
+  }
+
+  private static String nestedMaskName(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + SUFFIX;
+  }
+
+  private static String bit(final int index) {
+    return String.format("0x%XL", 1L << (index % Long.SIZE));
+  }
+
+  private static CodeBlock bitSet(final int index) {
+    return CodeBlock.of("(fields$L & $L) != 0L", index / Long.SIZE, bit(index));
+  }
+
+  private static CodeBlock bitClear(final int index) {
+    return CodeBlock.of("(fields$L & $L) == 0L", index / Long.SIZE, bit(index));
+  }
+
+  // Proto3 enums are accessed through their numbers, so that unknown values are preserved
+  private static String enumValueSuffix(
+      final FieldDescriptor field, final FieldDescriptor valueField) {
+    return valueField.getJavaType() == FieldDescriptor.JavaType.ENUM
+            && JavaNames.hasEnumValueAccessors(field)
+        ? "Value"
+        : "";
+  }
+
+  private static List<FieldDescriptor> fieldsByNumber(final Descriptor message) {
+    return message
+        .getFields()
+        .stream()
+        .sorted(comparingInt(FieldDescriptor::getNumber))
+        .collect(toList());
+  }
+}
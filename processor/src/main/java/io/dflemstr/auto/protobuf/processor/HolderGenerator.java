@@ -0,0 +1,1468 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PROTECTED;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Generates a recyclable, mutable holder class for every message of a schema.
+ *
+ * <p>A holder stores its fields in plain Java fields and growable primitive arrays, and reads and
+ * writes the protobuf wire format directly. Clearing a holder keeps its nested holders and buffers,
+ * so that parsing into a cleared holder allocates little more than strings and byte strings.
+ * Holders are pooled by the {@code Arena} class from {@code auto-protobuf-runtime}.
+ */
+final class HolderGenerator implements SourceGenerator {
+
+  static final String SUFFIX = "Holder";
+
+  private static final String RUNTIME_PACKAGE = "io.dflemstr.auto.protobuf.runtime.arena";
+  private static final ClassName MESSAGE_HOLDER = ClassName.get(RUNTIME_PACKAGE, "MessageHolder");
+  private static final ClassName HOLDER_TYPE = ClassName.get(RUNTIME_PACKAGE, "HolderType");
+  private static final ClassName HOLDER_ARRAY = ClassName.get(RUNTIME_PACKAGE, "HolderArray");
+  private static final ClassName ARENA = ClassName.get(RUNTIME_PACKAGE, "Arena");
+  private static final ClassName BYTE_STRING = ClassName.get("com.google.protobuf", "ByteString");
+  private static final ClassName CODED_INPUT_STREAM =
+      ClassName.get("com.google.protobuf", "CodedInputStream");
+  private static final ClassName CODED_OUTPUT_STREAM =
+      ClassName.get("com.google.protobuf", "CodedOutputStream");
+  private static final ClassName EXTENSION_REGISTRY_LITE =
+      ClassName.get("com.google.protobuf", "ExtensionRegistryLite");
+
+  /** How a field is stored in a holder. */
+  private enum Kind {
+    /** A singular scalar, string, bytes or enum number. */
+    SCALAR,
+    /** A singular message with a holder of its own. */
+    HOLDER,
+    /** A singular well-known message, which is stored immutably. */
+    MESSAGE,
+    /** A repeated scalar or enum number, in a primitive array. */
+    SCALAR_ARRAY,
+    /** A repeated string, bytes or well-known message, in a list. */
+    LIST,
+    /** A repeated message with holders of its own. */
+    HOLDER_ARRAY,
+    /** A map field. */
+    MAP
+  }
+
+  private final boolean metrics;
+
+  /**
+   * @param metrics whether metrics are generated as well, in which case holders count the messages
+   *     they parse and serialize
+   */
+  HolderGenerator(final boolean metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) throws AutoProtobufException {
+    final ImmutableList.Builder<JavaFile> files = ImmutableList.builder();
+    for (final Descriptor message : schema.messages()) {
+      final ClassName holderClass = JavaNames.generatedClass(message, SUFFIX);
+      files.add(
+          JavaFile.builder(holderClass.packageName(), holderType(message, holderClass)).build());
+    }
+    return files.build();
+  }
+
+  private TypeSpec holderType(final Descriptor message, final ClassName holderClass)
+      throws AutoProtobufException {
+    final ClassName messageClass = JavaNames.messageClass(message);
+    final List<FieldDescriptor> fields = fieldsByNumber(message);
+
+    // Fields with presence outside of oneofs get one bit each
+    final Map<FieldDescriptor, Integer> bits = Maps.newHashMap();
+    for (final FieldDescriptor field : fields) {
+      if (field.getContainingOneof() == null && !field.isRepeated() && hasPresence(field)) {
+        bits.put(field, bits.size());
+      }
+    }
+
+    final TypeSpec.Builder type =
+        TypeSpec.classBuilder(holderClass)
+            .addModifiers(PUBLIC, FINAL)
+            .superclass(MESSAGE_HOLDER)
+            .addJavadoc(
+                "A mutable, recyclable holder for {@code $L} messages, which reads and writes "
+                    + "the same wire\nformat as {@link $T}.\n\n"
+                    + "<p>Holders can be allocated from an {@link $T} with {@link #allocate}. "
+                    + "Unknown fields are\nskipped when parsing.\n",
+                message.getFullName(),
+                messageClass,
+                ARENA)
+            .addField(
+                FieldSpec.builder(
+                        ParameterizedTypeName.get(HOLDER_TYPE, holderClass),
+                        "TYPE",
+                        PUBLIC,
+                        STATIC,
+                        FINAL)
+                    .addJavadoc("The type to allocate holders of from an {@link $T}.\n", ARENA)
+                    .initializer("$T.of($T::new)", HOLDER_TYPE, holderClass)
+                    .build());
+
+    for (final FieldDescriptor field : fields) {
+      if (hasDefaultConstant(field)) {
+        type.addField(
+            FieldSpec.builder(scalarType(field), defaultConstant(field), PRIVATE, STATIC, FINAL)
+                .initializer(
+                    "$T.getDefaultInstance().get$L()$L",
+                    messageClass,
+                    JavaNames.capitalizedName(field),
+                    field.getJavaType() == FieldDescriptor.JavaType.ENUM ? ".getNumber()" : "")
+                .build());
+      }
+    }
+
+    for (int word = 0; word * Integer.SIZE < bits.size(); word++) {
+      type.addField(TypeName.INT, "bitField" + word + "_", PRIVATE);
+    }
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      type.addField(TypeName.INT, oneofCaseField(oneof), PRIVATE);
+    }
+    for (final FieldDescriptor field : fields) {
+      type.addField(storageField(field));
+      if (kind(field) == Kind.SCALAR_ARRAY
+          && field.isPacked()
+          && WireFormats.fixedWidth(field) == 0) {
+        type.addField(TypeName.INT, packedSizeField(field), PRIVATE);
+      }
+      if (hasHolderValues(field)) {
+        // Map values are taken from a pool like the elements of repeated fields, since a map
+        // can't keep them around while it is empty
+        final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+        final ClassName valueHolderClass = holderClass(valueField.getMessageType());
+        type.addField(
+            FieldSpec.builder(
+                    ParameterizedTypeName.get(HOLDER_ARRAY, valueHolderClass),
+                    valuePoolField(field),
+                    PRIVATE,
+                    FINAL)
+                .initializer("new $T<>($T::new)", HOLDER_ARRAY, valueHolderClass)
+                .build());
+      }
+    }
+
+    final MethodSpec.Builder constructor = MethodSpec.constructorBuilder().addModifiers(PUBLIC);
+    if (metrics) {
+      constructor.addStatement("super($L)", MetricsGenerator.metrics(message));
+    }
+    type.addMethod(constructor.build());
+    type.addMethod(
+        MethodSpec.methodBuilder("allocate")
+            .addJavadoc("Allocates an empty holder from an arena.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(holderClass)
+            .addParameter(ParameterSpec.builder(ARENA, "arena", FINAL).build())
+            .addStatement("return arena.allocate(TYPE)")
+            .build());
+
+    for (final FieldDescriptor field : fields) {
+      addAccessors(type, field, holderClass, bits);
+    }
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      final ClassName caseClass = messageClass.nestedClass(JavaNames.oneofCaseEnumName(oneof));
+      type.addMethod(
+          MethodSpec.methodBuilder("get" + JavaNames.oneofCaseEnumName(oneof))
+              .addModifiers(PUBLIC)
+              .returns(caseClass)
+              .addStatement("return $T.forNumber($N)", caseClass, oneofCaseField(oneof))
+              .build());
+      type.addMethod(
+          MethodSpec.methodBuilder(
+                  "clear" + JavaNames.oneofCaseEnumName(oneof).replaceFirst("Case$", ""))
+              .addModifiers(PUBLIC)
+              .returns(holderClass)
+              .addStatement("$N = 0", oneofCaseField(oneof))
+              .addStatement("return this")
+              .build());
+    }
+
+    type.addMethod(
+        MethodSpec.methodBuilder("clear")
+            .addAnnotation(Override.class)
+            .addModifiers(PUBLIC)
+            .addCode(clearBody(message, fields, bits))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("mergeFields")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addParameter(ParameterSpec.builder(CODED_INPUT_STREAM, "input", FINAL).build())
+            .addParameter(ParameterSpec.builder(TypeName.INT, "depth", FINAL).build())
+            .addException(IOException.class)
+            .addCode(mergeFromBody(fields, bits))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("computeSerializedSize")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .returns(TypeName.INT)
+            .addCode(computeSizeBody(fields, bits))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("writeFields")
+            .addAnnotation(Override.class)
+            .addModifiers(PROTECTED)
+            .addParameter(ParameterSpec.builder(CODED_OUTPUT_STREAM, "output", FINAL).build())
+            .addException(IOException.class)
+            .addCode(writeFieldsBody(fields, bits))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("toMessage")
+            .addJavadoc("Returns an immutable copy of this holder.\n")
+            .addModifiers(PUBLIC)
+            .returns(messageClass)
+            .addCode(toMessageBody(messageClass, fields, bits))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("copyFrom")
+            .addJavadoc("Replaces the contents of this holder with the fields of a message.\n")
+            .addModifiers(PUBLIC)
+            .returns(holderClass)
+            .addParameter(ParameterSpec.builder(messageClass, "message", FINAL).build())
+            .addCode(copyFromBody(fields, bits))
+            .build());
+
+    return type.build();
+  }
+
+  private static FieldSpec storageField(final FieldDescriptor field) throws AutoProtobufException {
+    final String name = storage(field);
+    switch (kind(field)) {
+      case SCALAR:
+        final FieldSpec.Builder scalar = FieldSpec.builder(scalarType(field), name, PRIVATE);
+        if (field.getContainingOneof() == null) {
+          scalar.initializer(defaultValue(field));
+        }
+        return scalar.build();
+      case HOLDER:
+        return FieldSpec.builder(holderClass(field.getMessageType()), name, PRIVATE).build();
+      case MESSAGE:
+        return FieldSpec.builder(JavaNames.messageClass(field.getMessageType()), name, PRIVATE)
+            .build();
+      case SCALAR_ARRAY:
+        return FieldSpec.builder(scalarArrayType(field), name, PRIVATE, FINAL)
+            .initializer("new $T()", scalarArrayType(field))
+            .build();
+      case LIST:
+        return FieldSpec.builder(listType(field), name, PRIVATE, FINAL)
+            .initializer("new $T<>()", ArrayList.class)
+            .build();
+      case HOLDER_ARRAY:
+        final ClassName elementClass = holderClass(field.getMessageType());
+        return FieldSpec.builder(
+                ParameterizedTypeName.get(HOLDER_ARRAY, elementClass), name, PRIVATE, FINAL)
+            .initializer("new $T<>($T::new)", HOLDER_ARRAY, elementClass)
+            .build();
+      case MAP:
+      default:
+        return FieldSpec.builder(mapType(field), name, PRIVATE, FINAL)
+            .initializer("new $T<>()", HashMap.class)
+            .build();
+    }
+  }
+
+  private static void addAccessors(
+      final TypeSpec.Builder type,
+      final FieldDescriptor field,
+      final ClassName holderClass,
+      final Map<FieldDescriptor, Integer> bits)
+      throws AutoProtobufException {
+    final String name = JavaNames.capitalizedName(field);
+    final String storage = storage(field);
+
+    switch (kind(field)) {
+      case SCALAR:
+        addScalarAccessors(type, field, holderClass, bits);
+        break;
+      case HOLDER:
+        {
+          final ClassName fieldHolderClass = holderClass(field.getMessageType());
+          type.addMethod(hasMethod(field, bits));
+          type.addMethod(
+              MethodSpec.methodBuilder("get" + name)
+                  .addJavadoc("Returns the nested holder, or {@code null} if it is not set.\n")
+                  .addModifiers(PUBLIC)
+                  .returns(fieldHolderClass)
+                  .addStatement("return $L ? $N : null", isSet(field, bits), storage)
+                  .build());
+
+          final MethodSpec.Builder mutable =
+              MethodSpec.methodBuilder("mutable" + name)
+                  .addJavadoc("Sets the nested holder if it isn't set yet, and returns it.\n")
+                  .addModifiers(PUBLIC)
+                  .returns(fieldHolderClass);
+          if (field.getContainingOneof() != null) {
+            final String caseField = oneofCaseField(field.getContainingOneof());
+            mutable
+                .beginControlFlow("if ($N != $L)", caseField, field.getNumber())
+                .beginControlFlow("if ($N == null)", storage)
+                .addStatement("$N = new $T()", storage, fieldHolderClass)
+                .nextControlFlow("else")
+                .addStatement("$N.clear()", storage)
+                .endControlFlow()
+                .addStatement("$N = $L", caseField, field.getNumber())
+                .endControlFlow();
+          } else {
+            mutable
+                .beginControlFlow("if ($N == null)", storage)
+                .addStatement("$N = new $T()", storage, fieldHolderClass)
+                .endControlFlow()
+                .addCode(markSet(field, bits));
+          }
+          type.addMethod(mutable.addStatement("return $N", storage).build());
+
+          final MethodSpec.Builder clear =
+              MethodSpec.methodBuilder("clear" + name)
+                  .addModifiers(PUBLIC)
+                  .returns(holderClass)
+                  .beginControlFlow("if ($L)", isSet(field, bits))
+                  .addStatement("$N.clear()", storage);
+          if (field.getContainingOneof() != null) {
+            clear.addStatement("$N = 0", oneofCaseField(field.getContainingOneof()));
+          } else {
+            clear.addStatement("$L", markUnset(field, bits));
+          }
+          type.addMethod(clear.endControlFlow().addStatement("return this").build());
+          break;
+        }
+      case MESSAGE:
+        {
+          final ClassName messageClass = JavaNames.messageClass(field.getMessageType());
+          type.addMethod(hasMethod(field, bits));
+          type.addMethod(
+              MethodSpec.methodBuilder("get" + name)
+                  .addModifiers(PUBLIC)
+                  .returns(messageClass)
+                  .addStatement(
+                      "return $L ? $N : $T.getDefaultInstance()",
+                      isSet(field, bits),
+                      storage,
+                      messageClass)
+                  .build());
+          type.addMethod(
+              MethodSpec.methodBuilder("set" + name)
+                  .addModifiers(PUBLIC)
+                  .returns(holderClass)
+                  .addParameter(ParameterSpec.builder(messageClass, "value", FINAL).build())
+                  .addStatement("$N = $T.requireNonNull(value)", storage, Objects.class)
+                  .addCode(markSet(field, bits))
+                  .addStatement("return this")
+                  .build());
+          final MethodSpec.Builder clear =
+              MethodSpec.methodBuilder("clear" + name).addModifiers(PUBLIC).returns(holderClass);
+          if (field.getContainingOneof() != null) {
+            clear
+                .beginControlFlow("if ($L)", isSet(field, bits))
+                .addStatement("$N = 0", oneofCaseField(field.getContainingOneof()))
+                .endControlFlow();
+          } else {
+            clear.addStatement("$N = null", storage).addStatement("$L", markUnset(field, bits));
+          }
+          type.addMethod(clear.addStatement("return this").build());
+          break;
+        }
+      case SCALAR_ARRAY:
+        type.addMethod(
+            listGetter(name, storage, scalarArrayType(field), enumNumberNote(field)));
+        break;
+      case LIST:
+        type.addMethod(
+            listGetter(name, storage, listType(field), ""));
+        break;
+      case HOLDER_ARRAY:
+        type.addMethod(
+            listGetter(
+                name,
+                storage,
+                ParameterizedTypeName.get(HOLDER_ARRAY, holderClass(field.getMessageType())),
+                ""));
+        break;
+      case MAP:
+      default:
+        type.addMethod(
+            MethodSpec.methodBuilder("get" + name + "Map")
+                .addJavadoc(
+                    "Returns the mutable entries of this field.$L$L\n",
+                    enumNumberNote(field),
+                    valueReuseNote(field))
+                .addModifiers(PUBLIC)
+                .returns(mapType(field))
+                .addStatement("return $N", storage)
+                .build());
+        break;
+    }
+  }
+
+  private static void addScalarAccessors(
+      final TypeSpec.Builder type,
+      final FieldDescriptor field,
+      final ClassName holderClass,
+      final Map<FieldDescriptor, Integer> bits) {
+    final String name = JavaNames.capitalizedName(field);
+    final String storage = storage(field);
+    final OneofDescriptor oneof = field.getContainingOneof();
+    final CodeBlock value =
+        oneof != null
+            ? CodeBlock.of("$L ? $N : $L", isSet(field, bits), storage, defaultValue(field))
+            : CodeBlock.of("$N", storage);
+
+    if (hasPresence(field)) {
+      type.addMethod(hasMethod(field, bits));
+    }
+
+    if (field.getJavaType() == FieldDescriptor.JavaType.ENUM) {
+      final ClassName enumClass = JavaNames.enumClass(field.getEnumType());
+      type.addMethod(
+          MethodSpec.methodBuilder("get" + name + "Value")
+              .addModifiers(PUBLIC)
+              .returns(TypeName.INT)
+              .addStatement("return $L", value)
+              .build());
+      final MethodSpec.Builder getter =
+          MethodSpec.methodBuilder("get" + name).addModifiers(PUBLIC).returns(enumClass);
+      if (isClosedEnum(field)) {
+        getter.addStatement("return $T.forNumber(get$LValue())", enumClass, name);
+      } else {
+        getter
+            .addStatement(
+                "final $T result = $T.forNumber(get$LValue())", enumClass, enumClass, name)
+            .addStatement("return result != null ? result : $T.UNRECOGNIZED", enumClass);
+      }
+      type.addMethod(getter.build());
+      type.addMethod(
+          MethodSpec.methodBuilder("set" + name)
+              .addModifiers(PUBLIC)
+              .returns(holderClass)
+              .addParameter(ParameterSpec.builder(enumClass, "value", FINAL).build())
+              .addStatement("$N = value.getNumber()", storage)
+              .addCode(markSet(field, bits))
+              .addStatement("return this")
+              .build());
+      if (!isClosedEnum(field)) {
+        type.addMethod(
+            MethodSpec.methodBuilder("set" + name + "Value")
+                .addModifiers(PUBLIC)
+                .returns(holderClass)
+                .addParameter(ParameterSpec.builder(TypeName.INT, "value", FINAL).build())
+                .addStatement("$N = value", storage)
+                .addCode(markSet(field, bits))
+                .addStatement("return this")
+                .build());
+      }
+    } else {
+      final TypeName valueType = scalarType(field);
+      type.addMethod(
+          MethodSpec.methodBuilder("get" + name)
+              .addModifiers(PUBLIC)
+              .returns(valueType)
+              .addStatement("return $L", value)
+              .build());
+      final MethodSpec.Builder setter =
+          MethodSpec.methodBuilder("set" + name)
+              .addModifiers(PUBLIC)
+              .returns(holderClass)
+              .addParameter(ParameterSpec.builder(valueType, "value", FINAL).build());
+      if (valueType.isPrimitive()) {
+        setter.addStatement("$N = value", storage);
+      } else {
+        setter.addStatement("$N = $T.requireNonNull(value)", storage, Objects.class);
+      }
+      type.addMethod(
+          setter.addCode(markSet(field, bits)).addStatement("return this").build());
+    }
+
+    final MethodSpec.Builder clear =
+        MethodSpec.methodBuilder("clear" + name).addModifiers(PUBLIC).returns(holderClass);
+    if (oneof != null) {
+      clear
+          .beginControlFlow("if ($L)", isSet(field, bits))
+          .addStatement("$N = 0", oneofCaseField(oneof))
+          .endControlFlow();
+    } else {
+      clear.addStatement("$N = $L", storage, defaultValue(field));
+      if (bits.containsKey(field)) {
+        clear.addStatement("$L", markUnset(field, bits));
+      }
+    }
+    type.addMethod(clear.addStatement("return this").build());
+  }
+
+  private static MethodSpec hasMethod(
+      final FieldDescriptor field, final Map<FieldDescriptor, Integer> bits) {
+    return MethodSpec.methodBuilder("has" + JavaNames.capitalizedName(field))
+        .addModifiers(PUBLIC)
+        .returns(TypeName.BOOLEAN)
+        .addStatement("return $L", isSet(field, bits))
+        .build();
+  }
+
+  private static MethodSpec listGetter(
+      final String name, final String storage, final TypeName type, final String note) {
+    return MethodSpec.methodBuilder("get" + name + "List")
+        .addJavadoc("Returns the mutable elements of this field.$L\n", note)
+        .addModifiers(PUBLIC)
+        .returns(type)
+        .addStatement("return $N", storage)
+        .build();
+  }
+
+  private static String enumNumberNote(final FieldDescriptor field) {
+    final FieldDescriptor valueField =
+        field.isMapField() ? field.getMessageType().findFieldByNumber(2) : field;
+    return valueField.getJavaType() == FieldDescriptor.JavaType.ENUM
+        ? " Enum values are stored as their numbers."
+        : "";
+  }
+
+  private static String valueReuseNote(final FieldDescriptor field) {
+    return hasHolderValues(field)
+        ? "\nThe values that were parsed or copied into this holder are reused once it is cleared,"
+            + "\neven if they were removed from the map."
+        : "";
+  }
+
+  private static CodeBlock clearBody(
+      final Descriptor message,
+      final List<FieldDescriptor> fields,
+      final Map<FieldDescriptor, Integer> bits) {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (int word = 0; word * Integer.SIZE < bits.size(); word++) {
+      code.addStatement("bitField$L_ = 0", word);
+    }
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      code.addStatement("$N = 0", oneofCaseField(oneof));
+    }
+    for (final FieldDescriptor field : fields) {
+      final String storage = storage(field);
+      switch (kind(field)) {
+        case SCALAR:
+          if (field.getContainingOneof() == null) {
+            code.addStatement("$N = $L", storage, defaultValue(field));
+          }
+          break;
+        case HOLDER:
+          code.beginControlFlow("if ($N != null)", storage)
+              .addStatement("$N.clear()", storage)
+              .endControlFlow();
+          break;
+        case MESSAGE:
+          code.addStatement("$N = null", storage);
+          break;
+        default:
+          code.addStatement("$N.clear()", storage);
+          if (hasHolderValues(field)) {
+            code.addStatement("$N.clear()", valuePoolField(field));
+          }
+          break;
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock mergeFromBody(
+      final List<FieldDescriptor> fields, final Map<FieldDescriptor, Integer> bits)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code =
+        CodeBlock.builder()
+            .beginControlFlow("while (true)")
+            .addStatement("final int tag = input.readTag()")
+            .beginControlFlow("switch (tag)")
+            .add("case 0:\n")
+            .indent()
+            .addStatement("return")
+            .unindent();
+
+    for (final FieldDescriptor field : fields) {
+      final String storage = storage(field);
+      final Kind kind = kind(field);
+      code.add("case $L:\n", WireFormats.tag(field)).indent();
+      switch (kind) {
+        case SCALAR:
+          if (isClosedEnum(field)) {
+            code.add("{\n")
+                .indent()
+                .addStatement("final int value = input.readEnum()")
+                .beginControlFlow(
+                    "if ($T.forNumber(value) != null)", JavaNames.enumClass(field.getEnumType()))
+                .addStatement("$N = value", storage)
+                .add(markSet(field, bits))
+                .endControlFlow()
+                .addStatement("break")
+                .unindent()
+                .add("}\n");
+          } else {
+            code.addStatement("$N = $L", storage, readValue(field))
+                .add(markSet(field, bits))
+                .addStatement("break");
+          }
+          break;
+        case HOLDER:
+          code.addStatement(
+                  "$L", readHolder(field, CodeBlock.of("mutable$L()", capitalizedName(field))))
+              .addStatement("break");
+          break;
+        case MESSAGE:
+          {
+            final ClassName messageClass = JavaNames.messageClass(field.getMessageType());
+            code.add("{\n")
+                .indent()
+                .addStatement("final $T value = $L", messageClass, readValue(field))
+                .addStatement(
+                    "$N = $L ? $N.toBuilder().mergeFrom(value).build() : value",
+                    storage,
+                    isSet(field, bits),
+                    storage)
+                .add(markSet(field, bits))
+                .addStatement("break")
+                .unindent()
+                .add("}\n");
+            break;
+          }
+        case SCALAR_ARRAY:
+          code.add(addScalar(field, storage)).addStatement("break").unindent();
+          // Parsers must accept both packed and unpacked encodings of packable fields
+          code.add("case $L:\n", WireFormats.packedTag(field))
+              .indent()
+              .add("{\n")
+              .indent()
+              .addStatement("final int limit = input.pushLimit(input.readRawVarint32())")
+              .beginControlFlow("while (input.getBytesUntilLimit() > 0)")
+              .add(addScalar(field, storage))
+              .endControlFlow()
+              .addStatement("input.popLimit(limit)")
+              .addStatement("break")
+              .unindent()
+              .add("}\n");
+          break;
+        case LIST:
+          code.addStatement("$N.add($L)", storage, readValue(field)).addStatement("break");
+          break;
+        case HOLDER_ARRAY:
+          code.addStatement("$L", readHolder(field, CodeBlock.of("$N.add()", storage)))
+              .addStatement("break");
+          break;
+        case MAP:
+        default:
+          code.add(readMapEntry(field)).addStatement("break");
+          break;
+      }
+      code.unindent();
+    }
+
+    return code.add("default:\n")
+        .indent()
+        .beginControlFlow("if (!input.skipField(tag))")
+        .addStatement("return")
+        .endControlFlow()
+        .addStatement("break")
+        .unindent()
+        .endControlFlow()
+        .endControlFlow()
+        .build();
+  }
+
+  private static CodeBlock addScalar(final FieldDescriptor field, final String storage) {
+    if (isClosedEnum(field)) {
+      return CodeBlock.builder()
+          .add("{\n")
+          .indent()
+          .addStatement("final int value = input.readEnum()")
+          .beginControlFlow(
+              "if ($T.forNumber(value) != null)", JavaNames.enumClass(field.getEnumType()))
+          .addStatement("$N.add(value)", storage)
+          .endControlFlow()
+          .unindent()
+          .add("}\n")
+          .build();
+    } else {
+      return CodeBlock.of("$N.add($L);\n", storage, readValue(field));
+    }
+  }
+
+  private static CodeBlock readHolder(final FieldDescriptor field, final CodeBlock holder) {
+    if (field.getType() == FieldDescriptor.Type.GROUP) {
+      return CodeBlock.of(
+          "readGroup(input, $L, $L, depth)",
+          WireFormats.endGroupTag(field),
+          holder);
+    } else {
+      return CodeBlock.of("readMessage(input, $L, depth)", holder);
+    }
+  }
+
+  private static CodeBlock readMapEntry(final FieldDescriptor field) throws AutoProtobufException {
+    final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+    final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+    final Kind valueKind = kind(valueField);
+
+    final CodeBlock.Builder code =
+        CodeBlock.builder()
+            .add("{\n")
+            .indent()
+            .addStatement("final int limit = input.pushLimit(input.readRawVarint32())")
+            .addStatement("$T key = $L", scalarType(keyField), defaultValue(keyField));
+    if (valueKind == Kind.HOLDER) {
+      final ClassName valueHolderClass = holderClass(valueField.getMessageType());
+      code.addStatement("final $T value = $N.add()", valueHolderClass, valuePoolField(field));
+    } else if (valueKind == Kind.MESSAGE) {
+      final ClassName valueClass = JavaNames.messageClass(valueField.getMessageType());
+      code.addStatement("$T value = $T.getDefaultInstance()", valueClass, valueClass);
+    } else {
+      code.addStatement("$T value = $L", scalarType(valueField), mapValueDefault(valueField));
+    }
+
+    code.beginControlFlow(
+            "for (int entryTag = input.readTag(); entryTag != 0; entryTag = input.readTag())")
+        .beginControlFlow("switch (entryTag)")
+        .add("case $L:\n", WireFormats.tag(keyField))
+        .indent()
+        .addStatement("key = $L", readValue(keyField))
+        .addStatement("break")
+        .unindent()
+        .add("case $L:\n", WireFormats.tag(valueField))
+        .indent();
+    if (valueKind == Kind.HOLDER) {
+      code.addStatement("readMessage(input, value, depth)");
+    } else {
+      code.addStatement("value = $L", readValue(valueField));
+    }
+    code.addStatement("break")
+        .unindent()
+        .add("default:\n")
+        .indent()
+        .addStatement("input.skipField(entryTag)")
+        .addStatement("break")
+        .unindent()
+        .endControlFlow()
+        .endControlFlow()
+        .addStatement("input.popLimit(limit)");
+
+    if (isClosedEnum(valueField)) {
+      // Like protobuf-java, drop entries with unknown values of closed enums
+      code.beginControlFlow(
+              "if ($T.forNumber(value) != null)", JavaNames.enumClass(valueField.getEnumType()))
+          .addStatement("$N.put(key, value)", storage(field))
+          .endControlFlow();
+    } else {
+      code.addStatement("$N.put(key, value)", storage(field));
+    }
+    return code.unindent().add("}\n").build();
+  }
+
+  private static CodeBlock computeSizeBody(
+      final List<FieldDescriptor> fields, final Map<FieldDescriptor, Integer> bits)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code = CodeBlock.builder().addStatement("int size = 0");
+    for (final FieldDescriptor field : fields) {
+      final String storage = storage(field);
+      final int tagSize = CodedOutputStream.computeTagSize(field.getNumber());
+      switch (kind(field)) {
+        case SCALAR:
+          code.beginControlFlow("if ($L)", isWritten(field, bits))
+              .addStatement("size += $L + $L", tagSize, valueSize(field, CodeBlock.of(storage)))
+              .endControlFlow();
+          break;
+        case HOLDER:
+        case MESSAGE:
+          code.beginControlFlow("if ($L)", isSet(field, bits))
+              .addStatement(
+                  "size += $L + $L",
+                  field.getType() == FieldDescriptor.Type.GROUP ? tagSize * 2 : tagSize,
+                  valueSize(field, CodeBlock.of(storage)))
+              .endControlFlow();
+          break;
+        case SCALAR_ARRAY:
+          {
+            final int width = WireFormats.fixedWidth(field);
+            final CodeBlock element = CodeBlock.of("$N.get(i)", storage);
+            if (field.isPacked()) {
+              code.beginControlFlow("if (!$N.isEmpty())", storage);
+              if (width > 0) {
+                code.addStatement("final int dataSize = $L * $N.size()", width, storage);
+              } else {
+                code.addStatement("int dataSize = 0")
+                    .beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+                    .addStatement("dataSize += $L", valueSize(field, element))
+                    .endControlFlow()
+                    .addStatement("$N = dataSize", packedSizeField(field));
+              }
+              code.addStatement(
+                      "size += $L + $T.computeUInt32SizeNoTag(dataSize) + dataSize",
+                      tagSize,
+                      CODED_OUTPUT_STREAM)
+                  .endControlFlow();
+            } else if (width > 0) {
+              code.addStatement("size += $L * $N.size()", tagSize + width, storage);
+            } else {
+              code.beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+                  .addStatement("size += $L + $L", tagSize, valueSize(field, element))
+                  .endControlFlow();
+            }
+            break;
+          }
+        case LIST:
+          code.beginControlFlow("for (final $T element : $N)", listElementType(field), storage)
+              .addStatement("size += $L + $L", tagSize, valueSize(field, CodeBlock.of("element")))
+              .endControlFlow();
+          break;
+        case HOLDER_ARRAY:
+          code.beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+              .addStatement(
+                  "size += $L + $L",
+                  field.getType() == FieldDescriptor.Type.GROUP ? tagSize * 2 : tagSize,
+                  valueSize(field, CodeBlock.of("$N.get(i)", storage)))
+              .endControlFlow();
+          break;
+        case MAP:
+        default:
+          code.beginControlFlow("for (final $T entry : $N.entrySet())", entryType(field), storage)
+              .addStatement("final int entrySize = $L", entrySize(field, true))
+              .addStatement(
+                  "size += $L + $T.computeUInt32SizeNoTag(entrySize) + entrySize",
+                  tagSize,
+                  CODED_OUTPUT_STREAM)
+              .endControlFlow();
+          break;
+      }
+    }
+    return code.addStatement("return size").build();
+  }
+
+  private static CodeBlock writeFieldsBody(
+      final List<FieldDescriptor> fields, final Map<FieldDescriptor, Integer> bits)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    for (final FieldDescriptor field : fields) {
+      final String storage = storage(field);
+      final int tag = WireFormats.tag(field);
+      switch (kind(field)) {
+        case SCALAR:
+          code.beginControlFlow("if ($L)", isWritten(field, bits))
+              .addStatement("output.writeUInt32NoTag($L)", tag)
+              .addStatement("$L", writeValue(field, CodeBlock.of(storage)))
+              .endControlFlow();
+          break;
+        case HOLDER:
+        case MESSAGE:
+          code.beginControlFlow("if ($L)", isSet(field, bits))
+              .add(writeTagged(field, CodeBlock.of(storage)))
+              .endControlFlow();
+          break;
+        case SCALAR_ARRAY:
+          {
+            final CodeBlock element = CodeBlock.of("$N.get(i)", storage);
+            if (field.isPacked()) {
+              final int width = WireFormats.fixedWidth(field);
+              code.beginControlFlow("if (!$N.isEmpty())", storage)
+                  .addStatement("output.writeUInt32NoTag($L)", WireFormats.packedTag(field));
+              if (width > 0) {
+                code.addStatement("output.writeUInt32NoTag($L * $N.size())", width, storage);
+              } else {
+                code.addStatement("output.writeUInt32NoTag($N)", packedSizeField(field));
+              }
+              code.beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+                  .addStatement("$L", writeValue(field, element))
+                  .endControlFlow()
+                  .endControlFlow();
+            } else {
+              code.beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+                  .addStatement("output.writeUInt32NoTag($L)", tag)
+                  .addStatement("$L", writeValue(field, element))
+                  .endControlFlow();
+            }
+            break;
+          }
+        case LIST:
+          code.beginControlFlow("for (final $T element : $N)", listElementType(field), storage)
+              .addStatement("output.writeUInt32NoTag($L)", tag)
+              .addStatement("$L", writeValue(field, CodeBlock.of("element")))
+              .endControlFlow();
+          break;
+        case HOLDER_ARRAY:
+          code.beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+              .add(writeTagged(field, CodeBlock.of("$N.get(i)", storage)))
+              .endControlFlow();
+          break;
+        case MAP:
+        default:
+          {
+            final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+            final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+            code.beginControlFlow(
+                    "for (final $T entry : $N.entrySet())", entryType(field), storage)
+                .addStatement("output.writeUInt32NoTag($L)", tag)
+                .addStatement("output.writeUInt32NoTag($L)", entrySize(field, false))
+                .addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(keyField))
+                .addStatement("$L", writeValue(keyField, CodeBlock.of("entry.getKey()")))
+                .addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(valueField))
+                .addStatement("$L", writeValue(valueField, CodeBlock.of("entry.getValue()")))
+                .endControlFlow();
+            break;
+          }
+      }
+    }
+    return code.build();
+  }
+
+  private static CodeBlock writeTagged(final FieldDescriptor field, final CodeBlock value)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    if (field.getType() == FieldDescriptor.Type.GROUP) {
+      code.addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(field))
+          .addStatement("writeGroupNoTag(output, $L)", value)
+          .addStatement(
+              "output.writeUInt32NoTag($L)",
+              WireFormats.endGroupTag(field));
+    } else {
+      code.addStatement("output.writeUInt32NoTag($L)", WireFormats.tag(field))
+          .addStatement("$L", writeValue(field, value));
+    }
+    return code.build();
+  }
+
+  // The size of a map entry; nested holder sizes are computed when sizing, and cached otherwise
+  private static CodeBlock entrySize(final FieldDescriptor field, final boolean computing)
+      throws AutoProtobufException {
+    final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+    final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+    final CodeBlock valueSize =
+        kind(valueField) == Kind.HOLDER && !computing
+            ? CodeBlock.of("cachedMessageSizeNoTag(entry.getValue())")
+            : valueSize(valueField, CodeBlock.of("entry.getValue()"));
+    return CodeBlock.of(
+        "$L + $L + $L + $L",
+        CodedOutputStream.computeTagSize(1),
+        valueSize(keyField, CodeBlock.of("entry.getKey()")),
+        CodedOutputStream.computeTagSize(2),
+        valueSize);
+  }
+
+  private static CodeBlock toMessageBody(
+      final ClassName messageClass,
+      final List<FieldDescriptor> fields,
+      final Map<FieldDescriptor, Integer> bits)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code =
+        CodeBlock.builder()
+            .addStatement(
+                "final $T builder = $T.newBuilder()",
+                messageClass.nestedClass("Builder"),
+                messageClass);
+    for (final FieldDescriptor field : fields) {
+      final String name = capitalizedName(field);
+      final String storage = storage(field);
+      switch (kind(field)) {
+        case SCALAR:
+          code.beginControlFlow("if ($L)", isWritten(field, bits))
+              .addStatement(
+                  "builder.set$L$L($L)",
+                  name,
+                  enumValueSuffix(field),
+                  toMessageValue(field, CodeBlock.of(storage)))
+              .endControlFlow();
+          break;
+        case HOLDER:
+          code.beginControlFlow("if ($L)", isSet(field, bits))
+              .addStatement("builder.set$L($N.toMessage())", name, storage)
+              .endControlFlow();
+          break;
+        case MESSAGE:
+          code.beginControlFlow("if ($L)", isSet(field, bits))
+              .addStatement("builder.set$L($N)", name, storage)
+              .endControlFlow();
+          break;
+        case SCALAR_ARRAY:
+          code.beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+              .addStatement(
+                  "builder.add$L$L($L)",
+                  name,
+                  enumValueSuffix(field),
+                  toMessageValue(field, CodeBlock.of("$N.get(i)", storage)))
+              .endControlFlow();
+          break;
+        case LIST:
+          code.addStatement("builder.addAll$L($N)", name, storage);
+          break;
+        case HOLDER_ARRAY:
+          code.beginControlFlow("for (int i = 0, n = $N.size(); i < n; i++)", storage)
+              .addStatement("builder.add$L($N.get(i).toMessage())", name, storage)
+              .endControlFlow();
+          break;
+        case MAP:
+        default:
+          {
+            final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+            if (kind(valueField) == Kind.HOLDER || isClosedEnum(valueField)) {
+              code.beginControlFlow(
+                      "for (final $T entry : $N.entrySet())", entryType(field), storage)
+                  .addStatement(
+                      "builder.put$L(entry.getKey(), $L)",
+                      name,
+                      toMessageValue(valueField, CodeBlock.of("entry.getValue()")))
+                  .endControlFlow();
+            } else {
+              code.addStatement(
+                  "builder.putAll$L$L($N)", name, enumValueSuffix(valueField), storage);
+            }
+            break;
+          }
+      }
+    }
+    return code.addStatement("return builder.buildPartial()").build();
+  }
+
+  private static CodeBlock copyFromBody(
+      final List<FieldDescriptor> fields, final Map<FieldDescriptor, Integer> bits)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code = CodeBlock.builder().addStatement("clear()");
+    for (final FieldDescriptor field : fields) {
+      final String name = capitalizedName(field);
+      final String storage = storage(field);
+      switch (kind(field)) {
+        case SCALAR:
+          {
+            final CodeBlock value =
+                fromMessageValue(
+                    field, CodeBlock.of("message.get$L$L()", name, enumValueSuffix(field)));
+            if (hasPresence(field)) {
+              code.beginControlFlow("if ($L)", messageHas(field))
+                  .addStatement("$N = $L", storage, value)
+                  .add(markSet(field, bits))
+                  .endControlFlow();
+            } else {
+              code.addStatement("$N = $L", storage, value);
+            }
+            break;
+          }
+        case HOLDER:
+          code.beginControlFlow("if ($L)", messageHas(field))
+              .addStatement("mutable$L().copyFrom(message.get$L())", name, name)
+              .endControlFlow();
+          break;
+        case MESSAGE:
+          code.beginControlFlow("if ($L)", messageHas(field))
+              .addStatement("$N = message.get$L()", storage, name)
+              .add(markSet(field, bits))
+              .endControlFlow();
+          break;
+        case SCALAR_ARRAY:
+          code.beginControlFlow("for (int i = 0, n = message.get$LCount(); i < n; i++)", name)
+              .addStatement(
+                  "$N.add($L)",
+                  storage,
+                  fromMessageValue(
+                      field, CodeBlock.of("message.get$L$L(i)", name, enumValueSuffix(field))))
+              .endControlFlow();
+          break;
+        case LIST:
+          code.addStatement("$N.addAll(message.get$LList())", storage, name);
+          break;
+        case HOLDER_ARRAY:
+          code.beginControlFlow("for (int i = 0, n = message.get$LCount(); i < n; i++)", name)
+              .addStatement("$N.add().copyFrom(message.get$L(i))", storage, name)
+              .endControlFlow();
+          break;
+        case MAP:
+        default:
+          {
+            final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+            final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+            if (kind(valueField) == Kind.HOLDER || isClosedEnum(valueField)) {
+              final TypeName entryType =
+                  ParameterizedTypeName.get(
+                      ClassName.get(Map.Entry.class),
+                      scalarType(keyField).box(),
+                      valueField.getJavaType() == FieldDescriptor.JavaType.ENUM
+                          ? JavaNames.enumClass(valueField.getEnumType())
+                          : JavaNames.messageClass(valueField.getMessageType()));
+              code.beginControlFlow(
+                  "for (final $T entry : message.get$LMap().entrySet())", entryType, name);
+              if (kind(valueField) == Kind.HOLDER) {
+                code.addStatement(
+                    "$N.put(entry.getKey(), $N.add().copyFrom(entry.getValue()))",
+                    storage,
+                    valuePoolField(field));
+              } else {
+                code.addStatement(
+                    "$N.put(entry.getKey(), entry.getValue().getNumber())", storage);
+              }
+              code.endControlFlow();
+            } else {
+              code.addStatement(
+                  "$N.putAll(message.get$L$LMap())", storage, name, enumValueSuffix(valueField));
+            }
+            break;
+          }
+      }
+    }
+    return code.addStatement("return this").build();
+  }
+
+  private static boolean hasHolderValues(final FieldDescriptor field) {
+    return kind(field) == Kind.MAP
+        && kind(field.getMessageType().findFieldByNumber(2)) == Kind.HOLDER;
+  }
+
+  private static Kind kind(final FieldDescriptor field) {
+    if (field.isMapField()) {
+      return Kind.MAP;
+    }
+    final boolean message = field.getJavaType() == FieldDescriptor.JavaType.MESSAGE;
+    final boolean holder = message && !WellKnownTypes.isWellKnown(field.getMessageType());
+    if (field.isRepeated()) {
+      if (holder) {
+        return Kind.HOLDER_ARRAY;
+      } else if (message
+          || field.getJavaType() == FieldDescriptor.JavaType.STRING
+          || field.getJavaType() == FieldDescriptor.JavaType.BYTE_STRING) {
+        return Kind.LIST;
+      } else {
+        return Kind.SCALAR_ARRAY;
+      }
+    } else if (holder) {
+      return Kind.HOLDER;
+    } else if (message) {
+      return Kind.MESSAGE;
+    } else {
+      return Kind.SCALAR;
+    }
+  }
+
+  private static boolean hasPresence(final FieldDescriptor field) {
+    return field.getContainingOneof() != null
+        || field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        || field.getFile().getSyntax() != FileDescriptor.Syntax.PROTO3;
+  }
+
+  // Proto2 enums reject unknown values, which protobuf-java moves to the unknown fields instead
+  private static boolean isClosedEnum(final FieldDescriptor field) {
+    return field.getJavaType() == FieldDescriptor.JavaType.ENUM
+        && field.getFile().getSyntax() != FileDescriptor.Syntax.PROTO3;
+  }
+
+  private static String enumValueSuffix(final FieldDescriptor field) {
+    return field.getJavaType() == FieldDescriptor.JavaType.ENUM && !isClosedEnum(field)
+        ? "Value"
+        : "";
+  }
+
+  private static CodeBlock isSet(
+      final FieldDescriptor field, final Map<FieldDescriptor, Integer> bits) {
+    final OneofDescriptor oneof = field.getContainingOneof();
+    if (oneof != null) {
+      return CodeBlock.of("$N == $L", oneofCaseField(oneof), field.getNumber());
+    }
+    final int bit = bits.get(field);
+    return CodeBlock.of(
+        "(bitField$L_ & $L) != 0", bit / Integer.SIZE, bitMask(bit % Integer.SIZE));
+  }
+
+  // Whether a singular scalar is encoded, which without presence means it is not the default
+  private static CodeBlock isWritten(
+      final FieldDescriptor field, final Map<FieldDescriptor, Integer> bits) {
+    if (hasPresence(field)) {
+      return isSet(field, bits);
+    }
+    final String storage = storage(field);
+    switch (field.getJavaType()) {
+      case BOOLEAN:
+        return CodeBlock.of("$N", storage);
+      case STRING:
+      case BYTE_STRING:
+        return CodeBlock.of("!$N.isEmpty()", storage);
+      case LONG:
+        return CodeBlock.of("$N != 0L", storage);
+      case FLOAT:
+        return CodeBlock.of("$N != 0F", storage);
+      case DOUBLE:
+        return CodeBlock.of("$N != 0D", storage);
+      default:
+        return CodeBlock.of("$N != 0", storage);
+    }
+  }
+
+  private static CodeBlock markSet(
+      final FieldDescriptor field, final Map<FieldDescriptor, Integer> bits) {
+    final OneofDescriptor oneof = field.getContainingOneof();
+    if (oneof != null) {
+      return CodeBlock.of("$N = $L;\n", oneofCaseField(oneof), field.getNumber());
+    } else if (bits.containsKey(field)) {
+      final int bit = bits.get(field);
+      return CodeBlock.of("bitField$L_ |= $L;\n", bit / Integer.SIZE, bitMask(bit % Integer.SIZE));
+    } else {
+      // Fields without presence are implicitly set
+      return CodeBlock.of("");
+    }
+  }
+
+  private static CodeBlock markUnset(
+      final FieldDescriptor field, final Map<FieldDescriptor, Integer> bits) {
+    final int bit = bits.get(field);
+    return CodeBlock.of("bitField$L_ &= ~$L", bit / Integer.SIZE, bitMask(bit % Integer.SIZE));
+  }
+
+  private static String bitMask(final int bit) {
+    return String.format("0x%08X", 1 << bit);
+  }
+
+  // Proto3 oneof members other than messages have no has-accessor, so check the case instead
+  private static CodeBlock messageHas(final FieldDescriptor field) {
+    final OneofDescriptor oneof = field.getContainingOneof();
+    if (oneof != null && field.getJavaType() != FieldDescriptor.JavaType.MESSAGE) {
+      final String caseEnum = JavaNames.oneofCaseEnumName(oneof);
+      return CodeBlock.of(
+          "message.get$L() == $T.$L",
+          caseEnum,
+          JavaNames.messageClass(field.getContainingType()).nestedClass(caseEnum),
+          JavaNames.oneofCaseConstant(field));
+    } else {
+      return CodeBlock.of("message.has$L()", capitalizedName(field));
+    }
+  }
+
+  private static CodeBlock readValue(final FieldDescriptor field) throws AutoProtobufException {
+    switch (field.getType()) {
+      case STRING:
+        return field.getFile().getSyntax() == FileDescriptor.Syntax.PROTO3
+            ? CodeBlock.of("input.readStringRequireUtf8()")
+            : CodeBlock.of("input.readString()");
+      case MESSAGE:
+        return CodeBlock.of(
+            "input.readMessage($T.parser(), $T.getEmptyRegistry())",
+            JavaNames.messageClass(field.getMessageType()),
+            EXTENSION_REGISTRY_LITE);
+      default:
+        return CodeBlock.of("input.read$L()", WireFormats.wireName(field));
+    }
+  }
+
+  private static CodeBlock valueSize(final FieldDescriptor field, final CodeBlock value)
+      throws AutoProtobufException {
+    switch (kind(field)) {
+      case HOLDER:
+      case HOLDER_ARRAY:
+        return field.getType() == FieldDescriptor.Type.GROUP
+            ? CodeBlock.of("$L.getSerializedSize()", value)
+            : CodeBlock.of("computeMessageSizeNoTag($L)", value);
+      default:
+        if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+          return CodeBlock.of("$T.computeMessageSizeNoTag($L)", CODED_OUTPUT_STREAM, value);
+        }
+        return CodeBlock.of(
+            "$T.compute$LSizeNoTag($L)", CODED_OUTPUT_STREAM, WireFormats.wireName(field), value);
+    }
+  }
+
+  private static CodeBlock writeValue(final FieldDescriptor field, final CodeBlock value)
+      throws AutoProtobufException {
+    switch (kind(field)) {
+      case HOLDER:
+      case HOLDER_ARRAY:
+        return CodeBlock.of("writeMessageNoTag(output, $L)", value);
+      default:
+        if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+          return CodeBlock.of("output.writeMessageNoTag($L)", value);
+        }
+        return CodeBlock.of("output.write$LNoTag($L)", WireFormats.wireName(field), value);
+    }
+  }
+
+  // Converts a stored value to what the message builder accepts
+  private static CodeBlock toMessageValue(final FieldDescriptor field, final CodeBlock value) {
+    if (isClosedEnum(field)) {
+      return CodeBlock.of("$T.forNumber($L)", JavaNames.enumClass(field.getEnumType()), value);
+    } else if (kind(field) == Kind.HOLDER) {
+      return CodeBlock.of("$L.toMessage()", value);
+    } else {
+      return value;
+    }
+  }
+
+  // Converts a value from a message getter to a stored value
+  private static CodeBlock fromMessageValue(final FieldDescriptor field, final CodeBlock value) {
+    if (isClosedEnum(field)) {
+      return CodeBlock.of("$L.getNumber()", value);
+    }
+    return value;
+  }
+
+  private static TypeName scalarType(final FieldDescriptor field) {
+    switch (field.getJavaType()) {
+      case INT:
+      case ENUM:
+        return TypeName.INT;
+      case LONG:
+        return TypeName.LONG;
+      case FLOAT:
+        return TypeName.FLOAT;
+      case DOUBLE:
+        return TypeName.DOUBLE;
+      case BOOLEAN:
+        return TypeName.BOOLEAN;
+      case STRING:
+        return ClassName.get(String.class);
+      case BYTE_STRING:
+        return BYTE_STRING;
+      case MESSAGE:
+      default:
+        return JavaNames.messageClass(field.getMessageType());
+    }
+  }
+
+  // Explicit defaults and the first values of closed enums are read from the default instance
+  private static boolean hasDefaultConstant(final FieldDescriptor field) {
+    return !field.isRepeated() && (field.hasDefaultValue() || isClosedEnum(field));
+  }
+
+  private static CodeBlock defaultValue(final FieldDescriptor field) {
+    if (hasDefaultConstant(field)) {
+      return CodeBlock.of("$N", defaultConstant(field));
+    }
+    switch (field.getJavaType()) {
+      case BOOLEAN:
+        return CodeBlock.of("false");
+      case STRING:
+        return CodeBlock.of("$S", "");
+      case BYTE_STRING:
+        return CodeBlock.of("$T.EMPTY", BYTE_STRING);
+      case LONG:
+        return CodeBlock.of("0L");
+      case FLOAT:
+        return CodeBlock.of("0F");
+      case DOUBLE:
+        return CodeBlock.of("0D");
+      default:
+        return CodeBlock.of("0");
+    }
+  }
+
+  // Map entries have no default constants of their own, and enum values default to the first value
+  private static CodeBlock mapValueDefault(final FieldDescriptor valueField) {
+    if (valueField.getJavaType() == FieldDescriptor.JavaType.ENUM) {
+      return CodeBlock.of("$L", valueField.getEnumType().getValues().get(0).getNumber());
+    }
+    return defaultValue(valueField);
+  }
+
+  private static ClassName scalarArrayType(final FieldDescriptor field) {
+    switch (field.getJavaType()) {
+      case LONG:
+        return ClassName.get(RUNTIME_PACKAGE, "LongArray");
+      case FLOAT:
+        return ClassName.get(RUNTIME_PACKAGE, "FloatArray");
+      case DOUBLE:
+        return ClassName.get(RUNTIME_PACKAGE, "DoubleArray");
+      case BOOLEAN:
+        return ClassName.get(RUNTIME_PACKAGE, "BooleanArray");
+      case INT:
+      case ENUM:
+      default:
+        return ClassName.get(RUNTIME_PACKAGE, "IntArray");
+    }
+  }
+
+  private static TypeName listElementType(final FieldDescriptor field) {
+    return scalarType(field);
+  }
+
+  private static TypeName listType(final FieldDescriptor field) {
+    return ParameterizedTypeName.get(ClassName.get(List.class), listElementType(field));
+  }
+
+  private static TypeName mapValueType(final FieldDescriptor valueField) {
+    if (kind(valueField) == Kind.HOLDER) {
+      return holderClass(valueField.getMessageType());
+    } else {
+      return scalarType(valueField).box();
+    }
+  }
+
+  private static TypeName mapType(final FieldDescriptor field) {
+    final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+    final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+    return ParameterizedTypeName.get(
+        ClassName.get(Map.class), scalarType(keyField).box(), mapValueType(valueField));
+  }
+
+  private static TypeName entryType(final FieldDescriptor field) {
+    final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+    final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+    return ParameterizedTypeName.get(
+        ClassName.get(Map.Entry.class), scalarType(keyField).box(), mapValueType(valueField));
+  }
+
+  private static ClassName holderClass(final Descriptor type) {
+    return JavaNames.generatedClass(type, SUFFIX);
+  }
+
+  private static String capitalizedName(final FieldDescriptor field) {
+    return JavaNames.capitalizedName(field);
+  }
+
+  private static String storage(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "_";
+  }
+
+  private static String packedSizeField(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "PackedSize_";
+  }
+
+  private static String valuePoolField(final FieldDescriptor field) {
+    return JavaNames.camelCaseName(field) + "ValuePool_";
+  }
+
+  private static String defaultConstant(final FieldDescriptor field) {
+    return "DEFAULT_" + field.getName().toUpperCase(Locale.ROOT);
+  }
+
+  private static String oneofCaseField(final OneofDescriptor oneof) {
+    final String caseEnum = JavaNames.oneofCaseEnumName(oneof);
+    return Character.toLowerCase(caseEnum.charAt(0)) + caseEnum.substring(1) + "_";
+  }
+
+  private static List<FieldDescriptor> fieldsByNumber(final Descriptor message) {
+    return message
+        .getFields()
+        .stream()
+        .sorted(comparingInt(FieldDescriptor::getNumber))
+        .collect(toList());
+  }
+}
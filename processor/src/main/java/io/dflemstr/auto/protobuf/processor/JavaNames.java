@@ -0,0 +1,198 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.squareup.javapoet.ClassName;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Java names of the classes and accessors that {@code protoc --java_out} generates, following the
+ * rules of the protoc Java code generator.
+ */
+final class JavaNames {
+
+  // Field names that protoc mangles by appending an underscore to the Java name
+  private static final ImmutableSet<String> FORBIDDEN_FIELD_NAMES = ImmutableSet.of("class");
+
+  private JavaNames() {
+    // Prevent instantiation
+  }
+
+  static String javaPackage(final FileDescriptor file) {
+    final FileOptions options = file.getOptions();
+    if (options.hasJavaPackage()) {
+      return options.getJavaPackage();
+    } else {
+      return file.getPackage();
+    }
+  }
+
+  static String outerClassName(final FileDescriptor file) {
+    return outerClassName(file.toProto());
+  }
+
+  /** The outer class name of a file that has not been built into a {@link FileDescriptor}. */
+  static String outerClassName(final FileDescriptorProto file) {
+    final FileOptions options = file.getOptions();
+    if (options.hasJavaOuterClassname()) {
+      return options.getJavaOuterClassname();
+    }
+
+    final String name = file.getName();
+    final String baseName = name.substring(name.lastIndexOf('/') + 1);
+    final String stripped =
+        baseName.endsWith(".proto")
+            ? baseName.substring(0, baseName.length() - ".proto".length())
+            : baseName;
+    final String className = underscoresToCamelCase(stripped, true);
+
+    if (hasConflictingClassName(file, className)) {
+      return className + "OuterClass";
+    } else {
+      return className;
+    }
+  }
+
+  static ClassName messageClass(final Descriptor descriptor) {
+    final Descriptor containingType = descriptor.getContainingType();
+    if (containingType != null) {
+      return messageClass(containingType).nestedClass(descriptor.getName());
+    } else {
+      return topLevelClass(descriptor.getFile(), descriptor.getName());
+    }
+  }
+
+  static ClassName enumClass(final EnumDescriptor descriptor) {
+    final Descriptor containingType = descriptor.getContainingType();
+    if (containingType != null) {
+      return messageClass(containingType).nestedClass(descriptor.getName());
+    } else {
+      return topLevelClass(descriptor.getFile(), descriptor.getName());
+    }
+  }
+
+  /**
+   * The name of a class generated by this processor for the specified message, placed in the same
+   * Java package as the message class. Nested message names are joined with underscores, so that
+   * {@code Outer.Inner} with the suffix {@code Json} becomes {@code Outer_InnerJson}.
+   */
+  static ClassName generatedClass(final Descriptor descriptor, final String suffix) {
+    return ClassName.get(javaPackage(descriptor.getFile()), flatName(descriptor) + suffix);
+  }
+
+  /** Like {@link #generatedClass(Descriptor, String)}, but for an enum. */
+  static ClassName generatedClass(final EnumDescriptor descriptor, final String suffix) {
+    final Descriptor containingType = descriptor.getContainingType();
+    final String flatName =
+        containingType != null
+            ? flatName(containingType) + "_" + descriptor.getName()
+            : descriptor.getName();
+    return ClassName.get(javaPackage(descriptor.getFile()), flatName + suffix);
+  }
+
+  /** The field name as used in accessor names, for example {@code FieldMask}. */
+  static String capitalizedName(final FieldDescriptor field) {
+    return underscoresToCamelCase(fieldName(field), true);
+  }
+
+  /** The field name as a Java identifier, for example {@code fieldMask}. */
+  static String camelCaseName(final FieldDescriptor field) {
+    return underscoresToCamelCase(fieldName(field), false);
+  }
+
+  /** The name of the enum that protoc generates to tell which member of a oneof is set. */
+  static String oneofCaseEnumName(final OneofDescriptor oneof) {
+    return underscoresToCamelCase(oneof.getName(), true) + "Case";
+  }
+
+  /** The name of the {@link #oneofCaseEnumName} constant that corresponds to a oneof member. */
+  static String oneofCaseConstant(final FieldDescriptor field) {
+    return field.getName().toUpperCase(Locale.ROOT);
+  }
+
+  /** Whether protoc generates {@code getXValue()}-style accessors for the raw enum number. */
+  static boolean hasEnumValueAccessors(final FieldDescriptor field) {
+    return field.getFile().getSyntax() == FileDescriptor.Syntax.PROTO3;
+  }
+
+  private static ClassName topLevelClass(final FileDescriptor file, final String name) {
+    final String javaPackage = javaPackage(file);
+    if (file.getOptions().getJavaMultipleFiles()) {
+      return ClassName.get(javaPackage, name);
+    } else {
+      return ClassName.get(javaPackage, outerClassName(file), name);
+    }
+  }
+
+  private static String flatName(final Descriptor descriptor) {
+    final Descriptor containingType = descriptor.getContainingType();
+    if (containingType != null) {
+      return flatName(containingType) + "_" + descriptor.getName();
+    } else {
+      return descriptor.getName();
+    }
+  }
+
+  private static String fieldName(final FieldDescriptor field) {
+    final String name =
+        field.getType() == FieldDescriptor.Type.GROUP
+            ? field.getMessageType().getName()
+            : field.getName();
+    if (FORBIDDEN_FIELD_NAMES.contains(name)) {
+      return name + "#";
+    } else {
+      return name;
+    }
+  }
+
+  private static boolean hasConflictingClassName(
+      final FileDescriptorProto file, final String className) {
+    return file.getEnumTypeList().stream().anyMatch(e -> e.getName().equals(className))
+        || file.getServiceList().stream().anyMatch(s -> s.getName().equals(className))
+        || hasConflictingClassName(file.getMessageTypeList(), className);
+  }
+
+  private static boolean hasConflictingClassName(
+      final List<DescriptorProto> messages, final String className) {
+    for (final DescriptorProto message : messages) {
+      if (message.getName().equals(className)
+          || message.getEnumTypeList().stream().anyMatch(e -> e.getName().equals(className))
+          || hasConflictingClassName(message.getNestedTypeList(), className)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Mirrors UnderscoresToCamelCase in protoc's java_helpers.cc
+  private static String underscoresToCamelCase(final String input, boolean capitalizeNext) {
+    final StringBuilder result = new StringBuilder(input.length());
+    for (int i = 0; i < input.length(); i++) {
+      final char c = input.charAt(i);
+      if ('a' <= c && c <= 'z') {
+        result.append(capitalizeNext ? Character.toUpperCase(c) : c);
+        capitalizeNext = false;
+      } else if ('A' <= c && c <= 'Z') {
+        result.append(i == 0 && !capitalizeNext ? Character.toLowerCase(c) : c);
+        capitalizeNext = false;
+      } else if ('0' <= c && c <= '9') {
+        result.append(c);
+        capitalizeNext = true;
+      } else {
+        capitalizeNext = true;
+      }
+    }
+    if (input.endsWith("#")) {
+      result.append('_');
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,1051 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a JSON codec class for every message and enum of a schema, plus one {@code AnyJson}
+ * class per package that handles {@code google.protobuf.Any} for the messages in the package.
+ *
+ * <p>The codecs follow the proto3 JSON mapping. Each one calls the generated accessors of its
+ * message directly, so no descriptors or reflection are involved when encoding or decoding.
+ *
+ * <p>Well-known types without a special JSON encoding, such as {@code google.protobuf.Type}, use
+ * the regular encoding of messages and enums. Codecs for the ones that the schema uses are
+ * generated into the package as well, with a {@code Protobuf} prefix.
+ */
+final class JsonCodecGenerator implements SourceGenerator {
+
+  static final String SUFFIX = "Json";
+  static final String ANY_CODEC = "AnyJson";
+  static final String WELL_KNOWN_PREFIX = "Protobuf";
+
+  private static final String RUNTIME_PACKAGE = "io.dflemstr.auto.protobuf.runtime.json";
+  private static final ClassName JSON_WRITER = ClassName.get(RUNTIME_PACKAGE, "JsonWriter");
+  private static final ClassName JSON_READER = ClassName.get(RUNTIME_PACKAGE, "JsonReader");
+  private static final ClassName JSON_TOKEN = ClassName.get(RUNTIME_PACKAGE, "JsonToken");
+  private static final ClassName WELL_KNOWN_JSON = ClassName.get(RUNTIME_PACKAGE, "WellKnownJson");
+  private static final ClassName ANY_JSON_SCOPE = ClassName.get(RUNTIME_PACKAGE, "AnyJsonScope");
+  private static final ClassName BYTE_STRING = ClassName.get("com.google.protobuf", "ByteString");
+  private static final ClassName INVALID_PROTOCOL_BUFFER_EXCEPTION =
+      ClassName.get("com.google.protobuf", "InvalidProtocolBufferException");
+
+  private static final ParameterSpec OUT = ParameterSpec.builder(JSON_WRITER, "out", FINAL).build();
+  private static final ParameterSpec IN = ParameterSpec.builder(JSON_READER, "in", FINAL).build();
+
+  private final boolean metrics;
+
+  /**
+   * @param metrics whether metrics are generated as well, in which case the codecs count the
+   *     messages they print and parse
+   */
+  JsonCodecGenerator(final boolean metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) throws AutoProtobufException {
+    final ClassName anyCodec = ClassName.get(schema.javaPackage(), ANY_CODEC);
+    final ImmutableList.Builder<JavaFile> files = ImmutableList.builder();
+
+    for (final Descriptor message : schema.messages()) {
+      final ClassName codecClass = JavaNames.generatedClass(message, SUFFIX);
+      files.add(javaFile(codecClass, messageCodec(message, codecClass, anyCodec)));
+    }
+    for (final EnumDescriptor enumType : schema.enums()) {
+      final ClassName codecClass = JavaNames.generatedClass(enumType, SUFFIX);
+      files.add(javaFile(codecClass, enumCodec(enumType, codecClass)));
+    }
+    final List<Descriptor> wellKnownMessages = new ArrayList<>();
+    final List<EnumDescriptor> wellKnownEnums = new ArrayList<>();
+    collectRegularWellKnownTypes(schema, wellKnownMessages, wellKnownEnums);
+    for (final Descriptor message : wellKnownMessages) {
+      final ClassName codecClass = messageCodecClass(message, anyCodec);
+      files.add(javaFile(codecClass, messageCodec(message, codecClass, anyCodec)));
+    }
+    for (final EnumDescriptor enumType : wellKnownEnums) {
+      final ClassName codecClass = enumCodecClass(enumType, anyCodec);
+      files.add(javaFile(codecClass, enumCodec(enumType, codecClass)));
+    }
+    files.add(javaFile(anyCodec, anyCodec(schema, wellKnownMessages, anyCodec)));
+
+    return files.build();
+  }
+
+  /**
+   * Collects the well-known messages and enums without a special JSON encoding that are reachable
+   * through the fields of the schema.
+   */
+  private static void collectRegularWellKnownTypes(
+      final Schema schema, final List<Descriptor> messages, final List<EnumDescriptor> enums) {
+    final Set<Descriptor> visited = Sets.newHashSet(schema.messages());
+    final Deque<Descriptor> pending = new ArrayDeque<>(schema.messages());
+    final Set<EnumDescriptor> visitedEnums = Sets.newHashSet();
+    while (!pending.isEmpty()) {
+      for (final FieldDescriptor field : pending.remove().getFields()) {
+        if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+          final Descriptor type = field.getMessageType();
+          if (visited.add(type)) {
+            pending.add(type);
+            if (isRegularWellKnown(type)) {
+              messages.add(type);
+            }
+          }
+        } else if (field.getJavaType() == FieldDescriptor.JavaType.ENUM) {
+          final EnumDescriptor type = field.getEnumType();
+          if (WellKnownTypes.isWellKnown(type)
+              && !type.getFullName().equals(WellKnownTypes.NULL_VALUE)
+              && visitedEnums.add(type)) {
+            enums.add(type);
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean isRegularWellKnown(final Descriptor type) {
+    return WellKnownTypes.isWellKnown(type)
+        && !WellKnownTypes.isAny(type)
+        && !WellKnownTypes.hasSpecialJson(type)
+        && !type.getOptions().getMapEntry();
+  }
+
+  private static JavaFile javaFile(final ClassName className, final TypeSpec typeSpec) {
+    return JavaFile.builder(className.packageName(), typeSpec).build();
+  }
+
+  private TypeSpec messageCodec(
+      final Descriptor message, final ClassName codecClass, final ClassName anyCodec)
+      throws AutoProtobufException {
+    final ClassName messageClass = JavaNames.messageClass(message);
+    final ClassName builderClass = messageClass.nestedClass("Builder");
+
+    final ParameterSpec messageParam =
+        ParameterSpec.builder(messageClass, "message", FINAL).build();
+    final ParameterSpec builderParam =
+        ParameterSpec.builder(builderClass, "builder", FINAL).build();
+
+    final TypeSpec.Builder type =
+        utilityClass(codecClass)
+            .addJavadoc(
+                "Encodes and decodes {@code $L} messages as JSON, following the proto3 JSON "
+                    + "mapping.\n",
+                message.getFullName());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("print")
+            .addJavadoc("Encodes a message as a JSON string.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(String.class)
+            .addParameter(messageParam)
+            .addStatement("final $T out = new $T()", StringWriter.class, StringWriter.class)
+            .beginControlFlow("try")
+            .addStatement("print(message, out)")
+            .nextControlFlow("catch (final $T e)", IOException.class)
+            .addComment("Can't happen when writing to a StringWriter")
+            .addStatement("throw new $T(e)", UncheckedIOException.class)
+            .endControlFlow()
+            .addStatement("return out.toString()")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("print")
+            .addJavadoc("Encodes a message as JSON to the specified writer.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .addParameter(messageParam)
+            .addParameter(ParameterSpec.builder(Writer.class, "out", FINAL).build())
+            .addException(IOException.class)
+            .addStatement("final $T writer = new $T(out)", JSON_WRITER, JSON_WRITER)
+            .addStatement("write(message, writer)")
+            .addStatement("writer.flush()")
+            .addCode(record(message, "recordJsonPrint()"))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("print")
+            .addJavadoc("Encodes a message as UTF-8 JSON to the specified stream.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .addParameter(messageParam)
+            .addParameter(ParameterSpec.builder(OutputStream.class, "out", FINAL).build())
+            .addException(IOException.class)
+            .addStatement("final $T writer = $T.create(out)", JSON_WRITER, JSON_WRITER)
+            .addStatement("write(message, writer)")
+            .addStatement("writer.flush()")
+            .addCode(record(message, "recordJsonPrint()"))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("parse")
+            .addJavadoc("Decodes a message from a JSON string.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(messageClass)
+            .addParameter(ParameterSpec.builder(String.class, "json", FINAL).build())
+            .addException(IOException.class)
+            .addStatement("return parse(new $T(json))", StringReader.class)
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("parse")
+            .addJavadoc(
+                "Decodes a message from a JSON string, skipping unknown members instead of failing "
+                    + "if\n{@code ignoringUnknownFields} is set.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(messageClass)
+            .addParameter(ParameterSpec.builder(String.class, "json", FINAL).build())
+            .addParameter(
+                ParameterSpec.builder(TypeName.BOOLEAN, "ignoringUnknownFields", FINAL).build())
+            .addException(IOException.class)
+            .addStatement(
+                "return parse(new $T(json), ignoringUnknownFields)", StringReader.class)
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("parse")
+            .addJavadoc("Decodes a message from UTF-8 JSON read from the specified stream.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(messageClass)
+            .addParameter(ParameterSpec.builder(InputStream.class, "in", FINAL).build())
+            .addException(IOException.class)
+            .addStatement(
+                "return parse(new $T(in, $T.UTF_8))",
+                InputStreamReader.class,
+                StandardCharsets.class)
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("parse")
+            .addJavadoc("Decodes a message from JSON read from the specified reader.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(messageClass)
+            .addParameter(ParameterSpec.builder(Reader.class, "in", FINAL).build())
+            .addException(IOException.class)
+            .addStatement("return parse(in, false)")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("parse")
+            .addJavadoc(
+                "Decodes a message from JSON read from the specified reader, skipping unknown "
+                    + "members\ninstead of failing if {@code ignoringUnknownFields} is set.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(messageClass)
+            .addParameter(ParameterSpec.builder(Reader.class, "in", FINAL).build())
+            .addParameter(
+                ParameterSpec.builder(TypeName.BOOLEAN, "ignoringUnknownFields", FINAL).build())
+            .addException(IOException.class)
+            .addStatement("final $T reader = new $T(in)", JSON_READER, JSON_READER)
+            .addStatement("reader.setIgnoringUnknownFields(ignoringUnknownFields)")
+            .addStatement("final $T message = read(reader)", messageClass)
+            .addStatement("reader.endDocument()")
+            .addCode(record(message, "recordJsonParse()"))
+            .addStatement("return message")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("write")
+            .addModifiers(PUBLIC, STATIC)
+            .addParameter(messageParam)
+            .addParameter(OUT)
+            .addException(IOException.class)
+            .addStatement("out.beginObject()")
+            .addStatement("writeFields(message, out)")
+            .addStatement("out.endObject()")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("writeFields")
+            .addJavadoc("Writes the members of the message object, without the enclosing braces.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .addParameter(messageParam)
+            .addParameter(OUT)
+            .addException(IOException.class)
+            .addCode(writeFieldsBody(message, anyCodec))
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("read")
+            .addModifiers(PUBLIC, STATIC)
+            .returns(messageClass)
+            .addParameter(IN)
+            .addException(IOException.class)
+            .addStatement("final $T builder = $T.newBuilder()", builderClass, messageClass)
+            .addStatement("merge(in, builder)")
+            .addStatement("return builder.build()")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("merge")
+            .addModifiers(PUBLIC, STATIC)
+            .addParameter(IN)
+            .addParameter(builderParam)
+            .addException(IOException.class)
+            .addStatement("in.beginObject()")
+            .addStatement("mergeFields(in, builder)")
+            .addStatement("in.endObject()")
+            .build());
+
+    type.addMethod(
+        MethodSpec.methodBuilder("mergeFields")
+            .addJavadoc(
+                "Reads the remaining members of a message object, without the enclosing braces.\n")
+            .addModifiers(PUBLIC, STATIC)
+            .addParameter(IN)
+            .addParameter(builderParam)
+            .addException(IOException.class)
+            .addCode(mergeFieldsBody(message, anyCodec))
+            .build());
+
+    return type.build();
+  }
+
+  private static CodeBlock writeFieldsBody(final Descriptor message, final ClassName anyCodec)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code = CodeBlock.builder();
+    final Set<OneofDescriptor> writtenOneofs = Sets.newHashSet();
+
+    for (final FieldDescriptor field : fieldsByNumber(message)) {
+      final OneofDescriptor oneof = field.getContainingOneof();
+      if (oneof != null) {
+        if (writtenOneofs.add(oneof)) {
+          code.add(writeOneof(oneof, anyCodec));
+        }
+      } else if (field.isMapField()) {
+        code.add(writeMapField(field, anyCodec));
+      } else if (field.isRepeated()) {
+        code.add(writeRepeatedField(field, anyCodec));
+      } else {
+        code.add(writeSingularField(field, anyCodec));
+      }
+    }
+
+    return code.build();
+  }
+
+  private static CodeBlock writeSingularField(
+      final FieldDescriptor field, final ClassName anyCodec) throws AutoProtobufException {
+    final String name = JavaNames.capitalizedName(field);
+    final String suffix = enumValueSuffix(field);
+    final CodeBlock value = CodeBlock.of("message.get$L$L()", name, suffix);
+
+    final CodeBlock condition;
+    if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        || field.getFile().getSyntax() != FileDescriptor.Syntax.PROTO3) {
+      condition = CodeBlock.of("message.has$L()", name);
+    } else {
+      condition = nonDefaultCondition(field, value);
+    }
+
+    return CodeBlock.builder()
+        .beginControlFlow("if ($L)", condition)
+        .addStatement("out.name($S)", field.getJsonName())
+        .addStatement("$L", writeValue(field, enumNumber(field, value), anyCodec))
+        .endControlFlow()
+        .build();
+  }
+
+  private static CodeBlock writeRepeatedField(
+      final FieldDescriptor field, final ClassName anyCodec) throws AutoProtobufException {
+    final String name = JavaNames.capitalizedName(field);
+    final CodeBlock value =
+        CodeBlock.of("message.get$L$L(i)", name, enumValueSuffix(field));
+
+    return CodeBlock.builder()
+        .beginControlFlow("if (message.get$LCount() > 0)", name)
+        .addStatement("out.name($S)", field.getJsonName())
+        .addStatement("out.beginArray()")
+        .beginControlFlow("for (int i = 0, n = message.get$LCount(); i < n; i++)", name)
+        .addStatement("$L", writeValue(field, enumNumber(field, value), anyCodec))
+        .endControlFlow()
+        .addStatement("out.endArray()")
+        .endControlFlow()
+        .build();
+  }
+
+  private static CodeBlock writeMapField(final FieldDescriptor field, final ClassName anyCodec)
+      throws AutoProtobufException {
+    final String name = JavaNames.capitalizedName(field);
+    final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+    final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+    final boolean enumValues = isEnumWithValueAccessors(field, valueField);
+
+    final TypeName entryType =
+        ParameterizedTypeName.get(
+            ClassName.get(Map.Entry.class),
+            javaType(keyField, false).box(),
+            javaType(valueField, enumValues).box());
+    final CodeBlock value =
+        valueField.getJavaType() == FieldDescriptor.JavaType.ENUM && !enumValues
+            ? CodeBlock.of("entry.getValue().getNumber()")
+            : CodeBlock.of("entry.getValue()");
+
+    return CodeBlock.builder()
+        .beginControlFlow("if (message.get$LCount() > 0)", name)
+        .addStatement("out.name($S)", field.getJsonName())
+        .addStatement("out.beginObject()")
+        .beginControlFlow(
+            "for (final $T entry : message.get$L$LMap().entrySet())",
+            entryType,
+            name,
+            enumValues ? "Value" : "")
+        .addStatement("out.name($L)", mapKeyToString(keyField))
+        .addStatement("$L", writeValue(valueField, value, anyCodec))
+        .endControlFlow()
+        .addStatement("out.endObject()")
+        .endControlFlow()
+        .build();
+  }
+
+  private static CodeBlock writeOneof(final OneofDescriptor oneof, final ClassName anyCodec)
+      throws AutoProtobufException {
+    final CodeBlock.Builder code =
+        CodeBlock.builder()
+            .beginControlFlow("switch (message.get$L())", JavaNames.oneofCaseEnumName(oneof));
+
+    for (final FieldDescriptor field : oneof.getFields()) {
+      final CodeBlock value =
+          CodeBlock.of(
+              "message.get$L$L()", JavaNames.capitalizedName(field), enumValueSuffix(field));
+      code.add("case $L:\n", JavaNames.oneofCaseConstant(field))
+          .indent()
+          .addStatement("out.name($S)", field.getJsonName())
+          .addStatement("$L", writeValue(field, enumNumber(field, value), anyCodec))
+          .addStatement("break")
+          .unindent();
+    }
+
+    return code.add("default:\n")
+        .indent()
+        .addStatement("break")
+        .unindent()
+        .endControlFlow()
+        .build();
+  }
+
+  // Writes a single (non-repeated) value; enums are passed as their number
+  private static CodeBlock writeValue(
+      final FieldDescriptor field, final CodeBlock value, final ClassName anyCodec)
+      throws AutoProtobufException {
+    switch (field.getType()) {
+      case UINT32:
+      case FIXED32:
+        return CodeBlock.of("out.unsignedValue($L)", value);
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        return CodeBlock.of("out.quotedValue($L)", value);
+      case UINT64:
+      case FIXED64:
+        return CodeBlock.of("out.quotedUnsignedValue($L)", value);
+      case ENUM:
+        if (field.getEnumType().getFullName().equals(WellKnownTypes.NULL_VALUE)) {
+          return CodeBlock.of("$T.writeNullValue($L, out)", WELL_KNOWN_JSON, value);
+        }
+        return CodeBlock.of("$T.write($L, out)", enumCodecClass(field.getEnumType(), anyCodec), value);
+      case MESSAGE:
+      case GROUP:
+        final Descriptor type = field.getMessageType();
+        if (WellKnownTypes.isAny(type)) {
+          return CodeBlock.of("$T.write($L, out)", anyCodec, value);
+        } else if (WellKnownTypes.hasSpecialJson(type)) {
+          return CodeBlock.of("$T.write$L($L, out)", WELL_KNOWN_JSON, type.getName(), value);
+        }
+        return CodeBlock.of("$T.write($L, out)", messageCodecClass(type, anyCodec), value);
+      default:
+        return CodeBlock.of("out.value($L)", value);
+    }
+  }
+
+  private static CodeBlock mergeFieldsBody(final Descriptor message, final ClassName anyCodec)
+      throws AutoProtobufException {
+    final List<FieldDescriptor> fields = fieldsByNumber(message);
+    final CodeBlock.Builder code = CodeBlock.builder();
+    // Like JsonFormat, reject fields that occur twice, under either name, and oneofs with several
+    // members, so every field gets a bit and every oneof the name of its member
+    for (int word = 0; word < (fields.size() + Long.SIZE - 1) / Long.SIZE; word++) {
+      code.addStatement("long seen$L = 0L", word);
+    }
+    for (final OneofDescriptor oneof : message.getOneofs()) {
+      code.addStatement("$T $N = null", String.class, oneofMemberVariable(oneof));
+    }
+    code.beginControlFlow("while (in.hasNext())")
+        .addStatement("final String name = in.nextName()")
+        .beginControlFlow("switch (name)");
+
+    for (int index = 0; index < fields.size(); index++) {
+      final FieldDescriptor field = fields.get(index);
+      code.add("case $S:\n", field.getJsonName());
+      if (!field.getJsonName().equals(field.getName())) {
+        code.add("case $S:\n", field.getName());
+      }
+      final String seen = "seen" + index / Long.SIZE;
+      final String bit = String.format("0x%XL", 1L << (index % Long.SIZE));
+      code.indent()
+          .beginControlFlow("if (($N & $L) != 0)", seen, bit)
+          .addStatement("throw in.fieldAlreadySet($S)", field.getFullName())
+          .endControlFlow()
+          .addStatement("$N |= $L", seen, bit);
+
+      final CodeBlock.Builder read = CodeBlock.builder();
+      final OneofDescriptor oneof = field.getContainingOneof();
+      if (oneof != null) {
+        final String member = oneofMemberVariable(oneof);
+        read.beginControlFlow("if ($N != null)", member)
+            .addStatement("throw in.oneofAlreadySet($S, $N)", field.getFullName(), member)
+            .endControlFlow()
+            .addStatement("$N = $S", member, field.getFullName());
+      }
+      if (field.isMapField()) {
+        read.add(readMapField(field, anyCodec));
+      } else if (field.isRepeated()) {
+        read.add(readRepeatedField(field, anyCodec));
+      } else {
+        read.add(readSingularField(field, anyCodec));
+      }
+
+      if (acceptsNull(field)) {
+        code.add(read.build());
+      } else {
+        code.beginControlFlow("if (!in.skipNull())").add(read.build()).endControlFlow();
+      }
+      code.addStatement("break").unindent();
+    }
+
+    return code.add("default:\n")
+        .indent()
+        .addStatement("in.skipUnknownField($S, name)", message.getFullName())
+        .addStatement("break")
+        .unindent()
+        .endControlFlow()
+        .endControlFlow()
+        .build();
+  }
+
+  // The local variable that holds the full name of the oneof member that was read
+  private static String oneofMemberVariable(final OneofDescriptor oneof) {
+    final String caseName = JavaNames.oneofCaseEnumName(oneof);
+    return Character.toLowerCase(caseName.charAt(0))
+        + caseName.substring(1, caseName.length() - "Case".length())
+        + "Member";
+  }
+
+  private static CodeBlock readSingularField(
+      final FieldDescriptor field, final ClassName anyCodec) throws AutoProtobufException {
+    final String name = JavaNames.capitalizedName(field);
+    if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+        && !WellKnownTypes.isWellKnown(field.getMessageType())) {
+      return CodeBlock.of(
+          "$T.merge(in, builder.get$LBuilder());\n",
+          messageCodecClass(field.getMessageType(), anyCodec),
+          name);
+    }
+    return CodeBlock.of(
+        "builder.set$L$L($L);\n", name, enumValueSuffix(field), readValue(field, field, anyCodec));
+  }
+
+  private static CodeBlock readRepeatedField(
+      final FieldDescriptor field, final ClassName anyCodec) throws AutoProtobufException {
+    return CodeBlock.builder()
+        .addStatement("in.beginArray()")
+        .beginControlFlow("while (in.hasNext())")
+        .addStatement(
+            "builder.add$L$L($L)",
+            JavaNames.capitalizedName(field),
+            enumValueSuffix(field),
+            readValue(field, field, anyCodec))
+        .endControlFlow()
+        .addStatement("in.endArray()")
+        .build();
+  }
+
+  private static CodeBlock readMapField(final FieldDescriptor field, final ClassName anyCodec)
+      throws AutoProtobufException {
+    final FieldDescriptor keyField = field.getMessageType().findFieldByNumber(1);
+    final FieldDescriptor valueField = field.getMessageType().findFieldByNumber(2);
+    final boolean enumValues = isEnumWithValueAccessors(field, valueField);
+
+    return CodeBlock.builder()
+        .addStatement("in.beginObject()")
+        .beginControlFlow("while (in.hasNext())")
+        .addStatement("final $T key = $L", javaType(keyField, false), readMapKey(keyField))
+        .addStatement(
+            "builder.put$L$L(key, $L)",
+            JavaNames.capitalizedName(field),
+            enumValues ? "Value" : "",
+            readValue(field, valueField, anyCodec))
+        .endControlFlow()
+        .addStatement("in.endObject()")
+        .build();
+  }
+
+  // Reads a single value of the type of valueField, as accepted by the setters of field
+  private static CodeBlock readValue(
+      final FieldDescriptor field, final FieldDescriptor valueField, final ClassName anyCodec)
+      throws AutoProtobufException {
+    switch (valueField.getType()) {
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        return CodeBlock.of("in.nextInt()");
+      case UINT32:
+      case FIXED32:
+        return CodeBlock.of("in.nextUnsignedInt()");
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        return CodeBlock.of("in.nextLong()");
+      case UINT64:
+      case FIXED64:
+        return CodeBlock.of("in.nextUnsignedLong()");
+      case FLOAT:
+        return CodeBlock.of("in.nextFloat()");
+      case DOUBLE:
+        return CodeBlock.of("in.nextDouble()");
+      case BOOL:
+        return CodeBlock.of("in.nextBoolean()");
+      case STRING:
+        return CodeBlock.of("in.nextString()");
+      case BYTES:
+        return CodeBlock.of("in.nextBytes()");
+      case ENUM:
+        final EnumDescriptor enumType = valueField.getEnumType();
+        final boolean enumValues = JavaNames.hasEnumValueAccessors(field);
+        if (enumType.getFullName().equals(WellKnownTypes.NULL_VALUE)) {
+          final CodeBlock number = CodeBlock.of("$T.readNullValue(in)", WELL_KNOWN_JSON);
+          return enumValues
+              ? number
+              : CodeBlock.of("$T.forNumber($L)", JavaNames.enumClass(enumType), number);
+        }
+        return CodeBlock.of(
+            "$T.$L(in)", enumCodecClass(enumType, anyCodec), enumValues ? "read" : "readKnown");
+      case MESSAGE:
+      case GROUP:
+        final Descriptor type = valueField.getMessageType();
+        if (WellKnownTypes.isAny(type)) {
+          return CodeBlock.of("$T.read(in)", anyCodec);
+        } else if (WellKnownTypes.hasSpecialJson(type)) {
+          return CodeBlock.of("$T.read$L(in)", WELL_KNOWN_JSON, type.getName());
+        }
+        return CodeBlock.of("$T.read(in)", messageCodecClass(type, anyCodec));
+      default:
+        throw new AutoProtobufException("Unsupported field type " + valueField.getType());
+    }
+  }
+
+  private static CodeBlock readMapKey(final FieldDescriptor keyField) {
+    switch (keyField.getType()) {
+      case BOOL:
+        return CodeBlock.of("in.nextBooleanName()");
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        return CodeBlock.of("in.nextIntName()");
+      case UINT32:
+      case FIXED32:
+        return CodeBlock.of("in.nextUnsignedIntName()");
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        return CodeBlock.of("in.nextLongName()");
+      case UINT64:
+      case FIXED64:
+        return CodeBlock.of("in.nextUnsignedLongName()");
+      default:
+        return CodeBlock.of("in.nextName()");
+    }
+  }
+
+  private static CodeBlock mapKeyToString(final FieldDescriptor keyField) {
+    switch (keyField.getType()) {
+      case STRING:
+        return CodeBlock.of("entry.getKey()");
+      case UINT32:
+      case FIXED32:
+        return CodeBlock.of("$T.toUnsignedString(entry.getKey())", Integer.class);
+      case UINT64:
+      case FIXED64:
+        return CodeBlock.of("$T.toUnsignedString(entry.getKey())", Long.class);
+      default:
+        return CodeBlock.of("$T.valueOf(entry.getKey())", String.class);
+    }
+  }
+
+  private static TypeSpec enumCodec(final EnumDescriptor enumType, final ClassName codecClass) {
+    final ClassName enumClass = JavaNames.enumClass(enumType);
+
+    final CodeBlock.Builder write = CodeBlock.builder().beginControlFlow("switch (number)");
+    final Set<Integer> writtenNumbers = Sets.newHashSet();
+    for (final EnumValueDescriptor value : enumType.getValues()) {
+      // With allow_alias, the first name of each number is the canonical one
+      if (writtenNumbers.add(value.getNumber())) {
+        write
+            .add("case $L:\n", value.getNumber())
+            .indent()
+            .addStatement("out.value($S)", value.getName())
+            .addStatement("break")
+            .unindent();
+      }
+    }
+    write.add("default:\n").indent().addStatement("out.value(number)").addStatement("break");
+    write.unindent().endControlFlow();
+
+    final CodeBlock.Builder read =
+        CodeBlock.builder()
+            .beginControlFlow("if (in.peek() == $T.NUMBER)", JSON_TOKEN)
+            .addStatement("return in.nextInt()")
+            .endControlFlow()
+            .addStatement("final String name = in.nextString()")
+            .beginControlFlow("switch (name)");
+    for (final EnumValueDescriptor value : enumType.getValues()) {
+      read.add("case $S:\n", value.getName())
+          .indent()
+          .addStatement("return $L", value.getNumber())
+          .unindent();
+    }
+    read.add("default:\n")
+        .indent()
+        .addStatement("throw in.unknownEnumValue($S, name)", enumType.getFullName())
+        .unindent()
+        .endControlFlow();
+
+    return utilityClass(codecClass)
+        .addJavadoc(
+            "Encodes and decodes {@code $L} values as JSON, following the proto3 JSON mapping.\n",
+            enumType.getFullName())
+        .addMethod(
+            MethodSpec.methodBuilder("write")
+                .addJavadoc("Writes the name of the enum value, or the number if it is unknown.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .addParameter(ParameterSpec.builder(TypeName.INT, "number", FINAL).build())
+                .addParameter(OUT)
+                .addException(IOException.class)
+                .addCode(write.build())
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("read")
+                .addJavadoc("Reads an enum value name or number, returning the number.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(TypeName.INT)
+                .addParameter(IN)
+                .addException(IOException.class)
+                .addCode(read.build())
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("readKnown")
+                .addJavadoc("Reads an enum value name or number that must be known.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(enumClass)
+                .addParameter(IN)
+                .addException(IOException.class)
+                .addStatement("final int number = read(in)")
+                .addStatement("final $T value = $T.forNumber(number)", enumClass, enumClass)
+                .beginControlFlow("if (value == null)")
+                .addStatement("throw in.unknownEnumValue($S, number)", enumType.getFullName())
+                .endControlFlow()
+                .addStatement("return value")
+                .build())
+        .build();
+  }
+
+  private static TypeSpec anyCodec(
+      final Schema schema, final List<Descriptor> wellKnownMessages, final ClassName anyCodec) {
+    final ClassName any = WellKnownTypes.ANY_CLASS;
+
+    final CodeBlock.Builder write =
+        CodeBlock.builder()
+            .addStatement("final String typeUrl = message.getTypeUrl()")
+            .addStatement("out.beginObject()")
+            .beginControlFlow("if (!typeUrl.isEmpty())")
+            .addStatement("out.name($S)", "@type")
+            .addStatement("out.value(typeUrl)")
+            .beginControlFlow("switch ($T.typeName(typeUrl))", ANY_JSON_SCOPE);
+
+    final CodeBlock.Builder read =
+        CodeBlock.builder()
+            .addStatement("final $T scope = $T.begin(in)", ANY_JSON_SCOPE, ANY_JSON_SCOPE)
+            .addStatement("final String typeUrl = scope.typeUrl()")
+            .beginControlFlow("if (typeUrl.isEmpty())")
+            .addStatement("scope.end()")
+            .addStatement("return $T.getDefaultInstance()", any)
+            .endControlFlow()
+            .addStatement("final $T value", BYTE_STRING)
+            .beginControlFlow("switch (scope.typeName())");
+
+    for (final Descriptor message : Iterables.concat(schema.messages(), wellKnownMessages)) {
+      final ClassName messageClass = JavaNames.messageClass(message);
+      final ClassName codecClass = messageCodecClass(message, anyCodec);
+      write
+          .add("case $S:\n", message.getFullName())
+          .indent()
+          .addStatement(
+              "$T.writeFields($T.parseFrom(message.getValue()), out)", codecClass, messageClass)
+          .addStatement("break")
+          .unindent();
+      read.add("case $S:\n", message.getFullName())
+          .indent()
+          .add("{\n")
+          .indent()
+          .addStatement(
+              "final $T builder = $T.newBuilder()",
+              messageClass.nestedClass("Builder"),
+              messageClass)
+          .addStatement("$T.mergeFields(scope.reader(), builder)", codecClass)
+          .addStatement("value = builder.build().toByteString()")
+          .addStatement("break")
+          .unindent()
+          .add("}\n")
+          .unindent();
+    }
+
+    for (final String name : WellKnownTypes.specialJsonMessages()) {
+      if (name.equals("Empty")) {
+        // Empty is packed like a regular message, which has no members
+        continue;
+      }
+      final String fullName = WellKnownTypes.PACKAGE + "." + name;
+      final ClassName messageClass = ClassName.get("com.google.protobuf", name);
+      write
+          .add("case $S:\n", fullName)
+          .indent()
+          .addStatement("out.name($S)", "value")
+          .addStatement(
+              "$T.write$L($T.parseFrom(message.getValue()), out)",
+              WELL_KNOWN_JSON,
+              name,
+              messageClass)
+          .addStatement("break")
+          .unindent();
+      read.add("case $S:\n", fullName)
+          .indent()
+          .addStatement(
+              "value = $T.read$L(scope.beginValue()).toByteString()", WELL_KNOWN_JSON, name)
+          .addStatement("break")
+          .unindent();
+    }
+
+    write
+        .add("case $S:\n", WellKnownTypes.EMPTY)
+        .indent()
+        .addStatement("break")
+        .unindent()
+        .add("case $S:\n", WellKnownTypes.ANY)
+        .indent()
+        .addStatement("out.name($S)", "value")
+        .addStatement("write($T.parseFrom(message.getValue()), out)", any)
+        .addStatement("break")
+        .unindent()
+        .add("default:\n")
+        .indent()
+        .addStatement(
+            "throw new $T($S + typeUrl)",
+            INVALID_PROTOCOL_BUFFER_EXCEPTION,
+            "Cannot find type for url: ")
+        .unindent()
+        .endControlFlow()
+        .endControlFlow()
+        .addStatement("out.endObject()");
+
+    read.add("case $S:\n", WellKnownTypes.EMPTY)
+        .indent()
+        .beginControlFlow("while (scope.reader().hasNext())")
+        .addStatement(
+            "scope.reader().skipUnknownField($S, scope.reader().nextName())",
+            WellKnownTypes.EMPTY)
+        .endControlFlow()
+        .addStatement("value = $T.EMPTY", BYTE_STRING)
+        .addStatement("break")
+        .unindent()
+        .add("case $S:\n", WellKnownTypes.ANY)
+        .indent()
+        .addStatement("value = read(scope.beginValue()).toByteString()")
+        .addStatement("break")
+        .unindent()
+        .add("default:\n")
+        .indent()
+        .addStatement("throw in.syntaxError($S + typeUrl)", "Cannot find type for url: ")
+        .unindent()
+        .endControlFlow()
+        .addStatement("scope.end()")
+        .addStatement("return $T.newBuilder().setTypeUrl(typeUrl).setValue(value).build()", any);
+
+    return utilityClass(anyCodec)
+        .addJavadoc(
+            "Encodes and decodes {@code google.protobuf.Any} as JSON, following the proto3 JSON "
+                + "mapping.\n\n<p>Only the messages of this package, the well-known types with a "
+                + "special encoding, and\nthe other well-known types that the package uses can "
+                + "be packed.\n")
+        .addMethod(
+            MethodSpec.methodBuilder("write")
+                .addModifiers(PUBLIC, STATIC)
+                .addParameter(ParameterSpec.builder(any, "message", FINAL).build())
+                .addParameter(OUT)
+                .addException(IOException.class)
+                .addCode(write.build())
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("read")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(any)
+                .addParameter(IN)
+                .addException(IOException.class)
+                .addCode(read.build())
+                .build())
+        .build();
+  }
+
+  private CodeBlock record(final Descriptor message, final String call) {
+    // Well-known types have no metrics classes of their own
+    return metrics && !WellKnownTypes.isWellKnown(message)
+        ? MetricsGenerator.record(message, call)
+        : CodeBlock.of("");
+  }
+
+  private static TypeSpec.Builder utilityClass(final ClassName className) {
+    return TypeSpec.classBuilder(className)
+        .addModifiers(PUBLIC, FINAL)
+        .addMethod(
+            MethodSpec.constructorBuilder()
+                .addModifiers(PRIVATE)
+                .addComment("Prevent instantiation")
+                .build());
+  }
+
+  private static List<FieldDescriptor> fieldsByNumber(final Descriptor message) {
+    return message
+        .getFields()
+        .stream()
+        .sorted(comparingInt(FieldDescriptor::getNumber))
+        .collect(toList());
+  }
+
+  // Value and NullValue fields are the only ones where null has a meaning other than "not set"
+  private static boolean acceptsNull(final FieldDescriptor field) {
+    if (field.isRepeated()) {
+      return false;
+    }
+    switch (field.getJavaType()) {
+      case MESSAGE:
+        return field.getMessageType().getFullName().equals(WellKnownTypes.VALUE);
+      case ENUM:
+        return field.getEnumType().getFullName().equals(WellKnownTypes.NULL_VALUE);
+      default:
+        return false;
+    }
+  }
+
+  private static CodeBlock nonDefaultCondition(final FieldDescriptor field, final CodeBlock value) {
+    switch (field.getJavaType()) {
+      case BOOLEAN:
+        return value;
+      case STRING:
+      case BYTE_STRING:
+        return CodeBlock.of("!$L.isEmpty()", value);
+      case LONG:
+        return CodeBlock.of("$L != 0L", value);
+      // Negative zero is not the default value, and JsonFormat prints it
+      case FLOAT:
+        return CodeBlock.of("$T.floatToRawIntBits($L) != 0", Float.class, value);
+      case DOUBLE:
+        return CodeBlock.of("$T.doubleToRawLongBits($L) != 0L", Double.class, value);
+      default:
+        return CodeBlock.of("$L != 0", value);
+    }
+  }
+
+  // Proto3 enums are accessed through their numbers, so that unknown values are preserved
+  private static String enumValueSuffix(final FieldDescriptor field) {
+    return isEnumWithValueAccessors(field, field) ? "Value" : "";
+  }
+
+  private static boolean isEnumWithValueAccessors(
+      final FieldDescriptor field, final FieldDescriptor valueField) {
+    return valueField.getJavaType() == FieldDescriptor.JavaType.ENUM
+        && JavaNames.hasEnumValueAccessors(field);
+  }
+
+  private static CodeBlock enumNumber(final FieldDescriptor field, final CodeBlock value) {
+    if (field.getJavaType() == FieldDescriptor.JavaType.ENUM
+        && !JavaNames.hasEnumValueAccessors(field)) {
+      return CodeBlock.of("$L.getNumber()", value);
+    } else {
+      return value;
+    }
+  }
+
+  private static TypeName javaType(final FieldDescriptor field, final boolean enumAsNumber) {
+    switch (field.getJavaType()) {
+      case INT:
+        return TypeName.INT;
+      case LONG:
+        return TypeName.LONG;
+      case FLOAT:
+        return TypeName.FLOAT;
+      case DOUBLE:
+        return TypeName.DOUBLE;
+      case BOOLEAN:
+        return TypeName.BOOLEAN;
+      case STRING:
+        return ClassName.get(String.class);
+      case BYTE_STRING:
+        return BYTE_STRING;
+      case ENUM:
+        return enumAsNumber ? TypeName.INT : JavaNames.enumClass(field.getEnumType());
+      case MESSAGE:
+      default:
+        return JavaNames.messageClass(field.getMessageType());
+    }
+  }
+
+  /** The codec of a message, which is generated next to the Any codec if it is well-known. */
+  private static ClassName messageCodecClass(final Descriptor type, final ClassName anyCodec) {
+    final ClassName codecClass = JavaNames.generatedClass(type, SUFFIX);
+    return WellKnownTypes.isWellKnown(type)
+        ? ClassName.get(anyCodec.packageName(), WELL_KNOWN_PREFIX + codecClass.simpleName())
+        : codecClass;
+  }
+
+  /** The codec of an enum, which is generated next to the Any codec if it is well-known. */
+  private static ClassName enumCodecClass(final EnumDescriptor type, final ClassName anyCodec) {
+    final ClassName codecClass = JavaNames.generatedClass(type, SUFFIX);
+    return WellKnownTypes.isWellKnown(type)
+        ? ClassName.get(anyCodec.packageName(), WELL_KNOWN_PREFIX + codecClass.simpleName())
+        : codecClass;
+  }
+}
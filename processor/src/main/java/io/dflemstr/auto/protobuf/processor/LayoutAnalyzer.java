@@ -0,0 +1,301 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Analyzes how the fields of a schema are laid out in the wire format: how many bytes their tags
+ * take, whether repeated fields are packed, and how many bytes a value costs to encode. The
+ * analysis is reported as JSON, and the findings that usually call for a schema change can be
+ * reported as warnings.
+ */
+final class LayoutAnalyzer {
+
+  /** The name of the report, which is written next to the sources of the annotated package. */
+  static final String REPORT_NAME = "wire-layout.json";
+
+  // Field numbers up to this one have one-byte tags
+  private static final int MAX_ONE_BYTE_NUMBER = 15;
+
+  private LayoutAnalyzer() {
+    // Prevent instantiation
+  }
+
+  /** The layout of the fields of a message. */
+  @AutoValue
+  abstract static class MessageLayout {
+
+    MessageLayout() {
+      // Prevent outside instantiation
+    }
+
+    abstract Descriptor message();
+
+    abstract ImmutableList<FieldLayout> fields();
+
+    /** Field numbers with one-byte tags that are neither used, reserved nor for extensions. */
+    abstract ImmutableList<Integer> freeOneByteNumbers();
+  }
+
+  /** The layout of a field. */
+  @AutoValue
+  abstract static class FieldLayout {
+
+    FieldLayout() {
+      // Prevent outside instantiation
+    }
+
+    abstract FieldDescriptor field();
+
+    /** How values are encoded, such as {@code varint} or {@code length-delimited}. */
+    abstract String encoding();
+
+    abstract int tagBytes();
+
+    /** The smallest number of bytes of an encoded value, without its tag. */
+    abstract int minValueBytes();
+
+    /** The largest number of bytes of an encoded value, without its tag, or -1 if unbounded. */
+    abstract int maxValueBytes();
+
+    /**
+     * The bytes that are added to each value: the tag, twice for groups, or nothing for the
+     * elements of packed fields.
+     */
+    final int valueOverheadBytes() {
+      if (field().isPacked()) {
+        return 0;
+      }
+      return field().getType() == FieldDescriptor.Type.GROUP ? 2 * tagBytes() : tagBytes();
+    }
+
+    /** The bytes that are added once per message: the tag and length of packed fields. */
+    final int fieldOverheadBytes() {
+      return field().isPacked() ? tagBytes() + 1 : 0;
+    }
+  }
+
+  static ImmutableList<MessageLayout> analyze(final Schema schema) {
+    final ImmutableList.Builder<MessageLayout> layouts = ImmutableList.builder();
+    for (final Descriptor message : schema.messages()) {
+      final ImmutableList.Builder<FieldLayout> fields = ImmutableList.builder();
+      for (final FieldDescriptor field : message.getFields()) {
+        fields.add(fieldLayout(field));
+      }
+      layouts.add(
+          new AutoValue_LayoutAnalyzer_MessageLayout(
+              message, fields.build(), freeOneByteNumbers(message)));
+    }
+    return layouts.build();
+  }
+
+  /** Returns the report of the layouts of a package, as a JSON document. */
+  static String toJson(final String javaPackage, final ImmutableList<MessageLayout> layouts) {
+    final StringBuilder json = new StringBuilder();
+    json.append("{\n  \"package\": ").append(quote(javaPackage)).append(",\n");
+    json.append("  \"messages\": [");
+    for (int i = 0; i < layouts.size(); i++) {
+      final MessageLayout layout = layouts.get(i);
+      json.append(i == 0 ? "\n" : ",\n")
+          .append("    {\n      \"name\": ")
+          .append(quote(layout.message().getFullName()))
+          .append(",\n      \"file\": ")
+          .append(quote(layout.message().getFile().getName()))
+          .append(",\n      \"freeOneByteNumbers\": ")
+          .append(layout.freeOneByteNumbers())
+          .append(",\n      \"fields\": [");
+      for (int j = 0; j < layout.fields().size(); j++) {
+        final FieldLayout field = layout.fields().get(j);
+        json.append(j == 0 ? "\n" : ",\n")
+            .append("        {\"name\": ")
+            .append(quote(field.field().getName()))
+            .append(", \"number\": ")
+            .append(field.field().getNumber())
+            .append(", \"type\": ")
+            .append(quote(field.field().getType().name().toLowerCase(Locale.ROOT)))
+            .append(", \"label\": ")
+            .append(quote(label(field.field())))
+            .append(", \"encoding\": ")
+            .append(quote(field.encoding()))
+            .append(", \"tagBytes\": ")
+            .append(field.tagBytes())
+            .append(", \"exceedsOneByteTag\": ")
+            .append(field.field().getNumber() > MAX_ONE_BYTE_NUMBER)
+            .append(", \"packable\": ")
+            .append(field.field().isPackable())
+            .append(", \"packed\": ")
+            .append(field.field().isPacked())
+            .append(", \"minValueBytes\": ")
+            .append(field.minValueBytes())
+            .append(", \"maxValueBytes\": ")
+            .append(field.maxValueBytes() < 0 ? "null" : field.maxValueBytes())
+            .append(", \"valueOverheadBytes\": ")
+            .append(field.valueOverheadBytes())
+            .append(", \"fieldOverheadBytes\": ")
+            .append(field.fieldOverheadBytes())
+            .append("}");
+      }
+      json.append(layout.fields().isEmpty() ? "]\n    }" : "\n      ]\n    }");
+    }
+    json.append(layouts.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+    return json.toString();
+  }
+
+  /**
+   * Returns the findings that usually call for a schema change: repeated fields that could be
+   * packed but are not, and fields with multi-byte tags in messages that have one-byte field
+   * numbers to spare.
+   */
+  static ImmutableList<String> warnings(final ImmutableList<MessageLayout> layouts) {
+    final ImmutableList.Builder<String> warnings = ImmutableList.builder();
+    for (final MessageLayout layout : layouts) {
+      for (final FieldLayout field : layout.fields()) {
+        final String name = field.field().getFullName() + " = " + field.field().getNumber();
+        if (field.field().isPackable() && !field.field().isPacked()) {
+          warnings.add(
+              String.format(
+                  "%s is not packed, so every element repeats its %d-byte tag; "
+                      + "consider [packed = true]",
+                  name, field.tagBytes()));
+        }
+        if (field.field().getNumber() > MAX_ONE_BYTE_NUMBER
+            && !layout.freeOneByteNumbers().isEmpty()) {
+          final ImmutableList<Integer> free = layout.freeOneByteNumbers();
+          warnings.add(
+              String.format(
+                  "%s has a %d-byte tag, while field number%s %s %s free for one-byte tags",
+                  name,
+                  field.tagBytes(),
+                  free.size() == 1 ? "" : "s",
+                  free.stream().map(String::valueOf).collect(Collectors.joining(", ")),
+                  free.size() == 1 ? "is" : "are"));
+        }
+      }
+    }
+    return warnings.build();
+  }
+
+  private static FieldLayout fieldLayout(final FieldDescriptor field) {
+    final int tagBytes = CodedOutputStream.computeTagSize(field.getNumber());
+    final String encoding;
+    final int minValueBytes;
+    final int maxValueBytes;
+    switch (field.getType()) {
+      case INT32:
+      case INT64:
+      case UINT64:
+      case ENUM:
+        // Negative int32 and enum values are sign-extended to ten bytes
+        encoding = "varint";
+        minValueBytes = 1;
+        maxValueBytes = 10;
+        break;
+      case UINT32:
+        encoding = "varint";
+        minValueBytes = 1;
+        maxValueBytes = 5;
+        break;
+      case BOOL:
+        encoding = "varint";
+        minValueBytes = 1;
+        maxValueBytes = 1;
+        break;
+      case SINT32:
+        encoding = "zigzag varint";
+        minValueBytes = 1;
+        maxValueBytes = 5;
+        break;
+      case SINT64:
+        encoding = "zigzag varint";
+        minValueBytes = 1;
+        maxValueBytes = 10;
+        break;
+      case FIXED32:
+      case SFIXED32:
+      case FLOAT:
+        encoding = "fixed32";
+        minValueBytes = 4;
+        maxValueBytes = 4;
+        break;
+      case FIXED64:
+      case SFIXED64:
+      case DOUBLE:
+        encoding = "fixed64";
+        minValueBytes = 8;
+        maxValueBytes = 8;
+        break;
+      case GROUP:
+        encoding = "group";
+        minValueBytes = 0;
+        maxValueBytes = -1;
+        break;
+      default:
+        encoding = "length-delimited";
+        minValueBytes = 1;
+        maxValueBytes = -1;
+        break;
+    }
+    return new AutoValue_LayoutAnalyzer_FieldLayout(
+        field, encoding, tagBytes, minValueBytes, maxValueBytes);
+  }
+
+  private static ImmutableList<Integer> freeOneByteNumbers(final Descriptor message) {
+    final BitSet taken = new BitSet();
+    for (final FieldDescriptor field : message.getFields()) {
+      taken.set(field.getNumber());
+    }
+    // Range ends are exclusive, and may be as large as the largest field number
+    final DescriptorProto proto = message.toProto();
+    for (final DescriptorProto.ReservedRange range : proto.getReservedRangeList()) {
+      taken.set(range.getStart(), Math.max(range.getStart(), limit(range.getEnd())));
+    }
+    for (final DescriptorProto.ExtensionRange range : proto.getExtensionRangeList()) {
+      taken.set(range.getStart(), Math.max(range.getStart(), limit(range.getEnd())));
+    }
+    final ImmutableList.Builder<Integer> free = ImmutableList.builder();
+    for (int number = 1; number <= MAX_ONE_BYTE_NUMBER; number++) {
+      if (!taken.get(number)) {
+        free.add(number);
+      }
+    }
+    return free.build();
+  }
+
+  private static int limit(final int rangeEnd) {
+    return Math.min(rangeEnd, MAX_ONE_BYTE_NUMBER + 1);
+  }
+
+  private static String label(final FieldDescriptor field) {
+    if (field.isMapField()) {
+      return "map";
+    } else if (field.isRepeated()) {
+      return "repeated";
+    } else if (field.isRequired()) {
+      return "required";
+    } else {
+      return "optional";
+    }
+  }
+
+  private static String quote(final String value) {
+    final StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
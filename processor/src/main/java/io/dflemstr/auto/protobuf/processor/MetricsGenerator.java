@@ -0,0 +1,167 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Generates a class for every message of a schema that holds the serialization metrics of the
+ * message type, along with a parser and serialization methods that update them.
+ */
+final class MetricsGenerator implements SourceGenerator {
+
+  static final String SUFFIX = "Metrics";
+
+  private static final String RUNTIME_PACKAGE = "io.dflemstr.auto.protobuf.runtime.metrics";
+  private static final ClassName MESSAGE_METRICS =
+      ClassName.get(RUNTIME_PACKAGE, "MessageMetrics");
+  private static final ClassName METERED_PARSER = ClassName.get(RUNTIME_PACKAGE, "MeteredParser");
+  private static final ClassName PARSER = ClassName.get("com.google.protobuf", "Parser");
+  private static final ClassName BYTE_STRING = ClassName.get("com.google.protobuf", "ByteString");
+  private static final ClassName CODED_OUTPUT_STREAM =
+      ClassName.get("com.google.protobuf", "CodedOutputStream");
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) {
+    final ImmutableList.Builder<JavaFile> files = ImmutableList.builder();
+    for (final Descriptor message : schema.messages()) {
+      final ClassName metricsClass = JavaNames.generatedClass(message, SUFFIX);
+      files.add(
+          JavaFile.builder(metricsClass.packageName(), metricsType(message, metricsClass))
+              .build());
+    }
+    return files.build();
+  }
+
+  /** The parser of a message, which counts parsed messages if metrics are generated. */
+  static CodeBlock parser(final Descriptor message, final boolean metrics) {
+    return metrics
+        ? CodeBlock.of("$T.PARSER", JavaNames.generatedClass(message, SUFFIX))
+        : CodeBlock.of("$T.parser()", JavaNames.messageClass(message));
+  }
+
+  /** The counters of a message type, for the generated classes that count messages themselves. */
+  static CodeBlock metrics(final Descriptor message) {
+    return CodeBlock.of("$T.METRICS", JavaNames.generatedClass(message, SUFFIX));
+  }
+
+  /** Calls a method of the counters of a message type, if metrics are enabled at runtime. */
+  static CodeBlock record(final Descriptor message, final String call) {
+    return CodeBlock.builder()
+        .beginControlFlow("if ($T.ENABLED)", MESSAGE_METRICS)
+        .addStatement("$L.$L", metrics(message), call)
+        .endControlFlow()
+        .build();
+  }
+
+  private static TypeSpec metricsType(final Descriptor message, final ClassName metricsClass) {
+    final ClassName messageClass = JavaNames.messageClass(message);
+    final ParameterSpec messageParam =
+        ParameterSpec.builder(messageClass, "message", FINAL).build();
+
+    return TypeSpec.classBuilder(metricsClass)
+        .addModifiers(PUBLIC, FINAL)
+        .addJavadoc(
+            "Serialization metrics of {@code $L} messages. Messages are only counted if "
+                + "they\nare parsed with {@link #PARSER}, serialized with the methods of this "
+                + "class, or go through\nthe other classes generated for the message type.\n",
+            message.getFullName())
+        .addField(
+            FieldSpec.builder(MESSAGE_METRICS, "METRICS", PUBLIC, STATIC, FINAL)
+                .addJavadoc("The counters of the message type.\n")
+                .initializer("$T.forType($S)", MESSAGE_METRICS, message.getFullName())
+                .build())
+        .addField(
+            FieldSpec.builder(
+                    ParameterizedTypeName.get(PARSER, messageClass),
+                    "PARSER",
+                    PUBLIC,
+                    STATIC,
+                    FINAL)
+                .addJavadoc(
+                    "A parser that counts parsed messages, or the regular parser if metrics are "
+                        + "disabled.\n")
+                .initializer("$T.of($T.parser(), METRICS)", METERED_PARSER, messageClass)
+                .build())
+        .addMethod(
+            MethodSpec.constructorBuilder()
+                .addModifiers(PRIVATE)
+                .addComment("Prevent instantiation")
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("toByteArray")
+                .addJavadoc("Serializes a message into a new array, and counts it.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(byte[].class)
+                .addParameter(messageParam)
+                .addStatement("final byte[] bytes = message.toByteArray()")
+                .addCode(record("bytes.length"))
+                .addStatement("return bytes")
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("toByteString")
+                .addJavadoc("Serializes a message into a new byte string, and counts it.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .returns(BYTE_STRING)
+                .addParameter(messageParam)
+                .addStatement("final $T bytes = message.toByteString()", BYTE_STRING)
+                .addCode(record("bytes.size()"))
+                .addStatement("return bytes")
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("writeTo")
+                .addJavadoc("Serializes a message to a coded stream, and counts it.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .addParameter(messageParam)
+                .addParameter(ParameterSpec.builder(CODED_OUTPUT_STREAM, "output", FINAL).build())
+                .addException(IOException.class)
+                .addStatement("message.writeTo(output)")
+                .addCode(record("message.getSerializedSize()"))
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("writeTo")
+                .addJavadoc("Serializes a message to a stream, and counts it.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .addParameter(messageParam)
+                .addParameter(ParameterSpec.builder(OutputStream.class, "out", FINAL).build())
+                .addException(IOException.class)
+                .addStatement("message.writeTo(out)")
+                .addCode(record("message.getSerializedSize()"))
+                .build())
+        .addMethod(
+            MethodSpec.methodBuilder("writeDelimitedTo")
+                .addJavadoc(
+                    "Serializes a message with a length prefix to a stream, and counts it without "
+                        + "the prefix.\n")
+                .addModifiers(PUBLIC, STATIC)
+                .addParameter(messageParam)
+                .addParameter(ParameterSpec.builder(OutputStream.class, "out", FINAL).build())
+                .addException(IOException.class)
+                .addStatement("message.writeDelimitedTo(out)")
+                .addCode(record("message.getSerializedSize()"))
+                .build())
+        .build();
+  }
+
+  private static CodeBlock record(final String bytes) {
+    return CodeBlock.builder()
+        .beginControlFlow("if ($T.ENABLED)", MESSAGE_METRICS)
+        .addStatement("METRICS.recordSerialize($L)", bytes)
+        .endControlFlow()
+        .build();
+  }
+}
@@ -0,0 +1,138 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.PUBLIC;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Generates a class for every message of a schema that writes and reads record files of that
+ * message, which are split into blocks that can be decoded in parallel.
+ */
+final class RecordFileGenerator implements SourceGenerator {
+
+  static final String SUFFIX = "Records";
+
+  private static final String RUNTIME_PACKAGE = "io.dflemstr.auto.protobuf.runtime.records";
+  private static final ClassName RECORD_WRITER = ClassName.get(RUNTIME_PACKAGE, "RecordWriter");
+  private static final ClassName RECORD_READER = ClassName.get(RUNTIME_PACKAGE, "RecordReader");
+
+  private final boolean columnar;
+  private final boolean metrics;
+
+  /**
+   * @param columnar whether batches are generated as well, in which case files can be read into
+   *     them
+   * @param metrics whether metrics are generated as well, in which case records are counted
+   */
+  RecordFileGenerator(final boolean columnar, final boolean metrics) {
+    this.columnar = columnar;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public ImmutableList<JavaFile> generate(final Schema schema) {
+    final ImmutableList.Builder<JavaFile> files = ImmutableList.builder();
+    for (final Descriptor message : schema.messages()) {
+      final ClassName recordsClass = JavaNames.generatedClass(message, SUFFIX);
+      files.add(
+          JavaFile.builder(recordsClass.packageName(), recordsType(message, recordsClass))
+              .build());
+    }
+    return files.build();
+  }
+
+  private CodeBlock createWriter(final Descriptor message) {
+    return metrics
+        ? CodeBlock.of(
+            "return $T.create(path, blockSize, $L);\n",
+            RECORD_WRITER,
+            MetricsGenerator.metrics(message))
+        : CodeBlock.of("return $T.create(path, blockSize);\n", RECORD_WRITER);
+  }
+
+  private TypeSpec recordsType(final Descriptor message, final ClassName recordsClass) {
+    final ClassName messageClass = JavaNames.messageClass(message);
+    final TypeName writerType = ParameterizedTypeName.get(RECORD_WRITER, messageClass);
+    final TypeName readerType = ParameterizedTypeName.get(RECORD_READER, messageClass);
+    final ParameterSpec pathParam = ParameterSpec.builder(Path.class, "path", FINAL).build();
+
+    final TypeSpec.Builder type =
+        TypeSpec.classBuilder(recordsClass)
+            .addModifiers(PUBLIC, FINAL)
+            .addJavadoc(
+                "Writes and reads record files of {@code $L} messages.\n", message.getFullName())
+            .addMethod(
+                MethodSpec.constructorBuilder()
+                    .addModifiers(PRIVATE)
+                    .addComment("Prevent instantiation")
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("newWriter")
+                    .addJavadoc(
+                        "Creates a writer of a new file, or replaces an existing file, with the "
+                            + "default block size.\n")
+                    .addModifiers(PUBLIC, STATIC)
+                    .returns(writerType)
+                    .addParameter(pathParam)
+                    .addException(IOException.class)
+                    .addStatement("return newWriter(path, $T.DEFAULT_BLOCK_SIZE)", RECORD_WRITER)
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("newWriter")
+                    .addJavadoc(
+                        "Creates a writer of a new file, or replaces an existing file, that starts "
+                            + "a new block\nwhenever the current one holds {@code blockSize} "
+                            + "bytes.\n")
+                    .addModifiers(PUBLIC, STATIC)
+                    .returns(writerType)
+                    .addParameter(pathParam)
+                    .addParameter(ParameterSpec.builder(TypeName.INT, "blockSize", FINAL).build())
+                    .addException(IOException.class)
+                    .addCode(createWriter(message))
+                    .build())
+            .addMethod(
+                MethodSpec.methodBuilder("openReader")
+                    .addJavadoc("Opens a file for reading.\n")
+                    .addModifiers(PUBLIC, STATIC)
+                    .returns(readerType)
+                    .addParameter(pathParam)
+                    .addException(IOException.class)
+                    .addStatement(
+                        "return $T.open(path, $L)",
+                        RECORD_READER,
+                        MetricsGenerator.parser(message, metrics))
+                    .build());
+
+    if (columnar) {
+      final ClassName batchClass = JavaNames.generatedClass(message, ColumnarGenerator.SUFFIX);
+      type.addMethod(
+          MethodSpec.methodBuilder("readBatch")
+              .addJavadoc(
+                  "Reads a whole file into a new batch, decoding its blocks in parallel on the "
+                      + "common fork/join\npool.\n")
+              .addModifiers(PUBLIC, STATIC)
+              .returns(batchClass)
+              .addParameter(pathParam)
+              .addException(IOException.class)
+              .beginControlFlow("try ($T reader = openReader(path))", readerType)
+              .addStatement("return reader.readBatchParallel($T::new)", batchClass)
+              .endControlFlow()
+              .build());
+    }
+    return type.build();
+  }
+}
@@ -0,0 +1,61 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import com.google.auto.value.AutoValue;
+import com.google.auto.value.extension.memoized.Memoized;
+import com.google.common.collect.ImmutableList;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import java.util.List;
+
+/** The compiled schema files of one {@code @AutoProtobuf}-annotated package. */
+@AutoValue
+abstract class Schema {
+
+  Schema() {
+    // Prevent outside instantiation
+  }
+
+  static Schema create(final String javaPackage, final ImmutableList<FileDescriptor> inputs) {
+    return new AutoValue_Schema(javaPackage, inputs);
+  }
+
+  /** The annotated package, which every input file generates classes into. */
+  abstract String javaPackage();
+
+  /** The files listed in {@code AutoProtobuf.input}, with all of their dependencies resolved. */
+  abstract ImmutableList<FileDescriptor> inputs();
+
+  /** All messages declared in the input files, including nested ones but not map entries. */
+  @Memoized
+  ImmutableList<Descriptor> messages() {
+    final ImmutableList.Builder<Descriptor> builder = ImmutableList.builder();
+    for (final FileDescriptor file : inputs()) {
+      addMessages(file.getMessageTypes(), builder);
+    }
+    return builder.build();
+  }
+
+  /** All enums declared in the input files, including nested ones. */
+  @Memoized
+  ImmutableList<EnumDescriptor> enums() {
+    final ImmutableList.Builder<EnumDescriptor> builder = ImmutableList.builder();
+    for (final FileDescriptor file : inputs()) {
+      builder.addAll(file.getEnumTypes());
+    }
+    for (final Descriptor message : messages()) {
+      builder.addAll(message.getEnumTypes());
+    }
+    return builder.build();
+  }
+
+  private static void addMessages(
+      final List<Descriptor> messages, final ImmutableList.Builder<Descriptor> builder) {
+    for (final Descriptor message : messages) {
+      if (!message.getOptions().getMapEntry()) {
+        builder.add(message);
+        addMessages(message.getNestedTypes(), builder);
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the messages and enums from the input files of a descriptor set that cannot be reached
+ * from a set of root types, so that protoc only generates classes for the types that are used.
+ *
+ * <p>A type is reachable if it is a root, the type of a field of a reachable message, or the
+ * message that a reachable type is nested in, since a nested class cannot exist without its outer
+ * class. Extensions are kept if both the extended type and the value type are reachable or
+ * imported. Services are removed, and imported files are left as they are.
+ *
+ * <p>The outer class name of every pruned file is pinned to the name that protoc derives for the
+ * whole file, since removing a type whose name conflicts with the file name would change it.
+ */
+final class SchemaPruner {
+
+  private SchemaPruner() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Prunes the given input files of a descriptor set.
+   *
+   * @param roots the full names of the root messages and enums, such as {@code foo.Bar}, which
+   *     must be declared in the input files
+   */
+  static FileDescriptorSet prune(
+      final FileDescriptorSet descriptorSet,
+      final ImmutableSet<String> inputs,
+      final ImmutableSet<String> roots)
+      throws AutoProtobufException {
+    // Type names are kept in the form that protoc uses in field types, with a leading dot
+    final Map<String, DescriptorProto> messages = new HashMap<>();
+    final Set<String> enums = new HashSet<>();
+    final Set<String> inputTypes = new HashSet<>();
+    for (final FileDescriptorProto file : descriptorSet.getFileList()) {
+      final String scope = file.getPackage().isEmpty() ? "" : "." + file.getPackage();
+      final Map<String, DescriptorProto> fileMessages = new HashMap<>();
+      final Set<String> fileEnums = new HashSet<>();
+      indexTypes(scope, file.getMessageTypeList(), file.getEnumTypeList(), fileMessages, fileEnums);
+      messages.putAll(fileMessages);
+      enums.addAll(fileEnums);
+      if (inputs.contains(file.getName())) {
+        inputTypes.addAll(fileMessages.keySet());
+        inputTypes.addAll(fileEnums);
+      }
+    }
+
+    final Set<String> reachable = new HashSet<>();
+    final Deque<String> pending = new ArrayDeque<>();
+    for (final String root : roots) {
+      final String name = "." + root;
+      if (!inputTypes.contains(name)) {
+        throw new AutoProtobufException(
+            "Unknown root type " + root + ", roots must be declared in the input files");
+      }
+      if (reachable.add(name)) {
+        pending.add(name);
+      }
+    }
+    while (!pending.isEmpty()) {
+      final String name = pending.remove();
+      final String outer = name.substring(0, name.lastIndexOf('.'));
+      if (messages.containsKey(outer) && reachable.add(outer)) {
+        pending.add(outer);
+      }
+      final DescriptorProto message = messages.get(name);
+      if (message != null) {
+        for (final FieldDescriptorProto field : message.getFieldList()) {
+          if (field.hasTypeName() && reachable.add(field.getTypeName())) {
+            pending.add(field.getTypeName());
+          }
+        }
+      }
+    }
+
+    final FileDescriptorSet.Builder result = FileDescriptorSet.newBuilder();
+    for (final FileDescriptorProto file : descriptorSet.getFileList()) {
+      if (!inputs.contains(file.getName())) {
+        result.addFile(file);
+        continue;
+      }
+      final String scope = file.getPackage().isEmpty() ? "" : "." + file.getPackage();
+      final FileDescriptorProto.Builder pruned =
+          file.toBuilder()
+              .clearMessageType()
+              .clearEnumType()
+              .clearExtension()
+              .clearService()
+              .clearSourceCodeInfo();
+      pruned.getOptionsBuilder().setJavaOuterClassname(JavaNames.outerClassName(file));
+      for (final DescriptorProto message : file.getMessageTypeList()) {
+        final String name = scope + "." + message.getName();
+        if (reachable.contains(name)) {
+          pruned.addMessageType(pruneMessage(name, message, reachable, inputTypes));
+        }
+      }
+      for (final EnumDescriptorProto enumType : file.getEnumTypeList()) {
+        if (reachable.contains(scope + "." + enumType.getName())) {
+          pruned.addEnumType(enumType);
+        }
+      }
+      for (final FieldDescriptorProto extension : file.getExtensionList()) {
+        if (isKept(extension, reachable, inputTypes)) {
+          pruned.addExtension(extension);
+        }
+      }
+      result.addFile(pruned);
+    }
+    return result.build();
+  }
+
+  private static DescriptorProto pruneMessage(
+      final String name,
+      final DescriptorProto message,
+      final Set<String> reachable,
+      final Set<String> inputTypes) {
+    final DescriptorProto.Builder pruned =
+        message.toBuilder().clearNestedType().clearEnumType().clearExtension();
+    for (final DescriptorProto nested : message.getNestedTypeList()) {
+      final String nestedName = name + "." + nested.getName();
+      if (reachable.contains(nestedName)) {
+        pruned.addNestedType(pruneMessage(nestedName, nested, reachable, inputTypes));
+      }
+    }
+    for (final EnumDescriptorProto enumType : message.getEnumTypeList()) {
+      if (reachable.contains(name + "." + enumType.getName())) {
+        pruned.addEnumType(enumType);
+      }
+    }
+    for (final FieldDescriptorProto extension : message.getExtensionList()) {
+      if (isKept(extension, reachable, inputTypes)) {
+        pruned.addExtension(extension);
+      }
+    }
+    return pruned.build();
+  }
+
+  private static boolean isKept(
+      final FieldDescriptorProto extension,
+      final Set<String> reachable,
+      final Set<String> inputTypes) {
+    return isKept(extension.getExtendee(), reachable, inputTypes)
+        && (!extension.hasTypeName() || isKept(extension.getTypeName(), reachable, inputTypes));
+  }
+
+  private static boolean isKept(
+      final String typeName, final Set<String> reachable, final Set<String> inputTypes) {
+    return reachable.contains(typeName) || !inputTypes.contains(typeName);
+  }
+
+  private static void indexTypes(
+      final String scope,
+      final List<DescriptorProto> messageTypes,
+      final List<EnumDescriptorProto> enumTypes,
+      final Map<String, DescriptorProto> messages,
+      final Set<String> enums) {
+    for (final DescriptorProto message : messageTypes) {
+      final String name = scope + "." + message.getName();
+      messages.put(name, message);
+      indexTypes(name, message.getNestedTypeList(), message.getEnumTypeList(), messages, enums);
+    }
+    for (final EnumDescriptorProto enumType : enumTypes) {
+      enums.add(scope + "." + enumType.getName());
+    }
+  }
+}
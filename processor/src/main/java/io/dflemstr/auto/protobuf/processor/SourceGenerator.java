@@ -0,0 +1,11 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import com.google.common.collect.ImmutableList;
+import com.squareup.javapoet.JavaFile;
+
+/** Generates additional sources for the messages of a compiled {@link Schema}. */
+@FunctionalInterface
+interface SourceGenerator {
+
+  ImmutableList<JavaFile> generate(Schema schema) throws AutoProtobufException;
+}
@@ -0,0 +1,67 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.squareup.javapoet.ClassName;
+
+/** The types from {@code google/protobuf/*.proto} that ship pre-compiled with protobuf-java. */
+final class WellKnownTypes {
+
+  static final String PACKAGE = "google.protobuf";
+  static final String ANY = "google.protobuf.Any";
+  static final String EMPTY = "google.protobuf.Empty";
+  static final String VALUE = "google.protobuf.Value";
+  static final String NULL_VALUE = "google.protobuf.NullValue";
+
+  static final ClassName ANY_CLASS = ClassName.get("com.google.protobuf", "Any");
+
+  // Messages that wrap a single scalar in a field named "value"
+  private static final ImmutableSet<String> WRAPPER_MESSAGES =
+      ImmutableSet.of(
+          "BoolValue",
+          "BytesValue",
+          "DoubleValue",
+          "FloatValue",
+          "Int32Value",
+          "Int64Value",
+          "StringValue",
+          "UInt32Value",
+          "UInt64Value");
+
+  // Messages that have a dedicated encoding in the proto3 JSON mapping (apart from Any)
+  private static final ImmutableSet<String> SPECIAL_JSON_MESSAGES =
+      ImmutableSet.<String>builder()
+          .add("Duration", "Empty", "FieldMask", "ListValue", "Struct", "Timestamp", "Value")
+          .addAll(WRAPPER_MESSAGES)
+          .build();
+
+  private WellKnownTypes() {
+    // Prevent instantiation
+  }
+
+  static boolean isWellKnown(final Descriptor descriptor) {
+    return descriptor.getFile().getPackage().equals(PACKAGE);
+  }
+
+  static boolean isWellKnown(final EnumDescriptor descriptor) {
+    return descriptor.getFile().getPackage().equals(PACKAGE);
+  }
+
+  static boolean isAny(final Descriptor descriptor) {
+    return descriptor.getFullName().equals(ANY);
+  }
+
+  /** All messages with a special JSON encoding, except {@code google.protobuf.Any}. */
+  static ImmutableSet<String> specialJsonMessages() {
+    return SPECIAL_JSON_MESSAGES;
+  }
+
+  static boolean isWrapper(final Descriptor descriptor) {
+    return isWellKnown(descriptor) && WRAPPER_MESSAGES.contains(descriptor.getName());
+  }
+
+  static boolean hasSpecialJson(final Descriptor descriptor) {
+    return isWellKnown(descriptor) && SPECIAL_JSON_MESSAGES.contains(descriptor.getName());
+  }
+}
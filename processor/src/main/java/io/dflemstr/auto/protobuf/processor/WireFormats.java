@@ -0,0 +1,92 @@
+package io.dflemstr.auto.protobuf.processor;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.WireFormat;
+
+/** Facts about how fields are encoded in the protobuf wire format. */
+final class WireFormats {
+
+  private WireFormats() {
+    // Prevent instantiation
+  }
+
+  /**
+   * The name of the type of a field in the methods of {@code CodedInputStream} and {@code
+   * CodedOutputStream}, such as {@code SInt32} for {@code readSInt32}.
+   */
+  static String wireName(final FieldDescriptor field) throws AutoProtobufException {
+    switch (field.getType()) {
+      case DOUBLE:
+        return "Double";
+      case FLOAT:
+        return "Float";
+      case INT64:
+        return "Int64";
+      case UINT64:
+        return "UInt64";
+      case INT32:
+        return "Int32";
+      case FIXED64:
+        return "Fixed64";
+      case FIXED32:
+        return "Fixed32";
+      case BOOL:
+        return "Bool";
+      case STRING:
+        return "String";
+      case BYTES:
+        return "Bytes";
+      case UINT32:
+        return "UInt32";
+      case ENUM:
+        return "Enum";
+      case SFIXED32:
+        return "SFixed32";
+      case SFIXED64:
+        return "SFixed64";
+      case SINT32:
+        return "SInt32";
+      case SINT64:
+        return "SInt64";
+      default:
+        throw new AutoProtobufException("Unsupported field type " + field.getType());
+    }
+  }
+
+  /** The encoded size of every value of a fixed-width type, or 0 for variable-width types. */
+  static int fixedWidth(final FieldDescriptor field) {
+    switch (field.getType()) {
+      case BOOL:
+        return 1;
+      case FIXED32:
+      case SFIXED32:
+      case FLOAT:
+        return 4;
+      case FIXED64:
+      case SFIXED64:
+      case DOUBLE:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  /** The tag of a field, or of each element of a repeated field that is not packed. */
+  static int tag(final FieldDescriptor field) {
+    return makeTag(field.getNumber(), field.getLiteType().getWireType());
+  }
+
+  /** The tag of a packed repeated field. */
+  static int packedTag(final FieldDescriptor field) {
+    return makeTag(field.getNumber(), WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  }
+
+  /** The tag that ends a group field. */
+  static int endGroupTag(final FieldDescriptor field) {
+    return makeTag(field.getNumber(), WireFormat.WIRETYPE_END_GROUP);
+  }
+
+  static int makeTag(final int number, final int wireType) {
+    return number << 3 | wireType;
+  }
+}
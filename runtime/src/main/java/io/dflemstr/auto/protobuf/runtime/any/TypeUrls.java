@@ -0,0 +1,35 @@
+package io.dflemstr.auto.protobuf.runtime.any;
+
+/**
+ * Allocation-free operations on the type URLs of {@code google.protobuf.Any} values. The type name
+ * of a type URL is everything after the last {@code /}.
+ */
+public final class TypeUrls {
+
+  private TypeUrls() {
+    // Prevent instantiation
+  }
+
+  /**
+   * Returns a seeded hash of the type name of a type URL, without extracting the type name as a new
+   * string. Unlike {@link String#hashCode()}, type names that collide for one seed are very likely
+   * to hash apart for another, so that a seed that separates a set of type names can be searched
+   * for.
+   */
+  public static int nameHash(final String typeUrl, final int seed) {
+    int hash = seed;
+    for (int i = typeUrl.lastIndexOf('/') + 1, n = typeUrl.length(); i < n; i++) {
+      hash = (hash ^ typeUrl.charAt(i)) * 0x01000193;
+    }
+    hash ^= hash >>> 16;
+    return hash * 0x85EBCA6B;
+  }
+
+  /** Returns whether the type name of a type URL is equal to the specified type name. */
+  public static boolean nameEquals(final String typeUrl, final String typeName) {
+    final int offset = typeUrl.length() - typeName.length();
+    return offset >= 0
+        && (offset == 0 || typeUrl.charAt(offset - 1) == '/')
+        && typeUrl.regionMatches(offset, typeName, 0, typeName.length());
+  }
+}
@@ -0,0 +1,8 @@
+/**
+ * Support code for the {@code google.protobuf.Any} registries generated with {@code
+ * AutoProtobuf.anyRegistry}.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.any;
+
+import javax.annotation.ParametersAreNonnullByDefault;
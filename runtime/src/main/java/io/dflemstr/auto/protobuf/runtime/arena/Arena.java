@@ -0,0 +1,120 @@
+package io.dflemstr.auto.protobuf.runtime.arena;
+
+import java.util.Arrays;
+
+/**
+ * Allocates {@link MessageHolder}s and recycles them in bulk. Holders that are allocated from an
+ * arena stay valid until {@link #release()} is called; after that they are cleared and will be
+ * handed out again by later allocations from the same arena.
+ *
+ * <p>A typical arena lives as long as a request:
+ *
+ * <pre>
+ * try (Arena arena = Arena.local()) {
+ *   PersonHolder person = PersonHolder.allocate(arena);
+ *   person.mergeFrom(requestBytes);
+ *   ...
+ * }
+ * </pre>
+ *
+ * <p>Arenas are not thread-safe. Free holders are retained for as long as the arena is reachable,
+ * so an arena retains about as many holders as were ever live in it at the same time.
+ */
+public final class Arena implements AutoCloseable {
+
+  private static final ThreadLocal<Arena> LOCAL = ThreadLocal.withInitial(Arena::new);
+
+  // Free holders, indexed by HolderType.id()
+  private MessageHolder[][] free = new MessageHolder[16][];
+  private int[] freeCounts = new int[16];
+
+  // Holders handed out since the last release, with their types
+  private MessageHolder[] live = new MessageHolder[16];
+  private HolderType<?>[] liveTypes = new HolderType<?>[16];
+  private int liveCount;
+
+  private Arena() {
+    // Use the static factory methods
+  }
+
+  /** Creates a new, empty arena. */
+  public static Arena create() {
+    return new Arena();
+  }
+
+  /**
+   * Returns the arena of the current thread. Closing it releases the holders allocated from it,
+   * but the arena itself stays usable, so it can be reused for every request handled by a thread.
+   */
+  public static Arena local() {
+    return LOCAL.get();
+  }
+
+  /** Allocates a holder of the specified type, which is empty. */
+  public <H extends MessageHolder> H allocate(final HolderType<H> type) {
+    final int id = type.id();
+    H holder = null;
+    if (id < freeCounts.length && freeCounts[id] > 0) {
+      final int index = --freeCounts[id];
+      @SuppressWarnings("unchecked")
+      final H recycled = (H) free[id][index];
+      holder = recycled;
+      free[id][index] = null;
+    }
+    if (holder == null) {
+      holder = type.create();
+    }
+
+    if (liveCount == live.length) {
+      live = Arrays.copyOf(live, liveCount * 2);
+      liveTypes = Arrays.copyOf(liveTypes, liveCount * 2);
+    }
+    live[liveCount] = holder;
+    liveTypes[liveCount] = type;
+    liveCount++;
+    return holder;
+  }
+
+  /** Returns the number of holders that have been allocated since the last release. */
+  public int liveCount() {
+    return liveCount;
+  }
+
+  /**
+   * Clears every holder that was allocated since the last release, and makes them available for
+   * new allocations. The holders must not be used by the caller anymore.
+   */
+  public void release() {
+    for (int i = 0; i < liveCount; i++) {
+      final MessageHolder holder = live[i];
+      holder.clear();
+      push(liveTypes[i].id(), holder);
+      live[i] = null;
+      liveTypes[i] = null;
+    }
+    liveCount = 0;
+  }
+
+  /** Same as {@link #release()}. */
+  @Override
+  public void close() {
+    release();
+  }
+
+  private void push(final int id, final MessageHolder holder) {
+    if (id >= freeCounts.length) {
+      final int length = Math.max(id + 1, freeCounts.length * 2);
+      free = Arrays.copyOf(free, length);
+      freeCounts = Arrays.copyOf(freeCounts, length);
+    }
+    MessageHolder[] holders = free[id];
+    if (holders == null) {
+      holders = new MessageHolder[8];
+      free[id] = holders;
+    } else if (freeCounts[id] == holders.length) {
+      holders = Arrays.copyOf(holders, holders.length * 2);
+      free[id] = holders;
+    }
+    holders[freeCounts[id]++] = holder;
+  }
+}
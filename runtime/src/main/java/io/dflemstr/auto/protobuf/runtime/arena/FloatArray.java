@@ -0,0 +1,53 @@
+package io.dflemstr.auto.protobuf.runtime.arena;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of unboxed {@code float} values, used for the repeated fields of a {@link
+ * MessageHolder}. Clearing the array keeps its capacity.
+ */
+public final class FloatArray {
+
+  private float[] values = new float[0];
+  private int size;
+
+  public void add(final float value) {
+    if (size == values.length) {
+      values = Arrays.copyOf(values, Math.max(8, size * 2));
+    }
+    values[size++] = value;
+  }
+
+  public float get(final int index) {
+    checkIndex(index);
+    return values[index];
+  }
+
+  public void set(final int index, final float value) {
+    checkIndex(index);
+    values[index] = value;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /** Returns a copy of the values. */
+  public float[] toArray() {
+    return Arrays.copyOf(values, size);
+  }
+
+  private void checkIndex(final int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package io.dflemstr.auto.protobuf.runtime.arena;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * The elements of a repeated message field of a {@link MessageHolder}. Clearing the array keeps the
+ * element holders, which are handed out again by {@link #add()}.
+ */
+public final class HolderArray<H extends MessageHolder> {
+
+  private final Supplier<H> factory;
+  private Object[] elements = new Object[0];
+  private int size;
+
+  public HolderArray(final Supplier<H> factory) {
+    this.factory = factory;
+  }
+
+  /** Appends an empty element and returns it. */
+  public H add() {
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, Math.max(4, size * 2));
+    }
+    @SuppressWarnings("unchecked")
+    H element = (H) elements[size];
+    if (element == null) {
+      element = factory.get();
+      elements[size] = element;
+    }
+    size++;
+    return element;
+  }
+
+  public H get(final int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+    @SuppressWarnings("unchecked")
+    final H element = (H) elements[index];
+    return element;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Removes all elements, clearing them for reuse. */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      get(i).clear();
+    }
+    size = 0;
+  }
+}
@@ -0,0 +1,34 @@
+package io.dflemstr.auto.protobuf.runtime.arena;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A kind of {@link MessageHolder} that can be allocated from an {@link Arena}. Every generated
+ * holder class has exactly one instance of this class.
+ */
+public final class HolderType<H extends MessageHolder> {
+
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  private final int id;
+  private final Supplier<H> factory;
+
+  private HolderType(final int id, final Supplier<H> factory) {
+    this.id = id;
+    this.factory = factory;
+  }
+
+  public static <H extends MessageHolder> HolderType<H> of(final Supplier<H> factory) {
+    return new HolderType<>(NEXT_ID.getAndIncrement(), factory);
+  }
+
+  // A small dense number that arenas use to index their free lists
+  int id() {
+    return id;
+  }
+
+  H create() {
+    return factory.get();
+  }
+}
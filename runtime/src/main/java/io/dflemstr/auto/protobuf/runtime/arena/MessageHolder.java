@@ -0,0 +1,204 @@
+package io.dflemstr.auto.protobuf.runtime.arena;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.dflemstr.auto.protobuf.runtime.metrics.MessageMetrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * A mutable, reusable counterpart of a message class, which reads and writes the same wire format.
+ * Nested message holders are owned by their parent and are reused along with it, so that parsing
+ * into a cleared holder allocates as little as possible.
+ *
+ * <p>Unknown fields are skipped when parsing and are not retained. Like protobuf-java, parsing
+ * rejects messages that are nested more than {@value #RECURSION_LIMIT} levels deep.
+ *
+ * <p>If the holder was created with metrics, messages that are parsed and serialized through the
+ * methods of this class are counted; nested holders are counted as part of their parent.
+ */
+public abstract class MessageHolder {
+
+  /** The maximum nesting depth of messages, which matches the default of protobuf-java. */
+  public static final int RECURSION_LIMIT = 100;
+
+  @Nullable private final MessageMetrics metrics;
+  private int cachedSize = -1;
+
+  protected MessageHolder() {
+    this(null);
+  }
+
+  /** Creates a holder that counts the messages parsed and serialized through it. */
+  protected MessageHolder(@Nullable final MessageMetrics metrics) {
+    this.metrics = MessageMetrics.ENABLED ? metrics : null;
+  }
+
+  /** Resets every field to its default value, keeping nested holders and buffers for reuse. */
+  public abstract void clear();
+
+  /** Merges the fields of an encoded message into this holder. */
+  public final void mergeFrom(final CodedInputStream input) throws IOException {
+    mergeFields(input, 0);
+  }
+
+  /** Merges the fields of an encoded message into this holder. */
+  public final void mergeFrom(final byte[] data) throws InvalidProtocolBufferException {
+    final CodedInputStream input = CodedInputStream.newInstance(data);
+    try {
+      mergeFrom(input);
+      input.checkLastTagWas(0);
+    } catch (InvalidProtocolBufferException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new IllegalStateException("Reading from a byte array threw an IOException", e);
+    }
+    recordParse(data.length);
+  }
+
+  /** Merges the fields of an encoded message into this holder. */
+  public final void mergeFrom(final ByteString data) throws InvalidProtocolBufferException {
+    final CodedInputStream input = data.newCodedInput();
+    try {
+      mergeFrom(input);
+      input.checkLastTagWas(0);
+    } catch (InvalidProtocolBufferException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new IllegalStateException("Reading from a ByteString threw an IOException", e);
+    }
+    recordParse(data.size());
+  }
+
+  /** Merges the fields of an encoded message into this holder, reading the stream to its end. */
+  public final void mergeFrom(final InputStream in) throws IOException {
+    final CodedInputStream input = CodedInputStream.newInstance(in);
+    mergeFrom(input);
+    input.checkLastTagWas(0);
+    recordParse(input.getTotalBytesRead());
+  }
+
+  /** Returns the number of bytes that {@link #writeTo(CodedOutputStream)} will write. */
+  public final int getSerializedSize() {
+    final int size = computeSerializedSize();
+    cachedSize = size;
+    return size;
+  }
+
+  /** Encodes the fields of this holder. */
+  public final void writeTo(final CodedOutputStream output) throws IOException {
+    final int size = getSerializedSize();
+    writeFields(output);
+    recordSerialize(size);
+  }
+
+  /** Encodes the fields of this holder to a stream. */
+  public final void writeTo(final OutputStream out) throws IOException {
+    final CodedOutputStream output = CodedOutputStream.newInstance(out);
+    writeTo(output);
+    output.flush();
+  }
+
+  /** Encodes the fields of this holder into a new array. */
+  public final byte[] toByteArray() {
+    final byte[] result = new byte[getSerializedSize()];
+    final CodedOutputStream output = CodedOutputStream.newInstance(result);
+    try {
+      writeFields(output);
+    } catch (IOException e) {
+      throw new IllegalStateException("Writing to a byte array threw an IOException", e);
+    }
+    output.checkNoSpaceLeft();
+    recordSerialize(result.length);
+    return result;
+  }
+
+  /**
+   * Computes the encoded size of this holder, computing (and caching) the sizes of nested holders
+   * along the way.
+   */
+  protected abstract int computeSerializedSize();
+
+  /**
+   * Merges the fields of an encoded message into this holder, which is nested {@code depth} levels
+   * deep in the message that is being parsed.
+   */
+  protected abstract void mergeFields(CodedInputStream input, int depth) throws IOException;
+
+  /**
+   * Writes the fields of this holder. The sizes of nested holders have been cached by the last call
+   * to {@link #getSerializedSize()}.
+   */
+  protected abstract void writeFields(CodedOutputStream output) throws IOException;
+
+  private void recordParse(final int bytes) {
+    if (metrics != null) {
+      metrics.recordParse(bytes);
+    }
+  }
+
+  private void recordSerialize(final int bytes) {
+    if (metrics != null) {
+      metrics.recordSerialize(bytes);
+    }
+  }
+
+  /** Reads a length-delimited message into a holder, nested in a message at the given depth. */
+  protected static void readMessage(
+      final CodedInputStream input, final MessageHolder holder, final int depth)
+      throws IOException {
+    checkDepth(depth);
+    final int length = input.readRawVarint32();
+    final int oldLimit = input.pushLimit(length);
+    holder.mergeFields(input, depth + 1);
+    input.checkLastTagWas(0);
+    input.popLimit(oldLimit);
+  }
+
+  /**
+   * Reads a group into a holder, up to and including its end tag, nested in a message at the given
+   * depth.
+   */
+  protected static void readGroup(
+      final CodedInputStream input, final int endTag, final MessageHolder holder, final int depth)
+      throws IOException {
+    checkDepth(depth);
+    holder.mergeFields(input, depth + 1);
+    input.checkLastTagWas(endTag);
+  }
+
+  private static void checkDepth(final int depth) throws InvalidProtocolBufferException {
+    if (depth >= RECURSION_LIMIT) {
+      throw new InvalidProtocolBufferException(
+          "Protocol message had too many levels of nesting.  May be malicious.");
+    }
+  }
+
+  /** Computes and caches the size of a length-delimited message, including its length. */
+  protected static int computeMessageSizeNoTag(final MessageHolder holder) {
+    final int size = holder.getSerializedSize();
+    return CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+  }
+
+  /** The size of a length-delimited message that was cached by {@link #getSerializedSize()}. */
+  protected static int cachedMessageSizeNoTag(final MessageHolder holder) {
+    return CodedOutputStream.computeUInt32SizeNoTag(holder.cachedSize) + holder.cachedSize;
+  }
+
+  /** Writes a length-delimited message, whose size has been cached. */
+  protected static void writeMessageNoTag(
+      final CodedOutputStream output, final MessageHolder holder) throws IOException {
+    output.writeUInt32NoTag(holder.cachedSize);
+    holder.writeFields(output);
+  }
+
+  /** Writes the fields of a group, whose size has been cached. The tags are written separately. */
+  protected static void writeGroupNoTag(
+      final CodedOutputStream output, final MessageHolder holder) throws IOException {
+    holder.writeFields(output);
+  }
+}
@@ -0,0 +1,9 @@
+/**
+ * Support code for the recyclable message holders generated with {@code AutoProtobuf.holders}.
+ * Holders are allocated from an {@link io.dflemstr.auto.protobuf.runtime.arena.Arena}, and are
+ * cleared and handed back to it in bulk once they are no longer used.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.arena;
+
+import javax.annotation.ParametersAreNonnullByDefault;
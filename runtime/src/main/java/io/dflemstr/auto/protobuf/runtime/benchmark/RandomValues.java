@@ -0,0 +1,179 @@
+package io.dflemstr.auto.protobuf.runtime.benchmark;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Duration;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.Value;
+import java.util.Random;
+
+/**
+ * Random field values for benchmark payloads. Numbers are spread over all magnitudes, so that
+ * varints of every length occur, and nesting is cut off at a fixed depth, so that recursive message
+ * types stay finite. The same {@link Random} state always produces the same values.
+ *
+ * <p>Values of well-known types stay within the ranges that their JSON encodings accept.
+ */
+public final class RandomValues {
+
+  /** The depth below which no optional message fields are set. */
+  public static final int MAX_DEPTH = 3;
+
+  private static final int MAX_COUNT = 8;
+  private static final int MAX_LENGTH = 32;
+  private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789 \u00e9\u00fc\u4e2d";
+  private static final String PATH_ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+  private static final int NANOS_PER_SECOND = 1000000000;
+  // 0001-01-01T00:00:00Z to 9999-12-31T23:59:59Z, the range of timestamps in JSON
+  private static final long MIN_TIMESTAMP_SECONDS = -62135596800L;
+  private static final long MAX_TIMESTAMP_SECONDS = 253402300799L;
+
+  private RandomValues() {
+    // Prevent instantiation
+  }
+
+  /** Whether to set a message field of a message at the given depth. */
+  public static boolean descend(final Random random, final int depth) {
+    return depth < MAX_DEPTH && random.nextBoolean();
+  }
+
+  /** The number of elements of a repeated field of scalars. */
+  public static int nextCount(final Random random) {
+    return random.nextInt(MAX_COUNT + 1);
+  }
+
+  /** The number of elements of a repeated field of messages, of a message at the given depth. */
+  public static int nextCount(final Random random, final int depth) {
+    return depth < MAX_DEPTH ? random.nextInt(MAX_COUNT + 1) : 0;
+  }
+
+  public static int nextInt(final Random random) {
+    return random.nextInt() >> random.nextInt(Integer.SIZE);
+  }
+
+  public static long nextLong(final Random random) {
+    return random.nextLong() >> random.nextInt(Long.SIZE);
+  }
+
+  public static float nextFloat(final Random random) {
+    return (float) nextDouble(random);
+  }
+
+  public static double nextDouble(final Random random) {
+    return (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10));
+  }
+
+  /** A string that is mostly, but not entirely, ASCII. */
+  public static String nextString(final Random random) {
+    final char[] chars = new char[random.nextInt(MAX_LENGTH + 1)];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+    }
+    return new String(chars);
+  }
+
+  private static int nextNanos(final Random random) {
+    // Whole seconds, milliseconds, microseconds and nanoseconds each print differently in JSON
+    final int nanos = random.nextInt(NANOS_PER_SECOND);
+    return nanos - nanos % pick(random, NANOS_PER_SECOND, 1000000, 1000, 1);
+  }
+
+  public static ByteString nextBytes(final Random random) {
+    final byte[] bytes = new byte[random.nextInt(MAX_LENGTH + 1)];
+    random.nextBytes(bytes);
+    return ByteString.copyFrom(bytes);
+  }
+
+  /** A timestamp anywhere in the range of JSON timestamps, with a random precision. */
+  public static Timestamp nextTimestamp(final Random random) {
+    final long seconds =
+        MIN_TIMESTAMP_SECONDS
+            + (long) (random.nextDouble() * (MAX_TIMESTAMP_SECONDS - MIN_TIMESTAMP_SECONDS));
+    return Timestamp.newBuilder().setSeconds(seconds).setNanos(nextNanos(random)).build();
+  }
+
+  /** A positive or negative duration, whose nanos have the same sign as its seconds. */
+  public static Duration nextDuration(final Random random) {
+    final long seconds = nextInt(random);
+    final int nanos = nextNanos(random);
+    return Duration.newBuilder()
+        .setSeconds(seconds)
+        .setNanos(seconds < 0 || (seconds == 0 && random.nextBoolean()) ? -nanos : nanos)
+        .build();
+  }
+
+  /** A field mask of lower-case paths, some of which have sub-paths. */
+  public static FieldMask nextFieldMask(final Random random) {
+    final FieldMask.Builder builder = FieldMask.newBuilder();
+    for (int i = random.nextInt(MAX_COUNT + 1); i > 0; i--) {
+      final StringBuilder path = new StringBuilder();
+      for (int part = random.nextInt(3); part >= 0; part--) {
+        for (int j = random.nextInt(MAX_LENGTH / 4) + 1; j > 0; j--) {
+          path.append(PATH_ALPHABET.charAt(random.nextInt(PATH_ALPHABET.length())));
+        }
+        path.append(part == 0 ? "" : random.nextBoolean() ? "." : "_");
+      }
+      builder.addPaths(path.toString());
+    }
+    return builder.build();
+  }
+
+  /** A JSON value, which is only a struct or a list above {@link #MAX_DEPTH}. */
+  public static Value nextValue(final Random random, final int depth) {
+    switch (random.nextInt(depth < MAX_DEPTH ? 6 : 4)) {
+      case 0:
+        return Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+      case 1:
+        return Value.newBuilder().setNumberValue(nextDouble(random)).build();
+      case 2:
+        return Value.newBuilder().setStringValue(nextString(random)).build();
+      case 3:
+        return Value.newBuilder().setBoolValue(random.nextBoolean()).build();
+      case 4:
+        return Value.newBuilder().setStructValue(nextStruct(random, depth + 1)).build();
+      default:
+        return Value.newBuilder().setListValue(nextListValue(random, depth + 1)).build();
+    }
+  }
+
+  /** A JSON object, which is empty at {@link #MAX_DEPTH} and below. */
+  public static Struct nextStruct(final Random random, final int depth) {
+    final Struct.Builder builder = Struct.newBuilder();
+    for (int i = nextCount(random, depth); i > 0; i--) {
+      builder.putFields(nextString(random), nextValue(random, depth));
+    }
+    return builder.build();
+  }
+
+  /** A JSON array, which is empty at {@link #MAX_DEPTH} and below. */
+  public static ListValue nextListValue(final Random random, final int depth) {
+    final ListValue.Builder builder = ListValue.newBuilder();
+    for (int i = nextCount(random, depth); i > 0; i--) {
+      builder.addValues(nextValue(random, depth));
+    }
+    return builder.build();
+  }
+
+  /** An {@code Any} that holds a random timestamp, duration or string wrapper. */
+  public static Any nextAny(final Random random) {
+    switch (random.nextInt(3)) {
+      case 0:
+        return Any.pack(nextTimestamp(random));
+      case 1:
+        return Any.pack(nextDuration(random));
+      default:
+        return Any.pack(StringValue.newBuilder().setValue(nextString(random)).build());
+    }
+  }
+
+  /** One of the given values, such as the values of an enum. */
+  @SafeVarargs
+  public static <T> T pick(final Random random, final T... values) {
+    return values[random.nextInt(values.length)];
+  }
+}
@@ -0,0 +1,8 @@
+/**
+ * Support code for the benchmarks generated with {@code AutoProtobuf.benchmarks}, which fills
+ * messages with random but reproducible values.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.benchmark;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -0,0 +1,136 @@
+package io.dflemstr.auto.protobuf.runtime.columnar;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A column of variable-length byte sequences, which stores the string and bytes fields of a {@link
+ * ColumnBatch}. The values of all rows are concatenated in one data buffer, and the value of row
+ * {@code r} spans from {@code offsets()[r]} to {@code offsets()[r + 1]}. Strings are stored as
+ * UTF-8.
+ */
+public final class BytesColumn {
+
+  private int[] offsets = new int[1];
+  private byte[] data = new byte[0];
+  private int size;
+
+  public void append(final ByteString value) {
+    final int start = offsets[size];
+    ensureCapacity(size + 1, start + value.size());
+    value.copyTo(data, start);
+    offsets[++size] = start + value.size();
+  }
+
+  public void append(final byte[] value, final int offset, final int length) {
+    final int start = offsets[size];
+    ensureCapacity(size + 1, start + length);
+    System.arraycopy(value, offset, data, start, length);
+    offsets[++size] = start + length;
+  }
+
+  public void append(final String value) {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    append(bytes, 0, bytes.length);
+  }
+
+  /** Appends every value of another column to this one. */
+  public void appendAll(final BytesColumn other) {
+    final int start = offsets[size];
+    final int length = other.offsets[other.size];
+    ensureCapacity(size + other.size, start + length);
+    System.arraycopy(other.data, 0, data, start, length);
+    for (int i = 1; i <= other.size; i++) {
+      offsets[size + i] = start + other.offsets[i];
+    }
+    size += other.size;
+  }
+
+  /** Replaces the value of the last row, which is the only one that can be changed. */
+  public void setLast(final ByteString value) {
+    if (size == 0) {
+      throw new IndexOutOfBoundsException("The column is empty");
+    }
+    size--;
+    append(value);
+  }
+
+  public ByteString getBytes(final int row) {
+    checkRow(row);
+    return ByteString.copyFrom(data, offsets[row], offsets[row + 1] - offsets[row]);
+  }
+
+  public String getString(final int row) {
+    checkRow(row);
+    return new String(
+        data, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8);
+  }
+
+  public int length(final int row) {
+    checkRow(row);
+    return offsets[row + 1] - offsets[row];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Removes every value from the given row onwards. */
+  public void truncate(final int size) {
+    if (size < 0 || size > this.size) {
+      throw new IndexOutOfBoundsException("Size: " + size + ", current size: " + this.size);
+    }
+    this.size = size;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Returns the backing offsets of this column without copying them. Only the first {@link
+   * #size()} + 1 offsets are valid, and the array is replaced when the column grows.
+   */
+  public int[] offsets() {
+    return offsets;
+  }
+
+  /**
+   * Returns the backing data of this column without copying it. Only the bytes up to {@code
+   * offsets()[size()]} are valid, and the array is replaced when the column grows.
+   */
+  public byte[] data() {
+    return data;
+  }
+
+  /** Computes the encoded size of the value of a row, including its length. */
+  public int computeSizeNoTag(final int row) {
+    final int length = length(row);
+    return CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+  }
+
+  /** Writes the value of a row as a length-delimited field value. */
+  public void writeNoTag(final int row, final CodedOutputStream output) throws IOException {
+    final int length = length(row);
+    output.writeUInt32NoTag(length);
+    output.writeRawBytes(data, offsets[row], length);
+  }
+
+  private void ensureCapacity(final int rows, final int bytes) {
+    if (rows >= offsets.length) {
+      offsets = Arrays.copyOf(offsets, Math.max(rows + 1, offsets.length * 2));
+    }
+    if (bytes > data.length) {
+      data = Arrays.copyOf(data, Math.max(bytes, Math.max(64, data.length * 2)));
+    }
+  }
+
+  private void checkRow(final int row) {
+    if (row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+    }
+  }
+}
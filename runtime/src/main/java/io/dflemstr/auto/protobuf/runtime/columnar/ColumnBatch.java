@@ -0,0 +1,406 @@
+package io.dflemstr.auto.protobuf.runtime.columnar;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.dflemstr.auto.protobuf.runtime.arena.MessageHolder;
+import io.dflemstr.auto.protobuf.runtime.metrics.MessageMetrics;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.BitSet;
+import javax.annotation.Nullable;
+
+/**
+ * A batch of messages of one type, stored as one column per field, where every message is a row.
+ * Rows are decoded from and encoded to the wire format directly, without creating message objects
+ * in between.
+ *
+ * <p>Singular message fields are stored as row indexes into nested batches, which only have rows
+ * for the messages that are set. Repeated fields are stored as {@link Offsets} into element
+ * columns. Unknown fields are skipped when decoding. Like holders, decoding rejects messages that
+ * are nested more than {@link MessageHolder#RECURSION_LIMIT} levels deep.
+ *
+ * <p>Encoding a row caches the sizes of its nested rows in their batches, so that every row is
+ * only sized once; a batch must therefore not be encoded by several threads at once.
+ *
+ * <p>If the batch was created with metrics, every row that is decoded or encoded through the
+ * methods of this class is counted as a message; nested batches are counted as part of their
+ * parent.
+ *
+ * @param <B> the concrete type of the batch
+ */
+public abstract class ColumnBatch<B extends ColumnBatch<B>> {
+
+  @Nullable private final MessageMetrics metrics;
+  // The sizes of the rows of a nested batch, as computed by the last size pass of its parent
+  private final IntColumn cachedSizes = new IntColumn();
+  private int rows;
+
+  protected ColumnBatch() {
+    this(null);
+  }
+
+  /** Creates a batch that counts the messages decoded and encoded through it. */
+  protected ColumnBatch(@Nullable final MessageMetrics metrics) {
+    this.metrics = MessageMetrics.ENABLED ? metrics : null;
+  }
+
+  public final int rows() {
+    return rows;
+  }
+
+  /**
+   * Decodes a message and appends it as a row. If decoding fails, the batch is left as it was
+   * before.
+   */
+  public final void appendRow(final CodedInputStream input) throws IOException {
+    final int row = rows;
+    final int start = input.getTotalBytesRead();
+    startRow();
+    rows++;
+    try {
+      mergeRow(input, row, 0);
+    } catch (IOException | RuntimeException e) {
+      truncate(row);
+      throw e;
+    }
+    finishRow(row);
+    if (metrics != null) {
+      metrics.recordParse(input.getTotalBytesRead() - start);
+    }
+  }
+
+  /** Decodes a message and appends it as a row. */
+  public final void appendRow(final byte[] data) throws InvalidProtocolBufferException {
+    appendRow(data, 0, data.length);
+  }
+
+  /** Decodes a message from part of an array and appends it as a row. */
+  public final void appendRow(final byte[] data, final int offset, final int length)
+      throws InvalidProtocolBufferException {
+    final CodedInputStream input = CodedInputStream.newInstance(data, offset, length);
+    // Strings and bytes are copied into their columns, so they can point into the input
+    input.enableAliasing(true);
+    try {
+      appendRow(input);
+      input.checkLastTagWas(0);
+    } catch (InvalidProtocolBufferException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new IllegalStateException("Reading from a byte array threw an IOException", e);
+    }
+  }
+
+  /** Decodes a message and appends it as a row. */
+  public final void appendRow(final ByteString data) throws InvalidProtocolBufferException {
+    final CodedInputStream input = data.newCodedInput();
+    try {
+      appendRow(input);
+      input.checkLastTagWas(0);
+    } catch (InvalidProtocolBufferException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new IllegalStateException("Reading from a ByteString threw an IOException", e);
+    }
+  }
+
+  /**
+   * Decodes length-delimited messages, as written by {@code writeDelimitedTo}, until the end of a
+   * stream, and appends each of them as a row.
+   *
+   * @return the number of rows that were appended
+   */
+  public final int appendDelimited(final InputStream in) throws IOException {
+    final CodedInputStream input = CodedInputStream.newInstance(in);
+    int count = 0;
+    while (!input.isAtEnd()) {
+      final int length = input.readRawVarint32();
+      final int oldLimit = input.pushLimit(length);
+      appendRow(input);
+      input.checkLastTagWas(0);
+      input.popLimit(oldLimit);
+      count++;
+    }
+    return count;
+  }
+
+  /** Appends a row in which every field is unset. */
+  public final void appendEmptyRow() {
+    final int row = rows;
+    startRow();
+    rows++;
+    finishRow(row);
+  }
+
+  /** Appends all rows of another batch to this one. */
+  public final void appendAll(final B other) {
+    appendColumns(other);
+    rows += other.rows();
+  }
+
+  /** Removes every row from the given row onwards. */
+  public final void truncate(final int rows) {
+    if (rows < 0 || rows > this.rows) {
+      throw new IndexOutOfBoundsException("Rows: " + rows + ", current rows: " + this.rows);
+    }
+    truncateColumns(rows);
+    this.rows = rows;
+  }
+
+  /** Removes all rows, keeping the capacity of the columns. */
+  public final void clear() {
+    clearColumns();
+    rows = 0;
+  }
+
+  /** Returns the encoded size of the message in a row. */
+  public final int getSerializedSize(final int row) {
+    checkRow(row);
+    return computeRowSize(row);
+  }
+
+  /** Encodes the message in a row. */
+  public final void writeRow(final int row, final CodedOutputStream output) throws IOException {
+    final int size = getSerializedSize(row);
+    writeRowFields(row, output);
+    if (metrics != null) {
+      metrics.recordSerialize(size);
+    }
+  }
+
+  /** Encodes the message in a row into a new array. */
+  public final byte[] toByteArray(final int row) {
+    final byte[] result = new byte[getSerializedSize(row)];
+    final CodedOutputStream output = CodedOutputStream.newInstance(result);
+    try {
+      writeRowFields(row, output);
+    } catch (IOException e) {
+      throw new IllegalStateException("Writing to a byte array threw an IOException", e);
+    }
+    output.checkNoSpaceLeft();
+    if (metrics != null) {
+      metrics.recordSerialize(result.length);
+    }
+    return result;
+  }
+
+  /** Encodes the messages in all rows as length-delimited messages to a stream. */
+  public final void writeDelimitedTo(final OutputStream out) throws IOException {
+    final CodedOutputStream output = CodedOutputStream.newInstance(out);
+    for (int row = 0; row < rows; row++) {
+      final int size = computeRowSize(row);
+      output.writeUInt32NoTag(size);
+      writeRowFields(row, output);
+      if (metrics != null) {
+        metrics.recordSerialize(size);
+      }
+    }
+    output.flush();
+  }
+
+  /** Appends default values for a new row to every column. */
+  protected abstract void startRow();
+
+  /**
+   * Merges the fields of an encoded message into a row that was started last, which is nested
+   * {@code depth} levels deep in the message that is being decoded.
+   */
+  protected abstract void mergeRow(CodedInputStream input, int row, int depth)
+      throws IOException;
+
+  /** Completes a row after all of its fields have been merged. */
+  protected abstract void finishRow(int row);
+
+  /** Appends the columns of another batch to the columns of this one. */
+  protected abstract void appendColumns(B other);
+
+  /** Removes every value from the given row onwards from all columns. */
+  protected abstract void truncateColumns(int rows);
+
+  protected abstract void clearColumns();
+
+  /**
+   * Computes the encoded size of a row, computing (and caching) the sizes of nested rows along the
+   * way.
+   */
+  protected abstract int computeRowSize(int row);
+
+  /**
+   * Writes the fields of a row. The sizes of nested rows have been cached by the last call to
+   * {@link #computeRowSize(int)} for the row.
+   */
+  protected abstract void writeRowFields(int row, CodedOutputStream output) throws IOException;
+
+  /**
+   * Reads a length-delimited message into a row of a nested batch, merging it with what was read
+   * for that row before. The row is nested in a message at the given depth.
+   */
+  protected static void readMessage(
+      final CodedInputStream input, final ColumnBatch<?> batch, final int row, final int depth)
+      throws IOException {
+    checkDepth(depth);
+    final int length = input.readRawVarint32();
+    final int oldLimit = input.pushLimit(length);
+    readGroup(input, 0, batch, row, depth);
+    input.popLimit(oldLimit);
+  }
+
+  /**
+   * Reads a group into a row of a nested batch, up to and including its end tag, merging it with
+   * what was read for that row before. The row is nested in a message at the given depth.
+   */
+  protected static void readGroup(
+      final CodedInputStream input,
+      final int endTag,
+      final ColumnBatch<?> batch,
+      final int row,
+      final int depth)
+      throws IOException {
+    checkDepth(depth);
+    if (batch.rows == row) {
+      batch.startRow();
+      batch.rows++;
+    }
+    batch.mergeRow(input, row, depth + 1);
+    input.checkLastTagWas(endTag);
+    batch.finishRow(row);
+  }
+
+  /** Reads a length-delimited message into a new row of a nested batch. */
+  protected static void appendMessage(
+      final CodedInputStream input, final ColumnBatch<?> batch, final int depth)
+      throws IOException {
+    readMessage(input, batch, batch.rows, depth);
+  }
+
+  /** Reads a group into a new row of a nested batch, up to and including its end tag. */
+  protected static void appendGroup(
+      final CodedInputStream input, final int endTag, final ColumnBatch<?> batch, final int depth)
+      throws IOException {
+    readGroup(input, endTag, batch, batch.rows, depth);
+  }
+
+  /** Appends an empty row to a nested batch, unless it already has a row for the given row. */
+  protected static void ensureRow(final ColumnBatch<?> batch, final int row) {
+    if (batch.rows == row) {
+      batch.appendEmptyRow();
+    }
+  }
+
+  /** Reads the bytes of a string field, checking that they are valid UTF-8. */
+  protected static ByteString readUtf8(final CodedInputStream input) throws IOException {
+    final ByteString bytes = input.readBytes();
+    if (!bytes.isValidUtf8()) {
+      throw new InvalidProtocolBufferException("Protocol message had invalid UTF-8.");
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the row of a nested batch for a row of this batch, adding it to the row indexes of the
+   * field if the field was unset so far.
+   */
+  protected static int nestedRow(
+      final IntColumn rowIndexes, final int row, final ColumnBatch<?> batch) {
+    final int nestedRow = rowIndexes.get(row);
+    if (nestedRow >= 0) {
+      return nestedRow;
+    }
+    rowIndexes.set(row, batch.rows);
+    return batch.rows;
+  }
+
+  /**
+   * Unsets a field with row indexes into a nested batch in the last row of this batch, such as
+   * when another oneof member replaces it.
+   */
+  protected static void clearNestedRow(
+      final IntColumn rowIndexes, final int row, final ColumnBatch<?> batch) {
+    final int nestedRow = rowIndexes.get(row);
+    if (nestedRow >= 0) {
+      // Nested rows are added in order, so the one of the last row is the last one
+      batch.truncate(nestedRow);
+      rowIndexes.set(row, -1);
+    }
+  }
+
+  /** Appends row indexes into a nested batch, to which {@code shift} rows were added before. */
+  protected static void appendRowIndexes(
+      final IntColumn target, final IntColumn source, final int shift) {
+    for (int i = 0, n = source.size(); i < n; i++) {
+      final int nestedRow = source.get(i);
+      target.append(nestedRow < 0 ? nestedRow : nestedRow + shift);
+    }
+  }
+
+  /** Removes the row indexes into a nested batch from the given row onwards, with their rows. */
+  protected static void truncateNested(
+      final IntColumn rowIndexes, final int rows, final ColumnBatch<?> batch) {
+    for (int i = rows, n = rowIndexes.size(); i < n; i++) {
+      final int nestedRow = rowIndexes.get(i);
+      if (nestedRow >= 0) {
+        // Nested rows are added in order, so the first one is where the removed rows start
+        batch.truncate(nestedRow);
+        break;
+      }
+    }
+    rowIndexes.truncate(rows);
+  }
+
+  /**
+   * Computes and caches the size of a row of a nested batch as a length-delimited message,
+   * including its length.
+   */
+  protected static int computeMessageSizeNoTag(final ColumnBatch<?> batch, final int row) {
+    final int size = batch.computeRowSize(row);
+    final IntColumn cachedSizes = batch.cachedSizes;
+    while (cachedSizes.size() <= row) {
+      cachedSizes.append(0);
+    }
+    cachedSizes.set(row, size);
+    return CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+  }
+
+  /** Computes the size of a row of a nested batch as the fields of a group. */
+  protected static int computeGroupSizeNoTag(final ColumnBatch<?> batch, final int row) {
+    return batch.computeRowSize(row);
+  }
+
+  /** Writes a row of a nested batch as a length-delimited message, whose size has been cached. */
+  protected static void writeMessageNoTag(
+      final CodedOutputStream output, final ColumnBatch<?> batch, final int row)
+      throws IOException {
+    output.writeUInt32NoTag(batch.cachedSizes.get(row));
+    batch.writeRowFields(row, output);
+  }
+
+  /** Writes a row of a nested batch as the fields of a group. The tags are written separately. */
+  protected static void writeGroupNoTag(
+      final CodedOutputStream output, final ColumnBatch<?> batch, final int row)
+      throws IOException {
+    batch.writeRowFields(row, output);
+  }
+
+  /** Appends the presence bits of another batch, which start at row {@code offset} in this one. */
+  protected static void appendPresence(
+      final BitSet target, final int offset, final BitSet source) {
+    for (int i = source.nextSetBit(0); i >= 0; i = source.nextSetBit(i + 1)) {
+      target.set(offset + i);
+    }
+  }
+
+  private static void checkDepth(final int depth) throws InvalidProtocolBufferException {
+    if (depth >= MessageHolder.RECURSION_LIMIT) {
+      throw new InvalidProtocolBufferException(
+          "Protocol message had too many levels of nesting.  May be malicious.");
+    }
+  }
+
+  private void checkRow(final int row) {
+    if (row < 0 || row >= rows) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + rows);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package io.dflemstr.auto.protobuf.runtime.columnar;
+
+import java.util.Arrays;
+
+/**
+ * A column of unboxed {@code double} values, which stores the double fields of a {@link
+ * ColumnBatch}.
+ */
+public final class DoubleColumn {
+
+  private double[] values = new double[0];
+  private int size;
+
+  public void append(final double value) {
+    if (size == values.length) {
+      values = Arrays.copyOf(values, Math.max(16, size * 2));
+    }
+    values[size++] = value;
+  }
+
+  /** Appends every value of another column to this one. */
+  public void appendAll(final DoubleColumn other) {
+    if (size + other.size > values.length) {
+      values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+    }
+    System.arraycopy(other.values, 0, values, size, other.size);
+    size += other.size;
+  }
+
+  public double get(final int row) {
+    checkRow(row);
+    return values[row];
+  }
+
+  public void set(final int row, final double value) {
+    checkRow(row);
+    values[row] = value;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Removes every value from the given row onwards. */
+  public void truncate(final int size) {
+    if (size < 0 || size > this.size) {
+      throw new IndexOutOfBoundsException("Size: " + size + ", current size: " + this.size);
+    }
+    this.size = size;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Returns the backing array of this column without copying it. Only the first {@link #size()}
+   * values are valid, and the array is replaced when the column grows.
+   */
+  public double[] values() {
+    return values;
+  }
+
+  /** Returns a copy of the values. */
+  public double[] toArray() {
+    return Arrays.copyOf(values, size);
+  }
+
+  private void checkRow(final int row) {
+    if (row >= size) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package io.dflemstr.auto.protobuf.runtime.columnar;
+
+import java.util.Arrays;
+
+/**
+ * The offsets of a repeated or map field of a {@link ColumnBatch}, which map every row to a range
+ * of elements in the element columns of the field. The elements of row {@code r} span from {@code
+ * start(r)} to {@code end(r)}.
+ */
+public final class Offsets {
+
+  private int[] offsets = new int[16];
+  private int rows;
+
+  /** Adds a row that has no elements yet. */
+  public void startRow() {
+    if (rows + 1 == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[rows + 1] = offsets[rows];
+    rows++;
+  }
+
+  /** Sets where the elements of the last row end. */
+  public void endLastRow(final int end) {
+    if (rows == 0) {
+      throw new IndexOutOfBoundsException("There are no rows");
+    }
+    offsets[rows] = end;
+  }
+
+  /**
+   * Appends the rows of other offsets, whose elements were appended after {@code shift} existing
+   * elements.
+   */
+  public void appendAll(final Offsets other, final int shift) {
+    if (rows + other.rows >= offsets.length) {
+      offsets = Arrays.copyOf(offsets, Math.max(rows + other.rows + 1, offsets.length * 2));
+    }
+    for (int i = 1; i <= other.rows; i++) {
+      offsets[rows + i] = shift + other.offsets[i];
+    }
+    rows += other.rows;
+  }
+
+  public int start(final int row) {
+    checkRow(row);
+    return offsets[row];
+  }
+
+  public int end(final int row) {
+    checkRow(row);
+    return offsets[row + 1];
+  }
+
+  public int length(final int row) {
+    checkRow(row);
+    return offsets[row + 1] - offsets[row];
+  }
+
+  public int rows() {
+    return rows;
+  }
+
+  /** The number of elements of all rows. */
+  public int elementCount() {
+    return offsets[rows];
+  }
+
+  /** Removes every row from the given row onwards. */
+  public void truncate(final int rows) {
+    if (rows < 0 || rows > this.rows) {
+      throw new IndexOutOfBoundsException("Rows: " + rows + ", current rows: " + this.rows);
+    }
+    this.rows = rows;
+  }
+
+  public void clear() {
+    rows = 0;
+  }
+
+  /**
+   * Returns the backing offsets without copying them. Only the first {@link #rows()} + 1 offsets
+   * are valid, and the array is replaced when more rows are added.
+   */
+  public int[] values() {
+    return offsets;
+  }
+
+  private void checkRow(final int row) {
+    if (row >= rows) {
+      throw new IndexOutOfBoundsException("Row: " + row + ", rows: " + rows);
+    }
+  }
+}
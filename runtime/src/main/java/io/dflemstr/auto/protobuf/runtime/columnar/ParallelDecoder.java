@@ -0,0 +1,157 @@
+package io.dflemstr.auto.protobuf.runtime.columnar;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * Decodes large numbers of messages into a {@link ColumnBatch} on a {@link ForkJoinPool}. The
+ * messages are split into ranges that are decoded into separate batches, which are then appended to
+ * each other in order. The rows of the result are in the same order as the input messages.
+ */
+public final class ParallelDecoder {
+
+  // Below this, appending the batches of two tasks costs about as much as decoding the rows
+  private static final int MIN_ROWS_PER_TASK = 1024;
+
+  private ParallelDecoder() {
+    // Prevent instantiation
+  }
+
+  /** Decodes encoded messages in parallel on the common pool. */
+  public static <B extends ColumnBatch<B>> B decode(
+      final List<byte[]> messages, final Supplier<B> factory)
+      throws InvalidProtocolBufferException {
+    return decode(messages, factory, ForkJoinPool.commonPool());
+  }
+
+  /** Decodes encoded messages in parallel on the given pool. */
+  public static <B extends ColumnBatch<B>> B decode(
+      final List<byte[]> messages, final Supplier<B> factory, final ForkJoinPool pool)
+      throws InvalidProtocolBufferException {
+    return invoke(
+        pool,
+        new DecodeTask<>(
+            factory,
+            (batch, index) -> batch.appendRow(messages.get(index)),
+            0,
+            messages.size()));
+  }
+
+  /**
+   * Decodes a buffer of length-delimited messages, as written by {@code
+   * ColumnBatch.writeDelimitedTo}, in parallel on the common pool.
+   */
+  public static <B extends ColumnBatch<B>> B decodeDelimited(
+      final byte[] data, final Supplier<B> factory) throws InvalidProtocolBufferException {
+    return decodeDelimited(data, factory, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Decodes a buffer of length-delimited messages in parallel on the given pool. The buffer is
+   * scanned for message boundaries first, which only reads the length prefixes.
+   */
+  public static <B extends ColumnBatch<B>> B decodeDelimited(
+      final byte[] data, final Supplier<B> factory, final ForkJoinPool pool)
+      throws InvalidProtocolBufferException {
+    final IntColumn starts = new IntColumn();
+    final IntColumn lengths = new IntColumn();
+    int position = 0;
+    while (position < data.length) {
+      int length = 0;
+      int shift = 0;
+      byte b;
+      do {
+        if (position == data.length || shift == 35) {
+          throw new InvalidProtocolBufferException("Malformed length prefix at " + position);
+        }
+        b = data[position++];
+        length |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      if (length < 0 || length > data.length - position) {
+        throw new InvalidProtocolBufferException("Truncated message at " + position);
+      }
+      starts.append(position);
+      lengths.append(length);
+      position += length;
+    }
+    return invoke(
+        pool,
+        new DecodeTask<>(
+            factory,
+            (batch, index) -> batch.appendRow(data, starts.get(index), lengths.get(index)),
+            0,
+            starts.size()));
+  }
+
+  private static <B extends ColumnBatch<B>> B invoke(
+      final ForkJoinPool pool, final DecodeTask<B> task) throws InvalidProtocolBufferException {
+    try {
+      return pool.invoke(task);
+    } catch (DecodeException e) {
+      // The pool may wrap the exception of another thread into a new one of the same type
+      Throwable cause = e;
+      while (!(cause instanceof InvalidProtocolBufferException)) {
+        cause = cause.getCause();
+      }
+      throw (InvalidProtocolBufferException) cause;
+    }
+  }
+
+  @FunctionalInterface
+  private interface RowDecoder<B> {
+    void appendRow(B batch, int index) throws InvalidProtocolBufferException;
+  }
+
+  private static final class DecodeTask<B extends ColumnBatch<B>> extends RecursiveTask<B> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Supplier<B> factory;
+    private final transient RowDecoder<B> decoder;
+    private final int from;
+    private final int to;
+
+    DecodeTask(
+        final Supplier<B> factory, final RowDecoder<B> decoder, final int from, final int to) {
+      this.factory = factory;
+      this.decoder = decoder;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected B compute() {
+      if (to - from <= MIN_ROWS_PER_TASK) {
+        final B batch = factory.get();
+        for (int i = from; i < to; i++) {
+          try {
+            decoder.appendRow(batch, i);
+          } catch (InvalidProtocolBufferException e) {
+            throw new DecodeException(e);
+          }
+        }
+        return batch;
+      }
+
+      final int middle = (from + to) >>> 1;
+      final DecodeTask<B> right = new DecodeTask<>(factory, decoder, middle, to);
+      right.fork();
+      final B left = new DecodeTask<>(factory, decoder, from, middle).compute();
+      left.appendAll(right.join());
+      return left;
+    }
+  }
+
+  private static final class DecodeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    DecodeException(final Throwable cause) {
+      super(cause);
+    }
+  }
+}
@@ -0,0 +1,9 @@
+/**
+ * Support code for the columnar batches generated with {@code AutoProtobuf.columnar}. A {@link
+ * io.dflemstr.auto.protobuf.runtime.columnar.ColumnBatch} stores many messages of one type as
+ * columns of unboxed values, and converts directly between them and the wire format.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.columnar;
+
+import javax.annotation.ParametersAreNonnullByDefault;
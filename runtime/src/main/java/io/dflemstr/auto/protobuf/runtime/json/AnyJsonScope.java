@@ -0,0 +1,115 @@
+package io.dflemstr.auto.protobuf.runtime.json;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * The members of a JSON-encoded {@code google.protobuf.Any} object, positioned just after the
+ * {@code "@type"} member.
+ *
+ * <p>When {@code "@type"} is the first member, which is what every proto3 JSON printer emits, the
+ * remaining members are streamed straight from the original reader. Otherwise the object has to be
+ * buffered once so that the type is known before the members are interpreted.
+ */
+public final class AnyJsonScope {
+
+  private static final String TYPE_MEMBER = "@type";
+
+  private final JsonReader source;
+  private final JsonReader reader;
+  private final String typeUrl;
+
+  private AnyJsonScope(final JsonReader source, final JsonReader reader, final String typeUrl) {
+    this.source = source;
+    this.reader = reader;
+    this.typeUrl = typeUrl;
+  }
+
+  /**
+   * Starts reading an {@code Any} object. For the empty object, the type URL will be empty and
+   * there will be no members.
+   */
+  public static AnyJsonScope begin(final JsonReader in) throws IOException {
+    in.beginObject();
+    if (!in.hasNext()) {
+      return new AnyJsonScope(in, in, "");
+    }
+
+    final String firstName = in.nextName();
+    if (TYPE_MEMBER.equals(firstName)) {
+      return new AnyJsonScope(in, in, in.nextString());
+    }
+
+    // Slow path: buffer all of the members except for "@type"
+    final StringWriter buffered = new StringWriter();
+    final JsonWriter out = new JsonWriter(buffered);
+    String typeUrl = null;
+    String name = firstName;
+    out.beginObject();
+    while (true) {
+      if (TYPE_MEMBER.equals(name)) {
+        typeUrl = in.nextString();
+      } else {
+        out.name(name);
+        in.copyValue(out);
+      }
+      if (!in.hasNext()) {
+        break;
+      }
+      name = in.nextName();
+    }
+    out.endObject();
+    out.flush();
+    in.endObject();
+
+    if (typeUrl == null) {
+      throw in.syntaxError("Missing type URL when parsing google.protobuf.Any");
+    }
+
+    final JsonReader reader = JsonReader.create(buffered.toString());
+    reader.setIgnoringUnknownFields(in.isIgnoringUnknownFields());
+    reader.beginObject();
+    return new AnyJsonScope(in, reader, typeUrl);
+  }
+
+  /**
+   * Returns the fully qualified type name of a type URL, which is everything after the last
+   * {@code /}.
+   */
+  public static String typeName(final String typeUrl) {
+    return typeUrl.substring(typeUrl.lastIndexOf('/') + 1);
+  }
+
+  public String typeUrl() {
+    return typeUrl;
+  }
+
+  public String typeName() {
+    return typeName(typeUrl);
+  }
+
+  /** The reader to consume the remaining members of the object from. */
+  public JsonReader reader() {
+    return reader;
+  }
+
+  /**
+   * Reads the {@code "value"} member name that precedes the payload of an {@code Any} holding a
+   * well-known type with a special JSON representation.
+   */
+  public JsonReader beginValue() throws IOException {
+    final String name = reader.nextName();
+    if (!"value".equals(name)) {
+      throw reader.syntaxError("Expected member \"value\" in google.protobuf.Any but was " + name);
+    }
+    return reader;
+  }
+
+  /** Finishes reading the {@code Any} object. */
+  public void end() throws IOException {
+    reader.endObject();
+    if (reader != source) {
+      reader.endDocument();
+    }
+  }
+}
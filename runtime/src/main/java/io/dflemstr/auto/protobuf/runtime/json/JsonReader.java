@@ -0,0 +1,701 @@
+package io.dflemstr.auto.protobuf.runtime.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Base64;
+import javax.annotation.Nullable;
+
+/**
+ * A streaming, pull-based JSON reader. Tokens are read from the underlying {@link Reader} through a
+ * small character buffer, and no intermediate tree is built.
+ *
+ * <p>Besides the usual token-level methods, the reader has conversions for the scalar encodings of
+ * the proto3 JSON mapping, for example {@link #nextLong()} accepts both {@code 1} and {@code "1"}.
+ * All syntax and conversion errors are reported as {@link InvalidProtocolBufferException}s.
+ *
+ * <p>Like {@code JsonFormat}, the reader rejects documents that nest objects and arrays more than
+ * {@link #RECURSION_LIMIT} levels below the top-level value, so that malicious input can't
+ * overflow the stack of the recursive codecs that consume it.
+ */
+public final class JsonReader {
+
+  /** The maximum number of levels that objects and arrays may be nested below the top level. */
+  public static final int RECURSION_LIMIT = 100;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private static final int EMPTY_DOCUMENT = 0;
+  private static final int NONEMPTY_DOCUMENT = 1;
+  private static final int EMPTY_OBJECT = 2;
+  private static final int DANGLING_NAME = 3;
+  private static final int NONEMPTY_OBJECT = 4;
+  private static final int EMPTY_ARRAY = 5;
+  private static final int NONEMPTY_ARRAY = 6;
+
+  private static final BigInteger UNSIGNED_LONG_MAX =
+      BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+  private final Reader in;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private long consumed;
+
+  private int[] stack = new int[32];
+  private int stackSize = 1;
+
+  @Nullable private JsonToken peeked;
+  // Contents of the peeked NAME, STRING or NUMBER token
+  @Nullable private String peekedText;
+  private boolean peekedBoolean;
+
+  private final StringBuilder scratch = new StringBuilder();
+  private boolean ignoringUnknownFields;
+
+  public JsonReader(final Reader in) {
+    this.in = in;
+    stack[0] = EMPTY_DOCUMENT;
+  }
+
+  /** Creates a reader that decodes a UTF-8 document from the specified stream. */
+  public static JsonReader create(final InputStream in) {
+    return new JsonReader(new InputStreamReader(in, UTF_8));
+  }
+
+  /** Creates a reader for an in-memory document. */
+  public static JsonReader create(final String json) {
+    return new JsonReader(new StringReader(json));
+  }
+
+  /**
+   * Configures whether object members that don't correspond to a known field are skipped instead
+   * of causing a parse error. The default is to fail on unknown fields.
+   */
+  public JsonReader setIgnoringUnknownFields(final boolean ignoringUnknownFields) {
+    this.ignoringUnknownFields = ignoringUnknownFields;
+    return this;
+  }
+
+  public boolean isIgnoringUnknownFields() {
+    return ignoringUnknownFields;
+  }
+
+  public JsonToken peek() throws IOException {
+    JsonToken token = peeked;
+    if (token == null) {
+      token = doPeek();
+      peeked = token;
+    }
+    return token;
+  }
+
+  public void beginObject() throws IOException {
+    expect(JsonToken.BEGIN_OBJECT);
+    push(EMPTY_OBJECT);
+  }
+
+  public void endObject() throws IOException {
+    expect(JsonToken.END_OBJECT);
+    stackSize--;
+  }
+
+  public void beginArray() throws IOException {
+    expect(JsonToken.BEGIN_ARRAY);
+    push(EMPTY_ARRAY);
+  }
+
+  public void endArray() throws IOException {
+    expect(JsonToken.END_ARRAY);
+    stackSize--;
+  }
+
+  /** Verifies that the whole document has been consumed. */
+  public void endDocument() throws IOException {
+    expect(JsonToken.END_DOCUMENT);
+  }
+
+  /** Returns whether the current object or array has more elements. */
+  public boolean hasNext() throws IOException {
+    final JsonToken token = peek();
+    return token != JsonToken.END_OBJECT
+        && token != JsonToken.END_ARRAY
+        && token != JsonToken.END_DOCUMENT;
+  }
+
+  public String nextName() throws IOException {
+    expect(JsonToken.NAME);
+    return takeText();
+  }
+
+  public String nextString() throws IOException {
+    expect(JsonToken.STRING);
+    return takeText();
+  }
+
+  /** Reads a boolean, accepting both {@code true} and {@code "true"}. */
+  public boolean nextBoolean() throws IOException {
+    if (peek() == JsonToken.STRING) {
+      return parseBoolean(nextString(), "bool value");
+    }
+    expect(JsonToken.BOOLEAN);
+    return peekedBoolean;
+  }
+
+  public void nextNull() throws IOException {
+    expect(JsonToken.NULL);
+  }
+
+  /** Consumes the next token if it is {@code null}, returning whether it did so. */
+  public boolean skipNull() throws IOException {
+    if (peek() == JsonToken.NULL) {
+      peeked = null;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  public int nextInt() throws IOException {
+    final String text = nextNumberText();
+    try {
+      return Integer.parseInt(text);
+    } catch (final NumberFormatException e) {
+      return (int) parseInteger(text, Integer.MIN_VALUE, Integer.MAX_VALUE, "int32").longValue();
+    }
+  }
+
+  /** Reads an unsigned 32-bit value, returning its bits as an {@code int}. */
+  public int nextUnsignedInt() throws IOException {
+    final String text = nextNumberText();
+    try {
+      final long value = Long.parseLong(text);
+      if (value >= 0 && value <= 0xffffffffL) {
+        return (int) value;
+      }
+    } catch (final NumberFormatException e) {
+      // Fall through to the slow path
+    }
+    return (int) parseInteger(text, 0, 0xffffffffL, "uint32").longValue();
+  }
+
+  public long nextLong() throws IOException {
+    final String text = nextNumberText();
+    try {
+      return Long.parseLong(text);
+    } catch (final NumberFormatException e) {
+      return parseInteger(text, Long.MIN_VALUE, Long.MAX_VALUE, "int64").longValue();
+    }
+  }
+
+  /** Reads an unsigned 64-bit value, returning its bits as a {@code long}. */
+  public long nextUnsignedLong() throws IOException {
+    final String text = nextNumberText();
+    final BigInteger value = parseInteger(text, "uint64");
+    if (value.signum() < 0 || value.compareTo(UNSIGNED_LONG_MAX) > 0) {
+      throw syntaxError("Out of range uint64 value: " + text);
+    }
+    return value.longValue();
+  }
+
+  public double nextDouble() throws IOException {
+    final JsonToken token = peek();
+    final String text = nextNumberText();
+    if (token == JsonToken.STRING) {
+      switch (text) {
+        case "NaN":
+          return Double.NaN;
+        case "Infinity":
+          return Double.POSITIVE_INFINITY;
+        case "-Infinity":
+          return Double.NEGATIVE_INFINITY;
+        default:
+          break;
+      }
+    }
+    final double value;
+    try {
+      value = Double.parseDouble(text);
+    } catch (final NumberFormatException e) {
+      throw syntaxError("Not a number: " + text);
+    }
+    if (Double.isInfinite(value)) {
+      throw syntaxError("Out of range double value: " + text);
+    }
+    return value;
+  }
+
+  public float nextFloat() throws IOException {
+    final double value = nextDouble();
+    if (!Double.isInfinite(value) && Math.abs(value) > Float.MAX_VALUE) {
+      throw syntaxError("Out of range float value: " + value);
+    }
+    return (float) value;
+  }
+
+  /** Reads a base64 string, accepting both the standard and the URL-safe alphabet. */
+  public ByteString nextBytes() throws IOException {
+    final String text = nextString();
+    byte[] bytes;
+    try {
+      bytes = Base64.getDecoder().decode(text);
+    } catch (final IllegalArgumentException e) {
+      try {
+        bytes = Base64.getUrlDecoder().decode(text);
+      } catch (final IllegalArgumentException e2) {
+        throw syntaxError("Invalid base64 value: " + e2.getMessage());
+      }
+    }
+    return UnsafeByteOperations.unsafeWrap(bytes);
+  }
+
+  /** Reads an object member name that encodes a {@code bool} map key. */
+  public boolean nextBooleanName() throws IOException {
+    return parseBoolean(nextName(), "bool map key");
+  }
+
+  /** Reads an object member name that encodes an {@code int32} map key. */
+  public int nextIntName() throws IOException {
+    final String name = nextName();
+    try {
+      return Integer.parseInt(name);
+    } catch (final NumberFormatException e) {
+      throw syntaxError("Invalid int32 map key: " + name);
+    }
+  }
+
+  /** Reads an object member name that encodes a {@code uint32} map key. */
+  public int nextUnsignedIntName() throws IOException {
+    final String name = nextName();
+    try {
+      return Integer.parseUnsignedInt(name);
+    } catch (final NumberFormatException e) {
+      throw syntaxError("Invalid uint32 map key: " + name);
+    }
+  }
+
+  /** Reads an object member name that encodes an {@code int64} map key. */
+  public long nextLongName() throws IOException {
+    final String name = nextName();
+    try {
+      return Long.parseLong(name);
+    } catch (final NumberFormatException e) {
+      throw syntaxError("Invalid int64 map key: " + name);
+    }
+  }
+
+  /** Reads an object member name that encodes a {@code uint64} map key. */
+  public long nextUnsignedLongName() throws IOException {
+    final String name = nextName();
+    try {
+      return Long.parseUnsignedLong(name);
+    } catch (final NumberFormatException e) {
+      throw syntaxError("Invalid uint64 map key: " + name);
+    }
+  }
+
+  /** Skips over the next value, including any nested objects and arrays. */
+  public void skipValue() throws IOException {
+    int depth = 0;
+    do {
+      switch (peek()) {
+        case BEGIN_OBJECT:
+          beginObject();
+          depth++;
+          break;
+        case BEGIN_ARRAY:
+          beginArray();
+          depth++;
+          break;
+        case END_OBJECT:
+          endObject();
+          depth--;
+          break;
+        case END_ARRAY:
+          endArray();
+          depth--;
+          break;
+        case END_DOCUMENT:
+          throw syntaxError("Unexpected end of document");
+        default:
+          peeked = null;
+          peekedText = null;
+          break;
+      }
+    } while (depth > 0);
+  }
+
+  /** Copies the next value, including any nested objects and arrays, to the specified writer. */
+  public void copyValue(final JsonWriter out) throws IOException {
+    int depth = 0;
+    do {
+      switch (peek()) {
+        case BEGIN_OBJECT:
+          beginObject();
+          out.beginObject();
+          depth++;
+          break;
+        case BEGIN_ARRAY:
+          beginArray();
+          out.beginArray();
+          depth++;
+          break;
+        case END_OBJECT:
+          endObject();
+          out.endObject();
+          depth--;
+          break;
+        case END_ARRAY:
+          endArray();
+          out.endArray();
+          depth--;
+          break;
+        case NAME:
+          out.name(nextName());
+          break;
+        case STRING:
+          out.value(nextString());
+          break;
+        case NUMBER:
+          out.rawValue(nextNumberText());
+          break;
+        case BOOLEAN:
+          out.value(nextBoolean());
+          break;
+        case NULL:
+          nextNull();
+          out.nullValue();
+          break;
+        case END_DOCUMENT:
+        default:
+          throw syntaxError("Unexpected end of document");
+      }
+    } while (depth > 0);
+  }
+
+  /**
+   * Handles an object member that does not correspond to any field of the message being parsed,
+   * by either skipping its value or failing, depending on {@link #setIgnoringUnknownFields}.
+   */
+  public void skipUnknownField(final String typeName, final String name) throws IOException {
+    if (ignoringUnknownFields) {
+      skipValue();
+    } else {
+      throw syntaxError(
+          MessageFormat.format("Cannot find field: {0} in message {1}", name, typeName));
+    }
+  }
+
+  /** Creates an exception describing an enum name that is not part of the enum type. */
+  public InvalidProtocolBufferException unknownEnumValue(
+      final String typeName, final Object value) {
+    return syntaxError(
+        MessageFormat.format("Invalid enum value: {0} for enum type {1}", value, typeName));
+  }
+
+  /** Creates an exception describing a field that occurs more than once in an object. */
+  public InvalidProtocolBufferException fieldAlreadySet(final String fieldName) {
+    return syntaxError(MessageFormat.format("Field {0} has already been set.", fieldName));
+  }
+
+  /** Creates an exception describing a second member of a oneof in an object. */
+  public InvalidProtocolBufferException oneofAlreadySet(
+      final String fieldName, final String otherFieldName) {
+    return syntaxError(
+        MessageFormat.format(
+            "Cannot set field {0} because another field {1} belonging to the same oneof has "
+                + "already been set",
+            fieldName,
+            otherFieldName));
+  }
+
+  /** Creates an exception describing a problem at the current position of the reader. */
+  public InvalidProtocolBufferException syntaxError(final String message) {
+    return new InvalidProtocolBufferException(
+        MessageFormat.format("{0} (at character {1})", message, consumed + position));
+  }
+
+  private void expect(final JsonToken expected) throws IOException {
+    final JsonToken actual = peek();
+    if (actual != expected) {
+      throw syntaxError(MessageFormat.format("Expected {0} but was {1}", expected, actual));
+    }
+    peeked = null;
+  }
+
+  private String takeText() {
+    final String text = peekedText;
+    peekedText = null;
+    return text == null ? "" : text;
+  }
+
+  private String nextNumberText() throws IOException {
+    final JsonToken token = peek();
+    if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+      throw syntaxError("Expected a number but was " + token);
+    }
+    peeked = null;
+    return takeText();
+  }
+
+  private boolean parseBoolean(final String text, final String description)
+      throws InvalidProtocolBufferException {
+    switch (text) {
+      case "true":
+        return true;
+      case "false":
+        return false;
+      default:
+        throw syntaxError(MessageFormat.format("Invalid {0}: {1}", description, text));
+    }
+  }
+
+  // Slow path for integers written in exponent or decimal notation, such as 1e3 or 1.0
+  private BigInteger parseInteger(final String text, final String typeName)
+      throws InvalidProtocolBufferException {
+    try {
+      return new BigDecimal(text).toBigIntegerExact();
+    } catch (final NumberFormatException | ArithmeticException e) {
+      throw syntaxError(MessageFormat.format("Invalid {0} value: {1}", typeName, text));
+    }
+  }
+
+  private BigInteger parseInteger(
+      final String text, final long min, final long max, final String typeName)
+      throws InvalidProtocolBufferException {
+    final BigInteger value = parseInteger(text, typeName);
+    if (value.compareTo(BigInteger.valueOf(min)) < 0
+        || value.compareTo(BigInteger.valueOf(max)) > 0) {
+      throw syntaxError(MessageFormat.format("Out of range {0} value: {1}", typeName, text));
+    }
+    return value;
+  }
+
+  private void push(final int state) throws InvalidProtocolBufferException {
+    // The bottom of the stack holds the document, and the next entry the top-level value
+    if (stackSize > RECURSION_LIMIT + 1) {
+      throw syntaxError("Hit recursion limit.");
+    }
+    if (stackSize == stack.length) {
+      stack = Arrays.copyOf(stack, stackSize * 2);
+    }
+    stack[stackSize++] = state;
+  }
+
+  private JsonToken doPeek() throws IOException {
+    final int top = stackSize - 1;
+    int c;
+    switch (stack[top]) {
+      case EMPTY_DOCUMENT:
+        stack[top] = NONEMPTY_DOCUMENT;
+        return readValue(nextNonWhitespace());
+      case NONEMPTY_DOCUMENT:
+        c = nextNonWhitespace();
+        if (c == -1) {
+          return JsonToken.END_DOCUMENT;
+        }
+        throw syntaxError("Unexpected data after end of document");
+      case EMPTY_ARRAY:
+        stack[top] = NONEMPTY_ARRAY;
+        c = nextNonWhitespace();
+        return c == ']' ? JsonToken.END_ARRAY : readValue(c);
+      case NONEMPTY_ARRAY:
+        c = nextNonWhitespace();
+        if (c == ']') {
+          return JsonToken.END_ARRAY;
+        } else if (c == ',') {
+          return readValue(nextNonWhitespace());
+        }
+        throw syntaxError("Expected ',' or ']'");
+      case EMPTY_OBJECT:
+      case NONEMPTY_OBJECT:
+        c = nextNonWhitespace();
+        if (c == '}') {
+          return JsonToken.END_OBJECT;
+        }
+        if (stack[top] == NONEMPTY_OBJECT) {
+          if (c != ',') {
+            throw syntaxError("Expected ',' or '}'");
+          }
+          c = nextNonWhitespace();
+        }
+        if (c != '"') {
+          throw syntaxError("Expected a member name");
+        }
+        stack[top] = DANGLING_NAME;
+        peekedText = readString();
+        return JsonToken.NAME;
+      case DANGLING_NAME:
+        if (nextNonWhitespace() != ':') {
+          throw syntaxError("Expected ':'");
+        }
+        stack[top] = NONEMPTY_OBJECT;
+        return readValue(nextNonWhitespace());
+      default:
+        throw new IllegalStateException("Corrupt reader state");
+    }
+  }
+
+  private JsonToken readValue(final int c) throws IOException {
+    switch (c) {
+      case '{':
+        return JsonToken.BEGIN_OBJECT;
+      case '[':
+        return JsonToken.BEGIN_ARRAY;
+      case '"':
+        peekedText = readString();
+        return JsonToken.STRING;
+      case 't':
+        readLiteral("rue");
+        peekedBoolean = true;
+        return JsonToken.BOOLEAN;
+      case 'f':
+        readLiteral("alse");
+        peekedBoolean = false;
+        return JsonToken.BOOLEAN;
+      case 'n':
+        readLiteral("ull");
+        return JsonToken.NULL;
+      case -1:
+        throw syntaxError("Unexpected end of document");
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          peekedText = readNumber((char) c);
+          return JsonToken.NUMBER;
+        }
+        throw syntaxError("Unexpected character '" + (char) c + "'");
+    }
+  }
+
+  private void readLiteral(final String rest) throws IOException {
+    for (int i = 0; i < rest.length(); i++) {
+      if (!fill() || buffer[position++] != rest.charAt(i)) {
+        throw syntaxError("Invalid literal");
+      }
+    }
+  }
+
+  private String readNumber(final char first) throws IOException {
+    final StringBuilder builder = scratch;
+    builder.setLength(0);
+    builder.append(first);
+    while (fill()) {
+      final char c = buffer[position];
+      if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        builder.append(c);
+        position++;
+      } else {
+        break;
+      }
+    }
+    return builder.toString();
+  }
+
+  // Called after the opening quote has been consumed
+  private String readString() throws IOException {
+    // Fast path: the whole string is in the buffer and contains no escapes
+    for (int i = position; i < limit; i++) {
+      final char c = buffer[i];
+      if (c == '"') {
+        final String result = new String(buffer, position, i - position);
+        position = i + 1;
+        return result;
+      } else if (c == '\\' || c < 0x20) {
+        break;
+      }
+    }
+
+    final StringBuilder builder = scratch;
+    builder.setLength(0);
+    while (true) {
+      if (!fill()) {
+        throw syntaxError("Unterminated string");
+      }
+      final char c = buffer[position++];
+      if (c == '"') {
+        return builder.toString();
+      } else if (c == '\\') {
+        builder.append(readEscape());
+      } else if (c < 0x20) {
+        throw syntaxError("Unescaped control character in string");
+      } else {
+        builder.append(c);
+      }
+    }
+  }
+
+  private char readEscape() throws IOException {
+    if (!fill()) {
+      throw syntaxError("Unterminated escape sequence");
+    }
+    final char c = buffer[position++];
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          if (!fill()) {
+            throw syntaxError("Unterminated escape sequence");
+          }
+          final int digit = Character.digit(buffer[position++], 16);
+          if (digit < 0) {
+            throw syntaxError("Invalid unicode escape sequence");
+          }
+          value = (value << 4) | digit;
+        }
+        return (char) value;
+      default:
+        throw syntaxError("Invalid escape sequence '\\" + c + "'");
+    }
+  }
+
+  private int nextNonWhitespace() throws IOException {
+    while (fill()) {
+      final char c = buffer[position++];
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+        return c;
+      }
+    }
+    return -1;
+  }
+
+  // Makes sure that there is at least one character in the buffer, unless at end of input
+  private boolean fill() throws IOException {
+    if (position < limit) {
+      return true;
+    }
+    consumed += limit;
+    position = 0;
+    limit = 0;
+    final int read = in.read(buffer, 0, BUFFER_SIZE);
+    if (read <= 0) {
+      return false;
+    }
+    limit = read;
+    return true;
+  }
+}
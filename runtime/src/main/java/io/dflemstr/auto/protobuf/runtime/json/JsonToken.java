@@ -0,0 +1,15 @@
+package io.dflemstr.auto.protobuf.runtime.json;
+
+/** The kinds of tokens that a {@link JsonReader} can produce. */
+public enum JsonToken {
+  BEGIN_OBJECT,
+  END_OBJECT,
+  BEGIN_ARRAY,
+  END_ARRAY,
+  NAME,
+  STRING,
+  NUMBER,
+  BOOLEAN,
+  NULL,
+  END_DOCUMENT
+}
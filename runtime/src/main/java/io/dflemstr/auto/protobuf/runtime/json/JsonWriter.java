@@ -0,0 +1,281 @@
+package io.dflemstr.auto.protobuf.runtime.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.protobuf.ByteString;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A streaming JSON writer. Tokens are written straight to the underlying {@link Writer} through a
+ * small character buffer; no intermediate tree is built.
+ *
+ * <p>The writer only tracks where commas and colons go; it is up to the caller (usually generated
+ * code) to produce well-formed documents.
+ */
+public final class JsonWriter implements Flushable {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Writer out;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int position;
+
+  // One entry per open object or array: whether a value has been written at that level yet
+  private boolean[] nonEmpty = new boolean[32];
+  private int depth;
+  private boolean afterName;
+
+  public JsonWriter(final Writer out) {
+    this.out = out;
+  }
+
+  /** Creates a writer that encodes the document as UTF-8 to the specified stream. */
+  public static JsonWriter create(final OutputStream out) {
+    return new JsonWriter(new OutputStreamWriter(out, UTF_8));
+  }
+
+  public JsonWriter beginObject() throws IOException {
+    beforeValue();
+    push();
+    write('{');
+    return this;
+  }
+
+  public JsonWriter endObject() throws IOException {
+    depth--;
+    write('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() throws IOException {
+    beforeValue();
+    push();
+    write('[');
+    return this;
+  }
+
+  public JsonWriter endArray() throws IOException {
+    depth--;
+    write(']');
+    return this;
+  }
+
+  /** Writes an object member name; the next token written is its value. */
+  public JsonWriter name(final String name) throws IOException {
+    beforeValue();
+    writeString(name);
+    write(':');
+    afterName = true;
+    return this;
+  }
+
+  public JsonWriter value(final String value) throws IOException {
+    beforeValue();
+    writeString(value);
+    return this;
+  }
+
+  public JsonWriter value(final boolean value) throws IOException {
+    beforeValue();
+    write(value ? "true" : "false");
+    return this;
+  }
+
+  public JsonWriter value(final int value) throws IOException {
+    beforeValue();
+    write(Integer.toString(value));
+    return this;
+  }
+
+  /** Writes an {@code int} holding an unsigned 32-bit value as a JSON number. */
+  public JsonWriter unsignedValue(final int value) throws IOException {
+    beforeValue();
+    write(Integer.toUnsignedString(value));
+    return this;
+  }
+
+  public JsonWriter value(final long value) throws IOException {
+    beforeValue();
+    write(Long.toString(value));
+    return this;
+  }
+
+  /** Writes a 64-bit value as a JSON string, which is how the proto3 mapping encodes them. */
+  public JsonWriter quotedValue(final long value) throws IOException {
+    beforeValue();
+    write('"');
+    write(Long.toString(value));
+    write('"');
+    return this;
+  }
+
+  /** Writes a {@code long} holding an unsigned 64-bit value as a JSON string. */
+  public JsonWriter quotedUnsignedValue(final long value) throws IOException {
+    beforeValue();
+    write('"');
+    write(Long.toUnsignedString(value));
+    write('"');
+    return this;
+  }
+
+  /** Writes a number, or the string {@code NaN}, {@code Infinity} or {@code -Infinity}. */
+  public JsonWriter value(final double value) throws IOException {
+    beforeValue();
+    if (Double.isNaN(value)) {
+      write("\"NaN\"");
+    } else if (Double.isInfinite(value)) {
+      write(value > 0 ? "\"Infinity\"" : "\"-Infinity\"");
+    } else {
+      write(Double.toString(value));
+    }
+    return this;
+  }
+
+  /** Writes a number, or the string {@code NaN}, {@code Infinity} or {@code -Infinity}. */
+  public JsonWriter value(final float value) throws IOException {
+    beforeValue();
+    if (Float.isNaN(value)) {
+      write("\"NaN\"");
+    } else if (Float.isInfinite(value)) {
+      write(value > 0 ? "\"Infinity\"" : "\"-Infinity\"");
+    } else {
+      write(Float.toString(value));
+    }
+    return this;
+  }
+
+  /** Writes bytes as a padded, standard base64 JSON string. */
+  public JsonWriter value(final ByteString value) throws IOException {
+    beforeValue();
+    final byte[] encoded = Base64.getEncoder().encode(value.toByteArray());
+    write('"');
+    for (final byte b : encoded) {
+      write((char) b);
+    }
+    write('"');
+    return this;
+  }
+
+  public JsonWriter nullValue() throws IOException {
+    beforeValue();
+    write("null");
+    return this;
+  }
+
+  /** Writes an already encoded JSON value, for example a number token copied from a reader. */
+  public JsonWriter rawValue(final String json) throws IOException {
+    beforeValue();
+    write(json);
+    return this;
+  }
+
+  /** Writes out any buffered characters and flushes the underlying writer. */
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  private void beforeValue() throws IOException {
+    if (afterName) {
+      afterName = false;
+    } else if (depth > 0) {
+      if (nonEmpty[depth - 1]) {
+        write(',');
+      } else {
+        nonEmpty[depth - 1] = true;
+      }
+    }
+  }
+
+  private void push() {
+    if (depth == nonEmpty.length) {
+      nonEmpty = Arrays.copyOf(nonEmpty, depth * 2);
+    }
+    nonEmpty[depth++] = false;
+  }
+
+  private void writeString(final String value) throws IOException {
+    write('"');
+    final int length = value.length();
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          write("\\\"");
+          break;
+        case '\\':
+          write("\\\\");
+          break;
+        case '\n':
+          write("\\n");
+          break;
+        case '\r':
+          write("\\r");
+          break;
+        case '\t':
+          write("\\t");
+          break;
+        case '\b':
+          write("\\b");
+          break;
+        case '\f':
+          write("\\f");
+          break;
+        case '\u2028':
+        case '\u2029':
+          writeUnicodeEscape(c);
+          break;
+        default:
+          if (c < 0x20) {
+            writeUnicodeEscape(c);
+          } else {
+            write(c);
+          }
+      }
+    }
+    write('"');
+  }
+
+  private void writeUnicodeEscape(final char c) throws IOException {
+    write("\\u");
+    write(HEX[(c >> 12) & 0xf]);
+    write(HEX[(c >> 8) & 0xf]);
+    write(HEX[(c >> 4) & 0xf]);
+    write(HEX[c & 0xf]);
+  }
+
+  private void write(final char c) throws IOException {
+    if (position == BUFFER_SIZE) {
+      flushBuffer();
+    }
+    buffer[position++] = c;
+  }
+
+  private void write(final String s) throws IOException {
+    final int length = s.length();
+    if (length > BUFFER_SIZE - position) {
+      flushBuffer();
+      if (length > BUFFER_SIZE) {
+        out.write(s);
+        return;
+      }
+    }
+    s.getChars(0, length, buffer, position);
+    position += length;
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+}
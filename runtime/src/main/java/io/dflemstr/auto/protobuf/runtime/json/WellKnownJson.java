@@ -0,0 +1,415 @@
+package io.dflemstr.auto.protobuf.runtime.json;
+
+import com.google.protobuf.BoolValue;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.DoubleValue;
+import com.google.protobuf.Duration;
+import com.google.protobuf.Empty;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.FloatValue;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.UInt32Value;
+import com.google.protobuf.UInt64Value;
+import com.google.protobuf.Value;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * JSON encodings of the well-known types in {@code google.protobuf} that have a special
+ * representation in the proto3 JSON mapping. {@code google.protobuf.Any} is handled by the
+ * generated {@code AnyJson} class of each package, since it needs to know the packed types.
+ */
+public final class WellKnownJson {
+
+  // Range of valid Timestamps: 0001-01-01T00:00:00Z to 9999-12-31T23:59:59.999999999Z
+  private static final long TIMESTAMP_SECONDS_MIN = -62135596800L;
+  private static final long TIMESTAMP_SECONDS_MAX = 253402300799L;
+  private static final long DURATION_SECONDS_MAX = 315576000000L;
+  private static final int NANOS_PER_SECOND = 1000000000;
+
+  private static final DateTimeFormatter TIMESTAMP_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+  private WellKnownJson() {
+    // Prevent instantiation
+  }
+
+  public static void writeTimestamp(final Timestamp value, final JsonWriter out)
+      throws IOException {
+    final long seconds = value.getSeconds();
+    final int nanos = value.getNanos();
+    if (seconds < TIMESTAMP_SECONDS_MIN
+        || seconds > TIMESTAMP_SECONDS_MAX
+        || nanos < 0
+        || nanos >= NANOS_PER_SECOND) {
+      throw new IllegalArgumentException("Timestamp is out of range: " + value);
+    }
+    final StringBuilder builder = new StringBuilder(30);
+    final LocalDateTime dateTime = LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    builder.append(dateTime.format(TIMESTAMP_FORMAT));
+    appendNanos(builder, nanos);
+    builder.append('Z');
+    out.value(builder.toString());
+  }
+
+  public static Timestamp readTimestamp(final JsonReader in) throws IOException {
+    final String text = in.nextString();
+    final OffsetDateTime dateTime;
+    try {
+      dateTime = OffsetDateTime.parse(text, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    } catch (final DateTimeParseException e) {
+      throw in.syntaxError("Failed to parse timestamp: " + text);
+    }
+    final long seconds = dateTime.toEpochSecond();
+    if (seconds < TIMESTAMP_SECONDS_MIN || seconds > TIMESTAMP_SECONDS_MAX) {
+      throw in.syntaxError("Timestamp is out of range: " + text);
+    }
+    return Timestamp.newBuilder().setSeconds(seconds).setNanos(dateTime.getNano()).build();
+  }
+
+  public static void writeDuration(final Duration value, final JsonWriter out) throws IOException {
+    long seconds = value.getSeconds();
+    int nanos = value.getNanos();
+    if (seconds < -DURATION_SECONDS_MAX
+        || seconds > DURATION_SECONDS_MAX
+        || nanos <= -NANOS_PER_SECOND
+        || nanos >= NANOS_PER_SECOND
+        || (seconds < 0 && nanos > 0)
+        || (seconds > 0 && nanos < 0)) {
+      throw new IllegalArgumentException("Duration is out of range: " + value);
+    }
+    final StringBuilder builder = new StringBuilder(24);
+    if (seconds < 0 || nanos < 0) {
+      builder.append('-');
+      seconds = -seconds;
+      nanos = -nanos;
+    }
+    builder.append(seconds);
+    appendNanos(builder, nanos);
+    builder.append('s');
+    out.value(builder.toString());
+  }
+
+  public static Duration readDuration(final JsonReader in) throws IOException {
+    final String text = in.nextString();
+    if (!text.endsWith("s")) {
+      throw in.syntaxError("Failed to parse duration: " + text);
+    }
+    final boolean negative = text.startsWith("-");
+    final String unsigned = text.substring(negative ? 1 : 0, text.length() - 1);
+    final int dot = unsigned.indexOf('.');
+    final String secondsText = dot < 0 ? unsigned : unsigned.substring(0, dot);
+    final String nanosText = dot < 0 ? "" : unsigned.substring(dot + 1);
+
+    long seconds;
+    int nanos;
+    try {
+      seconds = Long.parseLong(secondsText);
+      nanos = nanosText.isEmpty() ? 0 : parseNanos(nanosText);
+    } catch (final NumberFormatException e) {
+      throw in.syntaxError("Failed to parse duration: " + text);
+    }
+    if (seconds < 0 || seconds > DURATION_SECONDS_MAX) {
+      throw in.syntaxError("Duration is out of range: " + text);
+    }
+    if (negative) {
+      seconds = -seconds;
+      nanos = -nanos;
+    }
+    return Duration.newBuilder().setSeconds(seconds).setNanos(nanos).build();
+  }
+
+  public static void writeFieldMask(final FieldMask value, final JsonWriter out)
+      throws IOException {
+    final StringBuilder builder = new StringBuilder();
+    final int count = value.getPathsCount();
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      final String path = value.getPaths(i);
+      boolean upperNext = false;
+      for (int j = 0; j < path.length(); j++) {
+        final char c = path.charAt(j);
+        if (c == '_') {
+          upperNext = true;
+        } else if (upperNext) {
+          builder.append(Character.toUpperCase(c));
+          upperNext = false;
+        } else {
+          builder.append(c);
+        }
+      }
+    }
+    out.value(builder.toString());
+  }
+
+  public static FieldMask readFieldMask(final JsonReader in) throws IOException {
+    final String text = in.nextString();
+    final FieldMask.Builder builder = FieldMask.newBuilder();
+    if (text.isEmpty()) {
+      return builder.build();
+    }
+    final StringBuilder path = new StringBuilder();
+    for (int i = 0; i <= text.length(); i++) {
+      final char c = i < text.length() ? text.charAt(i) : ',';
+      if (c == ',') {
+        builder.addPaths(path.toString());
+        path.setLength(0);
+      } else if (Character.isUpperCase(c)) {
+        path.append('_').append(Character.toLowerCase(c));
+      } else {
+        path.append(c);
+      }
+    }
+    return builder.build();
+  }
+
+  public static void writeStruct(final Struct value, final JsonWriter out) throws IOException {
+    out.beginObject();
+    for (final Map.Entry<String, Value> entry : value.getFieldsMap().entrySet()) {
+      out.name(entry.getKey());
+      writeValue(entry.getValue(), out);
+    }
+    out.endObject();
+  }
+
+  public static Struct readStruct(final JsonReader in) throws IOException {
+    final Struct.Builder builder = Struct.newBuilder();
+    in.beginObject();
+    while (in.hasNext()) {
+      final String name = in.nextName();
+      builder.putFields(name, readValue(in));
+    }
+    in.endObject();
+    return builder.build();
+  }
+
+  public static void writeValue(final Value value, final JsonWriter out) throws IOException {
+    switch (value.getKindCase()) {
+      case NULL_VALUE:
+        out.nullValue();
+        break;
+      case NUMBER_VALUE:
+        final double number = value.getNumberValue();
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+          throw new IllegalArgumentException("google.protobuf.Value cannot encode " + number);
+        }
+        out.value(number);
+        break;
+      case STRING_VALUE:
+        out.value(value.getStringValue());
+        break;
+      case BOOL_VALUE:
+        out.value(value.getBoolValue());
+        break;
+      case STRUCT_VALUE:
+        writeStruct(value.getStructValue(), out);
+        break;
+      case LIST_VALUE:
+        writeListValue(value.getListValue(), out);
+        break;
+      case KIND_NOT_SET:
+      default:
+        throw new IllegalArgumentException("google.protobuf.Value must have a value set");
+    }
+  }
+
+  public static Value readValue(final JsonReader in) throws IOException {
+    switch (in.peek()) {
+      case NULL:
+        in.nextNull();
+        return Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+      case NUMBER:
+        return Value.newBuilder().setNumberValue(in.nextDouble()).build();
+      case STRING:
+        return Value.newBuilder().setStringValue(in.nextString()).build();
+      case BOOLEAN:
+        return Value.newBuilder().setBoolValue(in.nextBoolean()).build();
+      case BEGIN_OBJECT:
+        return Value.newBuilder().setStructValue(readStruct(in)).build();
+      case BEGIN_ARRAY:
+        return Value.newBuilder().setListValue(readListValue(in)).build();
+      default:
+        throw in.syntaxError("Expected a value but was " + in.peek());
+    }
+  }
+
+  public static void writeListValue(final ListValue value, final JsonWriter out)
+      throws IOException {
+    out.beginArray();
+    final int count = value.getValuesCount();
+    for (int i = 0; i < count; i++) {
+      writeValue(value.getValues(i), out);
+    }
+    out.endArray();
+  }
+
+  public static ListValue readListValue(final JsonReader in) throws IOException {
+    final ListValue.Builder builder = ListValue.newBuilder();
+    in.beginArray();
+    while (in.hasNext()) {
+      builder.addValues(readValue(in));
+    }
+    in.endArray();
+    return builder.build();
+  }
+
+  /** Writes a field of type {@code google.protobuf.NullValue}, which is always {@code null}. */
+  public static void writeNullValue(final int value, final JsonWriter out) throws IOException {
+    out.nullValue();
+  }
+
+  /** Reads a field of type {@code google.protobuf.NullValue}, returning its enum number. */
+  public static int readNullValue(final JsonReader in) throws IOException {
+    in.nextNull();
+    return NullValue.NULL_VALUE_VALUE;
+  }
+
+  public static void writeEmpty(final Empty value, final JsonWriter out) throws IOException {
+    out.beginObject();
+    out.endObject();
+  }
+
+  public static Empty readEmpty(final JsonReader in) throws IOException {
+    in.beginObject();
+    while (in.hasNext()) {
+      in.skipUnknownField("google.protobuf.Empty", in.nextName());
+    }
+    in.endObject();
+    return Empty.getDefaultInstance();
+  }
+
+  public static void writeDoubleValue(final DoubleValue value, final JsonWriter out)
+      throws IOException {
+    out.value(value.getValue());
+  }
+
+  public static DoubleValue readDoubleValue(final JsonReader in) throws IOException {
+    return DoubleValue.newBuilder().setValue(in.nextDouble()).build();
+  }
+
+  public static void writeFloatValue(final FloatValue value, final JsonWriter out)
+      throws IOException {
+    out.value(value.getValue());
+  }
+
+  public static FloatValue readFloatValue(final JsonReader in) throws IOException {
+    return FloatValue.newBuilder().setValue(in.nextFloat()).build();
+  }
+
+  public static void writeInt64Value(final Int64Value value, final JsonWriter out)
+      throws IOException {
+    out.quotedValue(value.getValue());
+  }
+
+  public static Int64Value readInt64Value(final JsonReader in) throws IOException {
+    return Int64Value.newBuilder().setValue(in.nextLong()).build();
+  }
+
+  public static void writeUInt64Value(final UInt64Value value, final JsonWriter out)
+      throws IOException {
+    out.quotedUnsignedValue(value.getValue());
+  }
+
+  public static UInt64Value readUInt64Value(final JsonReader in) throws IOException {
+    return UInt64Value.newBuilder().setValue(in.nextUnsignedLong()).build();
+  }
+
+  public static void writeInt32Value(final Int32Value value, final JsonWriter out)
+      throws IOException {
+    out.value(value.getValue());
+  }
+
+  public static Int32Value readInt32Value(final JsonReader in) throws IOException {
+    return Int32Value.newBuilder().setValue(in.nextInt()).build();
+  }
+
+  public static void writeUInt32Value(final UInt32Value value, final JsonWriter out)
+      throws IOException {
+    out.unsignedValue(value.getValue());
+  }
+
+  public static UInt32Value readUInt32Value(final JsonReader in) throws IOException {
+    return UInt32Value.newBuilder().setValue(in.nextUnsignedInt()).build();
+  }
+
+  public static void writeBoolValue(final BoolValue value, final JsonWriter out)
+      throws IOException {
+    out.value(value.getValue());
+  }
+
+  public static BoolValue readBoolValue(final JsonReader in) throws IOException {
+    return BoolValue.newBuilder().setValue(in.nextBoolean()).build();
+  }
+
+  public static void writeStringValue(final StringValue value, final JsonWriter out)
+      throws IOException {
+    out.value(value.getValue());
+  }
+
+  public static StringValue readStringValue(final JsonReader in) throws IOException {
+    return StringValue.newBuilder().setValue(in.nextString()).build();
+  }
+
+  public static void writeBytesValue(final BytesValue value, final JsonWriter out)
+      throws IOException {
+    out.value(value.getValue());
+  }
+
+  public static BytesValue readBytesValue(final JsonReader in) throws IOException {
+    return BytesValue.newBuilder().setValue(in.nextBytes()).build();
+  }
+
+  // Appends 0, 3, 6 or 9 fractional digits, whichever is the shortest exact representation
+  private static void appendNanos(final StringBuilder builder, final int nanos) {
+    if (nanos == 0) {
+      return;
+    }
+    builder.append('.');
+    if (nanos % 1000000 == 0) {
+      appendPadded(builder, nanos / 1000000, 3);
+    } else if (nanos % 1000 == 0) {
+      appendPadded(builder, nanos / 1000, 6);
+    } else {
+      appendPadded(builder, nanos, 9);
+    }
+  }
+
+  private static void appendPadded(final StringBuilder builder, final int value, final int width) {
+    final String digits = Integer.toString(value);
+    for (int i = digits.length(); i < width; i++) {
+      builder.append('0');
+    }
+    builder.append(digits);
+  }
+
+  private static int parseNanos(final String text) {
+    if (text.length() > 9) {
+      throw new NumberFormatException("Too many fractional digits: " + text);
+    }
+    int nanos = 0;
+    for (int i = 0; i < 9; i++) {
+      nanos *= 10;
+      if (i < text.length()) {
+        final char c = text.charAt(i);
+        if (c < '0' || c > '9') {
+          throw new NumberFormatException("Invalid digit: " + c);
+        }
+        nanos += c - '0';
+      }
+    }
+    return nanos;
+  }
+}
@@ -0,0 +1,9 @@
+/**
+ * Streaming JSON primitives used by the codecs generated with {@code AutoProtobuf.json}. The
+ * generated codecs follow the <a
+ * href="https://developers.google.com/protocol-buffers/docs/proto3#json">proto3 JSON mapping</a>.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.json;
+
+import javax.annotation.ParametersAreNonnullByDefault;
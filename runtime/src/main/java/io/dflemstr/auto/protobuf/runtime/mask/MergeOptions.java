@@ -0,0 +1,61 @@
+package io.dflemstr.auto.protobuf.runtime.mask;
+
+/**
+ * Options for merging the fields covered by a field mask from one message into another. These
+ * mirror {@code FieldMaskUtil.MergeOptions}, and all of them are off by default.
+ */
+public final class MergeOptions {
+
+  private static final MergeOptions DEFAULTS = new MergeOptions(false, false, false);
+
+  private final boolean replaceMessageFields;
+  private final boolean replaceRepeatedFields;
+  private final boolean replacePrimitiveFields;
+
+  private MergeOptions(
+      final boolean replaceMessageFields,
+      final boolean replaceRepeatedFields,
+      final boolean replacePrimitiveFields) {
+    this.replaceMessageFields = replaceMessageFields;
+    this.replaceRepeatedFields = replaceRepeatedFields;
+    this.replacePrimitiveFields = replacePrimitiveFields;
+  }
+
+  public static MergeOptions defaults() {
+    return DEFAULTS;
+  }
+
+  /**
+   * Whether a message field is replaced by the source value instead of merged with it. When
+   * replacing, a message field that is unset in the source is cleared in the destination.
+   */
+  public boolean replaceMessageFields() {
+    return replaceMessageFields;
+  }
+
+  /** Whether a repeated or map field is replaced by the source value instead of appended to. */
+  public boolean replaceRepeatedFields() {
+    return replaceRepeatedFields;
+  }
+
+  /**
+   * Whether a primitive field that is unset in the source is cleared in the destination. Otherwise
+   * the destination is set to the source value even when that is the default value. This only
+   * makes a difference for fields that track presence.
+   */
+  public boolean replacePrimitiveFields() {
+    return replacePrimitiveFields;
+  }
+
+  public MergeOptions withReplaceMessageFields(final boolean replaceMessageFields) {
+    return new MergeOptions(replaceMessageFields, replaceRepeatedFields, replacePrimitiveFields);
+  }
+
+  public MergeOptions withReplaceRepeatedFields(final boolean replaceRepeatedFields) {
+    return new MergeOptions(replaceMessageFields, replaceRepeatedFields, replacePrimitiveFields);
+  }
+
+  public MergeOptions withReplacePrimitiveFields(final boolean replacePrimitiveFields) {
+    return new MergeOptions(replaceMessageFields, replaceRepeatedFields, replacePrimitiveFields);
+  }
+}
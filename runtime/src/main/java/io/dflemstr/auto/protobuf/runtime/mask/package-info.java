@@ -0,0 +1,8 @@
+/**
+ * Support code for the field mask handlers generated with {@code AutoProtobuf.fieldMask}. The
+ * handlers follow the semantics of {@code FieldMaskUtil} from {@code protobuf-java-util}.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.mask;
+
+import javax.annotation.ParametersAreNonnullByDefault;
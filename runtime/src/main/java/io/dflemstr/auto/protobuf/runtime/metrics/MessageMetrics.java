@@ -0,0 +1,125 @@
+package io.dflemstr.auto.protobuf.runtime.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The serialization counters of one message type. Counters are {@link LongAdder}s, so that
+ * threads that parse or serialize the same type at the same time rarely contend; reading a counter
+ * sums its stripes.
+ *
+ * <p>Metrics are enabled unless the system property {@value #ENABLED_PROPERTY} is {@code false}.
+ * The property is read once, and generated code only updates counters if {@link #ENABLED} is set,
+ * so that the JIT compiler removes the updates entirely when metrics are disabled. Disabled
+ * metrics are not registered, and no exporters are loaded.
+ *
+ * <p>JSON encoding is counted separately from the wire format, and only by the number of messages,
+ * because the encoded size is not known when printing to a stream.
+ */
+public final class MessageMetrics {
+
+  /** The system property that disables metrics when set to {@code false}. */
+  public static final String ENABLED_PROPERTY = "io.dflemstr.auto.protobuf.metrics";
+
+  /** Whether counters are updated. */
+  public static final boolean ENABLED =
+      !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+
+  private final String typeName;
+  private final LongAdder parseCount = new LongAdder();
+  private final LongAdder parsedBytes = new LongAdder();
+  private final LongAdder serializeCount = new LongAdder();
+  private final LongAdder serializedBytes = new LongAdder();
+  private final LongAdder jsonParseCount = new LongAdder();
+  private final LongAdder jsonPrintCount = new LongAdder();
+
+  MessageMetrics(final String typeName) {
+    this.typeName = typeName;
+  }
+
+  /**
+   * Returns the metrics of a message type, registering them with the exporters on first use. If
+   * metrics are disabled, returns counters that are neither registered nor updated.
+   */
+  public static MessageMetrics forType(final String typeName) {
+    if (!ENABLED) {
+      return new MessageMetrics(typeName);
+    }
+    return MetricsRegistry.register(typeName);
+  }
+
+  /** The full name of the message type, such as {@code google.protobuf.Any}. */
+  public String typeName() {
+    return typeName;
+  }
+
+  /** Counts a parsed message of the given encoded size. */
+  public void recordParse(final int bytes) {
+    parseCount.increment();
+    parsedBytes.add(bytes);
+  }
+
+  /** Counts a serialized message of the given encoded size. */
+  public void recordSerialize(final int bytes) {
+    serializeCount.increment();
+    serializedBytes.add(bytes);
+  }
+
+  /** Counts a message parsed from JSON. */
+  public void recordJsonParse() {
+    jsonParseCount.increment();
+  }
+
+  /** Counts a message printed as JSON. */
+  public void recordJsonPrint() {
+    jsonPrintCount.increment();
+  }
+
+  /** The number of messages parsed so far. */
+  public long parseCount() {
+    return parseCount.sum();
+  }
+
+  /** The number of bytes parsed so far. */
+  public long parsedBytes() {
+    return parsedBytes.sum();
+  }
+
+  /** The number of messages serialized so far. */
+  public long serializeCount() {
+    return serializeCount.sum();
+  }
+
+  /** The number of bytes serialized so far. */
+  public long serializedBytes() {
+    return serializedBytes.sum();
+  }
+
+  /** The number of messages parsed from JSON so far. */
+  public long jsonParseCount() {
+    return jsonParseCount.sum();
+  }
+
+  /** The number of messages printed as JSON so far. */
+  public long jsonPrintCount() {
+    return jsonPrintCount.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "MessageMetrics{typeName="
+        + typeName
+        + ", parseCount="
+        + parseCount()
+        + ", parsedBytes="
+        + parsedBytes()
+        + ", serializeCount="
+        + serializeCount()
+        + ", serializedBytes="
+        + serializedBytes()
+        + ", jsonParseCount="
+        + jsonParseCount()
+        + ", jsonPrintCount="
+        + jsonPrintCount()
+        + "}";
+  }
+}
@@ -0,0 +1,41 @@
+package io.dflemstr.auto.protobuf.runtime.metrics;
+
+import com.google.protobuf.AbstractParser;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+
+/**
+ * A parser that counts the messages it parses and their sizes. Every parse method of {@link
+ * AbstractParser} ends up in {@link #parsePartialFrom(CodedInputStream, ExtensionRegistryLite)},
+ * where the bytes consumed from the input are counted.
+ *
+ * @param <M> the type of the messages
+ */
+public final class MeteredParser<M extends MessageLite> extends AbstractParser<M> {
+
+  private final Parser<M> delegate;
+  private final MessageMetrics metrics;
+
+  private MeteredParser(final Parser<M> delegate, final MessageMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  /** Wraps a parser so that it updates the given metrics, or returns it as is if disabled. */
+  public static <M extends MessageLite> Parser<M> of(
+      final Parser<M> delegate, final MessageMetrics metrics) {
+    return MessageMetrics.ENABLED ? new MeteredParser<>(delegate, metrics) : delegate;
+  }
+
+  @Override
+  public M parsePartialFrom(final CodedInputStream input, final ExtensionRegistryLite extensions)
+      throws InvalidProtocolBufferException {
+    final int start = input.getTotalBytesRead();
+    final M message = delegate.parsePartialFrom(input, extensions);
+    metrics.recordParse(input.getTotalBytesRead() - start);
+    return message;
+  }
+}
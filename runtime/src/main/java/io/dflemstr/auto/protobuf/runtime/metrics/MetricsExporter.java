@@ -0,0 +1,18 @@
+package io.dflemstr.auto.protobuf.runtime.metrics;
+
+/**
+ * Exports message metrics to a metrics system. Exporters are found with {@link
+ * java.util.ServiceLoader} when the first message type registers its metrics, and can also be
+ * added with {@link MetricsRegistry#addExporter}.
+ *
+ * <p>Counters are not pushed to exporters; an exporter should instead bind the counters of each
+ * type to its metrics system, for example as functions that are read when metrics are collected.
+ */
+public interface MetricsExporter {
+
+  /**
+   * Called once for every message type, either when the type registers its metrics or, for types
+   * that registered earlier, when the exporter is added. Must be thread-safe.
+   */
+  void register(MessageMetrics metrics);
+}
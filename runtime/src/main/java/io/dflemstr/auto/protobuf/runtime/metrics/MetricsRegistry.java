@@ -0,0 +1,53 @@
+package io.dflemstr.auto.protobuf.runtime.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/** Keeps the metrics of every message type, and the exporters that they are registered with. */
+public final class MetricsRegistry {
+
+  private static final Map<String, MessageMetrics> METRICS = new LinkedHashMap<>();
+  private static final List<MetricsExporter> EXPORTERS = new ArrayList<>();
+  private static boolean exportersLoaded;
+
+  private MetricsRegistry() {
+    // Prevent instantiation
+  }
+
+  /** The metrics of every message type that has registered so far, in order of registration. */
+  public static synchronized List<MessageMetrics> all() {
+    return Collections.unmodifiableList(new ArrayList<>(METRICS.values()));
+  }
+
+  /** Adds an exporter, and registers the metrics of every known message type with it. */
+  public static synchronized void addExporter(final MetricsExporter exporter) {
+    EXPORTERS.add(exporter);
+    for (final MessageMetrics metrics : METRICS.values()) {
+      exporter.register(metrics);
+    }
+  }
+
+  static synchronized MessageMetrics register(final String typeName) {
+    final MessageMetrics existing = METRICS.get(typeName);
+    if (existing != null) {
+      return existing;
+    }
+    if (!exportersLoaded) {
+      exportersLoaded = true;
+      for (final MetricsExporter exporter :
+          ServiceLoader.load(MetricsExporter.class, MetricsRegistry.class.getClassLoader())) {
+        EXPORTERS.add(exporter);
+      }
+    }
+    final MessageMetrics metrics = new MessageMetrics(typeName);
+    METRICS.put(typeName, metrics);
+    for (final MetricsExporter exporter : EXPORTERS) {
+      exporter.register(metrics);
+    }
+    return metrics;
+  }
+}
@@ -0,0 +1,10 @@
+/**
+ * Support code for the serialization metrics generated with {@code AutoProtobuf.metrics}. Every
+ * message type counts its parsed and serialized bytes in a {@link
+ * io.dflemstr.auto.protobuf.runtime.metrics.MessageMetrics}, which are handed to every {@link
+ * io.dflemstr.auto.protobuf.runtime.metrics.MetricsExporter} for export to a metrics system.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.metrics;
+
+import javax.annotation.ParametersAreNonnullByDefault;
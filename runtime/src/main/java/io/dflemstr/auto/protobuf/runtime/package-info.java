@@ -0,0 +1,9 @@
+/**
+ * Support code for the sources generated by {@code auto-protobuf}. The types in this package and
+ * its sub-packages are called from generated code; they are public so that generated code in any
+ * package can reach them, but are rarely useful on their own.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -0,0 +1,69 @@
+package io.dflemstr.auto.protobuf.runtime.records;
+
+/** The location of a block of a record file, and the records it contains. */
+public final class RecordBlock {
+
+  private final long offset;
+  private final long payloadOffset;
+  private final int payloadLength;
+  private final int recordCount;
+  private final long firstRecord;
+  private final int checksum;
+
+  RecordBlock(
+      final long offset,
+      final long payloadOffset,
+      final int payloadLength,
+      final int recordCount,
+      final long firstRecord,
+      final int checksum) {
+    this.offset = offset;
+    this.payloadOffset = payloadOffset;
+    this.payloadLength = payloadLength;
+    this.recordCount = recordCount;
+    this.firstRecord = firstRecord;
+    this.checksum = checksum;
+  }
+
+  /** The file offset of the block, which is where its sync marker starts. */
+  public long offset() {
+    return offset;
+  }
+
+  /** The file offset of the first record of the block. */
+  public long payloadOffset() {
+    return payloadOffset;
+  }
+
+  /** The number of bytes of the records of the block, including their length prefixes. */
+  public int payloadLength() {
+    return payloadLength;
+  }
+
+  /** The number of records in the block. */
+  public int recordCount() {
+    return recordCount;
+  }
+
+  /** The position in the file of the first record of the block, counting from 0. */
+  public long firstRecord() {
+    return firstRecord;
+  }
+
+  int checksum() {
+    return checksum;
+  }
+
+  @Override
+  public String toString() {
+    return "RecordBlock{offset="
+        + offset
+        + ", payloadLength="
+        + payloadLength
+        + ", recordCount="
+        + recordCount
+        + ", firstRecord="
+        + firstRecord
+        + "}";
+  }
+}
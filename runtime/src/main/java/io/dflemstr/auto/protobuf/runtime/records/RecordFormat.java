@@ -0,0 +1,67 @@
+package io.dflemstr.auto.protobuf.runtime.records;
+
+import com.google.protobuf.CodedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and helpers for the layout of a record file, which is:
+ *
+ * <pre>
+ * file    = header block* index trailer
+ * header  = "APRF" version:byte sync:byte[16]
+ * block   = sync:byte[16] records:varint length:varint crc32:fixed32 payload:byte[length]
+ * payload = (size:varint message:byte[size])*
+ * index   = blocks:varint (offset:fixed64 records:varint length:varint crc32:fixed32)*
+ * trailer = index-offset:fixed64 "APRX"
+ * </pre>
+ *
+ * <p>The sync marker is chosen at random for every file. Since every block repeats it, the blocks
+ * of a file whose index is missing can still be found by scanning for it.
+ */
+final class RecordFormat {
+
+  static final byte[] MAGIC = "APRF".getBytes(StandardCharsets.US_ASCII);
+  static final byte[] INDEX_MAGIC = "APRX".getBytes(StandardCharsets.US_ASCII);
+  static final byte VERSION = 1;
+  static final int SYNC_SIZE = 16;
+  static final int HEADER_SIZE = MAGIC.length + 1 + SYNC_SIZE;
+  static final int TRAILER_SIZE = 8 + INDEX_MAGIC.length;
+  static final int MAX_BLOCK_HEADER_SIZE = SYNC_SIZE + 2 * 5 + 4;
+  static final int MIN_INDEX_ENTRY_SIZE = 8 + 2 * 1 + 4;
+
+  private RecordFormat() {
+    // Prevent instantiation
+  }
+
+  /** The number of bytes of a block header, including the sync marker. */
+  static int blockHeaderSize(final int recordCount, final int payloadLength) {
+    return SYNC_SIZE
+        + CodedOutputStream.computeUInt32SizeNoTag(recordCount)
+        + CodedOutputStream.computeUInt32SizeNoTag(payloadLength)
+        + 4;
+  }
+
+  /** Reads as many bytes as the buffer has room for, starting at a position of the channel. */
+  static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+      throws IOException {
+    long offset = position;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, offset);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of record file at " + offset);
+      }
+      offset += read;
+    }
+  }
+
+  /** Writes the remaining bytes of a buffer at the current position of the channel. */
+  static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
@@ -0,0 +1,455 @@
+package io.dflemstr.auto.protobuf.runtime.records;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import io.dflemstr.auto.protobuf.runtime.columnar.ColumnBatch;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads messages from a record file. The blocks of the file are found through its index, or by
+ * scanning for sync markers if the file was not closed properly, and are then memory-mapped and
+ * decoded independently of each other. Blocks can be decoded on a {@link ForkJoinPool}, so that
+ * reading a file is spread over all available cores.
+ *
+ * <p>Readers are thread-safe, and blocks may be read concurrently.
+ *
+ * @param <M> the type of the records
+ */
+public final class RecordReader<M extends MessageLite> implements Closeable {
+
+  private static final int SCAN_CHUNK_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final Parser<M> parser;
+  private final List<RecordBlock> blocks;
+  private final long recordCount;
+
+  private RecordReader(
+      final FileChannel channel, final Parser<M> parser, final List<RecordBlock> blocks) {
+    this.channel = channel;
+    this.parser = parser;
+    this.blocks = Collections.unmodifiableList(blocks);
+    this.recordCount =
+        blocks.isEmpty()
+            ? 0
+            : blocks.get(blocks.size() - 1).firstRecord()
+                + blocks.get(blocks.size() - 1).recordCount();
+  }
+
+  /** Opens a record file, and finds its blocks. */
+  public static <M extends MessageLite> RecordReader<M> open(
+      final Path path, final Parser<M> parser) throws IOException {
+    final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return new RecordReader<>(channel, parser, findBlocks(channel));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /** The blocks of the file, in file order. */
+  public List<RecordBlock> blocks() {
+    return blocks;
+  }
+
+  /** The total number of records in the file. */
+  public long recordCount() {
+    return recordCount;
+  }
+
+  /** Decodes the records of a block. */
+  public List<M> readBlock(final RecordBlock block) throws IOException {
+    final CodedInputStream input = payloadInput(block);
+    // The record count comes from the index, which is not checksummed, so it doesn't size the list
+    final List<M> records = new ArrayList<>();
+    for (int i = 0; i < block.recordCount(); i++) {
+      final int oldLimit = input.pushLimit(input.readRawVarint32());
+      records.add(parser.parseFrom(input));
+      input.popLimit(oldLimit);
+    }
+    checkAtEnd(input, block);
+    return records;
+  }
+
+  /** Decodes the records of a block into a new columnar batch. */
+  public <B extends ColumnBatch<B>> B readBlock(
+      final RecordBlock block, final Supplier<B> factory) throws IOException {
+    final CodedInputStream input = payloadInput(block);
+    final B batch = factory.get();
+    for (int i = 0; i < block.recordCount(); i++) {
+      final int oldLimit = input.pushLimit(input.readRawVarint32());
+      batch.appendRow(input);
+      input.checkLastTagWas(0);
+      input.popLimit(oldLimit);
+    }
+    checkAtEnd(input, block);
+    return batch;
+  }
+
+  /** Decodes every record of the file in order on the calling thread. */
+  public void forEach(final Consumer<? super M> action) throws IOException {
+    for (final RecordBlock block : blocks) {
+      readBlock(block).forEach(action);
+    }
+  }
+
+  /**
+   * Returns the records of the file in order. Blocks are decoded as the stream reaches them, and
+   * in parallel if the stream is parallel. Read errors are thrown as {@link UncheckedIOException}.
+   */
+  public Stream<M> stream() {
+    return blocks.stream().flatMap(block -> readBlockUnchecked(block).stream());
+  }
+
+  /** Decodes every record of the file in parallel on the common pool. */
+  public List<M> readAllParallel() throws IOException {
+    return readAllParallel(ForkJoinPool.commonPool());
+  }
+
+  /** Decodes every record of the file in parallel on the given pool. */
+  public List<M> readAllParallel(final ForkJoinPool pool) throws IOException {
+    return invoke(
+        pool,
+        new BlockTask<>(
+            blocks,
+            this::readBlock,
+            (left, right) -> {
+              left.addAll(right);
+              return left;
+            },
+            0,
+            blocks.size()),
+        ArrayList::new);
+  }
+
+  /** Decodes every record of the file into a new columnar batch in parallel on the common pool. */
+  public <B extends ColumnBatch<B>> B readBatchParallel(final Supplier<B> factory)
+      throws IOException {
+    return readBatchParallel(factory, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Decodes every record of the file into a new columnar batch in parallel on the given pool. Every
+   * block is decoded into a separate batch, and the batches are then appended to each other in
+   * order.
+   */
+  public <B extends ColumnBatch<B>> B readBatchParallel(
+      final Supplier<B> factory, final ForkJoinPool pool) throws IOException {
+    return invoke(
+        pool,
+        new BlockTask<>(
+            blocks,
+            block -> readBlock(block, factory),
+            (left, right) -> {
+              left.appendAll(right);
+              return left;
+            },
+            0,
+            blocks.size()),
+        factory);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private List<M> readBlockUnchecked(final RecordBlock block) {
+    try {
+      return readBlock(block);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private CodedInputStream payloadInput(final RecordBlock block) throws IOException {
+    final ByteBuffer payload =
+        channel.map(FileChannel.MapMode.READ_ONLY, block.payloadOffset(), block.payloadLength());
+    // The decoder of direct buffers in older protobuf versions reads through Unsafe at addresses
+    // that are not valid on every JVM, so the block is copied out of the mapping in one go instead
+    final byte[] bytes = new byte[block.payloadLength()];
+    payload.get(bytes);
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    if ((int) crc.getValue() != block.checksum()) {
+      throw new IOException("Checksum mismatch in " + block);
+    }
+    final CodedInputStream input = CodedInputStream.newInstance(bytes);
+    input.enableAliasing(true);
+    return input;
+  }
+
+  private static void checkAtEnd(final CodedInputStream input, final RecordBlock block)
+      throws IOException {
+    if (!input.isAtEnd()) {
+      throw new InvalidProtocolBufferException("Unexpected bytes after the records of " + block);
+    }
+  }
+
+  private static <R> R invoke(
+      final ForkJoinPool pool, final BlockTask<R> task, final Supplier<R> empty)
+      throws IOException {
+    if (task.from == task.to) {
+      return empty.get();
+    }
+    try {
+      return pool.invoke(task);
+    } catch (UncheckedIOException e) {
+      // The pool may wrap the exception of another thread into a new one of the same type
+      Throwable cause = e;
+      while (!(cause instanceof IOException)) {
+        cause = cause.getCause();
+      }
+      throw (IOException) cause;
+    }
+  }
+
+  private static List<RecordBlock> findBlocks(final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    final ByteBuffer header = ByteBuffer.allocate(RecordFormat.HEADER_SIZE);
+    RecordFormat.readFully(channel, header, 0);
+    final byte[] magic = Arrays.copyOf(header.array(), RecordFormat.MAGIC.length);
+    if (!Arrays.equals(magic, RecordFormat.MAGIC)) {
+      throw new IOException("Not a record file");
+    }
+    if (header.get(RecordFormat.MAGIC.length) != RecordFormat.VERSION) {
+      throw new IOException("Unsupported record file version " + header.get(magic.length));
+    }
+    final byte[] sync =
+        Arrays.copyOfRange(
+            header.array(),
+            RecordFormat.HEADER_SIZE - RecordFormat.SYNC_SIZE,
+            RecordFormat.HEADER_SIZE);
+
+    if (size >= RecordFormat.HEADER_SIZE + RecordFormat.TRAILER_SIZE) {
+      final ByteBuffer trailer = ByteBuffer.allocate(RecordFormat.TRAILER_SIZE);
+      RecordFormat.readFully(channel, trailer, size - RecordFormat.TRAILER_SIZE);
+      final CodedInputStream input = CodedInputStream.newInstance(trailer.array());
+      final long indexOffset = input.readRawLittleEndian64();
+      final byte[] indexMagic = input.readRawBytes(RecordFormat.INDEX_MAGIC.length);
+      if (Arrays.equals(indexMagic, RecordFormat.INDEX_MAGIC)) {
+        return readIndex(channel, indexOffset, size - RecordFormat.TRAILER_SIZE);
+      }
+    }
+    return scanBlocks(channel, sync, size);
+  }
+
+  private static List<RecordBlock> readIndex(
+      final FileChannel channel, final long indexOffset, final long indexEnd) throws IOException {
+    if (indexOffset < RecordFormat.HEADER_SIZE || indexOffset > indexEnd) {
+      throw new IOException("Corrupt record file index offset " + indexOffset);
+    }
+    final long length = indexEnd - indexOffset;
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Corrupt record file index of " + length + " bytes");
+    }
+    final ByteBuffer index = ByteBuffer.allocate((int) length);
+    RecordFormat.readFully(channel, index, indexOffset);
+    final CodedInputStream input = CodedInputStream.newInstance(index.array());
+    final int count = input.readRawVarint32();
+    if (count < 0
+        || (long) count * RecordFormat.MIN_INDEX_ENTRY_SIZE > length - input.getTotalBytesRead()) {
+      throw new IOException("Corrupt record file index block count " + count);
+    }
+    final List<RecordBlock> blocks = new ArrayList<>();
+    long end = RecordFormat.HEADER_SIZE;
+    long firstRecord = 0;
+    for (int i = 0; i < count; i++) {
+      final long offset = input.readRawLittleEndian64();
+      final int recordCount = input.readRawVarint32();
+      final int payloadLength = input.readRawVarint32();
+      final int checksum = input.readRawLittleEndian32();
+      final long payloadOffset =
+          offset + RecordFormat.blockHeaderSize(recordCount, payloadLength);
+      if (offset < end
+          || recordCount < 0
+          || payloadLength < 0
+          // Every record starts with its length, which takes at least one byte
+          || recordCount > payloadLength
+          || payloadOffset + payloadLength > indexOffset) {
+        throw new IOException("Corrupt record file index entry for block " + i);
+      }
+      blocks.add(
+          new RecordBlock(
+              offset, payloadOffset, payloadLength, recordCount, firstRecord, checksum));
+      end = payloadOffset + payloadLength;
+      firstRecord += recordCount;
+    }
+    if (!input.isAtEnd()) {
+      throw new IOException("Corrupt record file index");
+    }
+    return blocks;
+  }
+
+  /**
+   * Finds the blocks of a file without an index, by following the block headers. Whenever a block
+   * does not start with the sync marker, or its payload does not match its checksum, the search
+   * continues at the next occurrence of the marker, so that damaged parts of the file are skipped.
+   */
+  private static List<RecordBlock> scanBlocks(
+      final FileChannel channel, final byte[] sync, final long size) throws IOException {
+    final List<RecordBlock> blocks = new ArrayList<>();
+    final ByteBuffer header = ByteBuffer.allocate(RecordFormat.MAX_BLOCK_HEADER_SIZE);
+    long position = RecordFormat.HEADER_SIZE;
+    long firstRecord = 0;
+    while (position + RecordFormat.SYNC_SIZE <= size) {
+      header.clear();
+      header.limit((int) Math.min(header.capacity(), size - position));
+      RecordFormat.readFully(channel, header, position);
+      final RecordBlock block = parseBlockHeader(header, sync, position, size, firstRecord);
+      if (block == null
+          || checksum(channel, block.payloadOffset(), block.payloadLength()) != block.checksum()) {
+        // A corrupt length may point anywhere, so search on from the start of this block
+        position = findSync(channel, sync, position + 1, size);
+        continue;
+      }
+      blocks.add(block);
+      position = block.payloadOffset() + block.payloadLength();
+      firstRecord += block.recordCount();
+    }
+    return blocks;
+  }
+
+  private static RecordBlock parseBlockHeader(
+      final ByteBuffer header,
+      final byte[] sync,
+      final long position,
+      final long size,
+      final long firstRecord) {
+    final byte[] bytes = header.array();
+    for (int i = 0; i < RecordFormat.SYNC_SIZE; i++) {
+      if (bytes[i] != sync[i]) {
+        return null;
+      }
+    }
+    final CodedInputStream input =
+        CodedInputStream.newInstance(
+            bytes, RecordFormat.SYNC_SIZE, header.position() - RecordFormat.SYNC_SIZE);
+    final int recordCount;
+    final int payloadLength;
+    final int checksum;
+    try {
+      recordCount = input.readRawVarint32();
+      payloadLength = input.readRawVarint32();
+      checksum = input.readRawLittleEndian32();
+    } catch (IOException e) {
+      return null;
+    }
+    final long payloadOffset = position + RecordFormat.SYNC_SIZE + input.getTotalBytesRead();
+    if (recordCount < 0 || payloadLength < 0 || payloadOffset + payloadLength > size) {
+      return null;
+    }
+    return new RecordBlock(
+        position, payloadOffset, payloadLength, recordCount, firstRecord, checksum);
+  }
+
+  /** Computes the checksum of a payload, reading it in chunks. */
+  private static int checksum(final FileChannel channel, final long offset, final int length)
+      throws IOException {
+    final ByteBuffer chunk = ByteBuffer.allocate(Math.min(SCAN_CHUNK_SIZE, length));
+    final CRC32 crc = new CRC32();
+    long position = offset;
+    final long end = offset + length;
+    while (position < end) {
+      chunk.clear();
+      chunk.limit((int) Math.min(chunk.capacity(), end - position));
+      RecordFormat.readFully(channel, chunk, position);
+      crc.update(chunk.array(), 0, chunk.position());
+      position += chunk.position();
+    }
+    return (int) crc.getValue();
+  }
+
+  /** Returns the position of the next sync marker at or after {@code from}, or {@code size}. */
+  private static long findSync(
+      final FileChannel channel, final byte[] sync, final long from, final long size)
+      throws IOException {
+    final ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK_SIZE);
+    final byte[] bytes = chunk.array();
+    long position = from;
+    while (position + sync.length <= size) {
+      chunk.clear();
+      chunk.limit((int) Math.min(chunk.capacity(), size - position));
+      RecordFormat.readFully(channel, chunk, position);
+      final int last = chunk.position() - sync.length;
+      search:
+      for (int i = 0; i <= last; i++) {
+        for (int j = 0; j < sync.length; j++) {
+          if (bytes[i + j] != sync[j]) {
+            continue search;
+          }
+        }
+        return position + i;
+      }
+      // Markers may straddle two chunks
+      position += last + 1;
+    }
+    return size;
+  }
+
+  @FunctionalInterface
+  private interface BlockDecoder<R> {
+    R decode(RecordBlock block) throws IOException;
+  }
+
+  private static final class BlockTask<R> extends RecursiveTask<R> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<RecordBlock> blocks;
+    private final transient BlockDecoder<R> decoder;
+    private final transient BinaryOperator<R> combiner;
+    private final int from;
+    private final int to;
+
+    BlockTask(
+        final List<RecordBlock> blocks,
+        final BlockDecoder<R> decoder,
+        final BinaryOperator<R> combiner,
+        final int from,
+        final int to) {
+      this.blocks = blocks;
+      this.decoder = decoder;
+      this.combiner = combiner;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected R compute() {
+      if (to - from == 1) {
+        try {
+          return decoder.decode(blocks.get(from));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+      final int middle = (from + to) >>> 1;
+      final BlockTask<R> right = new BlockTask<>(blocks, decoder, combiner, middle, to);
+      right.fork();
+      final R left = new BlockTask<>(blocks, decoder, combiner, from, middle).compute();
+      return combiner.apply(left, right.join());
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package io.dflemstr.auto.protobuf.runtime.records;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import io.dflemstr.auto.protobuf.runtime.metrics.MessageMetrics;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * Writes messages to a record file. Messages are buffered until a block is full, and the block
+ * index is written when the writer is closed. A file that was not closed can still be read, up to
+ * its last complete block.
+ *
+ * <p>Writers are not thread-safe.
+ *
+ * @param <M> the type of the records
+ */
+public final class RecordWriter<M extends MessageLite> implements Closeable {
+
+  /** The number of bytes of records that a block is filled with, unless otherwise specified. */
+  public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+  private static final int MAX_VARINT_SIZE = 5;
+
+  private final FileChannel channel;
+  private final byte[] sync;
+  private final int blockSize;
+  private final List<RecordBlock> blocks = new ArrayList<>();
+  private final CRC32 crc = new CRC32();
+  @Nullable private final MessageMetrics metrics;
+  private byte[] buffer;
+  private int length;
+  private int blockRecords;
+  private long recordCount;
+  private long position;
+  private boolean closed;
+
+  private RecordWriter(
+      final FileChannel channel,
+      final byte[] sync,
+      final int blockSize,
+      @Nullable final MessageMetrics metrics) {
+    this.channel = channel;
+    this.sync = sync;
+    this.blockSize = blockSize;
+    this.metrics = MessageMetrics.ENABLED ? metrics : null;
+    this.buffer = new byte[Math.min(blockSize, 1 << 16) + MAX_VARINT_SIZE];
+  }
+
+  /** Creates a writer of a new file, or replaces an existing file, with the default block size. */
+  public static <M extends MessageLite> RecordWriter<M> create(final Path path)
+      throws IOException {
+    return create(path, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Creates a writer of a new file, or replaces an existing file. A block is written as soon as its
+   * records take up at least {@code blockSize} bytes; larger blocks compress the index, smaller
+   * blocks can be spread over more threads when reading.
+   */
+  public static <M extends MessageLite> RecordWriter<M> create(
+      final Path path, final int blockSize) throws IOException {
+    return create(path, blockSize, null);
+  }
+
+  /**
+   * Creates a writer of a new file, or replaces an existing file, which counts the messages it
+   * writes in the given metrics. Encoded messages that are written as arrays are not counted.
+   */
+  public static <M extends MessageLite> RecordWriter<M> create(
+      final Path path, final int blockSize, @Nullable final MessageMetrics metrics)
+      throws IOException {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    }
+    final byte[] sync = new byte[RecordFormat.SYNC_SIZE];
+    ThreadLocalRandom.current().nextBytes(sync);
+    final FileChannel channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    final RecordWriter<M> writer = new RecordWriter<>(channel, sync, blockSize, metrics);
+    try {
+      writer.writeHeader();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return writer;
+  }
+
+  /** Appends a message to the current block. */
+  public void write(final M message) throws IOException {
+    checkOpen();
+    final int size = message.getSerializedSize();
+    final CodedOutputStream output = reserve(size);
+    output.writeUInt32NoTag(size);
+    message.writeTo(output);
+    commit(output);
+    if (metrics != null) {
+      metrics.recordSerialize(size);
+    }
+  }
+
+  /** Appends an encoded message to the current block, without checking that it is valid. */
+  public void write(final byte[] encoded) throws IOException {
+    checkOpen();
+    final CodedOutputStream output = reserve(encoded.length);
+    output.writeUInt32NoTag(encoded.length);
+    output.writeRawBytes(encoded);
+    commit(output);
+  }
+
+  /** The number of messages written so far. */
+  public long recordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Writes the current block, even if it is not full, so that the records written so far can be
+   * read if the writer is not closed.
+   */
+  public void flush() throws IOException {
+    checkOpen();
+    if (blockRecords > 0) {
+      writeBlock();
+    }
+  }
+
+  /** Writes the last block and the block index, and closes the file. */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (blockRecords > 0) {
+        writeBlock();
+      }
+      writeIndex();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private CodedOutputStream reserve(final int size) {
+    final int required = length + MAX_VARINT_SIZE + size;
+    if (required > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+    }
+    return CodedOutputStream.newInstance(buffer, length, buffer.length - length);
+  }
+
+  private void commit(final CodedOutputStream output) throws IOException {
+    length = buffer.length - output.spaceLeft();
+    blockRecords++;
+    recordCount++;
+    if (length >= blockSize) {
+      writeBlock();
+    }
+  }
+
+  private void writeHeader() throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(RecordFormat.HEADER_SIZE);
+    header.put(RecordFormat.MAGIC).put(RecordFormat.VERSION).put(sync).flip();
+    RecordFormat.writeFully(channel, header);
+    position = RecordFormat.HEADER_SIZE;
+  }
+
+  private void writeBlock() throws IOException {
+    crc.reset();
+    crc.update(buffer, 0, length);
+    final int checksum = (int) crc.getValue();
+
+    final byte[] header = new byte[RecordFormat.blockHeaderSize(blockRecords, length)];
+    final CodedOutputStream output = CodedOutputStream.newInstance(header);
+    output.writeRawBytes(sync);
+    output.writeUInt32NoTag(blockRecords);
+    output.writeUInt32NoTag(length);
+    output.writeFixed32NoTag(checksum);
+    output.checkNoSpaceLeft();
+
+    RecordFormat.writeFully(channel, ByteBuffer.wrap(header));
+    RecordFormat.writeFully(channel, ByteBuffer.wrap(buffer, 0, length));
+    blocks.add(
+        new RecordBlock(
+            position,
+            position + header.length,
+            length,
+            blockRecords,
+            recordCount - blockRecords,
+            checksum));
+    position += header.length + length;
+    length = 0;
+    blockRecords = 0;
+  }
+
+  private void writeIndex() throws IOException {
+    int size = CodedOutputStream.computeUInt32SizeNoTag(blocks.size());
+    for (final RecordBlock block : blocks) {
+      size +=
+          8
+              + CodedOutputStream.computeUInt32SizeNoTag(block.recordCount())
+              + CodedOutputStream.computeUInt32SizeNoTag(block.payloadLength())
+              + 4;
+    }
+    final byte[] index = new byte[size + RecordFormat.TRAILER_SIZE];
+    final CodedOutputStream output = CodedOutputStream.newInstance(index);
+    output.writeUInt32NoTag(blocks.size());
+    for (final RecordBlock block : blocks) {
+      output.writeFixed64NoTag(block.offset());
+      output.writeUInt32NoTag(block.recordCount());
+      output.writeUInt32NoTag(block.payloadLength());
+      output.writeFixed32NoTag(block.checksum());
+    }
+    output.writeFixed64NoTag(position);
+    output.writeRawBytes(RecordFormat.INDEX_MAGIC);
+    output.checkNoSpaceLeft();
+    RecordFormat.writeFully(channel, ByteBuffer.wrap(index));
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("The record writer is closed");
+    }
+  }
+}
@@ -0,0 +1,11 @@
+/**
+ * Support code for the record files generated with {@code AutoProtobuf.recordFiles}. A {@link
+ * io.dflemstr.auto.protobuf.runtime.records.RecordWriter} stores length-delimited messages in
+ * blocks that start with a sync marker and are listed in an index at the end of the file, and a
+ * {@link io.dflemstr.auto.protobuf.runtime.records.RecordReader} maps the blocks into memory and
+ * decodes them independently of each other.
+ */
+@ParametersAreNonnullByDefault
+package io.dflemstr.auto.protobuf.runtime.records;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -0,0 +1,328 @@
+package io.dflemstr.auto.protobuf.runtime.arena;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class ArenaTest {
+
+  @Test
+  public void reusesReleasedHolders() {
+    final Arena arena = Arena.create();
+    final TimestampHolder first = arena.allocate(TimestampHolder.TYPE);
+    first.seconds = 12;
+    first.nanos = 34;
+    assertEquals(1, arena.liveCount());
+
+    arena.release();
+    assertEquals(0, arena.liveCount());
+    assertEquals(0, first.seconds);
+    assertEquals(0, first.nanos);
+
+    final TimestampHolder second = arena.allocate(TimestampHolder.TYPE);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void handsOutDistinctLiveHolders() {
+    final Arena arena = Arena.create();
+    final Map<MessageHolder, Boolean> seen = new IdentityHashMap<>();
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 100; i++) {
+        seen.put(arena.allocate(TimestampHolder.TYPE), true);
+        seen.put(arena.allocate(SpanHolder.TYPE), true);
+      }
+      assertEquals(200, arena.liveCount());
+      arena.release();
+    }
+    // Every round reuses the holders of the previous one
+    assertEquals(200, seen.size());
+  }
+
+  @Test
+  public void keepsHolderTypesApart() {
+    final Arena arena = Arena.create();
+    final TimestampHolder timestamp = arena.allocate(TimestampHolder.TYPE);
+    arena.release();
+
+    final SpanHolder span = arena.allocate(SpanHolder.TYPE);
+    assertSame(timestamp, arena.allocate(TimestampHolder.TYPE));
+    assertNotSame(timestamp, span.start);
+  }
+
+  @Test
+  public void parsesIntoRecycledHoldersLikeIntoNewOnes() throws IOException {
+    final SpanHolder expected = new SpanHolder();
+    expected.start.seconds = 1500000000L;
+    expected.start.nanos = 1;
+    expected.addMark(2, 3);
+    expected.addMark(4, 5);
+    final byte[] bytes = expected.toByteArray();
+
+    final Arena arena = Arena.create();
+    final SpanHolder large = arena.allocate(SpanHolder.TYPE);
+    for (int i = 0; i < 10; i++) {
+      large.addMark(i, i);
+    }
+    large.start.seconds = 99;
+    arena.release();
+
+    final SpanHolder recycled = arena.allocate(SpanHolder.TYPE);
+    assertSame(large, recycled);
+    final TimestampHolder firstMark = recycled.marks.add();
+    recycled.clear();
+    recycled.mergeFrom(bytes);
+    assertEquals(2, recycled.marks.size());
+    assertSame(firstMark, recycled.marks.get(0));
+    assertArrayEquals(bytes, recycled.toByteArray());
+  }
+
+  @Test
+  public void readsAndWritesTheWireFormat() throws IOException {
+    final Timestamp timestamp = Timestamp.newBuilder().setSeconds(-5L).setNanos(7).build();
+    final TimestampHolder holder = Arena.create().allocate(TimestampHolder.TYPE);
+    holder.mergeFrom(timestamp.toByteString());
+    assertEquals(-5L, holder.seconds);
+    assertEquals(7, holder.nanos);
+    assertEquals(timestamp.getSerializedSize(), holder.getSerializedSize());
+    assertEquals(timestamp, Timestamp.parseFrom(holder.toByteArray()));
+  }
+
+  @Test
+  public void limitsTheNestingDepth() throws IOException {
+    final ChainHolder holder = new ChainHolder();
+    holder.mergeFrom(nestedChain(MessageHolder.RECURSION_LIMIT));
+    assertEquals(MessageHolder.RECURSION_LIMIT, holder.length());
+
+    for (final int depth : new int[] {MessageHolder.RECURSION_LIMIT + 1, 100000}) {
+      try {
+        new ChainHolder().mergeFrom(nestedChain(depth));
+        fail("Parsed a message nested " + depth + " levels deep");
+      } catch (InvalidProtocolBufferException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test
+  public void keepsALocalArenaPerThread() throws Exception {
+    final Arena local = Arena.local();
+    final TimestampHolder holder;
+    try (Arena arena = Arena.local()) {
+      assertSame(local, arena);
+      holder = arena.allocate(TimestampHolder.TYPE);
+    }
+    assertEquals(0, local.liveCount());
+    assertSame(holder, local.allocate(TimestampHolder.TYPE));
+    local.release();
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<Arena> other = executor.submit(Arena::local);
+      assertNotSame(local, other.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /** A hand-written holder with the same wire format as {@link Timestamp}. */
+  static final class TimestampHolder extends MessageHolder {
+    static final HolderType<TimestampHolder> TYPE = HolderType.of(TimestampHolder::new);
+
+    long seconds;
+    int nanos;
+
+    @Override
+    public void clear() {
+      seconds = 0;
+      nanos = 0;
+    }
+
+    @Override
+    protected void mergeFields(final CodedInputStream input, final int depth) throws IOException {
+      while (true) {
+        final int tag = input.readTag();
+        switch (tag) {
+          case 0:
+            return;
+          case 8:
+            seconds = input.readInt64();
+            break;
+          case 16:
+            nanos = input.readInt32();
+            break;
+          default:
+            if (!input.skipField(tag)) {
+              return;
+            }
+            break;
+        }
+      }
+    }
+
+    @Override
+    protected int computeSerializedSize() {
+      int size = 0;
+      if (seconds != 0) {
+        size += CodedOutputStream.computeInt64Size(1, seconds);
+      }
+      if (nanos != 0) {
+        size += CodedOutputStream.computeInt32Size(2, nanos);
+      }
+      return size;
+    }
+
+    @Override
+    protected void writeFields(final CodedOutputStream output) throws IOException {
+      if (seconds != 0) {
+        output.writeInt64(1, seconds);
+      }
+      if (nanos != 0) {
+        output.writeInt32(2, nanos);
+      }
+    }
+  }
+
+  /** Encodes a {@link ChainHolder} with the given number of nested links. */
+  private static byte[] nestedChain(final int depth) throws IOException {
+    final int[] sizes = new int[depth + 1];
+    for (int i = depth - 1; i >= 0; i--) {
+      sizes[i] = 1 + CodedOutputStream.computeUInt32SizeNoTag(sizes[i + 1]) + sizes[i + 1];
+    }
+    final byte[] result = new byte[sizes[0]];
+    final CodedOutputStream output = CodedOutputStream.newInstance(result);
+    for (int i = 1; i <= depth; i++) {
+      output.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+      output.writeUInt32NoTag(sizes[i]);
+    }
+    output.checkNoSpaceLeft();
+    return result;
+  }
+
+  /** A hand-written holder of a recursive message, which links to the next one. */
+  static final class ChainHolder extends MessageHolder {
+    ChainHolder next;
+
+    int length() {
+      return next == null ? 0 : 1 + next.length();
+    }
+
+    @Override
+    public void clear() {
+      next = null;
+    }
+
+    @Override
+    protected void mergeFields(final CodedInputStream input, final int depth) throws IOException {
+      while (true) {
+        final int tag = input.readTag();
+        switch (tag) {
+          case 0:
+            return;
+          case 10:
+            if (next == null) {
+              next = new ChainHolder();
+            }
+            readMessage(input, next, depth);
+            break;
+          default:
+            if (!input.skipField(tag)) {
+              return;
+            }
+            break;
+        }
+      }
+    }
+
+    @Override
+    protected int computeSerializedSize() {
+      return next == null
+          ? 0
+          : CodedOutputStream.computeTagSize(1) + computeMessageSizeNoTag(next);
+    }
+
+    @Override
+    protected void writeFields(final CodedOutputStream output) throws IOException {
+      if (next != null) {
+        output.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        writeMessageNoTag(output, next);
+      }
+    }
+  }
+
+  /** A hand-written holder with a nested and a repeated message field. */
+  static final class SpanHolder extends MessageHolder {
+    static final HolderType<SpanHolder> TYPE = HolderType.of(SpanHolder::new);
+
+    final TimestampHolder start = new TimestampHolder();
+    final HolderArray<TimestampHolder> marks = new HolderArray<>(TimestampHolder::new);
+
+    void addMark(final long seconds, final int nanos) {
+      final TimestampHolder mark = marks.add();
+      mark.seconds = seconds;
+      mark.nanos = nanos;
+    }
+
+    @Override
+    public void clear() {
+      start.clear();
+      marks.clear();
+    }
+
+    @Override
+    protected void mergeFields(final CodedInputStream input, final int depth) throws IOException {
+      while (true) {
+        final int tag = input.readTag();
+        switch (tag) {
+          case 0:
+            return;
+          case 10:
+            readMessage(input, start, depth);
+            break;
+          case 18:
+            readMessage(input, marks.add(), depth);
+            break;
+          default:
+            if (!input.skipField(tag)) {
+              return;
+            }
+            break;
+        }
+      }
+    }
+
+    @Override
+    protected int computeSerializedSize() {
+      int size = CodedOutputStream.computeTagSize(1) + computeMessageSizeNoTag(start);
+      for (int i = 0; i < marks.size(); i++) {
+        size += CodedOutputStream.computeTagSize(2) + computeMessageSizeNoTag(marks.get(i));
+      }
+      return size;
+    }
+
+    @Override
+    protected void writeFields(final CodedOutputStream output) throws IOException {
+      output.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+      writeMessageNoTag(output, start);
+      for (int i = 0; i < marks.size(); i++) {
+        output.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        writeMessageNoTag(output, marks.get(i));
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package io.dflemstr.auto.protobuf.runtime.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.DoubleValue;
+import com.google.protobuf.Duration;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.Message;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.UInt32Value;
+import com.google.protobuf.UInt64Value;
+import com.google.protobuf.Value;
+import com.google.protobuf.util.JsonFormat;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class JsonReaderTest {
+
+  @Test
+  public void readsWhatJsonFormatPrints() throws IOException {
+    final Timestamp timestamp = Timestamp.newBuilder().setSeconds(1500000000L).setNanos(5).build();
+    assertEquals(timestamp, WellKnownJson.readTimestamp(JsonReader.create(print(timestamp))));
+
+    final Duration duration = Duration.newBuilder().setSeconds(-7L).setNanos(-250000000).build();
+    assertEquals(duration, WellKnownJson.readDuration(JsonReader.create(print(duration))));
+
+    final FieldMask mask = FieldMask.newBuilder().addPaths("foo_bar.baz").addPaths("q").build();
+    assertEquals(mask, WellKnownJson.readFieldMask(JsonReader.create(print(mask))));
+
+    final Struct struct =
+        Struct.newBuilder()
+            .putFields("a", Value.newBuilder().setNumberValue(-0.25).build())
+            .putFields("b\n\"", Value.newBuilder().setStringValue("\u2028😀").build())
+            .putFields(
+                "c",
+                Value.newBuilder()
+                    .setListValue(
+                        ListValue.newBuilder()
+                            .addValues(Value.newBuilder().setBoolValue(false))
+                            .addValues(Value.newBuilder().setStructValue(Struct.newBuilder())))
+                    .build())
+            .build();
+    assertEquals(struct, WellKnownJson.readStruct(JsonReader.create(print(struct))));
+  }
+
+  @Test
+  public void convertsScalarsLikeJsonFormat() throws IOException {
+    final String[] inputs = {
+      "0", "-1", "\"12\"", "1e2", "1.0", "\"-3.0e0\"", "1.5", "2147483647", "2147483648",
+      "-2147483649", "4294967295", "4294967296", "9223372036854775807", "9223372036854775808",
+      "18446744073709551615", "18446744073709551616", "\"\"", "\"x\"", "true", "null", "01"
+    };
+    for (final String input : inputs) {
+      assertSameResult(
+          input, Int32Value.newBuilder(), in -> Int32Value.newBuilder().setValue(in.nextInt()));
+      assertSameResult(
+          input,
+          UInt32Value.newBuilder(),
+          in -> UInt32Value.newBuilder().setValue(in.nextUnsignedInt()));
+      assertSameResult(
+          input, Int64Value.newBuilder(), in -> Int64Value.newBuilder().setValue(in.nextLong()));
+      assertSameResult(
+          input,
+          UInt64Value.newBuilder(),
+          in -> UInt64Value.newBuilder().setValue(in.nextUnsignedLong()));
+      assertSameResult(
+          input,
+          DoubleValue.newBuilder(),
+          in -> DoubleValue.newBuilder().setValue(in.nextDouble()));
+    }
+  }
+
+  @Test
+  public void keepsTheSignOfNegativeZero() throws IOException {
+    // JsonFormat parses through BigDecimal, which turns what it prints for -0.0 back into 0.0
+    assertEquals(
+        Double.doubleToLongBits(-0.0),
+        Double.doubleToLongBits(JsonReader.create("-0").nextDouble()));
+    assertEquals(
+        Double.doubleToLongBits(-0.0),
+        Double.doubleToLongBits(JsonReader.create("\"-0.0\"").nextDouble()));
+    assertEquals(0, JsonReader.create("-0").nextInt());
+  }
+
+  @Test
+  public void readsEscapes() throws IOException {
+    final String json = "\"\\\"\\\\\\/\\b\\f\\n\\r\\t\\u00e9\\ud83d\\ude00 \\u2028\"";
+    final StringValue.Builder expected = StringValue.newBuilder();
+    JsonFormat.parser().merge(json, expected);
+    assertEquals(expected.getValue(), JsonReader.create(json).nextString());
+  }
+
+  @Test
+  public void readsAcrossBufferBoundaries() throws IOException {
+    final StringBuilder value = new StringBuilder();
+    while (value.length() < 20000) {
+      value.append("abc\\n\\u00e9");
+    }
+    final String json = "[\"" + value + "\", 12345]";
+    final StringValue.Builder expected = StringValue.newBuilder();
+    JsonFormat.parser().merge("\"" + value + "\"", expected);
+
+    final JsonReader in = JsonReader.create(json);
+    in.beginArray();
+    assertEquals(expected.getValue(), in.nextString());
+    assertEquals(12345, in.nextInt());
+    in.endArray();
+    in.endDocument();
+  }
+
+  @Test
+  public void skipsUnknownFieldsOnlyWhenIgnoring() throws IOException {
+    final String json = "{\"unknown\": {\"a\": [1, {\"b\": null}, \"c\"]}, \"known\": 1}";
+
+    final JsonReader ignoring = JsonReader.create(json).setIgnoringUnknownFields(true);
+    ignoring.beginObject();
+    assertEquals("unknown", ignoring.nextName());
+    ignoring.skipUnknownField("test.Message", "unknown");
+    assertEquals("known", ignoring.nextName());
+    assertEquals(1, ignoring.nextInt());
+    ignoring.endObject();
+    ignoring.endDocument();
+
+    final JsonReader strict = JsonReader.create(json);
+    strict.beginObject();
+    strict.nextName();
+    try {
+      strict.skipUnknownField("test.Message", "unknown");
+      fail("Expected an exception");
+    } catch (InvalidProtocolBufferException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Cannot find field: unknown"));
+    }
+  }
+
+  @Test
+  public void copiesValuesVerbatim() throws IOException {
+    final String json = "{\"a\":[1.50,-0,\"s\",true,null,{}],\"b\":{\"c\":1e3}}";
+    final JsonReader in = JsonReader.create(json);
+    final StringWriter copy = new StringWriter();
+    final JsonWriter out = new JsonWriter(copy);
+    in.copyValue(out);
+    out.flush();
+    in.endDocument();
+    assertEquals(json, copy.toString());
+  }
+
+  @Test
+  public void rejectsMalformedDocuments() throws IOException {
+    final String[] documents = {
+      "", "{", "[1,]", "{\"a\" 1}", "{\"a\":1,}", "[1 2]", "\"unterminated", "tru", "{} {}",
+      "{'a':1}", "[\"\\x\"]", "[1]]"
+    };
+    for (final String document : documents) {
+      try {
+        final JsonReader in = JsonReader.create(document);
+        in.skipValue();
+        in.endDocument();
+        fail("Expected an exception for " + document);
+      } catch (InvalidProtocolBufferException e) {
+        assertTrue(e.getMessage(), e.getMessage().contains("(at character "));
+      }
+    }
+  }
+
+  @Test
+  public void skipsNulls() throws IOException {
+    final JsonReader in = JsonReader.create("[null, 1]");
+    in.beginArray();
+    assertTrue(in.skipNull());
+    assertFalse(in.skipNull());
+    assertEquals(1, in.nextInt());
+    in.endArray();
+  }
+
+  private static String print(final Message message) throws IOException {
+    return JsonFormat.printer().print(message);
+  }
+
+  /**
+   * Checks that reading a scalar either succeeds with the same value as {@link JsonFormat}, or
+   * fails like it does.
+   */
+  private static void assertSameResult(
+      final String input, final Message.Builder expected, final ReadAction action)
+      throws IOException {
+    boolean expectedFailure = false;
+    try {
+      JsonFormat.parser().merge(input, expected);
+    } catch (InvalidProtocolBufferException | RuntimeException e) {
+      expectedFailure = true;
+    }
+
+    final Message.Builder actual;
+    try {
+      final JsonReader in = JsonReader.create(input);
+      actual = action.read(in);
+      in.endDocument();
+    } catch (InvalidProtocolBufferException e) {
+      assertTrue("Unexpected failure for " + input + ": " + e.getMessage(), expectedFailure);
+      return;
+    }
+    assertFalse("Expected a failure for " + input, expectedFailure);
+    assertEquals(input, expected.build(), actual.build());
+  }
+
+  private interface ReadAction {
+    Message.Builder read(JsonReader in) throws IOException;
+  }
+}
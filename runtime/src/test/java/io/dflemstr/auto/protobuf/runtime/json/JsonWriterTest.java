@@ -0,0 +1,189 @@
+package io.dflemstr.auto.protobuf.runtime.json;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.BytesValue;
+import com.google.protobuf.DoubleValue;
+import com.google.protobuf.Duration;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.FloatValue;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.ListValue;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.NullValue;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Struct;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.UInt32Value;
+import com.google.protobuf.UInt64Value;
+import com.google.protobuf.Value;
+import com.google.protobuf.util.JsonFormat;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+  @Test
+  public void writesStringsLikeJsonFormat() throws IOException {
+    final String[] strings = {
+      "", "plain", "quote \" and backslash \\", "\b\f\n\r\t\u0000\u001f\u007f", "<tag> & 'apos' =",
+      "  ", "é中", "😀", "\ud800 unpaired"
+    };
+    for (final String string : strings) {
+      final StringValue value = StringValue.newBuilder().setValue(string).build();
+      assertEquals(print(value), write(out -> WellKnownJson.writeStringValue(value, out)));
+    }
+  }
+
+  @Test
+  public void writesNumbersLikeJsonFormat() throws IOException {
+    final double[] doubles = {
+      0.0, -0.0, 1.5, -2.0, 1e300, 1e-7, 123456789.0, 0.1, Double.MIN_VALUE, Double.MAX_VALUE,
+      Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+    for (final double number : doubles) {
+      final DoubleValue value = DoubleValue.newBuilder().setValue(number).build();
+      assertEquals(print(value), write(out -> WellKnownJson.writeDoubleValue(value, out)));
+    }
+
+    final float[] floats = {0.0f, 1.1f, -3.5e-3f, 1e30f, Float.MAX_VALUE, Float.NaN};
+    for (final float number : floats) {
+      final FloatValue value = FloatValue.newBuilder().setValue(number).build();
+      assertEquals(print(value), write(out -> WellKnownJson.writeFloatValue(value, out)));
+    }
+
+    final long[] longs = {0L, 1L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 53};
+    for (final long number : longs) {
+      final Int64Value signed = Int64Value.newBuilder().setValue(number).build();
+      assertEquals(print(signed), write(out -> WellKnownJson.writeInt64Value(signed, out)));
+      final UInt64Value unsigned = UInt64Value.newBuilder().setValue(number).build();
+      assertEquals(print(unsigned), write(out -> WellKnownJson.writeUInt64Value(unsigned, out)));
+      final UInt32Value unsigned32 = UInt32Value.newBuilder().setValue((int) number).build();
+      assertEquals(
+          print(unsigned32), write(out -> WellKnownJson.writeUInt32Value(unsigned32, out)));
+    }
+  }
+
+  @Test
+  public void writesBytesLikeJsonFormat() throws IOException {
+    for (int length = 0; length < 8; length++) {
+      final byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        bytes[i] = (byte) (i * 97 - 3);
+      }
+      final BytesValue value = BytesValue.newBuilder().setValue(ByteString.copyFrom(bytes)).build();
+      assertEquals(print(value), write(out -> WellKnownJson.writeBytesValue(value, out)));
+    }
+  }
+
+  @Test
+  public void writesWellKnownTypesLikeJsonFormat() throws IOException {
+    final Timestamp[] timestamps = {
+      Timestamp.getDefaultInstance(),
+      Timestamp.newBuilder().setSeconds(1500000000L).setNanos(123000000).build(),
+      Timestamp.newBuilder().setSeconds(-62135596800L).setNanos(1000).build(),
+      Timestamp.newBuilder().setSeconds(253402300799L).setNanos(999999999).build()
+    };
+    for (final Timestamp timestamp : timestamps) {
+      assertEquals(print(timestamp), write(out -> WellKnownJson.writeTimestamp(timestamp, out)));
+    }
+
+    final Duration[] durations = {
+      Duration.getDefaultInstance(),
+      Duration.newBuilder().setSeconds(-3L).setNanos(-500).build(),
+      Duration.newBuilder().setNanos(-1000000).build(),
+      Duration.newBuilder().setSeconds(315576000000L).build()
+    };
+    for (final Duration duration : durations) {
+      assertEquals(print(duration), write(out -> WellKnownJson.writeDuration(duration, out)));
+    }
+
+    final FieldMask mask =
+        FieldMask.newBuilder().addPaths("foo_bar.baz").addPaths("qux").addPaths("a_b_c").build();
+    assertEquals(print(mask), write(out -> WellKnownJson.writeFieldMask(mask, out)));
+
+    final Struct struct =
+        Struct.newBuilder()
+            .putFields("null", Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+            .putFields("number", Value.newBuilder().setNumberValue(2.5).build())
+            .putFields("string", Value.newBuilder().setStringValue("s").build())
+            .putFields("bool", Value.newBuilder().setBoolValue(true).build())
+            .putFields(
+                "list",
+                Value.newBuilder()
+                    .setListValue(
+                        ListValue.newBuilder()
+                            .addValues(Value.newBuilder().setNumberValue(1))
+                            .addValues(
+                                Value.newBuilder().setStructValue(Struct.getDefaultInstance())))
+                    .build())
+            .build();
+    assertEquals(print(struct), write(out -> WellKnownJson.writeStruct(struct, out)));
+  }
+
+  @Test
+  public void separatesMembersAndElements() throws IOException {
+    assertEquals(
+        "{\"a\":[1,[],{}],\"b\":{\"c\":null},\"d\":\"1\"}",
+        write(
+            out ->
+                out.beginObject()
+                    .name("a")
+                    .beginArray()
+                    .value(1)
+                    .beginArray()
+                    .endArray()
+                    .beginObject()
+                    .endObject()
+                    .endArray()
+                    .name("b")
+                    .beginObject()
+                    .name("c")
+                    .nullValue()
+                    .endObject()
+                    .name("d")
+                    .quotedValue(1L)
+                    .endObject()));
+  }
+
+  @Test
+  public void writesDeeplyNestedDocuments() throws IOException {
+    final int depth = 100;
+    final StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      expected.append('[');
+    }
+    for (int i = 0; i < depth; i++) {
+      expected.append(']');
+    }
+    assertEquals(
+        expected.toString(),
+        write(
+            out -> {
+              for (int i = 0; i < depth; i++) {
+                out.beginArray();
+              }
+              for (int i = 0; i < depth; i++) {
+                out.endArray();
+              }
+            }));
+  }
+
+  private static String print(final MessageOrBuilder message) throws IOException {
+    return JsonFormat.printer().omittingInsignificantWhitespace().print(message);
+  }
+
+  private static String write(final WriteAction action) throws IOException {
+    final StringWriter out = new StringWriter();
+    final JsonWriter writer = new JsonWriter(out);
+    action.writeTo(writer);
+    writer.flush();
+    return out.toString();
+  }
+
+  private interface WriteAction {
+    void writeTo(JsonWriter out) throws IOException;
+  }
+}
@@ -0,0 +1,306 @@
+package io.dflemstr.auto.protobuf.runtime.records;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Timestamp;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RecordReaderTest {
+
+  private static final int RECORD_COUNT = 1000;
+  private static final int BLOCK_SIZE = 256;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path path;
+  private List<Timestamp> records;
+
+  @Before
+  public void setUp() throws IOException {
+    path = folder.newFile("records").toPath();
+    records = new ArrayList<>();
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      records.add(Timestamp.newBuilder().setSeconds(i * 7919L).setNanos(i).build());
+    }
+  }
+
+  @Test
+  public void readsWhatWasWritten() throws IOException {
+    writeAll();
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertTrue(reader.blocks().size() > 1);
+      assertEquals(RECORD_COUNT, reader.recordCount());
+      assertEquals(records, reader.readAllParallel());
+      assertEquals(records, reader.stream().parallel().collect(Collectors.toList()));
+
+      final List<Timestamp> sequential = new ArrayList<>();
+      reader.forEach(sequential::add);
+      assertEquals(records, sequential);
+    }
+  }
+
+  @Test
+  public void readsEmptyFiles() throws IOException {
+    RecordWriter.<Timestamp>create(path, BLOCK_SIZE).close();
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertEquals(0, reader.blocks().size());
+      assertEquals(0, reader.recordCount());
+      assertEquals(new ArrayList<>(), reader.readAllParallel());
+    }
+  }
+
+  @Test
+  public void readsFlushedBlocksOfFilesThatAreNotClosed() throws IOException {
+    try (RecordWriter<Timestamp> writer = RecordWriter.create(path, BLOCK_SIZE)) {
+      for (final Timestamp record : records) {
+        writer.write(record);
+      }
+      writer.flush();
+      try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+        assertEquals(records, reader.readAllParallel());
+      }
+    }
+  }
+
+  @Test
+  public void recoversBlocksBeforeATruncatedBlock() throws IOException {
+    final List<RecordBlock> blocks = writeAll();
+    final RecordBlock last = blocks.get(blocks.size() - 1);
+    truncate(last.payloadOffset() + last.payloadLength() / 2);
+
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertEquals(blocks.size() - 1, reader.blocks().size());
+      assertEquals(last.firstRecord(), reader.recordCount());
+      assertEquals(records.subList(0, (int) last.firstRecord()), reader.readAllParallel());
+    }
+  }
+
+  @Test
+  public void recoversEveryBlockOfATruncatedIndex() throws IOException {
+    final List<RecordBlock> blocks = writeAll();
+    final RecordBlock last = blocks.get(blocks.size() - 1);
+    truncate(last.payloadOffset() + last.payloadLength() + 3);
+
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertEquals(blocks.size(), reader.blocks().size());
+      assertEquals(records, reader.readAllParallel());
+    }
+  }
+
+  @Test
+  public void skipsBlocksWithADamagedHeaderWhenScanning() throws IOException {
+    final List<RecordBlock> blocks = writeAll();
+    final RecordBlock damaged = blocks.get(2);
+    flipByte(damaged.offset());
+    final RecordBlock last = blocks.get(blocks.size() - 1);
+    truncate(last.payloadOffset() + last.payloadLength());
+
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertEquals(blocks.size() - 1, reader.blocks().size());
+      assertEquals(without(damaged), reader.readAllParallel());
+    }
+  }
+
+  @Test
+  public void detectsCorruptPayloads() throws IOException {
+    final List<RecordBlock> blocks = writeAll();
+    final RecordBlock corrupt = blocks.get(1);
+    flipByte(corrupt.payloadOffset() + corrupt.payloadLength() / 2);
+
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertEquals(
+          records.subList(0, blocks.get(0).recordCount()),
+          reader.readBlock(reader.blocks().get(0)));
+      assertChecksumMismatch(() -> reader.readBlock(reader.blocks().get(1)));
+      assertChecksumMismatch(reader::readAllParallel);
+      try {
+        reader.stream().count();
+        fail("Expected an exception");
+      } catch (UncheckedIOException e) {
+        assertTrue(e.getMessage(), e.getCause().getMessage().startsWith("Checksum mismatch"));
+      }
+    }
+
+    // Without an index, the corrupt block is skipped when scanning
+    final RecordBlock last = blocks.get(blocks.size() - 1);
+    truncate(last.payloadOffset() + last.payloadLength());
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertEquals(blocks.size() - 1, reader.blocks().size());
+      assertEquals(without(corrupt), reader.readAllParallel());
+      assertEquals(without(corrupt), reader.stream().collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void skipsBlocksWithACorruptLengthWhenScanning() throws IOException {
+    final List<RecordBlock> blocks = writeAll();
+    final RecordBlock corrupt = blocks.get(1);
+    // The payload length follows the sync marker and the one-byte record count
+    final long lengthOffset = corrupt.offset() + RecordFormat.SYNC_SIZE + 1;
+    assertEquals(
+        RecordFormat.blockHeaderSize(corrupt.recordCount(), corrupt.payloadLength()),
+        corrupt.payloadOffset() - corrupt.offset());
+    assertTrue(corrupt.recordCount() < 128);
+    flipByte(lengthOffset);
+    final RecordBlock last = blocks.get(blocks.size() - 1);
+    truncate(last.payloadOffset() + last.payloadLength());
+
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertEquals(blocks.size() - 1, reader.blocks().size());
+      assertEquals(without(corrupt), reader.readAllParallel());
+    }
+  }
+
+  @Test
+  public void rejectsCorruptIndexes() throws IOException {
+    writeAll();
+    final long size = Files.size(path);
+    // The index offset is the first field of the trailer
+    flipByte(size - RecordFormat.TRAILER_SIZE + 7);
+    assertCorruptIndex(path);
+  }
+
+  @Test
+  public void rejectsImplausibleIndexes() throws IOException {
+    final List<RecordBlock> blocks = writeAll();
+    final RecordBlock first = blocks.get(0);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final CodedOutputStream index = CodedOutputStream.newInstance(bytes);
+
+    // A negative block count, and one with more blocks than the index has room for
+    index.writeUInt32NoTag(-1);
+    index.flush();
+    assertCorruptIndex(replaceIndex(blocks, bytes.toByteArray()));
+    bytes.reset();
+    index.writeUInt32NoTag(Integer.MAX_VALUE);
+    index.flush();
+    assertCorruptIndex(replaceIndex(blocks, bytes.toByteArray()));
+
+    // A block with more records than its payload has room for
+    bytes.reset();
+    index.writeUInt32NoTag(1);
+    index.writeFixed64NoTag(first.offset());
+    index.writeUInt32NoTag(first.payloadLength() + 1);
+    index.writeUInt32NoTag(first.payloadLength());
+    index.writeFixed32NoTag(first.checksum());
+    index.flush();
+    assertCorruptIndex(replaceIndex(blocks, bytes.toByteArray()));
+
+    // An index of more than 2 GiB, in a sparse file
+    final ByteBuffer trailer =
+        ByteBuffer.allocate(RecordFormat.TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    trailer.putLong(RecordFormat.HEADER_SIZE).put(RecordFormat.INDEX_MAGIC).flip();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.write(trailer, 3L << 30);
+    }
+    assertCorruptIndex(path);
+  }
+
+  @Test
+  public void rejectsOtherFiles() throws IOException {
+    Files.write(path, new byte[64]);
+    try {
+      RecordReader.open(path, Timestamp.parser()).close();
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertEquals("Not a record file", e.getMessage());
+    }
+  }
+
+  private List<RecordBlock> writeAll() throws IOException {
+    try (RecordWriter<Timestamp> writer = RecordWriter.create(path, BLOCK_SIZE)) {
+      for (final Timestamp record : records) {
+        writer.write(record);
+      }
+    }
+    try (RecordReader<Timestamp> reader = RecordReader.open(path, Timestamp.parser())) {
+      assertTrue(reader.blocks().size() > 3);
+      return reader.blocks();
+    }
+  }
+
+  /** The records that are not in the given block. */
+  private List<Timestamp> without(final RecordBlock block) {
+    final List<Timestamp> expected = new ArrayList<>(records);
+    expected
+        .subList((int) block.firstRecord(), (int) block.firstRecord() + block.recordCount())
+        .clear();
+    return expected;
+  }
+
+  /** Copies the blocks of the file to a new file with the given index. */
+  private Path replaceIndex(final List<RecordBlock> blocks, final byte[] index)
+      throws IOException {
+    final RecordBlock last = blocks.get(blocks.size() - 1);
+    final long indexOffset = last.payloadOffset() + last.payloadLength();
+    final ByteBuffer trailer =
+        ByteBuffer.allocate(RecordFormat.TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    trailer.putLong(indexOffset).put(RecordFormat.INDEX_MAGIC).flip();
+
+    final Path copy = folder.newFile().toPath();
+    try (FileChannel in = FileChannel.open(path);
+        FileChannel out = FileChannel.open(copy, StandardOpenOption.WRITE)) {
+      in.transferTo(0, indexOffset, out);
+      out.write(ByteBuffer.wrap(index), indexOffset);
+      out.write(trailer, indexOffset + index.length);
+    }
+    return copy;
+  }
+
+  private void truncate(final long size) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(size);
+    }
+  }
+
+  private void flipByte(final long position) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      final ByteBuffer buffer = ByteBuffer.allocate(1);
+      RecordFormat.readFully(channel, buffer, position);
+      buffer.put(0, (byte) ~buffer.get(0));
+      buffer.flip();
+      channel.write(buffer, position);
+    }
+  }
+
+  private static void assertCorruptIndex(final Path path) {
+    try {
+      RecordReader.open(path, Timestamp.parser()).close();
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt record file index"));
+    }
+  }
+
+  private static void assertChecksumMismatch(final ReadAction action) {
+    try {
+      action.read();
+      fail("Expected an exception");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+    }
+  }
+
+  private interface ReadAction {
+    void read() throws IOException;
+  }
+}